@@ -1,6 +1,13 @@
 package lab.nice.nifi.dbcp;
 
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.pool.HikariPool;
+import lab.nice.nifi.dbcp.util.CallTimer;
+import lab.nice.nifi.dbcp.util.ConcurrencyLimiter;
+import lab.nice.nifi.dbcp.util.HikariCPCommons;
+import lab.nice.nifi.dbcp.util.HoldTracker;
+import lab.nice.nifi.dbcp.util.LatencyHistogram;
 import org.apache.nifi.annotation.behavior.DynamicProperty;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
@@ -9,18 +16,24 @@ import org.apache.nifi.annotation.lifecycle.OnEnabled;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.controller.AbstractControllerService;
 import org.apache.nifi.controller.ConfigurationContext;
-import org.apache.nifi.dbcp.DBCPService;
 import org.apache.nifi.expression.AttributeExpression;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.util.StandardValidators;
 import org.apache.nifi.reporting.InitializationException;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Implementation of for Database Connection Pooling Service. HikariCP is used for connection pooling functionality.
@@ -31,7 +44,7 @@ import java.util.concurrent.TimeUnit;
         description = "Specifies a property name and value to be set on the JDBC connection(s). "
                 + "If Expression Language is used, evaluation will be performed upon the controller service being enabled. "
                 + "Note that no flow file input (attributes, e.g.) is available for use in Expression Language constructs for these properties.")
-public class HikariCPConnectionPool extends AbstractControllerService implements DBCPService {
+public class HikariCPConnectionPool extends AbstractControllerService implements HikariCPStatisticsService {
 
     public static final PropertyDescriptor DATABASE_URL = new PropertyDescriptor.Builder()
             .name("Database Connection URL")
@@ -111,6 +124,88 @@ public class HikariCPConnectionPool extends AbstractControllerService implements
             .expressionLanguageSupported(true)
             .build();
 
+    public static final PropertyDescriptor ADAPTIVE_CONCURRENCY_LIMIT = new PropertyDescriptor.Builder()
+            .name("adaptive-concurrency-limit")
+            .displayName("Adaptive Concurrency Limit")
+            .description("Limit the number of connections in use by all callers of this service to an adaptive limit "
+                    + "between 'Min Concurrency Limit' and 'Max Total Connections'. The limit grows while the time a "
+                    + "connection is held stays near its observed minimum and shrinks once calls queue up in the "
+                    + "database (TCP Vegas style). Callers above the limit wait up to 'Max Wait Time' in total, including the "
+                    + "wait for a pooled connection, and then fail with a ProcessException caused by a "
+                    + "SQLTransientConnectionException, which processors can treat as overload and yield on.")
+            .defaultValue(HikariCPCommons.BOOLEAN_FALSE.getValue())
+            .required(true)
+            .allowableValues(HikariCPCommons.BOOLEAN_TRUE, HikariCPCommons.BOOLEAN_FALSE)
+            .build();
+
+    public static final PropertyDescriptor MIN_CONCURRENCY_LIMIT = new PropertyDescriptor.Builder()
+            .name("min-concurrency-limit")
+            .displayName("Min Concurrency Limit")
+            .description("The lower bound of the adaptive concurrency limit.")
+            .defaultValue("1")
+            .required(true)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor CALL_TIMING_SAMPLE_RATE = new PropertyDescriptor.Builder()
+            .name("call-timing-sample-rate")
+            .displayName("Call Timing Sample Rate")
+            .description("The percentage of statements and commits whose JDBC calls are timed, 0 disables timing. "
+                    + "prepareCall/prepareStatement, execute, getMoreResults and ResultSet.next of a sampled statement "
+                    + "and commit/rollback are recorded into latency histograms by SQL text, which processors and "
+                    + "reporting tasks sharing this service can read through HikariCPStatisticsService. Statements "
+                    + "not sampled are not wrapped, keep the rate low to keep the overhead small on busy pools.")
+            .defaultValue("0")
+            .required(true)
+            .addValidator(StandardValidators.createLongValidator(0, 100, true))
+            .build();
+
+    public static final PropertyDescriptor CALL_TIMING_MAX_STATEMENTS = new PropertyDescriptor.Builder()
+            .name("call-timing-max-statements")
+            .displayName("Call Timing Max Statements")
+            .description("The maximum number of distinct SQL texts call timings are kept for, calls of further "
+                    + "statements are recorded together under '" + CallTimer.OTHER_KEY + "'.")
+            .defaultValue("256")
+            .required(true)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor HOLD_TIME_TRACKING = new PropertyDescriptor.Builder()
+            .name("hold-time-tracking")
+            .displayName("Hold Time Tracking")
+            .description("Track how long each borrower holds connections. Hold times are recorded into histograms by "
+                    + "borrower, the first calling class outside of this service, e.g. the processor class, qualified "
+                    + "by the component identifier if obtained through "
+                    + "HikariCPStatisticsService.getConnection(String). Enables 'Leak Detection Threshold' and "
+                    + "'Max Borrower Share'.")
+            .defaultValue(HikariCPCommons.BOOLEAN_FALSE.getValue())
+            .required(true)
+            .allowableValues(HikariCPCommons.BOOLEAN_TRUE, HikariCPCommons.BOOLEAN_FALSE)
+            .build();
+
+    public static final PropertyDescriptor LEAK_DETECTION_THRESHOLD = new PropertyDescriptor.Builder()
+            .name("leak-detection-threshold")
+            .displayName("Leak Detection Threshold")
+            .description("A connection held longer than this time is reported once as possible leak, with the stack "
+                    + "trace of its borrow, as warning bulletin of this service. Not reported if not set. Only "
+                    + "applicable if 'Hold Time Tracking' is true.")
+            .required(false)
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor MAX_BORROWER_SHARE = new PropertyDescriptor.Builder()
+            .name("max-borrower-share")
+            .displayName("Max Borrower Share")
+            .description("The percentage of 'Max Total Connections' a single borrower may hold at once, a borrower "
+                    + "exceeding it is reported as warning bulletin of this service. Not reported if not set. Only "
+                    + "applicable if 'Hold Time Tracking' is true.")
+            .required(false)
+            .addValidator(StandardValidators.createLongValidator(1, 100, true))
+            .build();
+
+    private static final long LEAK_CHECK_MIN_PERIOD_MILLIS = 100L;
+    private static final long LEAK_CHECK_MAX_PERIOD_MILLIS = 1000L;
+
     private static final List<PropertyDescriptor> properties;
 
     static {
@@ -123,11 +218,23 @@ public class HikariCPConnectionPool extends AbstractControllerService implements
         props.add(MAX_WAIT_TIME);
         props.add(MAX_TOTAL_CONNECTIONS);
         props.add(VALIDATION_QUERY);
+        props.add(ADAPTIVE_CONCURRENCY_LIMIT);
+        props.add(MIN_CONCURRENCY_LIMIT);
+        props.add(CALL_TIMING_SAMPLE_RATE);
+        props.add(CALL_TIMING_MAX_STATEMENTS);
+        props.add(HOLD_TIME_TRACKING);
+        props.add(LEAK_DETECTION_THRESHOLD);
+        props.add(MAX_BORROWER_SHARE);
 
         properties = Collections.unmodifiableList(props);
     }
 
     private volatile HikariDataSource hikariDataSource;
+    private volatile ConcurrencyLimiter concurrencyLimiter;
+    private volatile CallTimer callTimer;
+    private volatile HoldTracker holdTracker;
+    private volatile ScheduledExecutorService leakDetector;
+    private volatile long maxWaitMillis;
 
     @Override
     protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
@@ -175,6 +282,41 @@ public class HikariCPConnectionPool extends AbstractControllerService implements
 
         hikariDataSource.setConnectionTimeout(maxWaitMillis);
         hikariDataSource.setMaximumPoolSize(maxTotal);
+        this.maxWaitMillis = maxWaitMillis;
+        if (context.getProperty(ADAPTIVE_CONCURRENCY_LIMIT).asBoolean()) {
+            concurrencyLimiter = new ConcurrencyLimiter(context.getProperty(MIN_CONCURRENCY_LIMIT).asInteger(), maxTotal);
+        } else {
+            concurrencyLimiter = null;
+        }
+
+        final int sampleRate = context.getProperty(CALL_TIMING_SAMPLE_RATE).asInteger();
+        if (sampleRate > 0) {
+            callTimer = new CallTimer(sampleRate / 100.0, context.getProperty(CALL_TIMING_MAX_STATEMENTS).asInteger());
+        } else {
+            callTimer = null;
+        }
+
+        if (context.getProperty(HOLD_TIME_TRACKING).asBoolean()) {
+            final long leakThresholdMillis = context.getProperty(LEAK_DETECTION_THRESHOLD).isSet()
+                    ? context.getProperty(LEAK_DETECTION_THRESHOLD).asTimePeriod(TimeUnit.MILLISECONDS) : 0L;
+            final int maxShare = context.getProperty(MAX_BORROWER_SHARE).isSet()
+                    ? context.getProperty(MAX_BORROWER_SHARE).asInteger() : 0;
+            final HoldTracker tracker = new HoldTracker(getLogger(), leakThresholdMillis, TimeUnit.MILLISECONDS,
+                    maxShare, maxTotal);
+            holdTracker = tracker;
+            if (leakThresholdMillis > 0) {
+                final long period = Math.max(LEAK_CHECK_MIN_PERIOD_MILLIS,
+                        Math.min(LEAK_CHECK_MAX_PERIOD_MILLIS, leakThresholdMillis / 2));
+                leakDetector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    final Thread thread = new Thread(runnable, "HikariCPConnectionPool-" + getIdentifier() + "-leaks");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                leakDetector.scheduleWithFixedDelay(tracker::checkLeaks, period, period, TimeUnit.MILLISECONDS);
+            }
+        } else {
+            holdTracker = null;
+        }
 
         if (validationQuery != null && !validationQuery.isEmpty()) {
             hikariDataSource.setConnectionTestQuery(validationQuery);
@@ -195,16 +337,127 @@ public class HikariCPConnectionPool extends AbstractControllerService implements
      */
     @OnDisabled
     public void shutdown() {
+        if (leakDetector != null) {
+            leakDetector.shutdownNow();
+            leakDetector = null;
+        }
         hikariDataSource.close();
     }
 
     @Override
     public Connection getConnection() throws ProcessException {
+        return getConnection(null);
+    }
+
+    @Override
+    public Connection getConnection(final String borrowerId) throws ProcessException {
+        final ConcurrencyLimiter limiter = concurrencyLimiter;
+        if (limiter == null) {
+            try {
+                return wrapConnection(hikariDataSource.getConnection(), borrowerId);
+            } catch (final SQLException e) {
+                throw new ProcessException(e);
+            }
+        }
+        final long start = System.nanoTime();
         try {
-            return hikariDataSource.getConnection();
-        } catch (final SQLException e) {
+            if (!limiter.acquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                final String message = "Concurrency limit " + limiter.getLimit() + " of " + this
+                        + " reached, no connection available within " + maxWaitMillis + " millis";
+                throw new ProcessException(message, new SQLTransientConnectionException(message));
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new ProcessException(e);
         }
+        final Connection connection;
+        try {
+            connection = borrow(maxWaitMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (final SQLException | RuntimeException e) {
+            limiter.abort();
+            throw e instanceof SQLException ? new ProcessException(e) : (RuntimeException) e;
+        }
+        return limitedConnection(wrapConnection(connection, borrowerId), limiter);
+    }
+
+    /**
+     * Borrow a connection from the pool waiting at most the given time, so that the wait for the concurrency limit
+     * and the wait for a pooled connection together do not exceed 'Max Wait Time'. The pool is started by the first
+     * borrow, which waits for the configured connection timeout.
+     */
+    private Connection borrow(final long remainingMillis) throws SQLException {
+        final HikariPoolMXBean pool = hikariDataSource.getHikariPoolMXBean();
+        if (maxWaitMillis > 0 && pool instanceof HikariPool) {
+            return ((HikariPool) pool).getConnection(Math.max(0L, remainingMillis));
+        }
+        return hikariDataSource.getConnection();
+    }
+
+    /**
+     * @return the current adaptive concurrency limit, -1 if not enabled
+     * @see HikariCPConnectionPool#ADAPTIVE_CONCURRENCY_LIMIT
+     */
+    @Override
+    public int getConcurrencyLimit() {
+        final ConcurrencyLimiter limiter = concurrencyLimiter;
+        return limiter == null ? -1 : limiter.getLimit();
+    }
+
+    /**
+     * @return the summaries of the JDBC call timings by SQL text and method name, empty if call timing is not enabled
+     * @see HikariCPConnectionPool#CALL_TIMING_SAMPLE_RATE
+     */
+    @Override
+    public Map<String, Map<String, LatencyHistogram.Summary>> getCallTimings() {
+        final CallTimer timer = callTimer;
+        return timer == null ? Collections.emptyMap() : timer.summaries();
+    }
+
+    /**
+     * @return the summaries of the connection hold times by borrower, empty if hold time tracking is not enabled
+     * @see HikariCPConnectionPool#HOLD_TIME_TRACKING
+     */
+    @Override
+    public Map<String, LatencyHistogram.Summary> getHoldTimes() {
+        final HoldTracker tracker = holdTracker;
+        return tracker == null ? Collections.emptyMap() : tracker.holdTimes();
+    }
+
+    /**
+     * @return the number of connections currently held by borrower, empty if hold time tracking is not enabled
+     * @see HikariCPConnectionPool#HOLD_TIME_TRACKING
+     */
+    @Override
+    public Map<String, Integer> getHeldConnections() {
+        final HoldTracker tracker = holdTracker;
+        return tracker == null ? Collections.emptyMap() : tracker.heldConnections();
+    }
+
+    private Connection wrapConnection(final Connection connection, final String borrowerId) {
+        final CallTimer timer = callTimer;
+        final HoldTracker tracker = holdTracker;
+        final Connection timed = timer == null ? connection : timer.wrap(connection);
+        return tracker == null ? timed : tracker.wrap(timed, borrowerId);
+    }
+
+    /**
+     * Wrap a connection to complete its admitted call with the time the connection was held once it is closed.
+     */
+    private static Connection limitedConnection(final Connection connection, final ConcurrencyLimiter limiter) {
+        final long start = System.nanoTime();
+        final AtomicBoolean released = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(HikariCPConnectionPool.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (final InvocationTargetException e) {
+                        throw e.getCause();
+                    } finally {
+                        if ("close".equals(method.getName()) && released.compareAndSet(false, true)) {
+                            limiter.release(System.nanoTime() - start);
+                        }
+                    }
+                });
     }
 
     @Override
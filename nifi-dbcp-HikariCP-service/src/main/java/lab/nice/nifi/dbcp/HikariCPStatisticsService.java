@@ -0,0 +1,46 @@
+package lab.nice.nifi.dbcp;
+
+import lab.nice.nifi.dbcp.util.LatencyHistogram;
+import org.apache.nifi.dbcp.DBCPService;
+import org.apache.nifi.processor.exception.ProcessException;
+
+import java.sql.Connection;
+import java.util.Map;
+
+/**
+ * Database Connection Pooling Service exposing the statistics of its pool. Components read the statistics through
+ * this interface, the framework only proxies the methods of the service interfaces a controller service implements.
+ */
+public interface HikariCPStatisticsService extends DBCPService {
+
+    /**
+     * Obtain a connection on behalf of a component. Hold times of the connections are tracked by borrower class and
+     * identifier, so instances of the same processor type are told apart, unlike connections obtained by
+     * {@link DBCPService#getConnection()}.
+     *
+     * @param borrowerId the identifier of the borrowing component, e.g. the processor identifier
+     * @return the connection
+     * @throws ProcessException if no connection is available
+     */
+    Connection getConnection(String borrowerId) throws ProcessException;
+
+    /**
+     * @return the current adaptive concurrency limit, -1 if not enabled
+     */
+    int getConcurrencyLimit();
+
+    /**
+     * @return the summaries of the JDBC call timings by SQL text and method name, empty if call timing is not enabled
+     */
+    Map<String, Map<String, LatencyHistogram.Summary>> getCallTimings();
+
+    /**
+     * @return the summaries of the connection hold times by borrower, empty if hold time tracking is not enabled
+     */
+    Map<String, LatencyHistogram.Summary> getHoldTimes();
+
+    /**
+     * @return the number of connections currently held by borrower, empty if hold time tracking is not enabled
+     */
+    Map<String, Integer> getHeldConnections();
+}
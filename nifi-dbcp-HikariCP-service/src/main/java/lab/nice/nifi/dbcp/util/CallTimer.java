@@ -0,0 +1,151 @@
+package lab.nice.nifi.dbcp.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Proxies JDBC connections to record the time spent in JDBC calls into {@link LatencyHistogram}s keyed by SQL text
+ * and method name: prepareCall/prepareStatement, execute*, getMoreResults and ResultSet.next of sampled statements,
+ * and commit/rollback of the connection. A statement is sampled when it is prepared, statements not sampled are
+ * returned unwrapped and cost nothing beyond the connection proxy.
+ */
+public final class CallTimer {
+    /**
+     * The SQL key of connection level calls, i.e. commit and rollback.
+     */
+    public static final String CONNECTION_KEY = "<connection>";
+    /**
+     * The SQL key of calls of statements beyond the max number of distinct statements.
+     */
+    public static final String OTHER_KEY = "<other>";
+
+    private final double sampleRate;
+    private final int maxStatements;
+    private final ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * Construct timer.
+     *
+     * @param sampleRate    the share of statements and commits timed, 0-1
+     * @param maxStatements the max number of distinct SQL texts tracked, calls of further statements are recorded
+     *                      under {@link CallTimer#OTHER_KEY}
+     */
+    public CallTimer(final double sampleRate, final int maxStatements) {
+        this.sampleRate = sampleRate;
+        this.maxStatements = maxStatements;
+    }
+
+    /**
+     * Wrap a connection to time its calls.
+     *
+     * @param connection the connection borrowed from the pool
+     * @return the timed connection, closing it closes the given connection
+     */
+    public Connection wrap(final Connection connection) {
+        return (Connection) proxy(Connection.class, connection, (method, args) -> {
+            final String name = method.getName();
+            if (("prepareCall".equals(name) || "prepareStatement".equals(name)) && sample()) {
+                final String sql = (String) args[0];
+                final Object statement = timed(sql, name, method, connection, args);
+                return proxy("prepareCall".equals(name) ? CallableStatement.class : PreparedStatement.class,
+                        statement, statementHandler(statement, sql));
+            } else if ("createStatement".equals(name) && sample()) {
+                final Object statement = invoke(method, connection, args);
+                return proxy(Statement.class, statement, statementHandler(statement, null));
+            } else if (("commit".equals(name) || "rollback".equals(name)) && sample()) {
+                return timed(CONNECTION_KEY, name, method, connection, args);
+            }
+            return invoke(method, connection, args);
+        });
+    }
+
+    /**
+     * @return the summaries of all histograms by SQL text and method name
+     */
+    public Map<String, Map<String, LatencyHistogram.Summary>> summaries() {
+        final Map<String, Map<String, LatencyHistogram.Summary>> summaries = new TreeMap<>();
+        histograms.forEach((sql, methods) -> {
+            final Map<String, LatencyHistogram.Summary> methodSummaries = new TreeMap<>();
+            methods.forEach((method, histogram) -> methodSummaries.put(method, histogram.summary()));
+            summaries.put(sql, Collections.unmodifiableMap(methodSummaries));
+        });
+        return Collections.unmodifiableMap(summaries);
+    }
+
+    private Handler statementHandler(final Object statement, final String preparedSql) {
+        return (method, args) -> {
+            final String name = method.getName();
+            final String sql = null != preparedSql ? preparedSql
+                    : null != args && args.length > 0 && args[0] instanceof String ? (String) args[0] : OTHER_KEY;
+            if (name.startsWith("execute") || "getMoreResults".equals(name)) {
+                final Object result = timed(sql, name, method, statement, args);
+                return result instanceof ResultSet ? proxy(ResultSet.class, result, resultSetHandler(result, sql))
+                        : result;
+            } else if ("getResultSet".equals(name)) {
+                final Object result = invoke(method, statement, args);
+                return null == result ? null : proxy(ResultSet.class, result, resultSetHandler(result, sql));
+            }
+            return invoke(method, statement, args);
+        };
+    }
+
+    private Handler resultSetHandler(final Object resultSet, final String sql) {
+        return (method, args) -> "next".equals(method.getName())
+                ? timed(sql, "next", method, resultSet, args) : invoke(method, resultSet, args);
+    }
+
+    private boolean sample() {
+        return sampleRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    private Object timed(final String sql, final String name, final Method method, final Object target,
+                         final Object[] args) throws Throwable {
+        final long start = System.nanoTime();
+        try {
+            return invoke(method, target, args);
+        } finally {
+            histogram(sql, name).record(System.nanoTime() - start);
+        }
+    }
+
+    private LatencyHistogram histogram(final String sql, final String name) {
+        ConcurrentMap<String, LatencyHistogram> methods = histograms.get(sql);
+        if (null == methods) {
+            final String key = histograms.size() < maxStatements || CONNECTION_KEY.equals(sql) ? sql : OTHER_KEY;
+            methods = histograms.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+        }
+        return methods.computeIfAbsent(name, k -> new LatencyHistogram());
+    }
+
+    private static Object invoke(final Method method, final Object target, final Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (final InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static Object proxy(final Class<?> type, final Object target, final Handler handler) {
+        return Proxy.newProxyInstance(CallTimer.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> handler.handle(method, args));
+    }
+
+    /**
+     * Invocation handler without the proxy argument.
+     */
+    private interface Handler {
+        Object handle(Method method, Object[] args) throws Throwable;
+    }
+}
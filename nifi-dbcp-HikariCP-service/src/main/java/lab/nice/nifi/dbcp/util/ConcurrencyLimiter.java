@@ -0,0 +1,103 @@
+package lab.nice.nifi.dbcp.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adaptive concurrency limit following the TCP Vegas idea: the in-flight count is admitted up to a limit that is
+ * adjusted on every completed call by the estimated queue, {@code limit * (1 - noLoadLatency / latency)}.
+ * The limit grows while the estimated queue is small and shrinks once calls queue up in the database, so the
+ * database is kept near its peak throughput instead of thrashing. The no-load latency is the minimum observed
+ * latency, probed again every 1000 samples to follow a changing workload.
+ */
+public final class ConcurrencyLimiter {
+    private static final int PROBE_INTERVAL = 1000;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private double limit;
+    private int inFlight;
+    private long noLoadLatency = Long.MAX_VALUE;
+    private int samples;
+
+    /**
+     * Construct limiter starting at the max limit.
+     *
+     * @param minLimit the min limit, at least 1
+     * @param maxLimit the max limit
+     */
+    public ConcurrencyLimiter(final int minLimit, final int maxLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = this.maxLimit;
+    }
+
+    /**
+     * Wait until the in-flight count is below the limit and admit a call.
+     *
+     * @param timeout the max time to wait, not waiting if not positive
+     * @param unit    the unit of timeout
+     * @return true if admitted, false if the limit was still reached after timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized boolean acquire(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (inFlight >= (int) limit) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * Complete an admitted call and adjust the limit by its latency.
+     *
+     * @param latencyNanos the latency of the call
+     */
+    public synchronized void release(final long latencyNanos) {
+        final int current = inFlight--;
+        final long latency = Math.max(1L, latencyNanos);
+        if (++samples % PROBE_INTERVAL == 0) {
+            noLoadLatency = latency;
+        } else {
+            noLoadLatency = Math.min(noLoadLatency, latency);
+        }
+        final double log = Math.max(1.0, Math.log10(limit));
+        final double queue = limit * (1.0 - (double) noLoadLatency / latency);
+        if (queue < 3 * log) {
+            // only grow when the limit is actually used, an idle service says nothing about the database capacity
+            if (current * 2 >= limit) {
+                limit = Math.min(maxLimit, limit + log);
+            }
+        } else if (queue > 6 * log) {
+            limit = Math.max(minLimit, limit - log);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Complete an admitted call that did not reach the database, e.g. failed to obtain a connection, without
+     * adjusting the limit.
+     */
+    public synchronized void abort() {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * @return the current limit
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return the number of admitted calls not completed yet
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+}
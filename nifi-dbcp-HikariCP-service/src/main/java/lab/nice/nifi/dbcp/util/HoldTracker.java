@@ -0,0 +1,187 @@
+package lab.nice.nifi.dbcp.util;
+
+import org.apache.nifi.logging.ComponentLog;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Track how long borrowers hold connections: the hold time of every connection is recorded into a
+ * {@link LatencyHistogram} of its borrower, connections held longer than the leak detection threshold are reported
+ * once with the stack of their borrow, and a borrower holding more than a share of the pool is reported when it
+ * crosses the share. The borrower is the first calling class outside of the pool, the JDK, HikariCP and the
+ * controller service proxy of the framework, qualified by the identifier the caller passes, since the DBCPService
+ * API does not identify the calling component. Instances of the same class not passing an identifier are tracked as
+ * one borrower. The calling class is resolved from the stack trace of the borrow, which is only kept if leaks are
+ * detected.
+ */
+public final class HoldTracker {
+    // the controller service invocation handler of the framework sits between a processor and the service
+    private static final String[] FRAMEWORK_PREFIXES = {"lab.nice.nifi.dbcp.", "java.", "javax.", "sun.", "jdk.",
+            "com.sun.", "com.zaxxer.", "org.apache.nifi.controller.service."};
+
+    private final ComponentLog logger;
+    private final long leakThresholdNanos;
+    private final int maxHeld;
+    private final ConcurrentMap<String, LatencyHistogram> holdTimes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicInteger> held = new ConcurrentHashMap<>();
+    private final Map<Borrow, Boolean> borrows = new ConcurrentHashMap<>();
+
+    /**
+     * Construct tracker.
+     *
+     * @param logger        the logger of the pool service, its warnings raise bulletins
+     * @param leakThreshold the hold time after which a connection is reported as leaked, not reported if not positive
+     * @param unit          the unit of leakThreshold
+     * @param maxShare      the share of the pool in percent a single borrower may hold before it is reported,
+     *                      not reported if not positive
+     * @param poolSize      the max number of connections of the pool
+     */
+    public HoldTracker(final ComponentLog logger, final long leakThreshold, final TimeUnit unit, final int maxShare,
+                       final int poolSize) {
+        this.logger = logger;
+        this.leakThresholdNanos = unit.toNanos(leakThreshold);
+        this.maxHeld = maxShare > 0 ? Math.max(1, poolSize * maxShare / 100) : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Wrap a borrowed connection to track it until it is closed.
+     *
+     * @param connection the connection borrowed from the pool
+     * @return the tracked connection, closing it closes the given connection
+     */
+    public Connection wrap(final Connection connection) {
+        return wrap(connection, null);
+    }
+
+    /**
+     * Wrap a borrowed connection to track it until it is closed.
+     *
+     * @param connection the connection borrowed from the pool
+     * @param borrowerId the identifier of the borrowing component, e.g. the processor identifier, null if unknown
+     * @return the tracked connection, closing it closes the given connection
+     */
+    public Connection wrap(final Connection connection, final String borrowerId) {
+        final Throwable stack = new Throwable("Connection borrowed");
+        final Borrow borrow = new Borrow(borrower(borrower(stack.getStackTrace()), borrowerId),
+                leakThresholdNanos > 0 ? stack : null);
+        borrows.put(borrow, Boolean.TRUE);
+        final int count = held.computeIfAbsent(borrow.borrower, k -> new AtomicInteger()).incrementAndGet();
+        if (count == maxHeld + 1) {
+            logger.warn("{} holds {} connections, more than its share of the pool",
+                    new Object[]{borrow.borrower, count});
+        }
+        return (Connection) Proxy.newProxyInstance(HoldTracker.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (final InvocationTargetException e) {
+                        throw e.getCause();
+                    } finally {
+                        if ("close".equals(method.getName()) && borrow.closed.compareAndSet(false, true)) {
+                            release(borrow);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Report the connections held longer than the leak detection threshold, each connection once.
+     */
+    public void checkLeaks() {
+        if (leakThresholdNanos <= 0) {
+            return;
+        }
+        final long now = System.nanoTime();
+        for (Borrow borrow : borrows.keySet()) {
+            if (now - borrow.startNanos >= leakThresholdNanos && borrow.reported.compareAndSet(false, true)) {
+                final StringWriter writer = new StringWriter();
+                borrow.stack.printStackTrace(new PrintWriter(writer));
+                logger.warn("Possible connection leak: connection borrowed by {} held for {} millis, borrowed at {}",
+                        new Object[]{borrow.borrower, TimeUnit.NANOSECONDS.toMillis(now - borrow.startNanos), writer});
+            }
+        }
+    }
+
+    /**
+     * @return the summaries of the hold times by borrower
+     */
+    public Map<String, LatencyHistogram.Summary> holdTimes() {
+        final Map<String, LatencyHistogram.Summary> summaries = new TreeMap<>();
+        holdTimes.forEach((borrower, histogram) -> summaries.put(borrower, histogram.summary()));
+        return Collections.unmodifiableMap(summaries);
+    }
+
+    /**
+     * @return the number of connections currently held by borrower
+     */
+    public Map<String, Integer> heldConnections() {
+        final Map<String, Integer> counts = new TreeMap<>();
+        held.forEach((borrower, count) -> {
+            if (count.get() > 0) {
+                counts.put(borrower, count.get());
+            }
+        });
+        return Collections.unmodifiableMap(counts);
+    }
+
+    private void release(final Borrow borrow) {
+        final long holdNanos = System.nanoTime() - borrow.startNanos;
+        borrows.remove(borrow);
+        held.get(borrow.borrower).decrementAndGet();
+        holdTimes.computeIfAbsent(borrow.borrower, k -> new LatencyHistogram()).record(holdNanos);
+        if (borrow.reported.get()) {
+            logger.info("Connection reported as possible leak returned by {} after {} millis",
+                    new Object[]{borrow.borrower, TimeUnit.NANOSECONDS.toMillis(holdNanos)});
+        }
+    }
+
+    private static String borrower(final String callerClassName, final String borrowerId) {
+        return null == borrowerId ? callerClassName : callerClassName + "[" + borrowerId + "]";
+    }
+
+    private static String borrower(final StackTraceElement[] stack) {
+        for (StackTraceElement element : stack) {
+            if (!isFramework(element.getClassName())) {
+                return element.getClassName();
+            }
+        }
+        return "unknown";
+    }
+
+    private static boolean isFramework(final String className) {
+        for (String prefix : FRAMEWORK_PREFIXES) {
+            if (className.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A connection held by a borrower.
+     */
+    private static final class Borrow {
+        private final String borrower;
+        private final Throwable stack;
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final AtomicBoolean reported = new AtomicBoolean();
+
+        private Borrow(final String borrower, final Throwable stack) {
+            this.borrower = borrower;
+            this.stack = stack;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package lab.nice.nifi.dbcp.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with logarithmic buckets: every power of two is split into 4 buckets, so a percentile
+ * is reported as the upper bound of its bucket at most 25% above the recorded value. Recording only updates atomic
+ * counters and can be called concurrently with reading a summary.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (63 - SUB_BUCKET_BITS) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Record a latency.
+     *
+     * @param nanos the latency in nanoseconds, negative values are recorded as zero
+     */
+    public void record(final long nanos) {
+        final long value = Math.max(0L, nanos);
+        buckets.incrementAndGet(bucket(value));
+        totalNanos.add(value);
+        long max = maxNanos.get();
+        while (value > max && !maxNanos.compareAndSet(max, value)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * @return a summary of the latencies recorded so far
+     */
+    public Summary summary() {
+        final long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            count += counts[i];
+        }
+        final long max = maxNanos.get();
+        return new Summary(count, totalNanos.sum(), percentile(counts, count, 0.5, max),
+                percentile(counts, count, 0.9, max), percentile(counts, count, 0.99, max), max);
+    }
+
+    private static int bucket(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBound(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int shift = bucket / SUB_BUCKETS - 1;
+        final long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    private static long percentile(final long[] counts, final long count, final double quantile, final long max) {
+        if (count == 0) {
+            return 0L;
+        }
+        final long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Immutable summary of a histogram.
+     */
+    public static final class Summary {
+        private final long count;
+        private final long totalNanos;
+        private final long p50Nanos;
+        private final long p90Nanos;
+        private final long p99Nanos;
+        private final long maxNanos;
+
+        private Summary(final long count, final long totalNanos, final long p50Nanos, final long p90Nanos,
+                        final long p99Nanos, final long maxNanos) {
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.p50Nanos = p50Nanos;
+            this.p90Nanos = p90Nanos;
+            this.p99Nanos = p99Nanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getMeanNanos() {
+            return count == 0 ? 0L : totalNanos / count;
+        }
+
+        public long getP50Nanos() {
+            return p50Nanos;
+        }
+
+        public long getP90Nanos() {
+            return p90Nanos;
+        }
+
+        public long getP99Nanos() {
+            return p99Nanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count
+                    + ", mean=" + micros(getMeanNanos())
+                    + ", p50=" + micros(p50Nanos)
+                    + ", p90=" + micros(p90Nanos)
+                    + ", p99=" + micros(p99Nanos)
+                    + ", max=" + micros(maxNanos);
+        }
+
+        private static String micros(final long nanos) {
+            return TimeUnit.NANOSECONDS.toMicros(nanos) + "us";
+        }
+    }
+}
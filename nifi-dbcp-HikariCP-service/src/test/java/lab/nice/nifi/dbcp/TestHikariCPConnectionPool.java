@@ -0,0 +1,118 @@
+package lab.nice.nifi.dbcp;
+
+import org.apache.nifi.processor.AbstractProcessor;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.reporting.InitializationException;
+import org.apache.nifi.util.MockComponentLog;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestHikariCPConnectionPool {
+    private static final String SERVICE_ID = "hikari";
+
+    private TestRunner runner;
+    private HikariCPConnectionPool service;
+
+    @Before
+    public void setUp() throws InitializationException {
+        runner = TestRunners.newTestRunner(NoOpProcessor.class);
+        service = new HikariCPConnectionPool();
+        runner.addControllerService(SERVICE_ID, service);
+        runner.setProperty(service, HikariCPConnectionPool.DATABASE_URL, "jdbc:hsqldb:mem:" + SERVICE_ID);
+        runner.setProperty(service, HikariCPConnectionPool.DB_DRIVERNAME, "org.hsqldb.jdbc.JDBCDriver");
+        runner.setProperty(service, HikariCPConnectionPool.DB_USER, "SA");
+        runner.setProperty(service, HikariCPConnectionPool.MAX_WAIT_TIME, "250 millis");
+        runner.setProperty(service, HikariCPConnectionPool.MAX_TOTAL_CONNECTIONS, "2");
+    }
+
+    @After
+    public void tearDown() {
+        if (runner.isControllerServiceEnabled(service)) {
+            runner.disableControllerService(service);
+        }
+    }
+
+    @Test
+    public void testConcurrencyLimitReleasedOnClose() throws SQLException {
+        runner.setProperty(service, HikariCPConnectionPool.ADAPTIVE_CONCURRENCY_LIMIT, "true");
+        runner.enableControllerService(service);
+        assertEquals(2, service.getConcurrencyLimit());
+
+        final Connection first = service.getConnection();
+        final Connection second = service.getConnection();
+        assertConcurrencyLimitReached();
+
+        first.close();
+        // closing twice must not release a second admitted call
+        first.close();
+        final Connection third = service.getConnection();
+        assertConcurrencyLimitReached();
+
+        second.close();
+        third.close();
+        service.getConnection().close();
+    }
+
+    @Test
+    public void testConcurrencyLimitDisabled() {
+        runner.enableControllerService(service);
+        assertEquals(-1, service.getConcurrencyLimit());
+    }
+
+    @Test
+    public void testLeakDetector() throws SQLException, InterruptedException {
+        runner.setProperty(service, HikariCPConnectionPool.HOLD_TIME_TRACKING, "true");
+        runner.setProperty(service, HikariCPConnectionPool.LEAK_DETECTION_THRESHOLD, "50 millis");
+        runner.enableControllerService(service);
+
+        final Connection leaked = service.getConnection("processor-1");
+        service.getConnection("processor-2").close();
+        final Map<String, Integer> held = service.getHeldConnections();
+        assertEquals(held.toString(), 1, held.size());
+        assertTrue(held.toString(), held.keySet().iterator().next().endsWith("[processor-1]"));
+
+        final MockComponentLog logger = runner.getControllerServiceLogger(SERVICE_ID);
+        final long deadline = System.currentTimeMillis() + 10000L;
+        while (logger.getWarnMessages().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, logger.getWarnMessages().size());
+        final String message = logger.getWarnMessages().get(0).getMsg();
+        assertTrue(message, message.contains("Possible connection leak") && message.contains("[processor-1]"));
+
+        leaked.close();
+        assertTrue(service.getHeldConnections().isEmpty());
+        assertEquals(2, service.getHoldTimes().size());
+    }
+
+    private void assertConcurrencyLimitReached() {
+        try {
+            service.getConnection().close();
+            fail("Concurrency limit not reached");
+        } catch (final ProcessException | SQLException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Concurrency limit 2 of " + service));
+            // recognisable as overload, so that processors yield instead of failing FlowFiles
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof SQLTransientConnectionException);
+        }
+    }
+
+    public static class NoOpProcessor extends AbstractProcessor {
+        @Override
+        public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package lab.nice.nifi.dbcp.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestCallTimer {
+    private static final String QUERY = "VALUES (1), (2)";
+    private static final String OTHER_QUERY = "VALUES (3)";
+
+    private Connection connection;
+
+    @Before
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:hsqldb:mem:timer", "SA", "");
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void testStatementTimings() throws SQLException {
+        final CallTimer timer = new CallTimer(1.0, 1);
+        final Connection timed = timer.wrap(connection);
+        try (PreparedStatement statement = timed.prepareStatement(QUERY);
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                assertTrue(resultSet.getInt(1) > 0);
+            }
+        }
+        try (PreparedStatement statement = timed.prepareStatement(OTHER_QUERY)) {
+            assertTrue(statement.execute());
+            try (ResultSet resultSet = statement.getResultSet()) {
+                assertTrue(resultSet.next());
+            }
+        }
+        try (CallableStatement statement = timed.prepareCall(QUERY)) {
+            statement.execute();
+        }
+        timed.commit();
+
+        final Map<String, Map<String, LatencyHistogram.Summary>> summaries = timer.summaries();
+        assertEquals(summaries.toString(), 3, summaries.size());
+        final Map<String, LatencyHistogram.Summary> query = summaries.get(QUERY);
+        assertEquals(1L, query.get("prepareStatement").getCount());
+        assertEquals(1L, query.get("prepareCall").getCount());
+        assertEquals(1L, query.get("executeQuery").getCount());
+        assertEquals(1L, query.get("execute").getCount());
+        // two rows and the end of the result set
+        assertEquals(3L, query.get("next").getCount());
+
+        // statements beyond max statements are recorded together
+        final Map<String, LatencyHistogram.Summary> other = summaries.get(CallTimer.OTHER_KEY);
+        assertEquals(1L, other.get("prepareStatement").getCount());
+        assertEquals(1L, other.get("execute").getCount());
+        assertEquals(1L, other.get("next").getCount());
+
+        assertEquals(1L, summaries.get(CallTimer.CONNECTION_KEY).get("commit").getCount());
+    }
+
+    @Test
+    public void testCreatedStatement() throws SQLException {
+        final CallTimer timer = new CallTimer(1.0, 8);
+        try (Statement statement = timer.wrap(connection).createStatement();
+             ResultSet resultSet = statement.executeQuery(QUERY)) {
+            assertTrue(resultSet.next());
+        }
+        final Map<String, LatencyHistogram.Summary> query = timer.summaries().get(QUERY);
+        assertEquals(1L, query.get("executeQuery").getCount());
+        assertEquals(1L, query.get("next").getCount());
+    }
+
+    @Test
+    public void testNotSampled() throws SQLException {
+        final CallTimer timer = new CallTimer(0.0, 8);
+        final Connection timed = timer.wrap(connection);
+        try (PreparedStatement statement = timed.prepareStatement(QUERY)) {
+            assertFalse(Proxy.isProxyClass(statement.getClass()));
+            statement.executeQuery().close();
+        }
+        timed.commit();
+        assertTrue(timer.summaries().isEmpty());
+    }
+}
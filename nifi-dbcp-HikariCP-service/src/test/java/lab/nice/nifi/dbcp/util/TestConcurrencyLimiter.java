@@ -0,0 +1,119 @@
+package lab.nice.nifi.dbcp.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestConcurrencyLimiter {
+    private static final long NO_LOAD_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long QUEUED_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Test
+    public void testBounds() {
+        assertEquals(8, new ConcurrencyLimiter(2, 8).getLimit());
+        assertEquals(1, new ConcurrencyLimiter(0, 0).getLimit());
+        assertEquals(4, new ConcurrencyLimiter(4, 2).getLimit());
+    }
+
+    @Test
+    public void testDecrease() throws InterruptedException {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 10);
+        call(limiter, NO_LOAD_NANOS);
+        assertEquals(10, limiter.getLimit());
+
+        call(limiter, QUEUED_NANOS);
+        assertEquals(9, limiter.getLimit());
+        // shrinks until the estimated queue is within 3-6 calls
+        for (int i = 0; i < 20; i++) {
+            call(limiter, QUEUED_NANOS);
+        }
+        assertEquals(6, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+
+        final ConcurrencyLimiter bounded = new ConcurrencyLimiter(8, 20);
+        call(bounded, NO_LOAD_NANOS);
+        for (int i = 0; i < 40; i++) {
+            call(bounded, QUEUED_NANOS);
+        }
+        assertEquals(8, bounded.getLimit());
+    }
+
+    @Test
+    public void testIncrease() throws InterruptedException {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 10);
+        call(limiter, NO_LOAD_NANOS);
+        for (int i = 0; i < 4; i++) {
+            call(limiter, QUEUED_NANOS);
+        }
+        assertEquals(6, limiter.getLimit());
+
+        // a single call does not use half of the limit, the limit is not grown by an idle service
+        call(limiter, NO_LOAD_NANOS);
+        assertEquals(6, limiter.getLimit());
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.acquire(0, TimeUnit.MILLISECONDS));
+        }
+        limiter.release(NO_LOAD_NANOS);
+        assertEquals(7, limiter.getLimit());
+
+        for (int i = 0; i < 10; i++) {
+            while (limiter.acquire(0, TimeUnit.MILLISECONDS)) {
+                assertTrue(limiter.getInFlight() <= limiter.getLimit());
+            }
+            while (limiter.getInFlight() > 0) {
+                limiter.release(NO_LOAD_NANOS);
+            }
+        }
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @Test
+    public void testBlockAndRelease() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1);
+        assertTrue(limiter.acquire(0, TimeUnit.MILLISECONDS));
+        assertFalse(limiter.acquire(0, TimeUnit.MILLISECONDS));
+        assertFalse(limiter.acquire(20, TimeUnit.MILLISECONDS));
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final CountDownLatch started = new CountDownLatch(1);
+            final Future<Boolean> waiting = executor.submit(() -> {
+                started.countDown();
+                return limiter.acquire(10, TimeUnit.SECONDS);
+            });
+            started.await();
+            Thread.sleep(50);
+            assertFalse(waiting.isDone());
+
+            limiter.release(NO_LOAD_NANOS);
+            assertTrue(waiting.get(10, TimeUnit.SECONDS));
+            assertEquals(1, limiter.getInFlight());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAbort() throws InterruptedException {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 4);
+        call(limiter, NO_LOAD_NANOS);
+        assertTrue(limiter.acquire(0, TimeUnit.MILLISECONDS));
+        limiter.abort();
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(4, limiter.getLimit());
+    }
+
+    private static void call(final ConcurrencyLimiter limiter, final long latencyNanos) throws InterruptedException {
+        assertTrue(limiter.acquire(0, TimeUnit.MILLISECONDS));
+        limiter.release(latencyNanos);
+    }
+}
@@ -0,0 +1,112 @@
+package lab.nice.nifi.dbcp.util;
+
+import org.apache.nifi.util.MockComponentLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestHoldTracker {
+    // the classes of the pool are skipped when resolving the borrower, the borrower of this test is its JUnit caller
+    private static final String BORROWER = "org.junit.runners.model.FrameworkMethod$1";
+
+    private MockComponentLog logger;
+    private Connection connection;
+
+    @Before
+    public void setUp() throws SQLException {
+        logger = new MockComponentLog("pool", this);
+        connection = DriverManager.getConnection("jdbc:hsqldb:mem:tracker", "SA", "");
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void testHoldTimes() throws SQLException {
+        final HoldTracker tracker = new HoldTracker(logger, 0, TimeUnit.MILLISECONDS, 0, 8);
+        final Connection first = tracker.wrap(connection);
+        final Connection second = tracker.wrap(connection);
+        assertEquals(2, tracker.heldConnections().get(BORROWER).intValue());
+
+        first.close();
+        // closing twice must not release the borrow again
+        first.close();
+        assertEquals(1, tracker.heldConnections().get(BORROWER).intValue());
+        assertEquals(1L, tracker.holdTimes().get(BORROWER).getCount());
+
+        second.close();
+        assertTrue(tracker.heldConnections().isEmpty());
+        assertEquals(2L, tracker.holdTimes().get(BORROWER).getCount());
+
+        // leaks are not detected without threshold
+        tracker.wrap(connection);
+        tracker.checkLeaks();
+        assertTrue(logger.getWarnMessages().isEmpty());
+    }
+
+    @Test
+    public void testBorrowerIds() throws SQLException {
+        final HoldTracker tracker = new HoldTracker(logger, 0, TimeUnit.MILLISECONDS, 0, 8);
+        final Connection first = tracker.wrap(connection, "first");
+        final Connection second = tracker.wrap(connection, "second");
+        tracker.wrap(connection, "second");
+        final Map<String, Integer> held = tracker.heldConnections();
+        assertEquals(held.toString(), 2, held.size());
+        assertEquals(1, held.get(BORROWER + "[first]").intValue());
+        assertEquals(2, held.get(BORROWER + "[second]").intValue());
+
+        first.close();
+        second.close();
+        assertEquals(1L, tracker.holdTimes().get(BORROWER + "[first]").getCount());
+        assertEquals(1L, tracker.holdTimes().get(BORROWER + "[second]").getCount());
+    }
+
+    @Test
+    public void testMaxShare() {
+        final HoldTracker tracker = new HoldTracker(logger, 0, TimeUnit.MILLISECONDS, 50, 4);
+        tracker.wrap(connection, "first");
+        tracker.wrap(connection, "first");
+        tracker.wrap(connection, "second");
+        assertTrue(logger.getWarnMessages().isEmpty());
+
+        tracker.wrap(connection, "first");
+        tracker.wrap(connection, "first");
+        assertEquals(1, logger.getWarnMessages().size());
+        assertTrue(logger.getWarnMessages().get(0).getMsg(),
+                logger.getWarnMessages().get(0).getMsg().contains(BORROWER + "[first] holds 3 connections"));
+    }
+
+    @Test
+    public void testLeakDetection() throws SQLException, InterruptedException {
+        final HoldTracker tracker = new HoldTracker(logger, 20, TimeUnit.MILLISECONDS, 0, 8);
+        final Connection leaked = tracker.wrap(connection, "leaking");
+        tracker.checkLeaks();
+        assertTrue(logger.getWarnMessages().isEmpty());
+
+        Thread.sleep(50);
+        tracker.checkLeaks();
+        assertEquals(1, logger.getWarnMessages().size());
+        final String message = logger.getWarnMessages().get(0).getMsg();
+        assertTrue(message, message.contains("Possible connection leak: connection borrowed by " + BORROWER + "[leaking]"));
+        assertTrue(message, message.contains("at " + TestHoldTracker.class.getName() + ".testLeakDetection"));
+
+        // reported once
+        tracker.checkLeaks();
+        assertEquals(1, logger.getWarnMessages().size());
+
+        leaked.close();
+        assertEquals(1, logger.getInfoMessages().size());
+        assertTrue(tracker.heldConnections().isEmpty());
+    }
+}
@@ -0,0 +1,95 @@
+package lab.nice.nifi.dbcp.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestLatencyHistogram {
+
+    @Test
+    public void testEmpty() {
+        final LatencyHistogram.Summary summary = new LatencyHistogram().summary();
+        assertEquals(0L, summary.getCount());
+        assertEquals(0L, summary.getMeanNanos());
+        assertEquals(0L, summary.getP50Nanos());
+        assertEquals(0L, summary.getP99Nanos());
+        assertEquals(0L, summary.getMaxNanos());
+    }
+
+    @Test
+    public void testPercentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        final LatencyHistogram.Summary summary = histogram.summary();
+        assertEquals(100L, summary.getCount());
+        assertEquals(5050L, summary.getTotalNanos());
+        assertEquals(50L, summary.getMeanNanos());
+        // upper bounds of the buckets 48-55 and 80-95, p99 falls into 96-111 and is capped by the max
+        assertEquals(55L, summary.getP50Nanos());
+        assertEquals(95L, summary.getP90Nanos());
+        assertEquals(100L, summary.getP99Nanos());
+        assertEquals(100L, summary.getMaxNanos());
+    }
+
+    @Test
+    public void testBucketError() {
+        for (long value = 1; value > 0 && value < Long.MAX_VALUE / 4; value = value * 3 + 1) {
+            final LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(value);
+            histogram.record(value);
+            histogram.record(Long.MAX_VALUE / 2);
+            final long p50 = histogram.summary().getP50Nanos();
+            assertTrue(value + " reported as " + p50, p50 >= value && p50 <= value + value / 4);
+        }
+    }
+
+    @Test
+    public void testSmallAndNegativeValues() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(0);
+        histogram.record(3);
+        final LatencyHistogram.Summary summary = histogram.summary();
+        assertEquals(3L, summary.getCount());
+        assertEquals(3L, summary.getTotalNanos());
+        assertEquals(0L, summary.getP50Nanos());
+        assertEquals(3L, summary.getP99Nanos());
+        assertEquals(3L, summary.getMaxNanos());
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final long offset = t;
+                futures.add(executor.submit(() -> {
+                    for (long i = 0; i < 10000; i++) {
+                        histogram.record(i * 4 + offset);
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        final LatencyHistogram.Summary summary = histogram.summary();
+        assertEquals(40000L, summary.getCount());
+        assertEquals(39999L * 40000L / 2, summary.getTotalNanos());
+        assertEquals(39999L, summary.getMaxNanos());
+    }
+}
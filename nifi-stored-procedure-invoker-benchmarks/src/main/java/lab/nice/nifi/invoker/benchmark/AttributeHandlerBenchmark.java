@@ -0,0 +1,63 @@
+package lab.nice.nifi.invoker.benchmark;
+
+import lab.nice.nifi.invoker.common.Parameter;
+import lab.nice.nifi.invoker.util.AttributeHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parameter retrieval from FlowFile attributes, with FlowFile-like attribute maps that also contain unrelated
+ * attributes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AttributeHandlerBenchmark {
+    private static final int UNRELATED_ATTRIBUTES = 16;
+
+    @Param({"1", "4", "16"})
+    private int parameterCount;
+
+    private Map<String, String> attributes;
+
+    @Setup
+    public void setUp() {
+        attributes = new HashMap<>();
+        for (int i = 0; i < UNRELATED_ATTRIBUTES; i++) {
+            attributes.put("attribute." + i, "value." + i);
+        }
+        for (int i = 1; i <= parameterCount; i++) {
+            if (i % 2 == 0) {
+                attributes.put("procedure.args.out." + i + ".type", "4");
+                attributes.put("procedure.args.out." + i + ".name", "OUT_" + i);
+            } else {
+                attributes.put("procedure.args.in." + i + ".type", "93");
+                attributes.put("procedure.args.in." + i + ".value", "2019-10-01 12:30:45.123");
+                attributes.put("procedure.args.in." + i + ".format", "yyyy-MM-dd HH:mm:ss.SSS");
+            }
+        }
+    }
+
+    @Benchmark
+    public Map<Integer, Parameter> retrieveProcedureParameter() {
+        final Map<Integer, Parameter> parameters = new HashMap<>();
+        AttributeHandler.retrieveProcedureParameter(attributes, parameters);
+        return parameters;
+    }
+}
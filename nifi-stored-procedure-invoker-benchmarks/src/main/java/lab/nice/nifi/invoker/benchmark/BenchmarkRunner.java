@@ -0,0 +1,38 @@
+package lab.nice.nifi.invoker.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run the benchmarks with the GC profiler, so allocation rate (gc.alloc.rate.norm, bytes per operation) is reported
+ * next to throughput. Results are also written as JSON to jmh-result.json.
+ * Regular JMH command line options are supported, e.g. a benchmark name pattern:
+ * <pre>
+ * java -jar target/benchmarks.jar JsonHandlerBenchmark -p shape=wide
+ * </pre>
+ */
+public final class BenchmarkRunner {
+    private BenchmarkRunner() {
+    }
+
+    public static void main(final String[] args) throws RunnerException, CommandLineOptionException {
+        final CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        final OptionsBuilder builder = new OptionsBuilder();
+        if (commandLineOptions.getIncludes().isEmpty()) {
+            builder.include(BenchmarkRunner.class.getPackage().getName() + ".*Benchmark");
+        }
+        final Options options = builder
+                .parent(commandLineOptions)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("jmh-result.json")
+                .build();
+        new Runner(options).run();
+    }
+}
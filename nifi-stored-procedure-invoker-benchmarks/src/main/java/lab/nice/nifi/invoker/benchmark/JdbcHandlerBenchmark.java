@@ -0,0 +1,102 @@
+package lab.nice.nifi.invoker.benchmark;
+
+import lab.nice.nifi.invoker.common.Parameter;
+import lab.nice.nifi.invoker.common.ParameterTypes;
+import lab.nice.nifi.invoker.stub.StubDriver;
+import lab.nice.nifi.invoker.util.JdbcHandler;
+import lab.nice.nifi.invoker.util.LobHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.JDBCType;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Binding of a single IN parameter per JDBC type on a stub CallableStatement, values are given as they arrive in
+ * FlowFile attributes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JdbcHandlerBenchmark {
+    @Param({"INTEGER", "DECIMAL", "VARCHAR", "DATE", "TIMESTAMP", "BINARY", "CLOB"})
+    private String jdbcType;
+
+    private Connection connection;
+    private CallableStatement statement;
+    private LobHandler lobHandler;
+    private Parameter parameter;
+
+    @Setup
+    public void setUp() throws SQLException {
+        StubDriver.register();
+        connection = DriverManager.getConnection(StubDriver.URL_PREFIX);
+        statement = connection.prepareCall("{call bench(?)}");
+        lobHandler = new LobHandler(statement);
+        final JDBCType type = JDBCType.valueOf(jdbcType);
+        parameter = new Parameter(ParameterTypes.PROCEDURE_TYPE_IN, 1, type.getVendorTypeNumber());
+        switch (type) {
+            case INTEGER:
+                parameter.setValue("123456");
+                break;
+            case DECIMAL:
+                parameter.setValue("123456.789");
+                break;
+            case DATE:
+                parameter.setValue("2019-10-01");
+                break;
+            case TIMESTAMP:
+                parameter.setValue("2019-10-01 12:30:45.123");
+                parameter.setFormat("yyyy-MM-dd HH:mm:ss.SSS");
+                break;
+            case BINARY:
+                parameter.setValue("0123456789abcdef0123456789abcdef");
+                parameter.setFormat("hex");
+                break;
+            case CLOB:
+                parameter.setValue(repeat('c', 4096));
+                break;
+            default:
+                parameter.setValue("a varchar value");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        lobHandler.close();
+        statement.close();
+        connection.close();
+    }
+
+    @Benchmark
+    public CallableStatement applyParameter() throws SQLException, ParseException, IOException {
+        JdbcHandler.applyParameter(statement, lobHandler, parameter);
+        return statement;
+    }
+
+    static String repeat(final char c, final int length) {
+        final char[] chars = new char[length];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
@@ -0,0 +1,110 @@
+package lab.nice.nifi.invoker.benchmark;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import lab.nice.nifi.invoker.stub.StubDriver;
+import lab.nice.nifi.invoker.util.JsonHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streaming a stub result set into JSON, the output is discarded.
+ * The narrow shape is many small rows, the wide shape is fewer rows of many mixed type columns and a CLOB, the remote
+ * shape is the wide shape with a fetch latency of 1 ms per block of 10 rows. A pipeline size greater than 0 fetches
+ * rows on a separated thread while encoding. The encoding is textual JSON or binary Smile/CBOR.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonHandlerBenchmark {
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(final int b) {
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+        }
+    };
+
+    @Param({"narrow", "wide", "remote"})
+    private String shape;
+
+    @Param({"0", "64"})
+    private int pipelineSize;
+
+    @Param({"json", "smile", "cbor"})
+    private String encoding;
+
+    private ObjectMapper objectMapper;
+    private ExecutorService executor;
+    private Connection connection;
+    private CallableStatement statement;
+
+    @Setup
+    public void setUp() throws SQLException {
+        StubDriver.register();
+        if ("smile".equals(encoding)) {
+            objectMapper = new ObjectMapper(new SmileFactory());
+        } else if ("cbor".equals(encoding)) {
+            objectMapper = new ObjectMapper(new CBORFactory());
+        } else {
+            objectMapper = new ObjectMapper();
+        }
+        final String url;
+        if ("wide".equals(shape) || "remote".equals(shape)) {
+            url = StubDriver.URL_PREFIX + "rows=100;columns=32;lobColumns=1;lobLength=4096;"
+                    + "columnTypes=VARCHAR,INTEGER,DECIMAL,TIMESTAMP,DOUBLE,DATE"
+                    + ("remote".equals(shape) ? ";fetchLatency=fixed(1)" : "");
+        } else {
+            url = StubDriver.URL_PREFIX + "rows=1000;columns=4;columnTypes=VARCHAR,INTEGER";
+        }
+        executor = Executors.newSingleThreadExecutor();
+        connection = DriverManager.getConnection(url);
+        statement = connection.prepareCall("{call bench()}");
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        statement.close();
+        connection.close();
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public JsonGenerator retrieveResultSet() throws SQLException, IOException {
+        statement.execute();
+        statement.getMoreResults();
+        try (JsonGenerator jsonGenerator = objectMapper.getFactory()
+                .createGenerator(DISCARD, JsonEncoding.UTF8)) {
+            JsonHandler.retrieveResultSet(statement.getResultSet(), jsonGenerator, executor, pipelineSize, null);
+            return jsonGenerator;
+        }
+    }
+}
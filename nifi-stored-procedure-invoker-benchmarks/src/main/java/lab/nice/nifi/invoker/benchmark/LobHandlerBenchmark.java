@@ -0,0 +1,67 @@
+package lab.nice.nifi.invoker.benchmark;
+
+import lab.nice.nifi.invoker.stub.StubDriver;
+import lab.nice.nifi.invoker.util.LobHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CLOB creation from a character stream, the stub CLOB keeps its content in memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LobHandlerBenchmark {
+    @Param({"256", "65536"})
+    private int length;
+
+    private Connection connection;
+    private CallableStatement statement;
+    private LobHandler lobHandler;
+    private String value;
+
+    @Setup
+    public void setUp() throws SQLException {
+        StubDriver.register();
+        connection = DriverManager.getConnection(StubDriver.URL_PREFIX);
+        statement = connection.prepareCall("{call bench(?)}");
+        lobHandler = new LobHandler(statement);
+        value = JdbcHandlerBenchmark.repeat('c', length);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        lobHandler.close();
+        statement.close();
+        connection.close();
+    }
+
+    @Benchmark
+    public Clob clob() throws SQLException, IOException {
+        final Clob clob = lobHandler.clob(new StringReader(value));
+        clob.free();
+        return clob;
+    }
+}
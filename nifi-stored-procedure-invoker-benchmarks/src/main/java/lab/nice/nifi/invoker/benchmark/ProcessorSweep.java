@@ -0,0 +1,383 @@
+package lab.nice.nifi.invoker.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lab.nice.nifi.dbcp.HikariCPConnectionPool;
+import lab.nice.nifi.invoker.ExecuteStoredProcedure;
+import lab.nice.nifi.invoker.stub.StubDriver;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSessionFactory;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.reporting.InitializationException;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * End-to-end throughput sweep of {@link ExecuteStoredProcedure} on {@link TestRunners} with a
+ * {@link HikariCPConnectionPool} over the stub JDBC driver. Every combination of concurrent tasks, pool size,
+ * parameter count and result set rows is warmed up, then measured for FlowFiles per second, trigger latency
+ * percentiles and bytes allocated per FlowFile. Results are written as JSON.
+ * <p>
+ * The sweep is configured by system properties, lists are comma separated:
+ * <ul>
+ * <li>sweep.threads - concurrent tasks. Default 1,4,8</li>
+ * <li>sweep.poolSizes - maximum connections of the pool. Default 2,8</li>
+ * <li>sweep.parameters - IN parameters of each call, one OUT parameter is always added. Default 2,16</li>
+ * <li>sweep.rows - rows of the returned result set. Default 10,1000</li>
+ * <li>sweep.flowFiles - measured FlowFiles of each combination. Default 2000</li>
+ * <li>sweep.latency - stub execution latency, see the stub driver. Default fixed(1)</li>
+ * <li>sweep.output - the JSON result file. Default sweep-result.json</li>
+ * </ul>
+ * <pre>
+ * java -Dsweep.threads=1,16 -cp target/benchmarks.jar lab.nice.nifi.invoker.benchmark.ProcessorSweep
+ * </pre>
+ * Allocation is measured on the triggering threads only, including the mock framework overhead of each trigger.
+ */
+public class ProcessorSweep {
+    private static final int BATCH_SIZE = 100;
+
+    private final int[] threads;
+    private final int[] poolSizes;
+    private final int[] parameters;
+    private final int[] rows;
+    private final int flowFiles;
+    private final String latency;
+
+    public ProcessorSweep(final int[] threads, final int[] poolSizes, final int[] parameters, final int[] rows,
+                          final int flowFiles, final String latency) {
+        this.threads = threads;
+        this.poolSizes = poolSizes;
+        this.parameters = parameters;
+        this.rows = rows;
+        this.flowFiles = flowFiles;
+        this.latency = latency;
+    }
+
+    public static void main(final String[] args) throws IOException, InitializationException {
+        final ProcessorSweep sweep = new ProcessorSweep(
+                intList(System.getProperty("sweep.threads", "1,4,8")),
+                intList(System.getProperty("sweep.poolSizes", "2,8")),
+                intList(System.getProperty("sweep.parameters", "2,16")),
+                intList(System.getProperty("sweep.rows", "10,1000")),
+                Integer.parseInt(System.getProperty("sweep.flowFiles", "2000")),
+                System.getProperty("sweep.latency", "fixed(1)"));
+        final List<Result> results = sweep.run();
+        write(results, new File(System.getProperty("sweep.output", "sweep-result.json")));
+        for (Result result : results) {
+            System.out.println(result);
+        }
+    }
+
+    /**
+     * Run every combination of the sweep.
+     *
+     * @return the results in sweep order
+     * @throws InitializationException if failed to add the connection pool
+     */
+    public List<Result> run() throws InitializationException {
+        final List<Result> results = new ArrayList<>();
+        for (int threadCount : threads) {
+            for (int poolSize : poolSizes) {
+                for (int parameterCount : parameters) {
+                    for (int rowCount : rows) {
+                        results.add(run(threadCount, poolSize, parameterCount, rowCount));
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    private Result run(final int threadCount, final int poolSize, final int parameterCount, final int rowCount)
+            throws InitializationException {
+        final MeasuredExecuteStoredProcedure processor = new MeasuredExecuteStoredProcedure(flowFiles);
+        final TestRunner runner = TestRunners.newTestRunner(processor);
+        final HikariCPConnectionPool pool = new HikariCPConnectionPool();
+        runner.addControllerService("pool", pool);
+        runner.setProperty(pool, HikariCPConnectionPool.DATABASE_URL,
+                StubDriver.URL_PREFIX + "latency=" + latency + ";rows=" + rowCount + ";columns=6;"
+                        + "columnTypes=VARCHAR,INTEGER,DECIMAL,TIMESTAMP");
+        runner.setProperty(pool, HikariCPConnectionPool.DB_DRIVERNAME, StubDriver.class.getName());
+        runner.setProperty(pool, HikariCPConnectionPool.MAX_TOTAL_CONNECTIONS, String.valueOf(poolSize));
+        runner.setProperty(pool, HikariCPConnectionPool.MAX_WAIT_TIME, "30 secs");
+        runner.enableControllerService(pool);
+        runner.setProperty(ExecuteStoredProcedure.DBCP_SERVICE, "pool");
+        runner.setProperty(ExecuteStoredProcedure.STORED_PROCEDURE_STATEMENT, statement(parameterCount));
+        runner.setThreadCount(threadCount);
+        final Map<String, String> attributes = attributes(parameterCount);
+        try {
+            // warm up with a fifth of the measured FlowFiles, then measure
+            trigger(runner, attributes, Math.max(flowFiles / 5, BATCH_SIZE), true);
+            processor.reset();
+            final long elapsed = trigger(runner, attributes, flowFiles, false);
+            return processor.result(threadCount, poolSize, parameterCount, rowCount, elapsed);
+        } finally {
+            runner.run(1, true, false);
+            runner.disableControllerService(pool);
+        }
+    }
+
+    /**
+     * Trigger the processor for the given number of FlowFiles in batches, so the transferred FlowFiles of a batch
+     * can be released before the next one.
+     *
+     * @return the elapsed nanoseconds of the triggers
+     */
+    private static long trigger(final TestRunner runner, final Map<String, String> attributes, final int count,
+                                final boolean initialize) {
+        long elapsed = 0L;
+        for (int triggered = 0; triggered < count; triggered += BATCH_SIZE) {
+            final int batch = Math.min(BATCH_SIZE, count - triggered);
+            for (int i = 0; i < batch; i++) {
+                runner.enqueue(new byte[0], attributes);
+            }
+            final long start = System.nanoTime();
+            runner.run(batch, false, initialize && triggered == 0, TimeUnit.MINUTES.toMillis(10));
+            elapsed += System.nanoTime() - start;
+            runner.assertAllFlowFilesTransferred(ExecuteStoredProcedure.REL_SUCCESS, batch);
+            runner.clearTransferState();
+            runner.clearProvenanceEvents();
+        }
+        return elapsed;
+    }
+
+    private static String statement(final int parameterCount) {
+        final StringBuilder builder = new StringBuilder("{call sweep(");
+        for (int i = 1; i <= parameterCount + 1; i++) {
+            builder.append(i == 1 ? "?" : ",?");
+        }
+        return builder.append(")}").toString();
+    }
+
+    private static Map<String, String> attributes(final int parameterCount) {
+        final Map<String, String> attributes = new HashMap<>();
+        for (int i = 1; i <= parameterCount; i++) {
+            attributes.put("procedure.args.in." + i + ".type", "12");
+            attributes.put("procedure.args.in." + i + ".value", "value-" + i);
+        }
+        attributes.put("procedure.args.out." + (parameterCount + 1) + ".type", "4");
+        attributes.put("procedure.args.out." + (parameterCount + 1) + ".name", "RESULT");
+        return attributes;
+    }
+
+    private static int[] intList(final String value) {
+        return Arrays.stream(value.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+    }
+
+    /**
+     * Write results as JSON array.
+     *
+     * @param results the sweep results
+     * @param file    the target file
+     * @throws IOException if failed to write the file
+     */
+    public static void write(final List<Result> results, final File file) throws IOException {
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file, results);
+    }
+
+    /**
+     * Read results from JSON array.
+     *
+     * @param file the result file
+     * @return the sweep results
+     * @throws IOException if failed to read the file
+     */
+    public static List<Result> read(final File file) throws IOException {
+        return Arrays.asList(new ObjectMapper().readValue(file, Result[].class));
+    }
+
+    /**
+     * ExecuteStoredProcedure measuring latency and allocated bytes of each trigger on the triggering thread.
+     */
+    private static final class MeasuredExecuteStoredProcedure extends ExecuteStoredProcedure {
+        private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        private final long[] latencies;
+        private final AtomicInteger triggers = new AtomicInteger();
+        private final LongAdder allocatedBytes = new LongAdder();
+
+        private MeasuredExecuteStoredProcedure(final int capacity) {
+            this.latencies = new long[capacity];
+        }
+
+        @Override
+        public void onTrigger(final ProcessContext processContext, final ProcessSessionFactory sessionFactory)
+                throws ProcessException {
+            final long threadId = Thread.currentThread().getId();
+            final long allocated = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId);
+            final long start = System.nanoTime();
+            super.onTrigger(processContext, sessionFactory);
+            final long latency = System.nanoTime() - start;
+            allocatedBytes.add(THREAD_MX_BEAN.getThreadAllocatedBytes(threadId) - allocated);
+            final int trigger = triggers.getAndIncrement();
+            if (trigger < latencies.length) {
+                latencies[trigger] = latency;
+            }
+        }
+
+        private void reset() {
+            triggers.set(0);
+            allocatedBytes.reset();
+        }
+
+        private Result result(final int threadCount, final int poolSize, final int parameterCount,
+                              final int rowCount, final long elapsedNanos) {
+            final int count = Math.min(triggers.get(), latencies.length);
+            final long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            final Result result = new Result();
+            result.setThreads(threadCount);
+            result.setPoolSize(poolSize);
+            result.setParameters(parameterCount);
+            result.setRows(rowCount);
+            result.setFlowFiles(count);
+            result.setFlowFilesPerSecond(count * 1e9 / Math.max(elapsedNanos, 1L));
+            result.setLatencyP50Millis(percentile(sorted, 0.50));
+            result.setLatencyP90Millis(percentile(sorted, 0.90));
+            result.setLatencyP99Millis(percentile(sorted, 0.99));
+            result.setLatencyMaxMillis(percentile(sorted, 1.0));
+            result.setAllocatedBytesPerFlowFile(count == 0 ? 0L : allocatedBytes.sum() / count);
+            return result;
+        }
+
+        private static double percentile(final long[] sorted, final double percentile) {
+            if (sorted.length == 0) {
+                return 0D;
+            }
+            final int index = Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1);
+            return sorted[Math.max(index, 0)] / 1e6;
+        }
+    }
+
+    /**
+     * Measurement of one sweep combination.
+     */
+    public static class Result {
+        private int threads;
+        private int poolSize;
+        private int parameters;
+        private int rows;
+        private int flowFiles;
+        private double flowFilesPerSecond;
+        private double latencyP50Millis;
+        private double latencyP90Millis;
+        private double latencyP99Millis;
+        private double latencyMaxMillis;
+        private long allocatedBytesPerFlowFile;
+
+        /**
+         * @return the key identifying the combination, e.g. threads=4,poolSize=8,parameters=2,rows=10
+         */
+        public String key() {
+            return "threads=" + threads + ",poolSize=" + poolSize + ",parameters=" + parameters + ",rows=" + rows;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(final int threads) {
+            this.threads = threads;
+        }
+
+        public int getPoolSize() {
+            return poolSize;
+        }
+
+        public void setPoolSize(final int poolSize) {
+            this.poolSize = poolSize;
+        }
+
+        public int getParameters() {
+            return parameters;
+        }
+
+        public void setParameters(final int parameters) {
+            this.parameters = parameters;
+        }
+
+        public int getRows() {
+            return rows;
+        }
+
+        public void setRows(final int rows) {
+            this.rows = rows;
+        }
+
+        public int getFlowFiles() {
+            return flowFiles;
+        }
+
+        public void setFlowFiles(final int flowFiles) {
+            this.flowFiles = flowFiles;
+        }
+
+        public double getFlowFilesPerSecond() {
+            return flowFilesPerSecond;
+        }
+
+        public void setFlowFilesPerSecond(final double flowFilesPerSecond) {
+            this.flowFilesPerSecond = flowFilesPerSecond;
+        }
+
+        public double getLatencyP50Millis() {
+            return latencyP50Millis;
+        }
+
+        public void setLatencyP50Millis(final double latencyP50Millis) {
+            this.latencyP50Millis = latencyP50Millis;
+        }
+
+        public double getLatencyP90Millis() {
+            return latencyP90Millis;
+        }
+
+        public void setLatencyP90Millis(final double latencyP90Millis) {
+            this.latencyP90Millis = latencyP90Millis;
+        }
+
+        public double getLatencyP99Millis() {
+            return latencyP99Millis;
+        }
+
+        public void setLatencyP99Millis(final double latencyP99Millis) {
+            this.latencyP99Millis = latencyP99Millis;
+        }
+
+        public double getLatencyMaxMillis() {
+            return latencyMaxMillis;
+        }
+
+        public void setLatencyMaxMillis(final double latencyMaxMillis) {
+            this.latencyMaxMillis = latencyMaxMillis;
+        }
+
+        public long getAllocatedBytesPerFlowFile() {
+            return allocatedBytesPerFlowFile;
+        }
+
+        public void setAllocatedBytesPerFlowFile(final long allocatedBytesPerFlowFile) {
+            this.allocatedBytesPerFlowFile = allocatedBytesPerFlowFile;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %.1f FlowFiles/s, latency p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms, "
+                            + "%d bytes/FlowFile", key(), flowFilesPerSecond, latencyP50Millis, latencyP90Millis,
+                    latencyP99Millis, latencyMaxMillis, allocatedBytesPerFlowFile);
+        }
+    }
+}
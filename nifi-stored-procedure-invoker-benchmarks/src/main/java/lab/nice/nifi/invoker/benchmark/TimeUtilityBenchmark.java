@@ -0,0 +1,53 @@
+package lab.nice.nifi.invoker.benchmark;
+
+import lab.nice.nifi.invoker.util.TimeUtility;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Date, time and timestamp conversions used when binding temporal IN parameters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeUtilityBenchmark {
+    private final String zoneId = ZoneId.systemDefault().getId();
+
+    @Benchmark
+    public Long datePattern() {
+        return TimeUtility.dateToEpochMilli("2019-10-01", "yyyy-MM-dd", zoneId);
+    }
+
+    @Benchmark
+    public Long dateIsoName() {
+        return TimeUtility.dateToEpochMilli("2019-10-01", "ISO_LOCAL_DATE", zoneId);
+    }
+
+    @Benchmark
+    public Long timePattern() {
+        return TimeUtility.timeToEpochMilli("12:30:45.123", "HH:mm:ss.SSS", zoneId);
+    }
+
+    @Benchmark
+    public Long timestampPattern() {
+        return TimeUtility.timestampToEpochMilli("2019-10-01 12:30:45.123", "yyyy-MM-dd HH:mm:ss.SSS", zoneId);
+    }
+
+    @Benchmark
+    public Long timestampIsoName() {
+        return TimeUtility.timestampToEpochMilli("2019-10-01T12:30:45.123", "ISO_LOCAL_DATE_TIME", zoneId);
+    }
+}
@@ -0,0 +1,77 @@
+package lab.nice.nifi.invoker.benchmark;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Regression guard of the end-to-end sweep, run in the verify phase of the sweep profile: 'mvn -Psweep verify'. A
+ * reduced sweep is compared to the baseline, the build fails when FlowFiles per second relative to the first
+ * combination drops or bytes allocated per FlowFile grows past the thresholds. Allocation differs between JDKs, so
+ * the baseline is recorded per Java specification version and the guard is skipped on a JDK without a baseline.
+ * <p>
+ * Throughput is compared relative to the first combination (1 thread, 10 rows) measured in the same run, so the
+ * check does not depend on the speed of the build host: it catches combinations slowing down against the
+ * single-threaded call, e.g. contention between tasks or per row costs, not a slowdown of all combinations alike.
+ * Allocation per FlowFile does not depend on the speed of the host and is compared absolute, which catches most of
+ * the latter.
+ * <ul>
+ * <li>sweep.baseline - the baseline file. Default
+ * src/test/resources/sweep-baseline-&lt;java.specification.version&gt;.json</li>
+ * <li>sweep.maxThroughputDrop - tolerated drop of the relative throughput. Default 0.5</li>
+ * <li>sweep.maxAllocationGrowth - tolerated relative allocation growth. Default 0.25</li>
+ * </ul>
+ * The measured results are written to target/sweep-result.json, copy them over the baseline to accept a change or
+ * to add the baseline of another JDK.
+ */
+public class ProcessorSweepRegressionIT {
+
+    @Test
+    public void testNoRegression() throws Exception {
+        final File baselineFile = new File(System.getProperty("sweep.baseline",
+                "src/test/resources/sweep-baseline-" + System.getProperty("java.specification.version") + ".json"));
+        final double maxThroughputDrop = Double.parseDouble(System.getProperty("sweep.maxThroughputDrop", "0.5"));
+        final double maxAllocationGrowth = Double.parseDouble(System.getProperty("sweep.maxAllocationGrowth", "0.25"));
+
+        final List<ProcessorSweep.Result> results = new ProcessorSweep(new int[]{1, 4}, new int[]{4},
+                new int[]{4}, new int[]{10, 200}, 1000, "fixed(1)").run();
+        ProcessorSweep.write(results, new File("target/sweep-result.json"));
+        assumeTrue("No sweep baseline " + baselineFile + " for this JDK", baselineFile.isFile());
+
+        final Map<String, ProcessorSweep.Result> baseline = new HashMap<>();
+        for (ProcessorSweep.Result result : ProcessorSweep.read(baselineFile)) {
+            baseline.put(result.key(), result);
+        }
+        final ProcessorSweep.Result reference = results.get(0);
+        final ProcessorSweep.Result expectedReference = baseline.get(reference.key());
+        assertNotNull("Baseline misses the reference " + reference.key(), expectedReference);
+
+        final List<String> regressions = new ArrayList<>();
+        for (ProcessorSweep.Result result : results) {
+            final ProcessorSweep.Result expected = baseline.get(result.key());
+            if (expected == null) {
+                continue;
+            }
+            final double relativeThroughput = result.getFlowFilesPerSecond() / reference.getFlowFilesPerSecond();
+            final double expectedRelativeThroughput = expected.getFlowFilesPerSecond()
+                    / expectedReference.getFlowFilesPerSecond();
+            if (relativeThroughput < expectedRelativeThroughput * (1 - maxThroughputDrop)) {
+                regressions.add(result.key() + " throughput " + relativeThroughput
+                        + " of the reference, baseline " + expectedRelativeThroughput);
+            }
+            if (result.getAllocatedBytesPerFlowFile() > expected.getAllocatedBytesPerFlowFile() * (1 + maxAllocationGrowth)) {
+                regressions.add(result.key() + " allocation " + result.getAllocatedBytesPerFlowFile()
+                        + " bytes/FlowFile, baseline " + expected.getAllocatedBytesPerFlowFile());
+            }
+        }
+        assertTrue("Sweep regressed: " + regressions, regressions.isEmpty());
+    }
+}
@@ -2,47 +2,103 @@ package lab.nice.nifi.invoker;
 
 import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import lab.nice.nifi.invoker.common.AttributeConstant;
 import lab.nice.nifi.invoker.common.Parameter;
+import lab.nice.nifi.invoker.common.ParameterType;
+import lab.nice.nifi.invoker.common.PlanCall;
+import lab.nice.nifi.invoker.util.ArrowHandler;
 import lab.nice.nifi.invoker.util.AttributeHandler;
+import lab.nice.nifi.invoker.util.CompressionHandler;
+import lab.nice.nifi.invoker.util.HashingOutputStream;
+import lab.nice.nifi.invoker.util.HedgeHandler;
 import lab.nice.nifi.invoker.util.JdbcHandler;
 import lab.nice.nifi.invoker.util.JsonHandler;
 import lab.nice.nifi.invoker.util.LobHandler;
+import lab.nice.nifi.invoker.util.PlanHandler;
+import lab.nice.nifi.invoker.util.ResultListener;
+import lab.nice.nifi.invoker.util.SlowCallRecorder;
+import lab.nice.nifi.invoker.util.WatermarkTracker;
+import lab.nice.nifi.invoker.util.XxHash64;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.nifi.annotation.behavior.DynamicProperty;
 import org.apache.nifi.annotation.behavior.EventDriven;
 import org.apache.nifi.annotation.behavior.InputRequirement;
 import org.apache.nifi.annotation.behavior.ReadsAttribute;
 import org.apache.nifi.annotation.behavior.ReadsAttributes;
+import org.apache.nifi.annotation.behavior.Stateful;
 import org.apache.nifi.annotation.behavior.WritesAttribute;
 import org.apache.nifi.annotation.behavior.WritesAttributes;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
 import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
+import org.apache.nifi.annotation.lifecycle.OnUnscheduled;
+import org.apache.nifi.components.AllowableValue;
 import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.components.state.Scope;
+import org.apache.nifi.components.state.StateManager;
+import org.apache.nifi.components.state.StateMap;
 import org.apache.nifi.dbcp.DBCPService;
 import org.apache.nifi.flowfile.FlowFile;
-import org.apache.nifi.processor.AbstractProcessor;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.processor.AbstractSessionFactoryProcessor;
+import org.apache.nifi.processor.DataUnit;
+import org.apache.nifi.processor.FlowFileFilter;
 import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessSessionFactory;
 import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.stream.io.NullOutputStream;
 import org.apache.nifi.util.StopWatch;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.sql.CallableStatement;
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 
 @EventDriven
 @InputRequirement(InputRequirement.Requirement.INPUT_ALLOWED)
@@ -71,11 +127,19 @@ import java.util.concurrent.TimeUnit;
                         + "If not specified, a long value input is expected to be an unix epoch (milli seconds from 1970/1/1), "
                         + "or a string value in 'yyyy-MM-dd' format for Date, "
                         + "'HH:mm:ss.SSS' for Time (some database engines e.g. Derby or MySQL do not support milliseconds "
-                        + "and will truncate milliseconds), 'yyyy-MM-dd HH:mm:ss.SSS' for Timestamp is used."),
+                        + "and will truncate milliseconds), 'yyyy-MM-dd HH:mm:ss.SSS' for Timestamp is used. "
+                        + "Arrays/Structs - "
+                        + "required, the SQL type name of the ARRAY elements or of the STRUCT, optionally followed by "
+                        + "':json' (the value is a JSON array), ':content' (a JSON array is read from the FlowFile "
+                        + "content, the value is ignored) or ':' and a delimiter of the value. If not specified, a value "
+                        + "starting with '[' is a JSON array, otherwise a comma delimited list, empty elements of a "
+                        + "delimited list are null. Nested JSON arrays are ARRAY elements created as STRUCT of the "
+                        + "element type name."),
 
         @ReadsAttribute(attribute = "procedure.args.out.N.type",
                 description = "OUT argument type for parametrized stored procedure statement. The type of each Parameter "
-                        + "is specified as an integer that represents the JDBC Type of the parameter."),
+                        + "is specified as an integer that represents the JDBC Type of the parameter. A REF_CURSOR (2012) "
+                        + "output is streamed row by row like a ResultSet into the content."),
         @ReadsAttribute(attribute = "procedure.args.out.N.name",
                 description = "OUT argument name for parametrized stored procedure statement. The value of the Parameters "
                         + "are specified as procedure.args.out.1.name, procedure.args.out.2.name and so on. "
@@ -116,18 +180,67 @@ import java.util.concurrent.TimeUnit;
 @WritesAttributes({
         @WritesAttribute(
                 attribute = "procedure.execute.duration",
-                description = "Duration of the stored procedure execution in milliseconds")
+                description = "Duration of the stored procedure execution in milliseconds"),
+        @WritesAttribute(
+                attribute = "procedure.output.*",
+                description = "The OUT/INOUT values by output name, only written when 'Output Destination' selects "
+                        + "attributes"),
+        @WritesAttribute(
+                attribute = "mime.type",
+                description = "The mime type of the compressed content when 'Compression' is set, otherwise of the "
+                        + "encoding when 'Output Encoding' is Smile, CBOR, NDJSON or Arrow"),
+        @WritesAttribute(
+                attribute = "procedure.result.index",
+                description = "The zero based index of the ResultSet in the FlowFile, only written when 'Output "
+                        + "Encoding' is Arrow"),
+        @WritesAttribute(
+                attribute = "record.count",
+                description = "The number of rows of the ResultSet in the FlowFile, only written when 'Output "
+                        + "Encoding' is Arrow"),
+        @WritesAttribute(
+                attribute = "procedure.compression",
+                description = "The codec compressing the content, only written when 'Compression' is set"),
+        @WritesAttribute(
+                attribute = "procedure.result.hash",
+                description = "XXH64 hash of the result content in hex, only written when change detection is enabled"),
+        @WritesAttribute(
+                attribute = "procedure.watermark",
+                description = "The watermark after the page of the result, only written in watermark source mode")
 })
+@Stateful(scopes = {Scope.CLUSTER, Scope.LOCAL}, description = "In watermark source mode (see 'Watermark Column'), "
+        + "the maximum watermark value emitted so far is stored in cluster state, it is bound to the watermark "
+        + "parameter on the next run. Schedule the processor on the primary node only in that mode. With 'Change Detection' set to 'Local State', the last result hash of each "
+        + "statement and parameters is stored in local state.")
 @DynamicProperty(name = "The name of a stored procedure parameter configuration property",
         value = "The value of a stored procedure parameter configuration property",
         description = "Properties for parametrized stored procedure arguments (procedure.args.in.N.type, "
                 + "procedure.args.in.N.value, procedure.args.in.N.format, procedure.args.out.N.type, "
                 + "procedure.args.inout.N.type, procedure.args.inout.N.value, procedure.args.inout.N.format). "
-                + "In the event a dynamic property represents a property that was already set, "
+                + "The same properties prefixed procedure.warm.up.args instead of procedure.args are the arguments "
+                + "of the Warm-up Statement. In the event a dynamic property represents a property that was already set, "
                 + "its value will be override by the incoming FlowFile attribute.")
-public class ExecuteStoredProcedure extends AbstractProcessor {
+public class ExecuteStoredProcedure extends AbstractSessionFactoryProcessor {
     public static final String PROCEDURE_EXECUTE_DURATION = "procedure.execute.duration";
+    public static final String PROCEDURE_WATERMARK = "procedure.watermark";
+    public static final String PROCEDURE_RESULT_HASH = "procedure.result.hash";
+    public static final String PROCEDURE_OUTPUT_PREFIX = "procedure.output.";
+    public static final String PROCEDURE_COMPRESSION = "procedure.compression";
+    public static final String PROCEDURE_RESULT_INDEX = "procedure.result.index";
+    public static final String RECORD_COUNT = "record.count";
+    private static final String WATERMARK_STATE_KEY = "watermark";
+    private static final String RESULT_HASH_STATE_PREFIX = "result.hash.";
     private static final String STORED_PROCEDURE_STATEMENT_KEY = "stored.procedure.statement";
+    private static final String STORED_PROCEDURE_PLAN_KEY = "stored.procedure.plan";
+    private static final String DUMP_SLOW_CALLS_KEY = "stored.procedure.dump.slow.calls";
+    private static final long GROUP_POLL_INTERVAL_MILLIS = 10L;
+    private static final int HEDGE_LATENCY_WINDOW = 100;
+    private static final String COUNTER_CALLS = "Hedgeable Calls";
+    private static final String COUNTER_HEDGED_CALLS = "Hedged Calls";
+    private static final String COUNTER_HEDGE_WINS = "Hedge Wins";
+    private static final long CANCEL_POLL_INTERVAL_MILLIS = 10L;
+    private static final int STATEMENT_EXECUTING = 0;
+    private static final int STATEMENT_EXECUTED = 1;
+    private static final int STATEMENT_CANCELLED = 2;
 
     // Relationships
     public static final Relationship REL_SUCCESS = new Relationship.Builder()
@@ -138,6 +251,18 @@ public class ExecuteStoredProcedure extends AbstractProcessor {
             .name("failure")
             .description("Stored procedure execution failed. Incoming FlowFile will be penalized and routed to this relationship")
             .build();
+    public static final Relationship REL_EXPIRED = new Relationship.Builder()
+            .name("expired")
+            .description("Incoming FlowFile whose deadline passed before the stored procedure was executed, "
+                    + "only available when 'Deadline Attribute' or 'Max FlowFile Age' is set.")
+            .build();
+
+    public static final Relationship REL_SLOW_CALLS = new Relationship.Builder()
+            .name("slow calls")
+            .description("Incoming FlowFile with the attribute 'stored.procedure.dump.slow.calls', its content is "
+                    + "replaced by the captured slow calls as JSON array, only available when 'Slow Call Threshold' "
+                    + "is set and 'Slow Call Dump' is true.")
+            .build();
 
     public static final PropertyDescriptor DBCP_SERVICE = new PropertyDescriptor.Builder()
             .name("dbcp.service")
@@ -171,25 +296,541 @@ public class ExecuteStoredProcedure extends AbstractProcessor {
             .sensitive(false)
             .build();
 
-    private final Set<Relationship> relationships;
+    public static final PropertyDescriptor TRANSACTION_GROUP_SIZE = new PropertyDescriptor.Builder()
+            .name("procedure.transaction.group.size")
+            .displayName("Transaction Group Size")
+            .description("The maximum number of incoming FlowFiles whose stored procedure calls are executed in one "
+                    + "database transaction. When greater than 1, auto-commit is disabled on the borrowed connection, "
+                    + "the calls are committed once for the whole group and the result FlowFiles of the group are "
+                    + "transferred together after the commit. A value of 1 keeps the auto-commit mode of the pool. "
+                    + "Only applicable when the processor has an incoming connection.")
+            .defaultValue("1")
+            .required(true)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor TRANSACTION_MAX_LATENCY = new PropertyDescriptor.Builder()
+            .name("procedure.transaction.max.latency")
+            .displayName("Transaction Max Latency")
+            .description("The maximum amount of time to wait for more incoming FlowFiles before a transaction group "
+                    + "that has not reached 'Transaction Group Size' is committed. Zero means the group is committed "
+                    + "as soon as the incoming queue is drained.")
+            .defaultValue("0 millis")
+            .required(true)
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor TRANSACTION_BISECT_ON_FAILURE = new PropertyDescriptor.Builder()
+            .name("procedure.transaction.bisect")
+            .displayName("Bisect Failed Transaction Group")
+            .description("If true, a transaction group that failed is rolled back and re-executed in halves until the "
+                    + "FlowFile(s) causing the failure are isolated, only those are routed to failure. If false, "
+                    + "every FlowFile of the failed group is routed to failure.")
+            .defaultValue("true")
+            .allowableValues("true", "false")
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor STATEMENT_GROUP_SIZE = new PropertyDescriptor.Builder()
+            .name("procedure.statement.group.size")
+            .displayName("Statement Group Size")
+            .description("The maximum number of incoming FlowFiles resolving to the same stored procedure statement "
+                    + "that are pulled together and executed on one connection with one prepared statement, the "
+                    + "parameters are cleared between the calls. FlowFiles of other statements are left in the queue "
+                    + "for later groups. A value of 1 pulls one FlowFile at a time. Only applicable when the "
+                    + "processor has an incoming connection.")
+            .defaultValue("1")
+            .required(true)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final AllowableValue PLAN_SOURCE_NONE = new AllowableValue("none", "None",
+            "Execution plans are not used, the stored procedure statement is executed.");
+    public static final AllowableValue PLAN_SOURCE_CONTENT = new AllowableValue("flowfile-content", "FlowFile Content",
+            "The execution plan is read from the content of the incoming FlowFile.");
+    public static final AllowableValue PLAN_SOURCE_ATTRIBUTE = new AllowableValue("flowfile-attribute", "FlowFile Attribute",
+            "The execution plan is read from the 'stored.procedure.plan' attribute of the incoming FlowFile.");
+
+    public static final PropertyDescriptor EXECUTION_PLAN_SOURCE = new PropertyDescriptor.Builder()
+            .name("procedure.execution.plan.source")
+            .displayName("Execution Plan Source")
+            .description("Where to read an execution plan from. An execution plan is a JSON document with a 'calls' "
+                    + "array, each call has an 'id', a 'statement', its 'parameters' given as procedure.args.* "
+                    + "attributes, optional 'bindings' from IN/INOUT parameter index to 'callId.outputName' of another "
+                    + "call and optional 'dependsOn' call ids. Calls are executed as soon as the calls they depend on "
+                    + "completed, independent calls run concurrently on separated pooled connections, and the results "
+                    + "of all calls are written into one JSON object keyed by call id. Call results are buffered in "
+                    + "memory until the plan completed. Requires an incoming connection, 'Transaction Group Size' "
+                    + "does not apply to execution plans.")
+            .defaultValue(PLAN_SOURCE_NONE.getValue())
+            .allowableValues(PLAN_SOURCE_NONE, PLAN_SOURCE_CONTENT, PLAN_SOURCE_ATTRIBUTE)
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor EXECUTION_PLAN_PARALLELISM = new PropertyDescriptor.Builder()
+            .name("procedure.execution.plan.parallelism")
+            .displayName("Execution Plan Parallelism")
+            .description("The maximum number of calls of one execution plan running at the same time, "
+                    + "each running call holds one pooled connection.")
+            .defaultValue("4")
+            .required(true)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor RESULT_PIPELINE_SIZE = new PropertyDescriptor.Builder()
+            .name("procedure.result.pipeline.size")
+            .displayName("Result Pipeline Size")
+            .description("The number of rows buffered between fetching and encoding a ResultSet. When greater than 0, "
+                    + "rows are fetched from the database on a separated thread while the current thread encodes the "
+                    + "already fetched rows into JSON, which overlaps waiting for the network with encoding for wide "
+                    + "or remote ResultSets. The fetching thread blocks while the buffer is full. "
+                    + "A value of 0 fetches and encodes each row on the current thread.")
+            .defaultValue("0")
+            .required(true)
+            .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor FETCH_SIZE = new PropertyDescriptor.Builder()
+            .name("procedure.fetch.size")
+            .displayName("Fetch Size")
+            .description("The number of rows fetched from the database per round trip for ResultSets and REF_CURSOR "
+                    + "outputs. If not set, the default fetch size of the driver is used.")
+            .required(false)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor WATERMARK_COLUMN = new PropertyDescriptor.Builder()
+            .name("procedure.watermark.column")
+            .displayName("Watermark Column")
+            .description("The name of a ResultSet column or OUT/INOUT parameter output whose maximum value is kept as "
+                    + "high-watermark in the processor state. When set and the processor has no incoming connection, "
+                    + "the watermark of the previous run is bound to the 'Watermark Parameter Index' IN parameter, so "
+                    + "the stored procedure only returns rows after it. Results whose watermark did not advance are "
+                    + "dropped. Numbers are compared numerically, dates/times/timestamps are kept as epoch milliseconds. "
+                    + "Clear the processor state to start over. The processor must run with one concurrent task, and "
+                    + "on the primary node only in a cluster. The watermark is advanced by compare-and-set after the "
+                    + "pages are committed, so pages are delivered at least once: a failure to store the watermark, "
+                    + "or a run losing the race against another node, emits pages again.")
+            .required(false)
+            .addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor WATERMARK_PARAMETER_INDEX = new PropertyDescriptor.Builder()
+            .name("procedure.watermark.parameter.index")
+            .displayName("Watermark Parameter Index")
+            .description("The index of the IN/INOUT parameter the watermark is bound to, the parameter type must be "
+                    + "configured by the procedure.args.in.N.type (or inout) dynamic property. "
+                    + "Required when 'Watermark Column' is set.")
+            .required(false)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor WATERMARK_INITIAL_VALUE = new PropertyDescriptor.Builder()
+            .name("procedure.watermark.initial.value")
+            .displayName("Initial Watermark")
+            .description("The watermark bound to the parameter when no watermark is in the processor state yet, "
+                    + "SQL NULL if not set.")
+            .required(false)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor WATERMARK_MAX_PAGES = new PropertyDescriptor.Builder()
+            .name("procedure.watermark.max.pages")
+            .displayName("Max Watermark Pages")
+            .description("The maximum number of times the stored procedure is executed in one run. As long as the "
+                    + "watermark advances, the stored procedure is executed again with the new watermark to continue "
+                    + "with the next page, each page is written into its own FlowFile.")
+            .defaultValue("1")
+            .required(true)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final AllowableValue CHANGE_DETECTION_NONE = new AllowableValue("none", "None",
+            "Every result is written.");
+    public static final AllowableValue CHANGE_DETECTION_LOCAL = new AllowableValue("local", "Local Cache",
+            "The last result hashes are kept in memory of the node, they are lost on restart.");
+    public static final AllowableValue CHANGE_DETECTION_STATE = new AllowableValue("state", "Local State",
+            "The last result hashes are kept in the local processor state, they survive restarts.");
+
+    public static final PropertyDescriptor CHANGE_DETECTION = new PropertyDescriptor.Builder()
+            .name("procedure.change.detection")
+            .displayName("Change Detection")
+            .description("Whether to drop results that did not change since the last execution of the same stored "
+                    + "procedure statement with the same parameters. An XXH64 hash is computed while the result is "
+                    + "written (without buffering it) and compared to the last hash, an unchanged result is removed "
+                    + "together with its incoming FlowFile. Does not apply to transaction groups, execution plans and "
+                    + "watermark source mode.")
+            .defaultValue(CHANGE_DETECTION_NONE.getValue())
+            .allowableValues(CHANGE_DETECTION_NONE, CHANGE_DETECTION_LOCAL, CHANGE_DETECTION_STATE)
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor CHANGE_DETECTION_CACHE_SIZE = new PropertyDescriptor.Builder()
+            .name("procedure.change.detection.cache.size")
+            .displayName("Change Detection Cache Size")
+            .description("The maximum number of statement and parameter combinations whose last result hash is kept, "
+                    + "the least recently executed combination is forgotten first.")
+            .defaultValue("1000")
+            .required(true)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final AllowableValue OUTPUT_CONTENT = new AllowableValue("content", "FlowFile Content",
+            "The result is written as JSON content of a new FlowFile.");
+    public static final AllowableValue OUTPUT_ATTRIBUTES = new AllowableValue("attributes", "FlowFile Attributes",
+            "If the stored procedure returns no ResultSet and no update count, the OUT/INOUT values are written as "
+                    + "attributes of the incoming FlowFile, keeping its content. Otherwise the result is written as "
+                    + "JSON content.");
+    public static final AllowableValue OUTPUT_AUTO = new AllowableValue("auto", "Auto",
+            "As 'FlowFile Attributes' if the OUT/INOUT values do not exceed 'Output Attributes Max Size' in total, "
+                    + "otherwise as 'FlowFile Content'.");
+
+    public static final PropertyDescriptor OUTPUT_DESTINATION = new PropertyDescriptor.Builder()
+            .name("procedure.output.destination")
+            .displayName("Output Destination")
+            .description("Where to write the result of the stored procedure. Writing OUT/INOUT values as attributes "
+                    + "named 'procedure.output.<output name>' avoids the content write, dates, times and timestamps "
+                    + "are written as epoch milliseconds, binary as hex and NULL values are omitted. Without an "
+                    + "incoming FlowFile a new empty FlowFile carries the attributes. Transaction groups always write "
+                    + "content.")
+            .defaultValue(OUTPUT_CONTENT.getValue())
+            .allowableValues(OUTPUT_CONTENT, OUTPUT_ATTRIBUTES, OUTPUT_AUTO)
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor OUTPUT_ATTRIBUTES_MAX_SIZE = new PropertyDescriptor.Builder()
+            .name("procedure.output.attributes.max.size")
+            .displayName("Output Attributes Max Size")
+            .description("The maximum total size of the OUT/INOUT values encoded as UTF-8 written as attributes "
+                    + "when 'Output Destination' is 'Auto'.")
+            .defaultValue("1 KB")
+            .required(true)
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .build();
+
+    public static final AllowableValue ENCODING_JSON = new AllowableValue("json", "JSON",
+            "Textual JSON.");
+    public static final AllowableValue ENCODING_SMILE = new AllowableValue("smile", "Smile",
+            "Binary JSON (application/x-jackson-smile), repeated field names are written once and back-referenced.");
+    public static final AllowableValue ENCODING_CBOR = new AllowableValue("cbor", "CBOR",
+            "Concise Binary Object Representation (RFC 7049, application/cbor).");
+    public static final AllowableValue ENCODING_NDJSON = new AllowableValue("ndjson", "NDJSON",
+            "Newline-delimited JSON (application/x-ndjson), one line per row, update count and outputs.");
+    public static final AllowableValue ENCODING_ARROW = new AllowableValue("arrow", "Arrow",
+            "Apache Arrow IPC stream (application/vnd.apache.arrow.stream), one FlowFile per ResultSet.");
+
+    public static final PropertyDescriptor OUTPUT_ENCODING = new PropertyDescriptor.Builder()
+            .name("procedure.output.encoding")
+            .displayName("Output Encoding")
+            .description("The encoding of the result content. All encodings carry the same RESULTS/OUTPUTS "
+                    + "structure, binary encodings keep numbers and binary values binary and are smaller and faster "
+                    + "to parse for Jackson based consumers. The mime.type attribute is set for binary encodings "
+                    + "unless the content is compressed. NDJSON writes every row as a line tagged with the index of "
+                    + "its result ({\"RESULT\":0,\"ROW\":{...}}), every update count as a line "
+                    + "({\"RESULT\":1,\"UPDATE_COUNT\":1}) and the OUT/INOUT values as a last line "
+                    + "({\"OUTPUTS\":{...}}), it is not supported with execution plan. Arrow writes every ResultSet as a columnar stream of record "
+                    + "batches in its own FlowFile, update counts are skipped and the OUT/INOUT values are written "
+                    + "as 'procedure.output.*' attributes of every FlowFile. Arrow is not supported with "
+                    + "watermark, transaction group, execution plan or change detection.")
+            .defaultValue(ENCODING_JSON.getValue())
+            .allowableValues(ENCODING_JSON, ENCODING_SMILE, ENCODING_CBOR, ENCODING_NDJSON, ENCODING_ARROW)
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor ARROW_BATCH_SIZE = new PropertyDescriptor.Builder()
+            .name("procedure.output.arrow.batch.size")
+            .displayName("Arrow Batch Size")
+            .description("The max number of rows of an Arrow record batch. The column vectors are allocated off-heap "
+                    + "once per ResultSet and refilled for every batch.")
+            .defaultValue("4096")
+            .required(true)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor COMPRESSION = new PropertyDescriptor.Builder()
+            .name("procedure.output.compression")
+            .displayName("Compression")
+            .description("Compress the result content while it is written. The mime.type attribute is set to the "
+                    + "compressed format. CompressContent of NiFi 1.5 can decompress gzip and snappy (framed) content "
+                    + "with 'use mime.type attribute'; it supports neither zstd nor the lz4 frame format, so lz4 and "
+                    + "zstd content must be decompressed by the consumer of the FlowFiles.")
+            .defaultValue(CompressionHandler.NONE)
+            .allowableValues(CompressionHandler.NONE, CompressionHandler.GZIP, CompressionHandler.LZ4,
+                    CompressionHandler.ZSTD, CompressionHandler.SNAPPY)
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor COMPRESSION_LEVEL = new PropertyDescriptor.Builder()
+            .name("procedure.output.compression.level")
+            .displayName("Compression Level")
+            .description("The compression level, 0-9 for gzip and 1-22 for zstd, ignored by lz4 and snappy. "
+                    + "The codec default is used if not set.")
+            .required(false)
+            .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor COMPRESSION_BUFFER_SIZE = new PropertyDescriptor.Builder()
+            .name("procedure.output.compression.buffer.size")
+            .displayName("Compression Buffer Size")
+            .description("The size of the buffer in front of the compressor, also used as block size by lz4 "
+                    + "(rounded up to 64 KB, 256 KB, 1 MB or 4 MB) and snappy (at most 64 KB).")
+            .defaultValue("64 KB")
+            .required(true)
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor DEADLINE_ATTRIBUTE = new PropertyDescriptor.Builder()
+            .name("procedure.deadline.attribute")
+            .displayName("Deadline Attribute")
+            .description("The name of the FlowFile attribute holding the deadline of the call in milliseconds since "
+                    + "epoch. An incoming FlowFile past its deadline is routed to 'expired' without borrowing a "
+                    + "connection, otherwise the query timeout is limited to the time left. FlowFiles without a "
+                    + "numeric value have no deadline.")
+            .required(false)
+            .addValidator(StandardValidators.ATTRIBUTE_KEY_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor MAX_FLOWFILE_AGE = new PropertyDescriptor.Builder()
+            .name("procedure.deadline.max.age")
+            .displayName("Max FlowFile Age")
+            .description("The maximum age of an incoming FlowFile since the start of its lineage. Older FlowFiles are "
+                    + "routed to 'expired' without borrowing a connection, otherwise the query timeout is limited to "
+                    + "the time left. The earlier of this and the 'Deadline Attribute' deadline applies.")
+            .required(false)
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor READ_ONLY = new PropertyDescriptor.Builder()
+            .name("procedure.read.only")
+            .displayName("Read Only")
+            .description("Whether the stored procedure only reads data, so it is safe to execute it more than once. "
+                    + "Read-only calls can be hedged, see 'Hedge Percentile'.")
+            .defaultValue("false")
+            .allowableValues("true", "false")
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor HEDGE_PERCENTILE = new PropertyDescriptor.Builder()
+            .name("procedure.hedge.percentile")
+            .displayName("Hedge Percentile")
+            .description("Hedge read-only calls: if a call did not complete within this percentile of the latencies "
+                    + "of the last " + HEDGE_LATENCY_WINDOW + " calls, the same call is issued on a second connection "
+                    + "and the first completion wins, the other call is cancelled. The counters 'Hedgeable Calls', "
+                    + "'Hedged Calls' and 'Hedge Wins' bound the extra load. Not hedged if not set. Hedging is only "
+                    + "supported for single calls with JSON, Smile or CBOR content. The result of each call is fully "
+                    + "buffered in memory until the winner is known, so is the FlowFile content read by ARRAY or "
+                    + "STRUCT parameters.")
+            .required(false)
+            .addValidator(StandardValidators.createLongValidator(1, 99, true))
+            .build();
+
+    public static final PropertyDescriptor HEDGE_MIN_DELAY = new PropertyDescriptor.Builder()
+            .name("procedure.hedge.min.delay")
+            .displayName("Hedge Min Delay")
+            .description("The minimum time to wait before hedging a call, also used until enough latencies are known.")
+            .defaultValue("50 millis")
+            .required(true)
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor HEDGE_DBCP_SERVICE = new PropertyDescriptor.Builder()
+            .name("procedure.hedge.dbcp.service")
+            .displayName("Hedge Connection Pooling Service")
+            .description("The Controller Service providing connections for hedge calls, e.g. to a replica. "
+                    + "'Database Connection Pooling Service' is used if not set.")
+            .required(false)
+            .identifiesControllerService(DBCPService.class)
+            .build();
+
+    public static final PropertyDescriptor SLOW_CALL_THRESHOLD = new PropertyDescriptor.Builder()
+            .name("procedure.slow.call.threshold")
+            .displayName("Slow Call Threshold")
+            .description("Capture calls taking at least this time, successful or failed, into a ring buffer of the "
+                    + "recent slow calls with statement, bound parameter values, phase timings (prepare, execute, "
+                    + "fetch), rows and bytes, see 'Slow Call Dump'. Not captured if not set. Hedged calls and Arrow "
+                    + "output are not captured.")
+            .required(false)
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor SLOW_CALL_BUFFER_SIZE = new PropertyDescriptor.Builder()
+            .name("procedure.slow.call.buffer.size")
+            .displayName("Slow Call Buffer Size")
+            .description("The maximum number of captured slow calls kept, older calls are overwritten.")
+            .defaultValue("100")
+            .required(true)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor SLOW_CALL_CAPTURE_VALUES = new PropertyDescriptor.Builder()
+            .name("procedure.slow.call.capture.values")
+            .displayName("Slow Call Capture Values")
+            .description("Whether the bound parameter values are captured in clear text with slow calls, except the "
+                    + "values of 'Slow Call Masked Parameters'. If false, every value is masked.")
+            .defaultValue("false")
+            .allowableValues("true", "false")
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor SLOW_CALL_MASKED_PARAMETERS = new PropertyDescriptor.Builder()
+            .name("procedure.slow.call.masked.parameters")
+            .displayName("Slow Call Masked Parameters")
+            .description("Comma-separated indexes of the parameters carrying sensitive values, their values are "
+                    + "masked in captured slow calls even if 'Slow Call Capture Values' is true.")
+            .required(false)
+            .addValidator(StandardValidators.createRegexMatchingValidator(
+                    Pattern.compile("\\s*\\d+(\\s*,\\s*\\d+)*\\s*")))
+            .build();
+
+    public static final PropertyDescriptor SLOW_CALL_BULLETIN = new PropertyDescriptor.Builder()
+            .name("procedure.slow.call.bulletin")
+            .displayName("Slow Call Bulletin")
+            .description("Whether every captured slow call is also logged as warning, which raises a bulletin.")
+            .defaultValue("false")
+            .allowableValues("true", "false")
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor SLOW_CALL_DUMP = new PropertyDescriptor.Builder()
+            .name("procedure.slow.call.dump")
+            .displayName("Slow Call Dump")
+            .description("Whether an incoming FlowFile with the attribute 'stored.procedure.dump.slow.calls' is "
+                    + "routed to 'slow calls' with the captured slow calls as content. Only enable it if every "
+                    + "upstream component may read the captured calls. If false, such FlowFiles are executed like "
+                    + "any other.")
+            .defaultValue("false")
+            .allowableValues("true", "false")
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor CANCEL_GRACE_PERIOD = new PropertyDescriptor.Builder()
+            .name("procedure.cancel.grace.period")
+            .displayName("Cancel Grace Period")
+            .description("When the processor is stopped, in-flight stored procedure calls still running after this "
+                    + "time are cancelled by Statement.cancel(). Calls cancelled before their execution completed and "
+                    + "rolled back transaction groups return their incoming FlowFiles to the input queue, calls "
+                    + "cancelled while their results are fetched are routed to failure. If not set, stopping waits "
+                    + "for in-flight calls to complete. Execution plans and hedged calls are not cancelled.")
+            .required(false)
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor WARM_UP_CONNECTIONS = new PropertyDescriptor.Builder()
+            .name("procedure.warm.up.connections")
+            .displayName("Warm-up Connections")
+            .description("When the processor is scheduled, the Stored Procedure Statement is prepared on up to this "
+                    + "number of connections held at once, which validates the statement, grows the pool and loads "
+                    + "the driver before the first FlowFile is pulled. Scheduling fails if the statement cannot be "
+                    + "prepared. Expression Language of the statement is evaluated without FlowFile. If not set, "
+                    + "no warm-up is done.")
+            .required(false)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor WARM_UP_STATEMENT = new PropertyDescriptor.Builder()
+            .name("procedure.warm.up.statement")
+            .displayName("Warm-up Statement")
+            .description("A stored procedure call without side effects, executed once on every warm-up connection. "
+                    + "Its arguments are the procedure.warm.up.args.(in|out|inout).N.(type|value|format|name) dynamic "
+                    + "properties; if none is set, the procedure.args dynamic properties of the Stored Procedure "
+                    + "Statement are bound, which then must match the placeholders of this statement. Its results "
+                    + "are written with the configured Output Encoding (JSON, Smile, CBOR, NDJSON or Arrow) and "
+                    + "discarded and its transaction is rolled back, so the server plan, the parameter binding and "
+                    + "the serialization are warmed up as well.")
+            .required(false)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .expressionLanguageSupported(true)
+            .build();
+
+    private static final ClassValue<Method> IDENTIFIED_GET_CONNECTION = new ClassValue<Method>() {
+        @Override
+        protected Method computeValue(final Class<?> type) {
+            try {
+                final Method method = type.getMethod("getConnection", String.class);
+                return Connection.class.equals(method.getReturnType()) ? method : null;
+            } catch (final NoSuchMethodException e) {
+                return null;
+            }
+        }
+    };
+
+    private final AtomicReference<Set<Relationship>> relationships = new AtomicReference<>();
+    private final Map<PropertyDescriptor, String> relationshipProperties = new ConcurrentHashMap<>();
     private final List<PropertyDescriptor> propertyDescriptors;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
+    private final ObjectMapper cborMapper = new ObjectMapper(new CBORFactory());
+    private volatile ExecutorService executorService;
+    private volatile int resultPipelineSize;
+    private volatile int fetchSize;
+    private volatile Map<String, String> resultHashes;
+    private volatile String outputDestination;
+    private volatile long outputAttributesMaxSize;
+    private volatile ObjectMapper outputMapper;
+    private volatile boolean outputLines;
+    private volatile String compression;
+    private volatile int compressionLevel;
+    private volatile int compressionBufferSize;
+    private volatile BufferAllocator arrowAllocator;
+    private volatile int arrowBatchSize;
+    private volatile String deadlineAttribute;
+    private volatile long maxFlowFileAge;
+    private volatile HedgeHandler hedgeHandler;
+    private volatile SlowCallRecorder slowCallRecorder;
+    private volatile boolean slowCallBulletin;
+    private volatile boolean slowCallDump;
+    private final Map<Statement, AtomicInteger> inFlightStatements = new ConcurrentHashMap<>();
+    private volatile boolean cancelling;
 
     public ExecuteStoredProcedure() {
-        final Set<Relationship> r = new HashSet<>();
-        r.add(REL_SUCCESS);
-        r.add(REL_FAILURE);
-        relationships = Collections.unmodifiableSet(r);
+        updateRelationships();
 
         final List<PropertyDescriptor> p = new ArrayList<>();
         p.add(DBCP_SERVICE);
         p.add(STORED_PROCEDURE_STATEMENT);
         p.add(PROCEDURE_EXECUTION_TIMEOUT);
+        p.add(TRANSACTION_GROUP_SIZE);
+        p.add(TRANSACTION_MAX_LATENCY);
+        p.add(TRANSACTION_BISECT_ON_FAILURE);
+        p.add(STATEMENT_GROUP_SIZE);
+        p.add(EXECUTION_PLAN_SOURCE);
+        p.add(EXECUTION_PLAN_PARALLELISM);
+        p.add(RESULT_PIPELINE_SIZE);
+        p.add(FETCH_SIZE);
+        p.add(WATERMARK_COLUMN);
+        p.add(WATERMARK_PARAMETER_INDEX);
+        p.add(WATERMARK_INITIAL_VALUE);
+        p.add(WATERMARK_MAX_PAGES);
+        p.add(CHANGE_DETECTION);
+        p.add(CHANGE_DETECTION_CACHE_SIZE);
+        p.add(OUTPUT_DESTINATION);
+        p.add(OUTPUT_ATTRIBUTES_MAX_SIZE);
+        p.add(OUTPUT_ENCODING);
+        p.add(ARROW_BATCH_SIZE);
+        p.add(COMPRESSION);
+        p.add(COMPRESSION_LEVEL);
+        p.add(COMPRESSION_BUFFER_SIZE);
+        p.add(DEADLINE_ATTRIBUTE);
+        p.add(MAX_FLOWFILE_AGE);
+        p.add(READ_ONLY);
+        p.add(HEDGE_PERCENTILE);
+        p.add(HEDGE_MIN_DELAY);
+        p.add(HEDGE_DBCP_SERVICE);
+        p.add(SLOW_CALL_THRESHOLD);
+        p.add(SLOW_CALL_BUFFER_SIZE);
+        p.add(SLOW_CALL_CAPTURE_VALUES);
+        p.add(SLOW_CALL_MASKED_PARAMETERS);
+        p.add(SLOW_CALL_BULLETIN);
+        p.add(SLOW_CALL_DUMP);
+        p.add(CANCEL_GRACE_PERIOD);
+        p.add(WARM_UP_CONNECTIONS);
+        p.add(WARM_UP_STATEMENT);
         propertyDescriptors = Collections.unmodifiableList(p);
     }
 
     @Override
     public Set<Relationship> getRelationships() {
-        return relationships;
+        return relationships.get();
     }
 
     @Override
@@ -209,8 +850,134 @@ public class ExecuteStoredProcedure extends AbstractProcessor {
                 .build();
     }
 
+    @Override
+    public void onPropertyModified(final PropertyDescriptor descriptor, final String oldValue, final String newValue) {
+        if (DEADLINE_ATTRIBUTE.equals(descriptor) || MAX_FLOWFILE_AGE.equals(descriptor)
+                || SLOW_CALL_THRESHOLD.equals(descriptor) || SLOW_CALL_DUMP.equals(descriptor)) {
+            if (null == newValue) {
+                relationshipProperties.remove(descriptor);
+            } else {
+                relationshipProperties.put(descriptor, newValue);
+            }
+            updateRelationships();
+        }
+    }
+
+    /**
+     * Expose the optional relationships only when their feature is configured, so that existing flows without
+     * connections for them stay valid.
+     */
+    private void updateRelationships() {
+        final Set<Relationship> r = new HashSet<>();
+        r.add(REL_SUCCESS);
+        r.add(REL_FAILURE);
+        if (relationshipProperties.containsKey(DEADLINE_ATTRIBUTE)
+                || relationshipProperties.containsKey(MAX_FLOWFILE_AGE)) {
+            r.add(REL_EXPIRED);
+        }
+        if (relationshipProperties.containsKey(SLOW_CALL_THRESHOLD)
+                && Boolean.parseBoolean(relationshipProperties.get(SLOW_CALL_DUMP))) {
+            r.add(REL_SLOW_CALLS);
+        }
+        relationships.set(Collections.unmodifiableSet(r));
+    }
+
+    @Override
+    protected Collection<ValidationResult> customValidate(final ValidationContext validationContext) {
+        final List<ValidationResult> results = new ArrayList<>();
+        if (validationContext.getProperty(WATERMARK_COLUMN).isSet()
+                && !validationContext.getProperty(WATERMARK_PARAMETER_INDEX).isSet()) {
+            results.add(new ValidationResult.Builder()
+                    .subject(WATERMARK_PARAMETER_INDEX.getDisplayName())
+                    .valid(false)
+                    .explanation("it is required when " + WATERMARK_COLUMN.getDisplayName() + " is set")
+                    .build());
+        }
+        final String codec = validationContext.getProperty(COMPRESSION).getValue();
+        if (validationContext.getProperty(COMPRESSION_LEVEL).isSet()) {
+            final int level = validationContext.getProperty(COMPRESSION_LEVEL).asInteger();
+            if (CompressionHandler.GZIP.equals(codec) && level > 9
+                    || CompressionHandler.ZSTD.equals(codec) && (level < 1 || level > 22)) {
+                results.add(new ValidationResult.Builder()
+                        .subject(COMPRESSION_LEVEL.getDisplayName())
+                        .valid(false)
+                        .explanation("level " + level + " is not supported by " + codec)
+                        .build());
+            }
+        }
+        if (validationContext.getProperty(HEDGE_PERCENTILE).isSet()) {
+            final String encoding = validationContext.getProperty(OUTPUT_ENCODING).getValue();
+            if (!validationContext.getProperty(READ_ONLY).asBoolean()) {
+                results.add(new ValidationResult.Builder()
+                        .subject(HEDGE_PERCENTILE.getDisplayName())
+                        .valid(false)
+                        .explanation("only read-only calls can be hedged, " + READ_ONLY.getDisplayName()
+                                + " must be true")
+                        .build());
+            } else if (ENCODING_NDJSON.getValue().equals(encoding) || ENCODING_ARROW.getValue().equals(encoding)
+                    || validationContext.getProperty(WATERMARK_COLUMN).isSet()
+                    || validationContext.getProperty(TRANSACTION_GROUP_SIZE).asInteger() > 1
+                    || !PLAN_SOURCE_NONE.getValue().equals(validationContext.getProperty(EXECUTION_PLAN_SOURCE).getValue())) {
+                results.add(new ValidationResult.Builder()
+                        .subject(HEDGE_PERCENTILE.getDisplayName())
+                        .valid(false)
+                        .explanation("hedging is only supported for single calls with JSON, Smile or CBOR content")
+                        .build());
+            }
+        }
+        if (validationContext.getProperty(STATEMENT_GROUP_SIZE).asInteger() > 1
+                && (validationContext.getProperty(TRANSACTION_GROUP_SIZE).asInteger() > 1
+                || validationContext.getProperty(HEDGE_PERCENTILE).isSet()
+                || ENCODING_ARROW.getValue().equals(validationContext.getProperty(OUTPUT_ENCODING).getValue())
+                || !PLAN_SOURCE_NONE.getValue().equals(validationContext.getProperty(EXECUTION_PLAN_SOURCE).getValue()))) {
+            results.add(new ValidationResult.Builder()
+                    .subject(STATEMENT_GROUP_SIZE.getDisplayName())
+                    .valid(false)
+                    .explanation("statement groups are not supported with transaction group, hedging, Arrow "
+                            + "or execution plan")
+                    .build());
+        }
+        if (ENCODING_NDJSON.getValue().equals(validationContext.getProperty(OUTPUT_ENCODING).getValue())
+                && !PLAN_SOURCE_NONE.getValue().equals(validationContext.getProperty(EXECUTION_PLAN_SOURCE).getValue())) {
+            results.add(new ValidationResult.Builder()
+                    .subject(OUTPUT_ENCODING.getDisplayName())
+                    .valid(false)
+                    .explanation("NDJSON is not supported with execution plan")
+                    .build());
+        }
+        if (ENCODING_ARROW.getValue().equals(validationContext.getProperty(OUTPUT_ENCODING).getValue())
+                && (validationContext.getProperty(WATERMARK_COLUMN).isSet()
+                || validationContext.getProperty(TRANSACTION_GROUP_SIZE).asInteger() > 1
+                || !PLAN_SOURCE_NONE.getValue().equals(validationContext.getProperty(EXECUTION_PLAN_SOURCE).getValue())
+                || !CHANGE_DETECTION_NONE.getValue().equals(validationContext.getProperty(CHANGE_DETECTION).getValue()))) {
+            results.add(new ValidationResult.Builder()
+                    .subject(OUTPUT_ENCODING.getDisplayName())
+                    .valid(false)
+                    .explanation("Arrow is not supported with watermark, transaction group, execution plan "
+                            + "or change detection")
+                    .build());
+        }
+        if (validationContext.getProperty(WARM_UP_CONNECTIONS).isSet()
+                && !validationContext.getProperty(STORED_PROCEDURE_STATEMENT).isSet()) {
+            results.add(new ValidationResult.Builder()
+                    .subject(WARM_UP_CONNECTIONS.getDisplayName())
+                    .valid(false)
+                    .explanation("it requires " + STORED_PROCEDURE_STATEMENT.getDisplayName() + " to be set")
+                    .build());
+        }
+        if (validationContext.getProperty(WARM_UP_STATEMENT).isSet()
+                && !validationContext.getProperty(WARM_UP_CONNECTIONS).isSet()) {
+            results.add(new ValidationResult.Builder()
+                    .subject(WARM_UP_STATEMENT.getDisplayName())
+                    .valid(false)
+                    .explanation("it requires " + WARM_UP_CONNECTIONS.getDisplayName() + " to be set")
+                    .build());
+        }
+        return results;
+    }
+
     @OnScheduled
-    public void setUp(final ProcessContext processContext) {
+    public void setUp(final ProcessContext processContext) throws IOException {
         // If the stored procedure statement is not set, then an incoming FlowFile is needed.
         // Otherwise fail the initialization
         if (!processContext.getProperty(STORED_PROCEDURE_STATEMENT).isSet() && !processContext.hasIncomingConnection()) {
@@ -219,97 +986,1560 @@ public class ExecuteStoredProcedure extends AbstractProcessor {
             getLogger().error(errorString);
             throw new ProcessException(errorString);
         }
-    }
-
-    @Override
-    public void onTrigger(final ProcessContext processContext, final ProcessSession processSession) throws ProcessException {
-        FlowFile flowFile = null;
-        if (processContext.hasIncomingConnection()) {
-            flowFile = processSession.get();
-            if (flowFile == null && processContext.hasNonLoopConnection()) {
-                return;
+        if (processContext.getProperty(WATERMARK_COLUMN).isSet() && !processContext.hasIncomingConnection()
+                && processContext.getMaxConcurrentTasks() > 1) {
+            final String errorString = "Watermark source mode reads and advances a single watermark, it must run with "
+                    + "one concurrent task";
+            getLogger().error(errorString);
+            throw new ProcessException(errorString);
+        }
+        cancelling = false;
+        final AtomicInteger threadCount = new AtomicInteger();
+        executorService = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "ExecuteStoredProcedure-" + getIdentifier() + "-"
+                    + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        resultPipelineSize = processContext.getProperty(RESULT_PIPELINE_SIZE).asInteger();
+        fetchSize = processContext.getProperty(FETCH_SIZE).isSet()
+                ? processContext.getProperty(FETCH_SIZE).asInteger() : 0;
+        outputDestination = processContext.getProperty(OUTPUT_DESTINATION).getValue();
+        outputAttributesMaxSize = processContext.getProperty(OUTPUT_ATTRIBUTES_MAX_SIZE).asDataSize(DataUnit.B).longValue();
+        final String encoding = processContext.getProperty(OUTPUT_ENCODING).getValue();
+        outputMapper = ENCODING_SMILE.getValue().equals(encoding) ? smileMapper
+                : ENCODING_CBOR.getValue().equals(encoding) ? cborMapper : objectMapper;
+        outputLines = ENCODING_NDJSON.getValue().equals(encoding);
+        compression = processContext.getProperty(COMPRESSION).getValue();
+        compressionLevel = processContext.getProperty(COMPRESSION_LEVEL).isSet()
+                ? processContext.getProperty(COMPRESSION_LEVEL).asInteger() : -1;
+        compressionBufferSize = processContext.getProperty(COMPRESSION_BUFFER_SIZE).asDataSize(DataUnit.B).intValue();
+        deadlineAttribute = processContext.getProperty(DEADLINE_ATTRIBUTE).getValue();
+        maxFlowFileAge = processContext.getProperty(MAX_FLOWFILE_AGE).isSet()
+                ? processContext.getProperty(MAX_FLOWFILE_AGE).asTimePeriod(TimeUnit.MILLISECONDS) : -1L;
+        if (processContext.getProperty(HEDGE_PERCENTILE).isSet()) {
+            hedgeHandler = new HedgeHandler(HEDGE_LATENCY_WINDOW,
+                    processContext.getProperty(HEDGE_PERCENTILE).asInteger(),
+                    processContext.getProperty(HEDGE_MIN_DELAY).asTimePeriod(TimeUnit.MILLISECONDS),
+                    TimeUnit.MILLISECONDS);
+        } else {
+            hedgeHandler = null;
+        }
+        if (processContext.getProperty(SLOW_CALL_THRESHOLD).isSet()) {
+            final Set<Integer> maskedParameters = new HashSet<>();
+            if (processContext.getProperty(SLOW_CALL_MASKED_PARAMETERS).isSet()) {
+                for (String index : processContext.getProperty(SLOW_CALL_MASKED_PARAMETERS).getValue().split(",")) {
+                    maskedParameters.add(Integer.parseInt(index.trim()));
+                }
+            }
+            slowCallRecorder = new SlowCallRecorder(processContext.getProperty(SLOW_CALL_BUFFER_SIZE).asInteger(),
+                    processContext.getProperty(SLOW_CALL_THRESHOLD).asTimePeriod(TimeUnit.MILLISECONDS),
+                    TimeUnit.MILLISECONDS, processContext.getProperty(SLOW_CALL_CAPTURE_VALUES).asBoolean(),
+                    maskedParameters);
+            slowCallBulletin = processContext.getProperty(SLOW_CALL_BULLETIN).asBoolean();
+            slowCallDump = processContext.getProperty(SLOW_CALL_DUMP).asBoolean();
+        } else {
+            slowCallRecorder = null;
+        }
+        if (ENCODING_ARROW.getValue().equals(encoding)) {
+            arrowAllocator = new RootAllocator(Long.MAX_VALUE);
+            arrowBatchSize = processContext.getProperty(ARROW_BATCH_SIZE).asInteger();
+        }
+        final int cacheSize = processContext.getProperty(CHANGE_DETECTION_CACHE_SIZE).asInteger();
+        resultHashes = Collections.synchronizedMap(new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, String> eldest) {
+                return size() > cacheSize;
             }
+        });
+        if (CHANGE_DETECTION_STATE.getValue().equals(processContext.getProperty(CHANGE_DETECTION).getValue())) {
+            processContext.getStateManager().getState(Scope.LOCAL).toMap().forEach((key, value) -> {
+                if (key.startsWith(RESULT_HASH_STATE_PREFIX)) {
+                    resultHashes.put(key.substring(RESULT_HASH_STATE_PREFIX.length()), value);
+                }
+            });
         }
+        if (processContext.getProperty(WARM_UP_CONNECTIONS).isSet()) {
+            warmUp(processContext);
+        }
+    }
+
+    /**
+     * Prepare the stored procedure statement on up to the configured number of connections held at once, and
+     * execute the warm-up statement on each of them if configured.
+     *
+     * @param processContext the process context
+     * @throws ProcessException if the statements could not be prepared or executed
+     */
+    private void warmUp(final ProcessContext processContext) {
+        final StopWatch stopWatch = new StopWatch(true);
         final DBCPService dbcpService = processContext.getProperty(DBCP_SERVICE).asControllerService(DBCPService.class);
         final int timeout = processContext.getProperty(PROCEDURE_EXECUTION_TIMEOUT).asTimePeriod(TimeUnit.SECONDS).intValue();
-        final StopWatch stopWatch = new StopWatch(true);
-        final String procedure;
-        if (processContext.getProperty(STORED_PROCEDURE_STATEMENT).isSet()) {
-            procedure = processContext.getProperty(STORED_PROCEDURE_STATEMENT).evaluateAttributeExpressions(flowFile).getValue();
-        } else {
-            if (flowFile != null) {
-                procedure = flowFile.getAttribute(STORED_PROCEDURE_STATEMENT_KEY);
-            } else {
-                throw new ProcessException("Stored procedure statement must be specified.");
+        final int count = processContext.getProperty(WARM_UP_CONNECTIONS).asInteger();
+        final String procedure = resolveProcedure(processContext, null);
+        final String warmUpStatement = processContext.getProperty(WARM_UP_STATEMENT).isSet()
+                ? processContext.getProperty(WARM_UP_STATEMENT).evaluateAttributeExpressions().getValue() : null;
+        final List<Connection> connections = new ArrayList<>(count);
+        try {
+            // hold the connections at once so that the pool grows to the requested size
+            for (int i = 0; i < count; i++) {
+                try {
+                    connections.add(identifiedConnection(dbcpService));
+                } catch (final ProcessException e) {
+                    if (connections.isEmpty()) {
+                        throw e;
+                    }
+                    getLogger().warn("Warming up {} of {} connections only due to {}",
+                            new Object[]{connections.size(), count, e});
+                    break;
+                }
+            }
+            final Map<Integer, Parameter> parameterMap = null == warmUpStatement ? null
+                    : resolveWarmUpParameters(processContext);
+            for (Connection connection : connections) {
+                connection.prepareCall(procedure).close();
+                if (null != warmUpStatement) {
+                    warmUpCall(connection, warmUpStatement, parameterMap, timeout);
+                }
+            }
+        } catch (final SQLException | ParseException | IOException | ProcessException e) {
+            getLogger().error("Unable to warm up {} due to {}", new Object[]{procedure, e});
+            throw new ProcessException(e);
+        } finally {
+            for (Connection connection : connections) {
+                try {
+                    connection.close();
+                } catch (final SQLException e) {
+                    getLogger().warn("Unable to close warm-up connection due to {}", new Object[]{e});
+                }
             }
         }
-        if (StringUtils.isBlank(procedure)) {
-            throw new ProcessException("Stored Procedure Statement could not be empty.");
+        getLogger().info("Warmed up {} on {} connection(s) in {} millis",
+                new Object[]{procedure, connections.size(), stopWatch.getElapsed(TimeUnit.MILLISECONDS)});
+    }
+
+    /**
+     * Resolve the arguments of the warm-up statement from the procedure.warm.up.args dynamic properties, or from the
+     * procedure.args dynamic properties of the stored procedure statement if none is set.
+     *
+     * @param processContext the process context
+     * @return the built in parameter map
+     */
+    private Map<Integer, Parameter> resolveWarmUpParameters(final ProcessContext processContext) {
+        final Map<String, String> attributes = new HashMap<>();
+        evaluateProperties(processContext, null).forEach((name, value) -> {
+            if (name.startsWith(AttributeConstant.WARM_UP_ARGS_PREFIX)) {
+                attributes.put(AttributeConstant.PROCEDURE_ARGS_PREFIX
+                        + name.substring(AttributeConstant.WARM_UP_ARGS_PREFIX.length()), value);
+            }
+        });
+        if (attributes.isEmpty()) {
+            return resolveParameters(processContext, null);
         }
-        final ObjectMapper objectMapper = new ObjectMapper();
-        final Map<String, String> attributes = evaluateProperties(processContext, flowFile);
         final Map<Integer, Parameter> parameterMap = new HashMap<>();
         AttributeHandler.retrieveProcedureParameter(attributes, parameterMap);
-        if (null != flowFile) {
-            AttributeHandler.retrieveProcedureParameter(flowFile.getAttributes(), parameterMap);
-        }
-        try (final Connection connection = dbcpService.getConnection();
-             final CallableStatement callableStatement = connection.prepareCall(procedure);
+        return parameterMap;
+    }
+
+    /**
+     * Execute the warm-up statement in a transaction rolled back afterwards, discarding its results written with the
+     * configured output encoding. A failure of the rollback does not hide the failure of the call.
+     */
+    private void warmUpCall(final Connection connection, final String statement,
+                            final Map<Integer, Parameter> parameterMap, final int timeout)
+            throws SQLException, ParseException, IOException {
+        final boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        Throwable failure = null;
+        try (final CallableStatement callableStatement = connection.prepareCall(statement);
              final LobHandler lobHandler = new LobHandler(callableStatement)) {
             callableStatement.setQueryTimeout(timeout);
+            if (fetchSize > 0) {
+                callableStatement.setFetchSize(fetchSize);
+            }
             JdbcHandler.setParameters(callableStatement, lobHandler, parameterMap);
             callableStatement.execute();
-            FlowFile resultSetFF;
-            if (flowFile == null) {
-                resultSetFF = processSession.create();
-            } else {
-                resultSetFF = processSession.create(flowFile);
-                resultSetFF = processSession.putAllAttributes(resultSetFF, flowFile.getAttributes());
-            }
-            resultSetFF = processSession.write(resultSetFF, outputStream -> {
-                try (final JsonGenerator jsonGenerator = objectMapper.getFactory()
-                        .createGenerator(outputStream, JsonEncoding.UTF8)) {
-                    JsonHandler.retrieveCallableStatement(callableStatement, jsonGenerator, parameterMap);
-                } catch (SQLException e) {
-                    throw new ProcessException(e);
+            boolean hasResults = JsonHandler.hasMoreResults(callableStatement);
+            if (arrowAllocator != null) {
+                while (hasResults) {
+                    if (callableStatement.getUpdateCount() == -1) {
+                        ArrowHandler.writeResultSet(callableStatement.getResultSet(), new NullOutputStream(),
+                                arrowAllocator, arrowBatchSize);
+                    }
+                    hasResults = JsonHandler.hasMoreResults(callableStatement);
                 }
-            });
-            long duration = stopWatch.getElapsed(TimeUnit.MILLISECONDS);
-            resultSetFF = processSession.putAttribute(resultSetFF, PROCEDURE_EXECUTE_DURATION, String.valueOf(duration));
-            processSession.getProvenanceReporter().modifyContent(resultSetFF, "Procedure executed. ", duration);
-            processSession.transfer(resultSetFF, REL_SUCCESS);
-        } catch (final ProcessException | SQLException | ParseException | IOException e) {
-            //If we had at least one result then it's OK to drop the original file, but if we had no results then
-            //  pass the original flow file down the line to trigger downstream processors
-            if (flowFile == null) {
-                // This can happen if any exceptions occur while setting up the connection, statement, etc.
-                getLogger().error("Unable to execute stored procedure {} due to {}. No FlowFile to route to failure",
-                        new Object[]{procedure, e});
-                processContext.yield();
+                JsonHandler.retrieveOutputs(callableStatement, new ArrayList<>(parameterMap.values()));
             } else {
-                if (processContext.hasIncomingConnection()) {
-                    getLogger().error("Unable to execute stored procedure {} for {} due to {}; routing to failure",
-                            new Object[]{procedure, flowFile, e});
-                    flowFile = processSession.penalize(flowFile);
-                } else {
-                    getLogger().error("Unable to execute SQL select query {} due to {}; routing to failure",
-                            new Object[]{procedure, e});
-                    processContext.yield();
+                try (final JsonGenerator jsonGenerator = outputMapper.getFactory()
+                        .createGenerator(new NullOutputStream(), JsonEncoding.UTF8)) {
+                    if (outputLines) {
+                        JsonHandler.retrieveCallableStatementLines(callableStatement, jsonGenerator, parameterMap,
+                                null, hasResults);
+                    } else {
+                        JsonHandler.retrieveCallableStatement(callableStatement, jsonGenerator, parameterMap,
+                                executorService, resultPipelineSize, null, hasResults);
+                    }
                 }
-                processSession.transfer(flowFile, REL_FAILURE);
+            }
+        } catch (final Throwable t) {
+            failure = t;
+            throw t;
+        } finally {
+            try {
+                connection.rollback();
+                connection.setAutoCommit(autoCommit);
+            } catch (final SQLException e) {
+                if (null == failure) {
+                    throw e;
+                }
+                failure.addSuppressed(e);
             }
         }
     }
 
-    private Map<String, String> evaluateProperties(final ProcessContext processContext, final FlowFile flowFile) {
-        final Map<String, String> map = new HashMap<>();
-        processContext.getProperties().forEach((p, v) -> {
-            if (p.isDynamic() && p.isExpressionLanguageSupported()) {
-                map.put(p.getName(), processContext.getProperty(p).evaluateAttributeExpressions(flowFile).getValue());
-            } else {
-                map.put(p.getName(), v);
+    /**
+     * Cancel the in-flight stored procedure calls still running after the cancel grace period.
+     *
+     * @param processContext the process context
+     */
+    @OnUnscheduled
+    public void cancelInFlight(final ProcessContext processContext) {
+        if (!processContext.getProperty(CANCEL_GRACE_PERIOD).isSet()) {
+            return;
+        }
+        cancelling = true;
+        final long deadline = System.nanoTime()
+                + processContext.getProperty(CANCEL_GRACE_PERIOD).asTimePeriod(TimeUnit.NANOSECONDS);
+        while (!inFlightStatements.isEmpty() && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(CANCEL_POLL_INTERVAL_MILLIS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (Map.Entry<Statement, AtomicInteger> entry : inFlightStatements.entrySet()) {
+            final Statement statement = entry.getKey();
+            // only a call cancelled before its execute() returned is returned to the input queue
+            entry.getValue().compareAndSet(STATEMENT_EXECUTING, STATEMENT_CANCELLED);
+            try {
+                statement.cancel();
+                getLogger().info("Cancelled in-flight statement {} on stop", new Object[]{statement});
+            } catch (final SQLException e) {
+                getLogger().warn("Unable to cancel in-flight statement {} due to {}", new Object[]{statement, e});
+            }
+        }
+    }
+
+    @OnStopped
+    public void tearDown() {
+        if (executorService != null) {
+            executorService.shutdownNow();
+            executorService = null;
+        }
+        if (arrowAllocator != null) {
+            arrowAllocator.close();
+            arrowAllocator = null;
+        }
+    }
+
+    /**
+     * Trigger on a new session committed after the trigger, as {@code AbstractProcessor} does, then run the actions
+     * that must only happen once the emitted FlowFiles are committed, e.g. recording result hashes.
+     */
+    @Override
+    public void onTrigger(final ProcessContext processContext, final ProcessSessionFactory sessionFactory)
+            throws ProcessException {
+        final ProcessSession processSession = sessionFactory.createSession();
+        final List<Runnable> afterCommit = new ArrayList<>();
+        try {
+            onTrigger(processContext, processSession, afterCommit);
+            processSession.commit();
+        } catch (final PoolOverloadException e) {
+            // overload is not a failure of the FlowFiles, retry them once the pool recovered
+            getLogger().warn("No connection available due to {}; rolling back and yielding", new Object[]{e.getCause()});
+            processSession.rollback();
+            processContext.yield();
+            return;
+        } catch (final Throwable t) {
+            processSession.rollback(true);
+            throw t;
+        }
+        afterCommit.forEach(Runnable::run);
+    }
+
+    /**
+     * @param afterCommit the actions to run once the session is committed
+     */
+    private void onTrigger(final ProcessContext processContext, final ProcessSession processSession,
+                           final List<Runnable> afterCommit) {
+        if (processContext.hasIncomingConnection()
+                && !PLAN_SOURCE_NONE.getValue().equals(processContext.getProperty(EXECUTION_PLAN_SOURCE).getValue())) {
+            onTriggerPlan(processContext, processSession);
+            return;
+        }
+        if (processContext.hasIncomingConnection()
+                && processContext.getProperty(TRANSACTION_GROUP_SIZE).asInteger() > 1) {
+            onTriggerGroup(processContext, processSession);
+            return;
+        }
+        if (processContext.hasIncomingConnection()
+                && processContext.getProperty(STATEMENT_GROUP_SIZE).asInteger() > 1) {
+            onTriggerStatementGroup(processContext, processSession, afterCommit);
+            return;
+        }
+        if (!processContext.hasIncomingConnection() && processContext.getProperty(WATERMARK_COLUMN).isSet()) {
+            onTriggerWatermark(processContext, processSession, afterCommit);
+            return;
+        }
+        FlowFile flowFile = null;
+        if (processContext.hasIncomingConnection()) {
+            flowFile = nextFlowFile(processSession);
+            if (flowFile == null && processContext.hasNonLoopConnection()) {
+                return;
+            }
+        }
+        final long remaining = remainingMillis(flowFile);
+        if (remaining <= 0) {
+            transferExpired(processSession, flowFile);
+            return;
+        }
+        final DBCPService dbcpService = processContext.getProperty(DBCP_SERVICE).asControllerService(DBCPService.class);
+        final int timeout = callTimeout(processContext.getProperty(PROCEDURE_EXECUTION_TIMEOUT)
+                .asTimePeriod(TimeUnit.SECONDS).intValue(), remaining);
+        final StopWatch stopWatch = new StopWatch(true);
+        final String procedure = resolveProcedure(processContext, flowFile);
+        final Map<Integer, Parameter> parameterMap = resolveParameters(processContext, flowFile);
+        final String changeDetection = processContext.getProperty(CHANGE_DETECTION).getValue();
+        final XxHash64 resultHash = CHANGE_DETECTION_NONE.getValue().equals(changeDetection) ? null : new XxHash64();
+        try {
+            FlowFile resultSetFF;
+            if (hedgeHandler != null) {
+                resultSetFF = invokeHedged(processContext, processSession, flowFile, procedure, parameterMap, timeout,
+                        stopWatch, resultHash);
+            } else {
+                try (final Connection connection = borrowConnection(dbcpService)) {
+                    if (arrowAllocator != null) {
+                        for (FlowFile arrowFF : invokeArrow(processSession, connection, flowFile, procedure,
+                                parameterMap, timeout, stopWatch)) {
+                            transferResult(processSession, arrowFF, null);
+                        }
+                        if (flowFile != null) {
+                            processSession.remove(flowFile);
+                        }
+                        return;
+                    }
+                    resultSetFF = invoke(processSession, connection, flowFile, procedure, parameterMap, timeout,
+                            stopWatch, null, resultHash, true);
+                }
+            }
+            if (resultHash == null) {
+                transferResult(processSession, resultSetFF, flowFile);
+            } else {
+                resultSetFF = processSession.putAttribute(resultSetFF, PROCEDURE_RESULT_HASH, resultHash.getHex());
+                transferChangedResult(processContext, processSession, resultSetFF, flowFile,
+                        XxHash64.hashHex(procedure + new TreeMap<>(parameterMap)), resultHash.getHex(), afterCommit);
+            }
+        } catch (final ProcessException | SQLException | ParseException | IOException e) {
+            if (hedgeHandler != null && isPoolOverload(e)) {
+                // hedged calls are read-only and may be retried
+                throw new PoolOverloadException(e);
+            }
+            if (isCancelledCall(e) && returnIfCancelled(processSession, flowFile == null
+                    ? Collections.emptyList() : Collections.singletonList(flowFile))) {
+                return;
+            }
+            //If we had at least one result then it's OK to drop the original file, but if we had no results then
+            //  pass the original flow file down the line to trigger downstream processors
+            if (flowFile == null) {
+                // This can happen if any exceptions occur while setting up the connection, statement, etc.
+                getLogger().error("Unable to execute stored procedure {} due to {}. No FlowFile to route to failure",
+                        new Object[]{procedure, e});
+                processContext.yield();
+            } else {
+                if (processContext.hasIncomingConnection()) {
+                    getLogger().error("Unable to execute stored procedure {} for {} due to {}; routing to failure",
+                            new Object[]{procedure, flowFile, e});
+                    flowFile = processSession.penalize(flowFile);
+                } else {
+                    getLogger().error("Unable to execute SQL select query {} due to {}; routing to failure",
+                            new Object[]{procedure, e});
+                    processContext.yield();
+                }
+                processSession.transfer(flowFile, REL_FAILURE);
+            }
+        }
+    }
+
+    /**
+     * Execute the stored procedure as a source with the watermark of the previous run bound to the watermark
+     * parameter, continuing with further pages while the watermark advances. The new watermark is stored after
+     * the session committed the emitted pages, as QueryDatabaseTable does: a failure in between emits the pages
+     * again on the next run rather than losing them.
+     *
+     * @param processContext the process context
+     * @param processSession the process session
+     * @param afterCommit    the actions to run once the session is committed
+     */
+    private void onTriggerWatermark(final ProcessContext processContext, final ProcessSession processSession,
+                                    final List<Runnable> afterCommit) {
+        final DBCPService dbcpService = processContext.getProperty(DBCP_SERVICE).asControllerService(DBCPService.class);
+        final int timeout = processContext.getProperty(PROCEDURE_EXECUTION_TIMEOUT).asTimePeriod(TimeUnit.SECONDS).intValue();
+        final String column = processContext.getProperty(WATERMARK_COLUMN).getValue();
+        final int parameterIndex = processContext.getProperty(WATERMARK_PARAMETER_INDEX).asInteger();
+        final int maxPages = processContext.getProperty(WATERMARK_MAX_PAGES).asInteger();
+        final StateManager stateManager = processContext.getStateManager();
+        final StateMap stateMap;
+        try {
+            stateMap = stateManager.getState(Scope.CLUSTER);
+        } catch (final IOException e) {
+            getLogger().error("Unable to read watermark from processor state due to {}", new Object[]{e});
+            processContext.yield();
+            return;
+        }
+        final Map<String, String> state = new HashMap<>(stateMap.toMap());
+        final String initialWatermark = state.containsKey(WATERMARK_STATE_KEY)
+                ? state.get(WATERMARK_STATE_KEY) : processContext.getProperty(WATERMARK_INITIAL_VALUE).getValue();
+        String watermark = initialWatermark;
+        final String procedure = resolveProcedure(processContext, null);
+        try (final Connection connection = borrowConnection(dbcpService)) {
+            for (int page = 0; page < maxPages; page++) {
+                final Map<Integer, Parameter> parameterMap = resolveParameters(processContext, null);
+                final Parameter parameter = parameterMap.get(parameterIndex);
+                if (null == parameter || ParameterType.OUT.equals(parameter.getType())) {
+                    throw new ProcessException("Watermark parameter " + parameterIndex + " is not an IN/INOUT parameter");
+                }
+                parameter.setValue(watermark);
+                final WatermarkTracker tracker = new WatermarkTracker(column, watermark);
+                final FlowFile resultSetFF = invoke(processSession, connection, null, procedure, parameterMap, timeout,
+                        new StopWatch(true), tracker, null, true);
+                if (!tracker.isAdvanced()) {
+                    processSession.remove(resultSetFF);
+                    break;
+                }
+                watermark = tracker.getWatermark();
+                transferResult(processSession, processSession.putAttribute(resultSetFF, PROCEDURE_WATERMARK, watermark), null);
+            }
+        } catch (final ProcessException | SQLException | ParseException | IOException e) {
+            getLogger().error("Unable to execute stored procedure {} with watermark {} due to {}",
+                    new Object[]{procedure, watermark, e});
+            processContext.yield();
+        }
+        if (Objects.equals(watermark, initialWatermark)) {
+            processContext.yield();
+            return;
+        }
+        // the watermark is only advanced once the pages are committed, at-least-once rather than losing rows
+        state.put(WATERMARK_STATE_KEY, watermark);
+        final String committedWatermark = watermark;
+        afterCommit.add(() -> {
+            try {
+                if (!stateManager.replace(stateMap, state, Scope.CLUSTER)) {
+                    getLogger().warn("Watermark {} was advanced concurrently, e.g. by another node; the pages up to "
+                            + "{} may be emitted twice", new Object[]{initialWatermark, committedWatermark});
+                }
+            } catch (final IOException e) {
+                getLogger().error("Unable to store watermark {} in processor state due to {}; the committed pages "
+                        + "are emitted again on the next run", new Object[]{committedWatermark, e});
+                processContext.yield();
+            }
+        });
+    }
+
+    /**
+     * Execute the execution plan carried by an incoming FlowFile and write the merged results into one FlowFile.
+     *
+     * @param processContext the process context
+     * @param processSession the process session
+     */
+    private void onTriggerPlan(final ProcessContext processContext, final ProcessSession processSession) {
+        FlowFile flowFile = nextFlowFile(processSession);
+        if (flowFile == null) {
+            return;
+        }
+        final long remaining = remainingMillis(flowFile);
+        if (remaining <= 0) {
+            transferExpired(processSession, flowFile);
+            return;
+        }
+        final DBCPService dbcpService = processContext.getProperty(DBCP_SERVICE).asControllerService(DBCPService.class);
+        final int timeout = callTimeout(processContext.getProperty(PROCEDURE_EXECUTION_TIMEOUT)
+                .asTimePeriod(TimeUnit.SECONDS).intValue(), remaining);
+        final int parallelism = processContext.getProperty(EXECUTION_PLAN_PARALLELISM).asInteger();
+        final StopWatch stopWatch = new StopWatch(true);
+        try {
+            final List<PlanCall> plan;
+            if (PLAN_SOURCE_CONTENT.getValue().equals(processContext.getProperty(EXECUTION_PLAN_SOURCE).getValue())) {
+                final AtomicReference<List<PlanCall>> planReference = new AtomicReference<>();
+                processSession.read(flowFile, inputStream -> planReference.set(PlanHandler.parse(inputStream, objectMapper)));
+                plan = planReference.get();
+            } else {
+                plan = PlanHandler.parse(flowFile.getAttribute(STORED_PROCEDURE_PLAN_KEY), objectMapper);
+            }
+            final Map<String, TokenBuffer> results = PlanHandler.execute(plan, () -> identifiedConnection(dbcpService), executorService,
+                    parallelism, timeout, objectMapper);
+            FlowFile resultSetFF = processSession.create(flowFile);
+            resultSetFF = processSession.putAllAttributes(resultSetFF, flowFile.getAttributes());
+            resultSetFF = processSession.write(resultSetFF, outputStream -> {
+                try (final JsonGenerator jsonGenerator = outputMapper.getFactory()
+                        .createGenerator(contentStream(outputStream, null), JsonEncoding.UTF8)) {
+                    PlanHandler.writeResults(results, jsonGenerator);
+                }
+            });
+            resultSetFF = putContentAttributes(processSession, resultSetFF);
+            final long duration = stopWatch.getElapsed(TimeUnit.MILLISECONDS);
+            resultSetFF = processSession.putAttribute(resultSetFF, PROCEDURE_EXECUTE_DURATION, String.valueOf(duration));
+            transferResult(processSession, resultSetFF, flowFile);
+        } catch (final ProcessException | SQLException | ParseException | IOException | IllegalArgumentException e) {
+            getLogger().error("Unable to execute execution plan for {} due to {}; routing to failure",
+                    new Object[]{flowFile, e});
+            processSession.transfer(processSession.penalize(flowFile), REL_FAILURE);
+        }
+    }
+
+    /**
+     * Execute incoming FlowFiles in transaction groups. Auto-commit is disabled on the borrowed connection, up to
+     * {@link #TRANSACTION_GROUP_SIZE} calls are executed, waiting up to {@link #TRANSACTION_MAX_LATENCY} for more
+     * incoming FlowFiles, and the group is committed once. Result FlowFiles are only transferred after the commit.
+     *
+     * @param processContext the process context
+     * @param processSession the process session
+     */
+    private void onTriggerGroup(final ProcessContext processContext, final ProcessSession processSession) {
+        FlowFile flowFile = nextFlowFile(processSession);
+        if (flowFile == null) {
+            return;
+        }
+        if (remainingMillis(flowFile) <= 0) {
+            transferExpired(processSession, flowFile);
+            return;
+        }
+        final DBCPService dbcpService = processContext.getProperty(DBCP_SERVICE).asControllerService(DBCPService.class);
+        final int timeout = processContext.getProperty(PROCEDURE_EXECUTION_TIMEOUT).asTimePeriod(TimeUnit.SECONDS).intValue();
+        final int groupSize = processContext.getProperty(TRANSACTION_GROUP_SIZE).asInteger();
+        final long maxLatency = processContext.getProperty(TRANSACTION_MAX_LATENCY).asTimePeriod(TimeUnit.MILLISECONDS);
+        final boolean bisect = processContext.getProperty(TRANSACTION_BISECT_ON_FAILURE).asBoolean();
+        final StopWatch groupWatch = new StopWatch(true);
+
+        final Connection connection;
+        try {
+            connection = borrowConnection(dbcpService);
+        } catch (final ProcessException e) {
+            getLogger().error("Unable to obtain connection for {} due to {}; routing to failure",
+                    new Object[]{flowFile, e});
+            processSession.transfer(processSession.penalize(flowFile), REL_FAILURE);
+            processContext.yield();
+            return;
+        }
+        try {
+            final boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            boolean completed = false;
+            try {
+                final List<GroupCall> group = new ArrayList<>(groupSize);
+                final List<FlowFile> results = new ArrayList<>(groupSize);
+                while (flowFile != null) {
+                    final long remaining = remainingMillis(flowFile);
+                    if (remaining <= 0) {
+                        transferExpired(processSession, flowFile);
+                        flowFile = nextGroupFlowFile(processSession, group.size(), groupSize, groupWatch, maxLatency);
+                        continue;
+                    }
+                    final GroupCall call;
+                    try {
+                        call = new GroupCall(flowFile, resolveProcedure(processContext, flowFile),
+                                resolveParameters(processContext, flowFile), remaining);
+                    } catch (final ProcessException e) {
+                        getLogger().error("Unable to resolve stored procedure for {} due to {}; routing to failure",
+                                new Object[]{flowFile, e});
+                        processSession.transfer(processSession.penalize(flowFile), REL_FAILURE);
+                        flowFile = nextGroupFlowFile(processSession, group.size(), groupSize, groupWatch, maxLatency);
+                        continue;
+                    }
+                    group.add(call);
+                    try {
+                        results.add(invoke(processSession, connection, call.flowFile, call.procedure,
+                                call.parameterMap, callTimeout(timeout, remaining), new StopWatch(true), null, null,
+                                false));
+                    } catch (final SQLException | ParseException | IOException | RuntimeException e) {
+                        discardGroup(processSession, connection, results);
+                        handleGroupFailure(processSession, connection, group, timeout, bisect, e);
+                        return;
+                    }
+                    flowFile = nextGroupFlowFile(processSession, group.size(), groupSize, groupWatch, maxLatency);
+                }
+                if (!group.isEmpty()) {
+                    try {
+                        connection.commit();
+                    } catch (final SQLException e) {
+                        discardGroup(processSession, connection, results);
+                        handleGroupFailure(processSession, connection, group, timeout, bisect, e);
+                        return;
+                    }
+                    for (int i = 0; i < group.size(); i++) {
+                        transferResult(processSession, results.get(i), group.get(i).flowFile);
+                    }
+                }
+                completed = true;
+            } finally {
+                // restoring auto-commit commits the pending transaction, which must never hold a partial group
+                if (!completed) {
+                    rollbackGroup(connection);
+                }
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (final SQLException e) {
+            throw new ProcessException("Unable to switch auto-commit mode of connection", e);
+        } finally {
+            try {
+                connection.close();
+            } catch (final SQLException e) {
+                getLogger().warn("Unable to close connection due to {}", new Object[]{e});
+            }
+        }
+    }
+
+    /**
+     * Pull the next incoming FlowFile of the current transaction group, waiting up to the max latency of the group
+     * for new FlowFiles to arrive.
+     *
+     * @return the next FlowFile or null if the group is complete
+     */
+    private FlowFile nextGroupFlowFile(final ProcessSession processSession, final int currentSize, final int groupSize,
+                                       final StopWatch groupWatch, final long maxLatency) {
+        if (currentSize >= groupSize || cancelling) {
+            return null;
+        }
+        FlowFile flowFile = nextFlowFile(processSession);
+        while (flowFile == null) {
+            final long remaining = maxLatency - groupWatch.getElapsed(TimeUnit.MILLISECONDS);
+            if (remaining <= 0) {
+                return null;
+            }
+            try {
+                Thread.sleep(Math.min(remaining, GROUP_POLL_INTERVAL_MILLIS));
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            flowFile = nextFlowFile(processSession);
+        }
+        return flowFile;
+    }
+
+    /**
+     * Handle a failed transaction group: either route the whole group to failure, or bisect the group and execute
+     * each half in its own transaction until the failing FlowFile(s) are isolated.
+     */
+    private void handleGroupFailure(final ProcessSession processSession, final Connection connection,
+                                    final List<GroupCall> group, final int timeout, final boolean bisect,
+                                    final Exception cause) {
+        final List<FlowFile> flowFiles = new ArrayList<>(group.size());
+        group.forEach(call -> flowFiles.add(call.flowFile));
+        if (returnIfCancelled(processSession, flowFiles)) {
+            return;
+        }
+        if (!bisect || group.size() == 1) {
+            for (GroupCall call : group) {
+                if (call.remainingMillis() <= 0) {
+                    transferExpired(processSession, call.flowFile);
+                    continue;
+                }
+                getLogger().error("Unable to execute stored procedure {} for {} due to {}; routing to failure",
+                        new Object[]{call.procedure, call.flowFile, cause});
+                processSession.transfer(processSession.penalize(call.flowFile), REL_FAILURE);
+            }
+            return;
+        }
+        final int middle = group.size() / 2;
+        executeGroup(processSession, connection, group.subList(0, middle), timeout);
+        executeGroup(processSession, connection, group.subList(middle, group.size()), timeout);
+    }
+
+    /**
+     * Execute the calls of a (bisected) transaction group in one transaction, bisecting further on failure. Calls whose
+     * deadline passed in the meantime are routed to expired instead of being executed again.
+     */
+    private void executeGroup(final ProcessSession processSession, final Connection connection,
+                              final List<GroupCall> calls, final int timeout) {
+        final List<GroupCall> group = new ArrayList<>(calls.size());
+        for (GroupCall call : calls) {
+            if (call.remainingMillis() <= 0) {
+                transferExpired(processSession, call.flowFile);
+            } else {
+                group.add(call);
+            }
+        }
+        if (group.isEmpty()) {
+            return;
+        }
+        final List<FlowFile> results = new ArrayList<>(group.size());
+        try {
+            for (GroupCall call : group) {
+                final long remaining = call.remainingMillis();
+                if (remaining <= 0) {
+                    throw new SQLTimeoutException("Deadline of " + call.flowFile + " passed");
+                }
+                results.add(invoke(processSession, connection, call.flowFile, call.procedure, call.parameterMap,
+                        callTimeout(timeout, remaining), new StopWatch(true), null, null, false));
+            }
+            connection.commit();
+        } catch (final SQLException | ParseException | IOException | RuntimeException e) {
+            discardGroup(processSession, connection, results);
+            handleGroupFailure(processSession, connection, group, timeout, true, e);
+            return;
+        }
+        for (int i = 0; i < group.size(); i++) {
+            transferResult(processSession, results.get(i), group.get(i).flowFile);
+        }
+    }
+
+    /**
+     * Roll back the current transaction and remove the result FlowFiles created inside it.
+     */
+    private void discardGroup(final ProcessSession processSession, final Connection connection,
+                              final List<FlowFile> results) {
+        processSession.remove(results);
+        results.clear();
+        rollbackGroup(connection);
+    }
+
+    private void rollbackGroup(final Connection connection) {
+        try {
+            connection.rollback();
+        } catch (final SQLException e) {
+            getLogger().warn("Unable to rollback transaction group due to {}", new Object[]{e});
+        }
+    }
+
+    /**
+     * Execute incoming FlowFiles grouped by their resolved stored procedure statement. Up to
+     * {@link #STATEMENT_GROUP_SIZE} queued FlowFiles sharing the statement of the first one are pulled by a
+     * {@link FlowFileFilter} and executed on one connection with one prepared statement, clearing the parameters
+     * between the calls. Every call keeps the auto-commit mode of the pool and succeeds or fails on its own.
+     *
+     * @param processContext the process context
+     * @param processSession the process session
+     * @param afterCommit    the actions to run once the session is committed
+     */
+    private void onTriggerStatementGroup(final ProcessContext processContext, final ProcessSession processSession,
+                                         final List<Runnable> afterCommit) {
+        final int groupSize = processContext.getProperty(STATEMENT_GROUP_SIZE).asInteger();
+        final List<FlowFile> flowFiles = processSession.get(new FlowFileFilter() {
+            private String statement;
+            private int accepted;
+
+            @Override
+            public FlowFileFilterResult filter(final FlowFile flowFile) {
+                if (isSlowCallDump(flowFile)) {
+                    return FlowFileFilterResult.ACCEPT_AND_CONTINUE;
+                }
+                String procedure;
+                try {
+                    procedure = resolveProcedure(processContext, flowFile);
+                } catch (final ProcessException e) {
+                    procedure = null;
+                }
+                if (accepted == 0) {
+                    statement = procedure;
+                } else if (null == procedure || !procedure.equals(statement)) {
+                    return FlowFileFilterResult.REJECT_AND_CONTINUE;
+                }
+                // a FlowFile without statement is pulled alone to be routed to failure
+                return ++accepted >= groupSize || null == statement
+                        ? FlowFileFilterResult.ACCEPT_AND_TERMINATE : FlowFileFilterResult.ACCEPT_AND_CONTINUE;
+            }
+        });
+        for (Iterator<FlowFile> iterator = flowFiles.iterator(); iterator.hasNext(); ) {
+            final FlowFile flowFile = iterator.next();
+            if (isSlowCallDump(flowFile)) {
+                dumpSlowCalls(processSession, flowFile);
+                iterator.remove();
+            }
+        }
+        if (flowFiles.isEmpty()) {
+            return;
+        }
+        final String procedure;
+        try {
+            procedure = resolveProcedure(processContext, flowFiles.get(0));
+        } catch (final ProcessException e) {
+            getLogger().error("Unable to resolve stored procedure for {} due to {}; routing to failure",
+                    new Object[]{flowFiles.get(0), e});
+            processSession.transfer(processSession.penalize(flowFiles.get(0)), REL_FAILURE);
+            return;
+        }
+        final DBCPService dbcpService = processContext.getProperty(DBCP_SERVICE).asControllerService(DBCPService.class);
+        final int timeout = processContext.getProperty(PROCEDURE_EXECUTION_TIMEOUT).asTimePeriod(TimeUnit.SECONDS).intValue();
+        final boolean changeDetection = !CHANGE_DETECTION_NONE.getValue()
+                .equals(processContext.getProperty(CHANGE_DETECTION).getValue());
+        int next = 0;
+        try (final Connection connection = borrowConnection(dbcpService);
+             final CallableStatement callableStatement = connection.prepareCall(procedure)) {
+            while (next < flowFiles.size()) {
+                if (returnIfCancelled(processSession, flowFiles.subList(next, flowFiles.size()))) {
+                    return;
+                }
+                final FlowFile flowFile = flowFiles.get(next++);
+                final long remaining = remainingMillis(flowFile);
+                if (remaining <= 0) {
+                    transferExpired(processSession, flowFile);
+                    continue;
+                }
+                final StopWatch stopWatch = new StopWatch(true);
+                final XxHash64 resultHash = changeDetection ? new XxHash64() : null;
+                try {
+                    final Map<Integer, Parameter> parameterMap = resolveParameters(processContext, flowFile);
+                    callableStatement.clearParameters();
+                    FlowFile resultSetFF = invoke(processSession, callableStatement, flowFile, parameterMap,
+                            callTimeout(timeout, remaining), stopWatch, null, resultHash, true,
+                            startCall(procedure, parameterMap, flowFile, null));
+                    if (resultHash == null) {
+                        transferResult(processSession, resultSetFF, flowFile);
+                    } else {
+                        resultSetFF = processSession.putAttribute(resultSetFF, PROCEDURE_RESULT_HASH,
+                                resultHash.getHex());
+                        transferChangedResult(processContext, processSession, resultSetFF, flowFile,
+                                XxHash64.hashHex(procedure + new TreeMap<>(parameterMap)), resultHash.getHex(),
+                                afterCommit);
+                    }
+                } catch (final ProcessException | SQLException | ParseException | IOException e) {
+                    if (isCancelledCall(e)
+                            && returnIfCancelled(processSession, flowFiles.subList(next - 1, flowFiles.size()))) {
+                        return;
+                    }
+                    getLogger().error("Unable to execute stored procedure {} for {} due to {}; routing to failure",
+                            new Object[]{procedure, flowFile, e});
+                    processSession.transfer(processSession.penalize(flowFile), REL_FAILURE);
+                }
+            }
+        } catch (final ProcessException | SQLException e) {
+            if (next == flowFiles.size()) {
+                getLogger().warn("Unable to close statement {} due to {}", new Object[]{procedure, e});
+                return;
+            }
+            if (returnIfCancelled(processSession, flowFiles.subList(next, flowFiles.size()))) {
+                return;
+            }
+            // the connection or the statement is not usable, FlowFiles not executed yet are routed to failure
+            for (FlowFile flowFile : flowFiles.subList(next, flowFiles.size())) {
+                getLogger().error("Unable to execute stored procedure {} for {} due to {}; routing to failure",
+                        new Object[]{procedure, flowFile, e});
+                processSession.transfer(processSession.penalize(flowFile), REL_FAILURE);
+            }
+            processContext.yield();
+        }
+    }
+
+    /**
+     * Resolve the stored procedure statement from processor property or FlowFile attribute.
+     *
+     * @param processContext the process context
+     * @param flowFile       the incoming FlowFile, may be null
+     * @return the stored procedure statement
+     * @throws ProcessException if no stored procedure statement available
+     */
+    private String resolveProcedure(final ProcessContext processContext, final FlowFile flowFile) {
+        final String procedure;
+        if (processContext.getProperty(STORED_PROCEDURE_STATEMENT).isSet()) {
+            procedure = processContext.getProperty(STORED_PROCEDURE_STATEMENT).evaluateAttributeExpressions(flowFile).getValue();
+        } else {
+            if (flowFile != null) {
+                procedure = flowFile.getAttribute(STORED_PROCEDURE_STATEMENT_KEY);
+            } else {
+                throw new ProcessException("Stored procedure statement must be specified.");
+            }
+        }
+        if (StringUtils.isBlank(procedure)) {
+            throw new ProcessException("Stored Procedure Statement could not be empty.");
+        }
+        return procedure;
+    }
+
+    /**
+     * Resolve stored procedure parameters from processor dynamic properties, overridden by FlowFile attributes.
+     *
+     * @param processContext the process context
+     * @param flowFile       the incoming FlowFile, may be null
+     * @return the built in parameter map
+     */
+    private Map<Integer, Parameter> resolveParameters(final ProcessContext processContext, final FlowFile flowFile) {
+        final Map<String, String> attributes = evaluateProperties(processContext, flowFile);
+        final Map<Integer, Parameter> parameterMap = new HashMap<>();
+        AttributeHandler.retrieveProcedureParameter(attributes, parameterMap);
+        if (null != flowFile) {
+            AttributeHandler.retrieveProcedureParameter(flowFile.getAttributes(), parameterMap);
+        }
+        return parameterMap;
+    }
+
+    /**
+     * Execute stored procedure on the given connection and write its result to a new FlowFile.
+     *
+     * @param listener   the listener of retrieved values, may be null
+     * @param resultHash the hash fed with the written result content, may be null
+     * @param allowAttributes whether the outputs may be written as attributes of the incoming FlowFile, in which
+     *                        case the incoming FlowFile itself is returned
+     * @return the result FlowFile
+     */
+    private FlowFile invoke(final ProcessSession processSession, final Connection connection, final FlowFile flowFile,
+                            final String procedure, final Map<Integer, Parameter> parameterMap, final int timeout,
+                            final StopWatch stopWatch, final ResultListener listener, final XxHash64 resultHash,
+                            final boolean allowAttributes)
+            throws SQLException, ParseException, IOException {
+        final SlowCallRecorder.Call call = startCall(procedure, parameterMap, flowFile, listener);
+        try (final CallableStatement callableStatement = connection.prepareCall(procedure)) {
+            if (null != call) {
+                call.endPhase(SlowCallRecorder.PHASE_PREPARE);
+            }
+            return invoke(processSession, callableStatement, flowFile, parameterMap, timeout, stopWatch, listener,
+                    resultHash, allowAttributes, call);
+        }
+    }
+
+    /**
+     * Execute a prepared stored procedure statement once with the given parameters, the statement is not closed
+     * so that it can be executed again.
+     *
+     * @param call the trace of the call, listening to retrieved values in place of listener, may be null
+     * @see #invoke(ProcessSession, Connection, FlowFile, String, Map, int, StopWatch, ResultListener, XxHash64, boolean)
+     */
+    private FlowFile invoke(final ProcessSession processSession, final CallableStatement callableStatement,
+                            final FlowFile flowFile, final Map<Integer, Parameter> parameterMap, final int timeout,
+                            final StopWatch stopWatch, final ResultListener resultListener, final XxHash64 resultHash,
+                            final boolean allowAttributes, final SlowCallRecorder.Call call)
+            throws SQLException, ParseException, IOException {
+        final ResultListener listener = null == call ? resultListener : call;
+        Throwable error = null;
+        try (final LobHandler lobHandler = new LobHandler(callableStatement, contentSource(processSession, flowFile))) {
+            beginStatement(callableStatement);
+            callableStatement.setQueryTimeout(timeout);
+            if (fetchSize > 0) {
+                callableStatement.setFetchSize(fetchSize);
+            }
+            JdbcHandler.setParameters(callableStatement, lobHandler, parameterMap);
+            execute(callableStatement);
+            if (null != call) {
+                call.endPhase(SlowCallRecorder.PHASE_EXECUTE);
+            }
+            final boolean hasResults = JsonHandler.hasMoreResults(callableStatement);
+            final Map<String, Object> outputValues;
+            // REF_CURSOR outputs are always streamed as content
+            if (!hasResults && allowAttributes && !OUTPUT_CONTENT.getValue().equals(outputDestination)
+                    && parameterMap.values().stream().noneMatch(JdbcHandler::isCursor)) {
+                outputValues = JsonHandler.retrieveOutputs(callableStatement, new ArrayList<>(parameterMap.values()));
+                if (null != listener) {
+                    outputValues.forEach(listener::onValue);
+                }
+                final Map<String, String> attributes = outputAttributes(outputValues);
+                if (OUTPUT_ATTRIBUTES.getValue().equals(outputDestination)
+                        || attributes.values().stream().mapToLong(ExecuteStoredProcedure::utf8Length).sum()
+                        <= outputAttributesMaxSize) {
+                    if (null != resultHash) {
+                        final byte[] bytes = new TreeMap<>(attributes).toString().getBytes(StandardCharsets.UTF_8);
+                        resultHash.update(bytes, 0, bytes.length);
+                    }
+                    attributes.put(PROCEDURE_EXECUTE_DURATION,
+                            String.valueOf(stopWatch.getElapsed(TimeUnit.MILLISECONDS)));
+                    if (null != call) {
+                        call.endPhase(SlowCallRecorder.PHASE_FETCH);
+                    }
+                    return processSession.putAllAttributes(flowFile == null ? processSession.create() : flowFile,
+                            attributes);
+                }
+            } else {
+                outputValues = null;
+            }
+            FlowFile resultSetFF;
+            if (flowFile == null) {
+                resultSetFF = processSession.create();
+            } else {
+                resultSetFF = processSession.create(flowFile);
+                resultSetFF = processSession.putAllAttributes(resultSetFF, flowFile.getAttributes());
+            }
+            try {
+                resultSetFF = processSession.write(resultSetFF, outputStream -> {
+                    try (final JsonGenerator jsonGenerator = outputMapper.getFactory()
+                            .createGenerator(contentStream(outputStream, resultHash), JsonEncoding.UTF8)) {
+                        if (null != outputValues) {
+                            // outputs already retrieved (and listened) but too large for attributes
+                            if (outputLines) {
+                                JsonHandler.writeOutputLine(outputValues, jsonGenerator);
+                            } else {
+                                JsonHandler.writeOutputs(outputValues, jsonGenerator);
+                            }
+                        } else if (outputLines) {
+                            JsonHandler.retrieveCallableStatementLines(callableStatement, jsonGenerator, parameterMap,
+                                    listener, hasResults);
+                        } else {
+                            JsonHandler.retrieveCallableStatement(callableStatement, jsonGenerator, parameterMap,
+                                    executorService, resultPipelineSize, listener, hasResults);
+                        }
+                    } catch (SQLException e) {
+                        throw new ProcessException(e);
+                    }
+                });
+            } catch (final ProcessException e) {
+                processSession.remove(resultSetFF);
+                throw e;
+            }
+            final long duration = stopWatch.getElapsed(TimeUnit.MILLISECONDS);
+            if (null != call) {
+                call.endPhase(SlowCallRecorder.PHASE_FETCH);
+                call.written(resultSetFF.getSize());
+            }
+            resultSetFF = putContentAttributes(processSession, resultSetFF);
+            return processSession.putAttribute(resultSetFF, PROCEDURE_EXECUTE_DURATION, String.valueOf(duration));
+        } catch (final SQLException | ParseException | IOException | RuntimeException e) {
+            error = e;
+            throw e;
+        } finally {
+            inFlightStatements.remove(callableStatement);
+            if (null != call) {
+                completeCall(call, error);
+            }
+        }
+    }
+
+    /**
+     * @return the supplier of the content of the incoming FlowFile for ARRAY/STRUCT parameters, NULL if none
+     */
+    private static Supplier<InputStream> contentSource(final ProcessSession processSession, final FlowFile flowFile) {
+        return null == flowFile ? null : () -> processSession.read(flowFile);
+    }
+
+    /**
+     * Register a statement as in flight until it is removed from {@link #inFlightStatements}, so that it can be
+     * cancelled when the processor is stopped.
+     *
+     * @throws SQLException if the processor is stopping and already cancelled its in-flight statements
+     */
+    private void beginStatement(final Statement statement) throws SQLException {
+        inFlightStatements.put(statement, new AtomicInteger(STATEMENT_EXECUTING));
+        if (cancelling) {
+            inFlightStatements.remove(statement);
+            throw new CallCancelledException("Processor is stopping, stored procedure not executed", null);
+        }
+    }
+
+    /**
+     * Execute an in-flight statement.
+     *
+     * @throws CallCancelledException if the statement failed after it was cancelled before execute() returned
+     */
+    private void execute(final CallableStatement callableStatement) throws SQLException {
+        final AtomicInteger state = inFlightStatements.get(callableStatement);
+        try {
+            callableStatement.execute();
+        } catch (final SQLException e) {
+            if (null != state && state.get() == STATEMENT_CANCELLED) {
+                throw new CallCancelledException("Stored procedure cancelled on stop", e);
+            }
+            throw e;
+        }
+        if (null != state) {
+            // a cancel arriving once execute() returned is too late, the call may have taken effect
+            state.set(STATEMENT_EXECUTED);
+        }
+    }
+
+    /**
+     * @return true if the failure is a call cancelled or rejected before it was executed
+     */
+    private static boolean isCancelledCall(final Throwable failure) {
+        for (Throwable cause = failure; null != cause; cause = cause.getCause()) {
+            if (cause instanceof CallCancelledException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return incoming FlowFiles to the input queue if the processor is stopping and their calls were not executed,
+     * were cancelled before execute() returned or were rolled back with their transaction group.
+     *
+     * @return true if the processor is stopping and the FlowFiles were returned
+     */
+    private boolean returnIfCancelled(final ProcessSession processSession, final Collection<FlowFile> flowFiles) {
+        if (!cancelling) {
+            return false;
+        }
+        for (FlowFile flowFile : flowFiles) {
+            processSession.transfer(flowFile);
+        }
+        getLogger().info("Processor is stopping, returned {} FlowFile(s) to the input queue",
+                new Object[]{flowFiles.size()});
+        return true;
+    }
+
+    /**
+     * Start tracing a call if slow calls are captured.
+     *
+     * @return the call trace, null if slow calls are not captured
+     */
+    private SlowCallRecorder.Call startCall(final String procedure, final Map<Integer, Parameter> parameterMap,
+                                            final FlowFile flowFile, final ResultListener listener) {
+        final SlowCallRecorder recorder = slowCallRecorder;
+        return null == recorder ? null : recorder.start(procedure, parameterMap.values(),
+                null == flowFile ? null : flowFile.getAttribute(CoreAttributes.UUID.key()), listener);
+    }
+
+    private void completeCall(final SlowCallRecorder.Call call, final Throwable error) {
+        final SlowCallRecorder recorder = slowCallRecorder;
+        if (null != recorder && recorder.complete(call, error) && slowCallBulletin) {
+            try {
+                getLogger().warn("Slow stored procedure call {}",
+                        new Object[]{objectMapper.writeValueAsString(call.toMap())});
+            } catch (final JsonProcessingException e) {
+                getLogger().warn("Unable to write slow call due to {}", new Object[]{e});
+            }
+        }
+    }
+
+    /**
+     * Pull the next incoming FlowFile, routing requests to dump the captured slow calls on the way.
+     *
+     * @return the next incoming FlowFile to execute, null if none
+     */
+    private FlowFile nextFlowFile(final ProcessSession processSession) {
+        FlowFile flowFile = processSession.get();
+        while (null != flowFile && isSlowCallDump(flowFile)) {
+            dumpSlowCalls(processSession, flowFile);
+            flowFile = processSession.get();
+        }
+        return flowFile;
+    }
+
+    private boolean isSlowCallDump(final FlowFile flowFile) {
+        return slowCallDump && null != slowCallRecorder && null != flowFile.getAttribute(DUMP_SLOW_CALLS_KEY);
+    }
+
+    /**
+     * Replace the content of a dump request by the captured slow calls and route it to slow calls.
+     */
+    private void dumpSlowCalls(final ProcessSession processSession, final FlowFile flowFile) {
+        final List<Map<String, Object>> calls = slowCallRecorder.snapshot();
+        FlowFile dumpFF = processSession.write(flowFile, outputStream -> objectMapper.writeValue(outputStream, calls));
+        dumpFF = processSession.putAttribute(dumpFF, CoreAttributes.MIME_TYPE.key(), "application/json");
+        dumpFF = processSession.putAttribute(dumpFF, RECORD_COUNT, String.valueOf(calls.size()));
+        processSession.transfer(dumpFF, REL_SLOW_CALLS);
+    }
+
+    /**
+     * Execute the stored procedure and write every ResultSet as an Arrow IPC stream into its own FlowFile, see
+     * {@link ExecuteStoredProcedure#ENCODING_ARROW}.
+     *
+     * @return the result FlowFiles in ResultSet order, a single empty FlowFile if there is no ResultSet
+     */
+    private List<FlowFile> invokeArrow(final ProcessSession processSession, final Connection connection,
+                                       final FlowFile flowFile, final String procedure,
+                                       final Map<Integer, Parameter> parameterMap, final int timeout,
+                                       final StopWatch stopWatch) throws SQLException, ParseException, IOException {
+        final List<FlowFile> results = new ArrayList<>();
+        try (final CallableStatement callableStatement = connection.prepareCall(procedure);
+             final LobHandler lobHandler = new LobHandler(callableStatement,
+                     contentSource(processSession, flowFile))) {
+            beginStatement(callableStatement);
+            try {
+                callableStatement.setQueryTimeout(timeout);
+                if (fetchSize > 0) {
+                    callableStatement.setFetchSize(fetchSize);
+                }
+                JdbcHandler.setParameters(callableStatement, lobHandler, parameterMap);
+                execute(callableStatement);
+                boolean hasResults = JsonHandler.hasMoreResults(callableStatement);
+                while (hasResults) {
+                    if (callableStatement.getUpdateCount() == -1) {
+                        writeArrowResult(processSession, flowFile, callableStatement.getResultSet(), results);
+                    }
+                    hasResults = JsonHandler.hasMoreResults(callableStatement);
+                }
+                // REF_CURSOR outputs follow as further results
+                for (Parameter parameter : parameterMap.values()) {
+                    if (JdbcHandler.isCursor(parameter)) {
+                        try (final ResultSet cursor = JdbcHandler.getCursor(callableStatement, parameter)) {
+                            if (null != cursor) {
+                                writeArrowResult(processSession, flowFile, cursor, results);
+                            }
+                        }
+                    }
+                }
+                // OUT/INOUT values are only available once all results are consumed
+                final Map<String, String> attributes = outputAttributes(JsonHandler.retrieveOutputs(
+                        callableStatement, new ArrayList<>(parameterMap.values())));
+                attributes.put(PROCEDURE_EXECUTE_DURATION,
+                        String.valueOf(stopWatch.getElapsed(TimeUnit.MILLISECONDS)));
+                if (results.isEmpty()) {
+                    results.add(createResult(processSession, flowFile));
+                }
+                results.replaceAll(resultSetFF -> processSession.putAllAttributes(resultSetFF, attributes));
+                return results;
+            } finally {
+                inFlightStatements.remove(callableStatement);
+            }
+        } catch (final ProcessException | SQLException | IOException e) {
+            results.forEach(processSession::remove);
+            throw e;
+        }
+    }
+
+    /**
+     * Write a ResultSet as Arrow IPC stream into a new result FlowFile, see
+     * {@link #invokeArrow(ProcessSession, Connection, FlowFile, String, Map, int, StopWatch)}.
+     */
+    private void writeArrowResult(final ProcessSession processSession, final FlowFile flowFile,
+                                  final ResultSet resultSet, final List<FlowFile> results) {
+        final AtomicLong recordCount = new AtomicLong();
+        FlowFile resultSetFF = createResult(processSession, flowFile);
+        try {
+            resultSetFF = processSession.write(resultSetFF, outputStream -> {
+                try (final OutputStream out = contentStream(outputStream, null)) {
+                    recordCount.set(ArrowHandler.writeResultSet(resultSet, out, arrowAllocator, arrowBatchSize));
+                } catch (SQLException e) {
+                    throw new ProcessException(e);
+                }
+            });
+        } catch (final ProcessException e) {
+            processSession.remove(resultSetFF);
+            throw e;
+        }
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put(PROCEDURE_RESULT_INDEX, String.valueOf(results.size()));
+        attributes.put(RECORD_COUNT, String.valueOf(recordCount.get()));
+        results.add(putContentAttributes(processSession, processSession.putAllAttributes(resultSetFF, attributes)));
+    }
+
+    private static FlowFile createResult(final ProcessSession processSession, final FlowFile flowFile) {
+        if (flowFile == null) {
+            return processSession.create();
+        }
+        final FlowFile resultSetFF = processSession.create(flowFile);
+        return processSession.putAllAttributes(resultSetFF, flowFile.getAttributes());
+    }
+
+    /**
+     * Execute the read-only stored procedure hedged, see {@link ExecuteStoredProcedure#HEDGE_PERCENTILE}, and write
+     * the result of the winning call as content. The calls borrow their own connections. The content read by ARRAY or
+     * STRUCT parameters is buffered first, as the calls run outside the thread of the session.
+     *
+     * @return the result FlowFile
+     */
+    private FlowFile invokeHedged(final ProcessContext processContext, final ProcessSession processSession,
+                                  final FlowFile flowFile, final String procedure,
+                                  final Map<Integer, Parameter> parameterMap, final int timeout,
+                                  final StopWatch stopWatch, final XxHash64 resultHash)
+            throws SQLException, ParseException, IOException {
+        final DBCPService dbcpService = processContext.getProperty(DBCP_SERVICE).asControllerService(DBCPService.class);
+        final DBCPService hedgeService = processContext.getProperty(HEDGE_DBCP_SERVICE).isSet()
+                ? processContext.getProperty(HEDGE_DBCP_SERVICE).asControllerService(DBCPService.class) : dbcpService;
+        Supplier<InputStream> content = null;
+        if (null != flowFile && JdbcHandler.readsContent(parameterMap)) {
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+                    (int) Math.min(flowFile.getSize(), Integer.MAX_VALUE - 8));
+            processSession.exportTo(flowFile, buffer);
+            final byte[] bytes = buffer.toByteArray();
+            content = () -> new ByteArrayInputStream(bytes);
+        }
+        final HedgeHandler.Result result = hedgeHandler.execute(procedure, parameterMap,
+                () -> identifiedConnection(dbcpService), () -> identifiedConnection(hedgeService), content,
+                executorService, timeout, objectMapper);
+        processSession.adjustCounter(COUNTER_CALLS, 1, false);
+        if (result.isHedged()) {
+            processSession.adjustCounter(COUNTER_HEDGED_CALLS, 1, false);
+        }
+        if (result.isHedgeWon()) {
+            processSession.adjustCounter(COUNTER_HEDGE_WINS, 1, false);
+        }
+        FlowFile resultSetFF = createResult(processSession, flowFile);
+        resultSetFF = processSession.write(resultSetFF, outputStream -> {
+            try (final JsonGenerator jsonGenerator = outputMapper.getFactory()
+                    .createGenerator(contentStream(outputStream, resultHash), JsonEncoding.UTF8)) {
+                result.getBuffer().serialize(jsonGenerator);
+            }
+        });
+        resultSetFF = putContentAttributes(processSession, resultSetFF);
+        return processSession.putAttribute(resultSetFF, PROCEDURE_EXECUTE_DURATION,
+                String.valueOf(stopWatch.getElapsed(TimeUnit.MILLISECONDS)));
+    }
+
+    /**
+     * @return the milliseconds left until the earlier of the deadline attribute and the max age of the incoming
+     * FlowFile, {@link Long#MAX_VALUE} if it has no deadline
+     */
+    private long remainingMillis(final FlowFile flowFile) {
+        if (flowFile == null) {
+            return Long.MAX_VALUE;
+        }
+        final long now = System.currentTimeMillis();
+        long remaining = Long.MAX_VALUE;
+        if (maxFlowFileAge >= 0) {
+            remaining = flowFile.getLineageStartDate() + maxFlowFileAge - now;
+        }
+        final String deadline = deadlineAttribute == null ? null : flowFile.getAttribute(deadlineAttribute);
+        if (StringUtils.isNotBlank(deadline)) {
+            try {
+                remaining = Math.min(remaining, Long.parseLong(deadline.trim()) - now);
+            } catch (final NumberFormatException e) {
+                getLogger().warn("Ignoring deadline {} of {} as it is not milliseconds since epoch",
+                        new Object[]{deadline, flowFile});
+            }
+        }
+        return remaining;
+    }
+
+    /**
+     * @return the configured query timeout in seconds limited to the time left, rounded up to whole seconds
+     */
+    private static int callTimeout(final int timeout, final long remainingMillis) {
+        if (remainingMillis == Long.MAX_VALUE) {
+            return timeout;
+        }
+        final int remainingSeconds = (int) Math.min(Integer.MAX_VALUE, (remainingMillis + 999L) / 1000L);
+        return timeout <= 0 ? remainingSeconds : Math.min(timeout, remainingSeconds);
+    }
+
+    private void transferExpired(final ProcessSession processSession, final FlowFile flowFile) {
+        getLogger().debug("Deadline of {} passed, routing to expired", new Object[]{flowFile});
+        processSession.transfer(flowFile, REL_EXPIRED);
+    }
+
+    /**
+     * Transfer the result FlowFile to success and drop the incoming FlowFile it was created from.
+     */
+    private void transferResult(final ProcessSession processSession, final FlowFile resultSetFF, final FlowFile flowFile) {
+        final long duration = Long.parseLong(resultSetFF.getAttribute(PROCEDURE_EXECUTE_DURATION));
+        if (isSameFlowFile(resultSetFF, flowFile)) {
+            processSession.getProvenanceReporter().modifyAttributes(resultSetFF, "Procedure executed. ");
+            processSession.transfer(resultSetFF, REL_SUCCESS);
+            return;
+        }
+        processSession.getProvenanceReporter().modifyContent(resultSetFF, "Procedure executed. ", duration);
+        processSession.transfer(resultSetFF, REL_SUCCESS);
+        if (flowFile != null) {
+            processSession.remove(flowFile);
+        }
+    }
+
+    /**
+     * Wrap the content stream of a result FlowFile with the configured compression and the result hash.
+     * The hash is computed on uncompressed content, so it does not depend on the compression settings.
+     */
+    private OutputStream contentStream(final OutputStream outputStream, final XxHash64 resultHash) throws IOException {
+        final OutputStream out = CompressionHandler.compress(outputStream, compression, compressionLevel,
+                compressionBufferSize);
+        return resultHash == null ? out : new HashingOutputStream(out, resultHash);
+    }
+
+    /**
+     * Describe the content written by {@link ExecuteStoredProcedure#contentStream(OutputStream, XxHash64)}.
+     */
+    private FlowFile putContentAttributes(final ProcessSession processSession, final FlowFile resultSetFF) {
+        final String mimeType = CompressionHandler.mimeType(compression);
+        if (null != mimeType) {
+            final Map<String, String> attributes = new HashMap<>();
+            attributes.put(CoreAttributes.MIME_TYPE.key(), mimeType);
+            attributes.put(PROCEDURE_COMPRESSION, compression);
+            return processSession.putAllAttributes(resultSetFF, attributes);
+        }
+        if (arrowAllocator != null) {
+            return processSession.putAttribute(resultSetFF, CoreAttributes.MIME_TYPE.key(),
+                    "application/vnd.apache.arrow.stream");
+        } else if (outputLines) {
+            return processSession.putAttribute(resultSetFF, CoreAttributes.MIME_TYPE.key(), "application/x-ndjson");
+        } else if (outputMapper == smileMapper) {
+            return processSession.putAttribute(resultSetFF, CoreAttributes.MIME_TYPE.key(), "application/x-jackson-smile");
+        } else if (outputMapper == cborMapper) {
+            return processSession.putAttribute(resultSetFF, CoreAttributes.MIME_TYPE.key(), "application/cbor");
+        }
+        return resultSetFF;
+    }
+
+    /**
+     * @return true if the result was written as attributes of the incoming FlowFile
+     */
+    private static boolean isSameFlowFile(final FlowFile resultSetFF, final FlowFile flowFile) {
+        return flowFile != null && resultSetFF.getId() == flowFile.getId();
+    }
+
+    /**
+     * @return the number of bytes of the value encoded as UTF-8, without encoding it
+     */
+    private static long utf8Length(final String value) {
+        long length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Convert output values into attributes, see {@link ExecuteStoredProcedure#OUTPUT_DESTINATION}.
+     */
+    private static Map<String, String> outputAttributes(final Map<String, Object> outputValues) {
+        final Map<String, String> attributes = new HashMap<>();
+        outputValues.forEach((name, value) -> {
+            final String attributeValue = AttributeHandler.attributeValue(value);
+            if (null != attributeValue) {
+                attributes.put(PROCEDURE_OUTPUT_PREFIX + name, attributeValue);
+            }
+        });
+        return attributes;
+    }
+
+    /**
+     * Borrow a connection, turning a rejection by an overloaded pool into a {@link PoolOverloadException}, so that
+     * the session is rolled back and the processor yields instead of failing the FlowFiles.
+     */
+    private Connection borrowConnection(final DBCPService dbcpService) {
+        try {
+            return identifiedConnection(dbcpService);
+        } catch (final ProcessException e) {
+            if (isPoolOverload(e)) {
+                throw new PoolOverloadException(e);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Borrow a connection on behalf of this processor instance. Pools offering getConnection(String), e.g. the
+     * HikariCPStatisticsService, are passed the processor identifier, so that their hold time tracking tells the
+     * instances of this processor apart. The method is looked up on the service proxy, as the interface of the pool
+     * is not visible to the classloader of this processor.
+     */
+    private Connection identifiedConnection(final DBCPService dbcpService) {
+        final Method method = IDENTIFIED_GET_CONNECTION.get(dbcpService.getClass());
+        if (null == method) {
+            return dbcpService.getConnection();
+        }
+        try {
+            return (Connection) method.invoke(dbcpService, getIdentifier());
+        } catch (final InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new ProcessException(e.getCause());
+        } catch (final IllegalAccessException e) {
+            return dbcpService.getConnection();
+        }
+    }
+
+    /**
+     * @return true if the exception is a transient rejection of the pool, e.g. by its concurrency limit
+     */
+    private static boolean isPoolOverload(final Exception e) {
+        return e instanceof ProcessException && e.getCause() instanceof SQLTransientConnectionException;
+    }
+
+    /**
+     * Transfer the result FlowFile if its hash differs from the last committed result hash of the same statement and
+     * parameters, otherwise drop it together with the incoming FlowFile. The hash stays pending until the session is
+     * committed, so a result rolled back or lost by a failed commit is not suppressed on the next execution.
+     * Concurrent executions with the same new result may both transfer it until one of them committed.
+     */
+    private void transferChangedResult(final ProcessContext processContext, final ProcessSession processSession,
+                                       final FlowFile resultSetFF, final FlowFile flowFile, final String key,
+                                       final String hash, final List<Runnable> afterCommit) {
+        if (hash.equals(resultHashes.get(key))) {
+            getLogger().debug("Result of {} is unchanged, dropping it", new Object[]{flowFile == null ? key : flowFile});
+            processSession.remove(resultSetFF);
+            if (flowFile != null && !isSameFlowFile(resultSetFF, flowFile)) {
+                processSession.remove(flowFile);
+            }
+            return;
+        }
+        transferResult(processSession, resultSetFF, flowFile);
+        afterCommit.add(() -> recordResultHash(processContext, key, hash));
+    }
+
+    /**
+     * Record the result hash of a committed result, and store the cache in the local state if configured. The state is
+     * written while holding the cache, so concurrent tasks cannot store an older snapshot last.
+     */
+    private void recordResultHash(final ProcessContext processContext, final String key, final String hash) {
+        final boolean store = CHANGE_DETECTION_STATE.getValue()
+                .equals(processContext.getProperty(CHANGE_DETECTION).getValue());
+        synchronized (resultHashes) {
+            resultHashes.put(key, hash);
+            if (!store) {
+                return;
+            }
+            // the bounded cache is loaded from state on schedule and decides which combinations are kept
+            final Map<String, String> state = new HashMap<>();
+            resultHashes.forEach((k, v) -> state.put(RESULT_HASH_STATE_PREFIX + k, v));
+            try {
+                processContext.getStateManager().setState(state, Scope.LOCAL);
+            } catch (final IOException e) {
+                getLogger().warn("Unable to store result hashes in processor state due to {}", new Object[]{e});
+            }
+        }
+    }
+
+    private Map<String, String> evaluateProperties(final ProcessContext processContext, final FlowFile flowFile) {
+        final Map<String, String> map = new HashMap<>();
+        processContext.getProperties().forEach((p, v) -> {
+            if (p.isDynamic() && p.isExpressionLanguageSupported()) {
+                map.put(p.getName(), processContext.getProperty(p).evaluateAttributeExpressions(flowFile).getValue());
+            } else {
+                map.put(p.getName(), v);
             }
         });
         return map;
     }
+
+    /**
+     * No connection could be borrowed as the pool is overloaded, rolls back the session and yields.
+     */
+    private static final class PoolOverloadException extends RuntimeException {
+        private PoolOverloadException(final Exception cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * A stored procedure call of a transaction group.
+     */
+    private static final class GroupCall {
+        private final FlowFile flowFile;
+        private final String procedure;
+        private final Map<Integer, Parameter> parameterMap;
+        private final long deadline;
+
+        private GroupCall(final FlowFile flowFile, final String procedure, final Map<Integer, Parameter> parameterMap,
+                          final long remainingMillis) {
+            this.flowFile = flowFile;
+            this.procedure = procedure;
+            this.parameterMap = parameterMap;
+            this.deadline = remainingMillis == Long.MAX_VALUE
+                    ? Long.MAX_VALUE : System.currentTimeMillis() + remainingMillis;
+        }
+
+        /**
+         * @return the milliseconds left until the deadline of the call, or Long.MAX_VALUE if it has none
+         */
+        private long remainingMillis() {
+            return deadline == Long.MAX_VALUE ? Long.MAX_VALUE : deadline - System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Failure of a call cancelled or rejected when the processor is stopping before the call was executed.
+     */
+    private static final class CallCancelledException extends SQLException {
+        private CallCancelledException(final String reason, final SQLException cause) {
+            super(reason, "HY008", cause);
+        }
+    }
 }
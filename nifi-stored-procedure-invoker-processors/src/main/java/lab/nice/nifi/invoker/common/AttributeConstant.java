@@ -7,6 +7,9 @@ public final class AttributeConstant {
     public static final String PROCEDURE_FORMAT_TEMPLATE = "procedure.args.%s.%d.format";
     public static final String PROCEDURE_NAME_TEMPLATE = "procedure.args.%s.%d.name";
 
+    public static final String PROCEDURE_ARGS_PREFIX = "procedure.args.";
+    public static final String WARM_UP_ARGS_PREFIX = "procedure.warm.up.args.";
+
     public static final Pattern PROCEDURE_TYPE_ATTRIBUTE =
             Pattern.compile("procedure\\.args\\.(in|out|inout)\\.(\\d+)\\.type");
 
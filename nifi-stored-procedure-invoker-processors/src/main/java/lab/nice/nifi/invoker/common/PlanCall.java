@@ -0,0 +1,111 @@
+package lab.nice.nifi.invoker.common;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A stored procedure call inside an execution plan.
+ * Parameters of the call are given the same way as processor properties or FlowFile attributes
+ * (procedure.args.in.N.type, procedure.args.in.N.value ...). IN/INOUT parameters can be bound to
+ * the output of another call of the plan by {@code callId.outputName}, which makes this call depends on that call.
+ */
+public class PlanCall {
+    private final String id;
+    private final String statement;
+    private final Map<String, String> parameters;
+    private final Map<Integer, String> bindings;
+    private final Set<String> dependencies;
+
+    public PlanCall(final String id, final String statement, final Map<String, String> parameters,
+                    final Map<Integer, String> bindings, final Set<String> dependsOn) {
+        this.id = id;
+        this.statement = statement;
+        this.parameters = Collections.unmodifiableMap(new LinkedHashMap<>(parameters));
+        this.bindings = Collections.unmodifiableMap(new LinkedHashMap<>(bindings));
+        final Set<String> d = new LinkedHashSet<>(dependsOn);
+        for (String binding : bindings.values()) {
+            d.add(bindingCall(binding));
+        }
+        this.dependencies = Collections.unmodifiableSet(d);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getStatement() {
+        return statement;
+    }
+
+    public Map<String, String> getParameters() {
+        return parameters;
+    }
+
+    public Map<Integer, String> getBindings() {
+        return bindings;
+    }
+
+    public Set<String> getDependencies() {
+        return dependencies;
+    }
+
+    /**
+     * Get the call id part of a binding expression {@code callId.outputName}.
+     *
+     * @param binding the binding expression
+     * @return the call id
+     */
+    public static String bindingCall(final String binding) {
+        final int separator = binding.indexOf('.');
+        if (separator <= 0 || separator == binding.length() - 1) {
+            throw new IllegalArgumentException("Binding:" + binding + " is not in 'callId.outputName' form.");
+        }
+        return binding.substring(0, separator);
+    }
+
+    /**
+     * Get the output name part of a binding expression {@code callId.outputName}.
+     *
+     * @param binding the binding expression
+     * @return the output name
+     */
+    public static String bindingOutput(final String binding) {
+        return binding.substring(bindingCall(binding).length() + 1);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final PlanCall planCall = (PlanCall) o;
+        return Objects.equals(id, planCall.id) &&
+                Objects.equals(statement, planCall.statement) &&
+                Objects.equals(parameters, planCall.parameters) &&
+                Objects.equals(bindings, planCall.bindings) &&
+                Objects.equals(dependencies, planCall.dependencies);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, statement, parameters, bindings, dependencies);
+    }
+
+    @Override
+    public String toString() {
+        return "PlanCall{" +
+                "id='" + id + '\'' +
+                ", statement='" + statement + '\'' +
+                ", parameters=" + parameters +
+                ", bindings=" + bindings +
+                ", dependencies=" + dependencies +
+                '}';
+    }
+}
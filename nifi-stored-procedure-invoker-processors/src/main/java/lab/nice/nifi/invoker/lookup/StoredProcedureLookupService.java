@@ -0,0 +1,328 @@
+package lab.nice.nifi.invoker.lookup;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lab.nice.nifi.invoker.common.Parameter;
+import lab.nice.nifi.invoker.util.AttributeHandler;
+import lab.nice.nifi.invoker.util.JdbcHandler;
+import lab.nice.nifi.invoker.util.JsonHandler;
+import lab.nice.nifi.invoker.util.LobHandler;
+import lab.nice.nifi.invoker.util.RefreshingCache;
+import org.apache.nifi.annotation.behavior.DynamicProperty;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnDisabled;
+import org.apache.nifi.annotation.lifecycle.OnEnabled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.PropertyValue;
+import org.apache.nifi.controller.AbstractControllerService;
+import org.apache.nifi.controller.ConfigurationContext;
+import org.apache.nifi.dbcp.DBCPService;
+import org.apache.nifi.lookup.LookupFailureException;
+import org.apache.nifi.lookup.RecordLookupService;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.serialization.SimpleRecordSchema;
+import org.apache.nifi.serialization.record.DataType;
+import org.apache.nifi.serialization.record.MapRecord;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordField;
+import org.apache.nifi.serialization.record.RecordFieldType;
+import org.apache.nifi.stream.io.NullOutputStream;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Record lookup backed by a stored procedure. The lookup coordinates are bound to the procedure parameters the same
+ * way FlowFile attributes are bound by {@link lab.nice.nifi.invoker.ExecuteStoredProcedure}, results are cached.
+ */
+@Tags({"lookup", "enrich", "procedure", "rdbms", "database", "cache"})
+@CapabilityDescription("Lookup a record by calling a stored procedure via JDBC. The parameters of the statement are "
+        + "configured by 'procedure.args.*' dynamic properties, whose values may reference the lookup coordinates "
+        + "with Expression Language, lookup coordinates named 'procedure.args.*' are bound directly. The record "
+        + "holds the columns of the first row of each ResultSet and the OUT/INOUT values, the first value of a name "
+        + "wins. DECIMAL/NUMERIC values are kept exact as string fields. A call returning no row and no output "
+        + "yields no record. Results are cached by coordinates.")
+@DynamicProperty(name = "procedure.args.(in|out|inout).N.(type|value|format|name)",
+        value = "The parameter type, value, format or name",
+        supportsExpressionLanguage = true,
+        description = "Specifies a stored procedure parameter in the same way as the attributes read by "
+                + "ExecuteStoredProcedure. Expression Language is evaluated against the lookup coordinates.")
+public class StoredProcedureLookupService extends AbstractControllerService implements RecordLookupService {
+
+    public static final PropertyDescriptor DBCP_SERVICE = new PropertyDescriptor.Builder()
+            .name("dbcp.service")
+            .displayName("Database Connection Pooling Service")
+            .description("The Controller Service that is used to obtain connection to database")
+            .required(true)
+            .identifiesControllerService(DBCPService.class)
+            .build();
+
+    public static final PropertyDescriptor STORED_PROCEDURE_STATEMENT = new PropertyDescriptor.Builder()
+            .name("stored.procedure.statement")
+            .displayName("Stored Procedure Statement")
+            .description("The stored procedure statement to call for each lookup, e.g. {call find_customer(?, ?)}.")
+            .required(true)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROCEDURE_EXECUTION_TIMEOUT = new PropertyDescriptor.Builder()
+            .name("procedure.max.wait.time")
+            .displayName("Max Wait Time in Seconds")
+            .description("The maximum amount of time allowed for a running stored procedure statement, "
+                    + "zero means there is no limit. Max time less than 1 second will be equal to zero.")
+            .defaultValue("0 seconds")
+            .required(true)
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor REQUIRED_KEYS = new PropertyDescriptor.Builder()
+            .name("lookup.required.keys")
+            .displayName("Required Keys")
+            .description("Comma separated names of the lookup coordinates that must be provided.")
+            .required(false)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor CACHE_SIZE = new PropertyDescriptor.Builder()
+            .name("lookup.cache.size")
+            .displayName("Cache Size")
+            .description("The maximum number of lookup results kept, the least recently used result is evicted first. "
+                    + "Zero disables caching.")
+            .defaultValue("10000")
+            .required(true)
+            .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor CACHE_TTL = new PropertyDescriptor.Builder()
+            .name("lookup.cache.ttl")
+            .displayName("Cache Time To Live")
+            .description("How long a cached result is used, an expired result is looked up again on its next use.")
+            .defaultValue("5 mins")
+            .required(true)
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor CACHE_REFRESH_AFTER = new PropertyDescriptor.Builder()
+            .name("lookup.cache.refresh.after")
+            .displayName("Cache Refresh After")
+            .description("The age after which a cached result is refreshed in the background on its next use, the "
+                    + "cached result is still returned meanwhile, so frequently used coordinates never wait for the "
+                    + "database. Not refreshed ahead if not less than 'Cache Time To Live'.")
+            .defaultValue("4 mins")
+            .required(true)
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    private static final List<PropertyDescriptor> properties;
+
+    static {
+        final List<PropertyDescriptor> props = new ArrayList<>();
+        props.add(DBCP_SERVICE);
+        props.add(STORED_PROCEDURE_STATEMENT);
+        props.add(PROCEDURE_EXECUTION_TIMEOUT);
+        props.add(REQUIRED_KEYS);
+        props.add(CACHE_SIZE);
+        props.add(CACHE_TTL);
+        props.add(CACHE_REFRESH_AFTER);
+
+        properties = Collections.unmodifiableList(props);
+    }
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private volatile DBCPService dbcpService;
+    private volatile String procedure;
+    private volatile int timeout;
+    private volatile Set<String> requiredKeys = Collections.emptySet();
+    private volatile Map<String, PropertyValue> parameterProperties;
+    private volatile ExecutorService executorService;
+    private volatile RefreshingCache<Map<String, String>, Record> cache;
+
+    @Override
+    protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return properties;
+    }
+
+    @Override
+    protected PropertyDescriptor getSupportedDynamicPropertyDescriptor(final String propertyDescriptorName) {
+        return new PropertyDescriptor.Builder()
+                .name(propertyDescriptorName)
+                .required(false)
+                .addValidator(StandardValidators.ATTRIBUTE_KEY_PROPERTY_NAME_VALIDATOR)
+                .expressionLanguageSupported(true)
+                .dynamic(true)
+                .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+                .build();
+    }
+
+    @OnEnabled
+    public void onEnabled(final ConfigurationContext context) {
+        dbcpService = context.getProperty(DBCP_SERVICE).asControllerService(DBCPService.class);
+        procedure = context.getProperty(STORED_PROCEDURE_STATEMENT).getValue();
+        timeout = context.getProperty(PROCEDURE_EXECUTION_TIMEOUT).asTimePeriod(TimeUnit.SECONDS).intValue();
+        requiredKeys = context.getProperty(REQUIRED_KEYS).isSet()
+                ? Collections.unmodifiableSet(Arrays.stream(context.getProperty(REQUIRED_KEYS).getValue().split(","))
+                .map(String::trim).filter(key -> !key.isEmpty()).collect(Collectors.toSet()))
+                : Collections.emptySet();
+        final Map<String, PropertyValue> parameters = new HashMap<>();
+        context.getProperties().keySet().stream().filter(PropertyDescriptor::isDynamic)
+                .forEach(p -> parameters.put(p.getName(), context.getProperty(p)));
+        parameterProperties = parameters;
+
+        final int cacheSize = context.getProperty(CACHE_SIZE).asInteger();
+        if (cacheSize > 0) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            executorService = Executors.newCachedThreadPool(runnable -> {
+                final Thread thread = new Thread(runnable, "StoredProcedureLookupService-" + getIdentifier() + "-"
+                        + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            cache = new RefreshingCache<>(cacheSize,
+                    context.getProperty(CACHE_TTL).asTimePeriod(TimeUnit.MILLISECONDS),
+                    context.getProperty(CACHE_REFRESH_AFTER).asTimePeriod(TimeUnit.MILLISECONDS),
+                    TimeUnit.MILLISECONDS, executorService, this::call);
+        } else {
+            cache = null;
+        }
+    }
+
+    @OnDisabled
+    public void onDisabled() {
+        cache = null;
+        if (executorService != null) {
+            executorService.shutdownNow();
+            executorService = null;
+        }
+    }
+
+    @Override
+    public Optional<Record> lookup(final Map<String, String> coordinates) throws LookupFailureException {
+        final Map<String, String> key = null == coordinates ? Collections.emptyMap() : new HashMap<>(coordinates);
+        final RefreshingCache<Map<String, String>, Record> current = cache;
+        try {
+            return Optional.ofNullable(null == current ? call(key) : current.get(key));
+        } catch (final LookupFailureException e) {
+            throw e;
+        } catch (final Exception e) {
+            throw new LookupFailureException(e);
+        }
+    }
+
+    @Override
+    public Set<String> getRequiredKeys() {
+        return requiredKeys;
+    }
+
+    /**
+     * Call the stored procedure with the parameters bound from the lookup coordinates.
+     *
+     * @param coordinates the lookup coordinates
+     * @return the record, NULL if the call returned no row and no output
+     * @throws Exception if failed to bind parameters or to call the stored procedure
+     */
+    private Record call(final Map<String, String> coordinates) throws Exception {
+        final Map<String, String> attributes = new HashMap<>();
+        parameterProperties.forEach((name, value) ->
+                attributes.put(name, value.evaluateAttributeExpressions(coordinates).getValue()));
+        final Map<Integer, Parameter> parameterMap = new HashMap<>();
+        AttributeHandler.retrieveProcedureParameter(attributes, parameterMap);
+        AttributeHandler.retrieveProcedureParameter(coordinates, parameterMap);
+
+        final Map<String, Object> values = new LinkedHashMap<>();
+        try (final Connection connection = dbcpService.getConnection();
+             final CallableStatement callableStatement = connection.prepareCall(procedure);
+             final LobHandler lobHandler = new LobHandler(callableStatement)) {
+            callableStatement.setQueryTimeout(timeout);
+            // only the first row of each ResultSet is used
+            callableStatement.setMaxRows(1);
+            JdbcHandler.setParameters(callableStatement, lobHandler, parameterMap);
+            callableStatement.execute();
+            try (final JsonGenerator jsonGenerator = objectMapper.getFactory()
+                    .createGenerator(new NullOutputStream(), JsonEncoding.UTF8)) {
+                JsonHandler.retrieveCallableStatement(callableStatement, jsonGenerator, parameterMap, null, 0,
+                        values::putIfAbsent);
+            }
+        }
+        return values.isEmpty() ? null : toRecord(values);
+    }
+
+    private static Record toRecord(final Map<String, Object> values) {
+        final List<RecordField> fields = new ArrayList<>();
+        final Map<String, Object> converted = new LinkedHashMap<>();
+        values.forEach((name, value) -> {
+            final Object recordValue;
+            final DataType dataType;
+            if (value instanceof Integer) {
+                recordValue = value;
+                dataType = RecordFieldType.INT.getDataType();
+            } else if (value instanceof Long) {
+                recordValue = value;
+                dataType = RecordFieldType.LONG.getDataType();
+            } else if (value instanceof Short) {
+                recordValue = value;
+                dataType = RecordFieldType.SHORT.getDataType();
+            } else if (value instanceof Byte) {
+                recordValue = value;
+                dataType = RecordFieldType.BYTE.getDataType();
+            } else if (value instanceof BigInteger) {
+                recordValue = value;
+                dataType = RecordFieldType.BIGINT.getDataType();
+            } else if (value instanceof Float) {
+                recordValue = value;
+                dataType = RecordFieldType.FLOAT.getDataType();
+            } else if (value instanceof Double) {
+                recordValue = value;
+                dataType = RecordFieldType.DOUBLE.getDataType();
+            } else if (value instanceof BigDecimal) {
+                // there is no decimal record field type, keep the exact value as string rather than a rounded double
+                recordValue = ((BigDecimal) value).toPlainString();
+                dataType = RecordFieldType.STRING.getDataType();
+            } else if (value instanceof Boolean) {
+                recordValue = value;
+                dataType = RecordFieldType.BOOLEAN.getDataType();
+            } else if (value instanceof java.sql.Timestamp) {
+                recordValue = value;
+                dataType = RecordFieldType.TIMESTAMP.getDataType();
+            } else if (value instanceof java.sql.Time) {
+                recordValue = value;
+                dataType = RecordFieldType.TIME.getDataType();
+            } else if (value instanceof java.sql.Date) {
+                recordValue = value;
+                dataType = RecordFieldType.DATE.getDataType();
+            } else if (value instanceof byte[]) {
+                final byte[] bytes = (byte[]) value;
+                final Byte[] boxed = new Byte[bytes.length];
+                for (int i = 0; i < bytes.length; i++) {
+                    boxed[i] = bytes[i];
+                }
+                recordValue = boxed;
+                dataType = RecordFieldType.ARRAY.getArrayDataType(RecordFieldType.BYTE.getDataType());
+            } else {
+                recordValue = null == value ? null : value.toString();
+                dataType = RecordFieldType.STRING.getDataType();
+            }
+            fields.add(new RecordField(name, dataType));
+            converted.put(name, recordValue);
+        });
+        return new MapRecord(new SimpleRecordSchema(fields), converted);
+    }
+}
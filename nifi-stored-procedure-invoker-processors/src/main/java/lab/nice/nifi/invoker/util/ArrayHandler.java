@@ -0,0 +1,211 @@
+package lab.nice.nifi.invoker.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import lab.nice.nifi.invoker.common.Parameter;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.sql.JDBCType;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Handler to read the elements of ARRAY/STRUCT parameters. The format of such a parameter is the SQL type name of
+ * the array elements (or of the struct), optionally followed by ':' and the source of the elements:
+ * {@link ArrayHandler#SOURCE_JSON} for a JSON array value, {@link ArrayHandler#SOURCE_CONTENT} for a JSON array read
+ * from the content of the incoming FlowFile, or any other string as delimiter of the value. Without source, a value
+ * starting with '[' is read as JSON array, otherwise as comma delimited list.
+ * <p>
+ * JSON arrays are read token by token, so a large array is never held as a whole string. Nested JSON arrays are
+ * returned as Object[], the attributes of an element of STRUCT type. Elements are converted to the Java type of the
+ * SQL type name if it is a standard JDBC type, otherwise JSON values keep their JSON type and delimited values are
+ * kept as String. Empty delimited elements and JSON nulls are null.
+ */
+public final class ArrayHandler {
+    public static final String SOURCE_JSON = "json";
+    public static final String SOURCE_CONTENT = "content";
+
+    private static final char SOURCE_SEPARATOR = ':';
+    private static final String DEFAULT_DELIMITER = ",";
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private ArrayHandler() {
+    }
+
+    /**
+     * @param parameter the ARRAY/STRUCT parameter
+     * @return the SQL type name of the array elements or of the struct
+     * @throws ParseException if the parameter has no format
+     */
+    public static String typeName(final Parameter parameter) throws ParseException {
+        final String format = parameter.getFormat();
+        if (StringUtils.isBlank(format)) {
+            throw new ParseException("The format of " + parameter.getJdbcType() + " parameter "
+                    + parameter.getIndex() + " must specify the SQL type name of its elements.", 0);
+        }
+        final int separator = format.indexOf(SOURCE_SEPARATOR);
+        return separator < 0 ? format.trim() : format.substring(0, separator).trim();
+    }
+
+    /**
+     * @param parameter the built in parameter
+     * @return true if the elements of the parameter are read from the content of the incoming FlowFile
+     */
+    public static boolean isContent(final Parameter parameter) {
+        return SOURCE_CONTENT.equals(source(parameter));
+    }
+
+    /**
+     * Read the elements of ARRAY/STRUCT parameter.
+     *
+     * @param parameter  the ARRAY/STRUCT parameter
+     * @param lobHandler the handler providing the content of the incoming FlowFile
+     * @return the elements, Object[] for nested arrays
+     * @throws ParseException if the JSON array is malformed or an element cannot be converted, the error offset is
+     *                        the position of the element
+     * @throws IOException    if failed to read the content of the incoming FlowFile
+     */
+    public static List<Object> elements(final Parameter parameter, final LobHandler lobHandler)
+            throws ParseException, IOException {
+        final JDBCType elementType = jdbcType(typeName(parameter));
+        final String source = source(parameter);
+        if (SOURCE_CONTENT.equals(source)) {
+            try (final InputStream in = lobHandler.content();
+                 final JsonParser parser = JSON_FACTORY.createParser(in)) {
+                return readJson(parser, elementType);
+            }
+        } else if (SOURCE_JSON.equals(source) || (null == source && parameter.getValue().trim().startsWith("["))) {
+            try (final JsonParser parser = JSON_FACTORY.createParser(parameter.getValue())) {
+                return readJson(parser, elementType);
+            }
+        }
+        return readDelimited(parameter.getValue(), null == source ? DEFAULT_DELIMITER : source, elementType);
+    }
+
+    private static String source(final Parameter parameter) {
+        final String format = parameter.getFormat();
+        final int separator = null == format ? -1 : format.indexOf(SOURCE_SEPARATOR);
+        return separator < 0 || separator == format.length() - 1 ? null : format.substring(separator + 1);
+    }
+
+    private static JDBCType jdbcType(final String typeName) {
+        try {
+            return JDBCType.valueOf(typeName.toUpperCase(Locale.ROOT));
+        } catch (final IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static List<Object> readJson(final JsonParser parser, final JDBCType elementType)
+            throws ParseException, IOException {
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            throw new ParseException("Expected JSON array at " + parser.getCurrentLocation(), 0);
+        }
+        final List<Object> elements = new ArrayList<>();
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (null == token) {
+                throw new ParseException("Unexpected end of JSON array", 0);
+            } else if (token == JsonToken.START_ARRAY) {
+                final List<Object> attributes = new ArrayList<>();
+                while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    if (null == token || !token.isScalarValue()) {
+                        throw new ParseException("Expected JSON value at " + parser.getCurrentLocation(), 0);
+                    }
+                    attributes.add(jsonValue(parser, token, null, elements.size()));
+                }
+                elements.add(attributes.toArray());
+            } else if (token.isScalarValue()) {
+                elements.add(jsonValue(parser, token, elementType, elements.size()));
+            } else {
+                throw new ParseException("Expected JSON value at " + parser.getCurrentLocation(), 0);
+            }
+        }
+        return elements;
+    }
+
+    private static Object jsonValue(final JsonParser parser, final JsonToken token, final JDBCType type,
+                                    final int position) throws ParseException, IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        } else if (null != type) {
+            return convert(parser.getText(), type, position);
+        } else if (token == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getNumberValue();
+        } else if (token == JsonToken.VALUE_NUMBER_FLOAT) {
+            return parser.getDecimalValue();
+        } else if (token == JsonToken.VALUE_TRUE || token == JsonToken.VALUE_FALSE) {
+            return parser.getBooleanValue();
+        }
+        return parser.getText();
+    }
+
+    private static List<Object> readDelimited(final String value, final String delimiter, final JDBCType type)
+            throws ParseException {
+        final List<Object> elements = new ArrayList<>();
+        if (value.isEmpty()) {
+            return elements;
+        }
+        int start = 0;
+        int end;
+        while ((end = value.indexOf(delimiter, start)) >= 0) {
+            elements.add(delimitedValue(value.substring(start, end), type, elements.size()));
+            start = end + delimiter.length();
+        }
+        elements.add(delimitedValue(value.substring(start), type, elements.size()));
+        return elements;
+    }
+
+    private static Object delimitedValue(final String text, final JDBCType type, final int position)
+            throws ParseException {
+        return text.isEmpty() ? null : convert(text, type, position);
+    }
+
+    /**
+     * Convert an element to the Java type of its standard JDBC type, unsupported types are kept as String.
+     */
+    private static Object convert(final String text, final JDBCType type, final int position)
+            throws ParseException {
+        try {
+            return convert(text, type);
+        } catch (final NumberFormatException e) {
+            final ParseException exception = new ParseException("Element " + position + " '" + text
+                    + "' is not a valid " + type + " value.", position);
+            exception.initCause(e);
+            throw exception;
+        }
+    }
+
+    private static Object convert(final String text, final JDBCType type) {
+        if (null == type) {
+            return text;
+        }
+        switch (type) {
+            case BIT:
+            case BOOLEAN:
+                return "1".equals(text.trim()) || Boolean.parseBoolean(text.trim());
+            case TINYINT:
+            case SMALLINT:
+            case INTEGER:
+                return Integer.parseInt(text.trim());
+            case BIGINT:
+                return Long.parseLong(text.trim());
+            case REAL:
+                return Float.parseFloat(text.trim());
+            case FLOAT:
+            case DOUBLE:
+                return Double.parseDouble(text.trim());
+            case DECIMAL:
+            case NUMERIC:
+                return new BigDecimal(text.trim());
+            default:
+                return text;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package lab.nice.nifi.invoker.util;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.vector.BaseFixedWidthVector;
+import org.apache.arrow.vector.BaseVariableWidthVector;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.DateMilliVector;
+import org.apache.arrow.vector.DecimalVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float4Vector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.SmallIntVector;
+import org.apache.arrow.vector.TimeMilliVector;
+import org.apache.arrow.vector.TimeStampMilliVector;
+import org.apache.arrow.vector.TinyIntVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowStreamWriter;
+import org.apache.arrow.vector.types.DateUnit;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.TimeUnit;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.arrow.vector.types.pojo.Schema;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Handler to write a ResultSet as an Apache Arrow IPC stream: the schema followed by record batches of a fixed number
+ * of rows. The vectors of a ResultSet are allocated once and refilled for every batch.
+ * <p>
+ * JDBC types are mapped as BIT/BOOLEAN to Bool, TINYINT/SMALLINT/INTEGER/BIGINT to signed Int of the same width,
+ * REAL to single and FLOAT/DOUBLE to double precision FloatingPoint, DECIMAL/NUMERIC with a known precision up to
+ * 38 to Decimal, DATE to Date(MILLISECOND), TIME to Time(MILLISECOND), TIMESTAMP to Timestamp(MILLISECOND) without
+ * zone, binary types and BLOB to Binary and all other types to Utf8. Dates, times and timestamps are written as their
+ * local values, independent of the time zone of the JVM: days since epoch, millis of the day and millis since epoch
+ * as if in UTC, as the Arrow types without zone require.
+ */
+public final class ArrowHandler {
+    private static final int MAX_DECIMAL_PRECISION = 38;
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+    private static final long MILLIS_PER_SECOND = 1_000L;
+
+    private ArrowHandler() {
+    }
+
+    /**
+     * Write a ResultSet as one Arrow IPC stream.
+     *
+     * @param resultSet the ResultSet to write
+     * @param out       the stream to write to, not closed
+     * @param allocator the allocator of the vector buffers
+     * @param batchSize the max number of rows of a record batch
+     * @return the number of rows written
+     * @throws SQLException if failed to retrieve ResultSet
+     * @throws IOException  if failed to write the stream
+     */
+    public static long writeResultSet(final ResultSet resultSet, final OutputStream out,
+                                      final BufferAllocator allocator, final int batchSize)
+            throws SQLException, IOException {
+        final ResultSetMetaData metaData = resultSet.getMetaData();
+        final int columnCount = metaData.getColumnCount();
+        final List<Field> fields = new ArrayList<>(columnCount);
+        for (int i = 1; i <= columnCount; i++) {
+            fields.add(new Field(metaData.getColumnLabel(i), FieldType.nullable(arrowType(metaData, i)), null));
+        }
+        long rows = 0;
+        try (final VectorSchemaRoot root = VectorSchemaRoot.create(new Schema(fields), allocator);
+             final ArrowStreamWriter writer = new ArrowStreamWriter(root, null, out)) {
+            final List<FieldVector> vectors = root.getFieldVectors();
+            final ColumnWriter[] columnWriters = new ColumnWriter[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                columnWriters[i] = columnWriter(vectors.get(i));
+            }
+            writer.start();
+            boolean hasNext = resultSet.next();
+            while (hasNext) {
+                int row = 0;
+                while (hasNext && row < batchSize) {
+                    for (int i = 0; i < columnCount; i++) {
+                        columnWriters[i].write(resultSet, i + 1, row);
+                    }
+                    row++;
+                    hasNext = resultSet.next();
+                }
+                for (FieldVector vector : vectors) {
+                    vector.setValueCount(row);
+                }
+                root.setRowCount(row);
+                writer.writeBatch();
+                rows += row;
+                vectors.forEach(ArrowHandler::reset);
+            }
+            writer.end();
+        }
+        return rows;
+    }
+
+    /**
+     * Reset the value count and validity of a vector for the next batch, keeping its buffers.
+     */
+    private static void reset(final FieldVector vector) {
+        if (vector instanceof BaseFixedWidthVector) {
+            ((BaseFixedWidthVector) vector).reset();
+        } else if (vector instanceof BaseVariableWidthVector) {
+            ((BaseVariableWidthVector) vector).reset();
+        }
+    }
+
+    private static ArrowType arrowType(final ResultSetMetaData metaData, final int column) throws SQLException {
+        switch (metaData.getColumnType(column)) {
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return ArrowType.Bool.INSTANCE;
+            case Types.TINYINT:
+                return new ArrowType.Int(8, true);
+            case Types.SMALLINT:
+                return new ArrowType.Int(16, true);
+            case Types.INTEGER:
+                return new ArrowType.Int(32, true);
+            case Types.BIGINT:
+                return new ArrowType.Int(64, true);
+            case Types.REAL:
+                return new ArrowType.FloatingPoint(FloatingPointPrecision.SINGLE);
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE);
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                final int precision = metaData.getPrecision(column);
+                final int scale = metaData.getScale(column);
+                return precision > 0 && precision <= MAX_DECIMAL_PRECISION && scale >= 0 && scale <= precision
+                        ? new ArrowType.Decimal(precision, scale) : ArrowType.Utf8.INSTANCE;
+            case Types.DATE:
+                return new ArrowType.Date(DateUnit.MILLISECOND);
+            case Types.TIME:
+                return new ArrowType.Time(TimeUnit.MILLISECOND, 32);
+            case Types.TIMESTAMP:
+                return new ArrowType.Timestamp(TimeUnit.MILLISECOND, null);
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+            case Types.BLOB:
+                return ArrowType.Binary.INSTANCE;
+            default:
+                return ArrowType.Utf8.INSTANCE;
+        }
+    }
+
+    private static ColumnWriter columnWriter(final FieldVector vector) {
+        if (vector instanceof BitVector) {
+            final BitVector v = (BitVector) vector;
+            return (rs, column, row) -> {
+                final boolean value = rs.getBoolean(column);
+                if (rs.wasNull()) {
+                    v.setNull(row);
+                } else {
+                    v.setSafe(row, value ? 1 : 0);
+                }
+            };
+        } else if (vector instanceof TinyIntVector) {
+            final TinyIntVector v = (TinyIntVector) vector;
+            return (rs, column, row) -> {
+                final byte value = rs.getByte(column);
+                if (rs.wasNull()) {
+                    v.setNull(row);
+                } else {
+                    v.setSafe(row, value);
+                }
+            };
+        } else if (vector instanceof SmallIntVector) {
+            final SmallIntVector v = (SmallIntVector) vector;
+            return (rs, column, row) -> {
+                final short value = rs.getShort(column);
+                if (rs.wasNull()) {
+                    v.setNull(row);
+                } else {
+                    v.setSafe(row, value);
+                }
+            };
+        } else if (vector instanceof IntVector) {
+            final IntVector v = (IntVector) vector;
+            return (rs, column, row) -> {
+                final int value = rs.getInt(column);
+                if (rs.wasNull()) {
+                    v.setNull(row);
+                } else {
+                    v.setSafe(row, value);
+                }
+            };
+        } else if (vector instanceof BigIntVector) {
+            final BigIntVector v = (BigIntVector) vector;
+            return (rs, column, row) -> {
+                final long value = rs.getLong(column);
+                if (rs.wasNull()) {
+                    v.setNull(row);
+                } else {
+                    v.setSafe(row, value);
+                }
+            };
+        } else if (vector instanceof Float4Vector) {
+            final Float4Vector v = (Float4Vector) vector;
+            return (rs, column, row) -> {
+                final float value = rs.getFloat(column);
+                if (rs.wasNull()) {
+                    v.setNull(row);
+                } else {
+                    v.setSafe(row, value);
+                }
+            };
+        } else if (vector instanceof Float8Vector) {
+            final Float8Vector v = (Float8Vector) vector;
+            return (rs, column, row) -> {
+                final double value = rs.getDouble(column);
+                if (rs.wasNull()) {
+                    v.setNull(row);
+                } else {
+                    v.setSafe(row, value);
+                }
+            };
+        } else if (vector instanceof DecimalVector) {
+            final DecimalVector v = (DecimalVector) vector;
+            final int scale = v.getScale();
+            return (rs, column, row) -> {
+                final BigDecimal value = rs.getBigDecimal(column);
+                if (null == value) {
+                    v.setNull(row);
+                } else {
+                    v.setSafe(row, value.setScale(scale, RoundingMode.HALF_UP));
+                }
+            };
+        } else if (vector instanceof DateMilliVector) {
+            final DateMilliVector v = (DateMilliVector) vector;
+            return (rs, column, row) -> {
+                final Date value = rs.getDate(column);
+                if (null == value) {
+                    v.setNull(row);
+                } else {
+                    v.setSafe(row, value.toLocalDate().toEpochDay() * MILLIS_PER_DAY);
+                }
+            };
+        } else if (vector instanceof TimeMilliVector) {
+            final TimeMilliVector v = (TimeMilliVector) vector;
+            return (rs, column, row) -> {
+                final Time value = rs.getTime(column);
+                if (null == value) {
+                    v.setNull(row);
+                } else {
+                    // Time.toLocalTime drops the fraction of the second, zone offsets are whole seconds
+                    v.setSafe(row, (int) (value.toLocalTime().toNanoOfDay() / NANOS_PER_MILLI
+                            + Math.floorMod(value.getTime(), MILLIS_PER_SECOND)));
+                }
+            };
+        } else if (vector instanceof TimeStampMilliVector) {
+            final TimeStampMilliVector v = (TimeStampMilliVector) vector;
+            return (rs, column, row) -> {
+                final Timestamp value = rs.getTimestamp(column);
+                if (null == value) {
+                    v.setNull(row);
+                } else {
+                    v.setSafe(row, value.toLocalDateTime().toInstant(ZoneOffset.UTC).toEpochMilli());
+                }
+            };
+        }
+        final BaseVariableWidthVector v = (BaseVariableWidthVector) vector;
+        if (ArrowType.Binary.INSTANCE.equals(vector.getField().getType())) {
+            return (rs, column, row) -> {
+                final byte[] value = rs.getBytes(column);
+                if (null == value) {
+                    v.setNull(row);
+                } else {
+                    v.setSafe(row, value);
+                }
+            };
+        }
+        return (rs, column, row) -> {
+            final String value = rs.getString(column);
+            if (null == value) {
+                v.setNull(row);
+            } else {
+                v.setSafe(row, value.getBytes(StandardCharsets.UTF_8));
+            }
+        };
+    }
+
+    /**
+     * Copy the value of a ResultSet column into a row of a vector.
+     */
+    private interface ColumnWriter {
+        void write(ResultSet resultSet, int column, int row) throws SQLException;
+    }
+}
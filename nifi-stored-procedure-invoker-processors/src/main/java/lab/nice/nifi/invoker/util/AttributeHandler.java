@@ -7,6 +7,7 @@ import lab.nice.nifi.invoker.common.ParameterType;
 import lab.nice.nifi.invoker.common.ParameterTypes;
 import org.apache.commons.lang3.StringUtils;
 
+import javax.xml.bind.DatatypeConverter;
 import java.util.Map;
 import java.util.regex.Matcher;
 
@@ -66,6 +67,26 @@ public final class AttributeHandler {
         }
     }
 
+    /**
+     * Convert an output or column value into the string form of FlowFile attributes and parameter values, accepted by
+     * {@link JdbcHandler#applyParameter}. Dates, times and timestamps are converted to epoch milliseconds, binary to
+     * upper case hex.
+     *
+     * @param value the output or column value
+     * @return the string form, NULL if the value is NULL
+     */
+    public static String attributeValue(final Object value) {
+        if (null == value) {
+            return null;
+        } else if (value instanceof java.util.Date) {
+            return String.valueOf(((java.util.Date) value).getTime());
+        } else if (value instanceof byte[]) {
+            return DatatypeConverter.printHexBinary((byte[]) value);
+        } else {
+            return value.toString();
+        }
+    }
+
     /**
      * Assign value and value format to parameter if the given value and format not NULL value.
      *
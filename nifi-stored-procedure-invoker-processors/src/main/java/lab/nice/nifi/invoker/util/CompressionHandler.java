@@ -0,0 +1,91 @@
+package lab.nice.nifi.invoker.util;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+import org.xerial.snappy.SnappyFramedOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Handler to compress output content while it is written, using the framed/streaming formats of the codecs. NiFi 1.5
+ * CompressContent decompresses gzip and snappy (framed) content by mime.type; it has no zstd codec and does not read
+ * the lz4 frame format, so lz4 and zstd content must be decompressed by the consumer.
+ */
+public final class CompressionHandler {
+    public static final String NONE = "none";
+    public static final String GZIP = "gzip";
+    public static final String LZ4 = "lz4";
+    public static final String ZSTD = "zstd";
+    public static final String SNAPPY = "snappy";
+
+    private static final int SNAPPY_MAX_BLOCK_SIZE = 64 * 1024;
+    private static final double SNAPPY_MIN_COMPRESSION_RATIO = 0.85;
+
+    private CompressionHandler() {
+    }
+
+    /**
+     * Wrap an output stream with a compressing stream. Closing the returned stream finishes the compressed format
+     * and closes the given stream.
+     *
+     * @param out        the stream receiving compressed bytes
+     * @param codec      the codec, one of the constants of this class
+     * @param level      the compression level, codec default if negative. Only gzip (0-9) and Zstandard (1-22)
+     *                   support levels
+     * @param bufferSize the size in bytes of the buffer in front of the compressor and, where supported, of the
+     *                   compression block
+     * @return the compressing stream, the given stream if codec is {@link CompressionHandler#NONE}
+     * @throws IOException if failed to write the format header
+     */
+    public static OutputStream compress(final OutputStream out, final String codec, final int level,
+                                        final int bufferSize) throws IOException {
+        final OutputStream compressed;
+        if (GZIP.equals(codec)) {
+            compressed = new GZIPOutputStream(out, bufferSize) {
+                {
+                    def.setLevel(level < 0 ? Deflater.DEFAULT_COMPRESSION : level);
+                }
+            };
+        } else if (LZ4.equals(codec)) {
+            compressed = new LZ4FrameOutputStream(out, lz4BlockSize(bufferSize));
+        } else if (ZSTD.equals(codec)) {
+            compressed = level < 0 ? new ZstdOutputStream(out) : new ZstdOutputStream(out, level);
+        } else if (SNAPPY.equals(codec)) {
+            compressed = new SnappyFramedOutputStream(out, Math.min(bufferSize, SNAPPY_MAX_BLOCK_SIZE),
+                    SNAPPY_MIN_COMPRESSION_RATIO);
+        } else {
+            return out;
+        }
+        return new BufferedOutputStream(compressed, bufferSize);
+    }
+
+    /**
+     * @param codec the codec, one of the constants of this class
+     * @return the mime.type of content compressed by the codec, NULL if not compressed
+     */
+    public static String mimeType(final String codec) {
+        if (GZIP.equals(codec)) {
+            return "application/gzip";
+        } else if (LZ4.equals(codec)) {
+            return "application/x-lz4-framed";
+        } else if (ZSTD.equals(codec)) {
+            return "application/zstd";
+        } else if (SNAPPY.equals(codec)) {
+            return "application/x-snappy-framed";
+        }
+        return null;
+    }
+
+    private static LZ4FrameOutputStream.BLOCKSIZE lz4BlockSize(final int bufferSize) {
+        for (LZ4FrameOutputStream.BLOCKSIZE blockSize : LZ4FrameOutputStream.BLOCKSIZE.values()) {
+            if (bufferSize <= 1 << (2 * blockSize.getIndicator() + 8)) {
+                return blockSize;
+            }
+        }
+        return LZ4FrameOutputStream.BLOCKSIZE.SIZE_4MB;
+    }
+}
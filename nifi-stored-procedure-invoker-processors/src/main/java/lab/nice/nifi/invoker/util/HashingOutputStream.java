@@ -0,0 +1,35 @@
+package lab.nice.nifi.invoker.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * OutputStream feeding every written byte to a {@link XxHash64} before passing it to the wrapped stream.
+ */
+public class HashingOutputStream extends FilterOutputStream {
+    private final XxHash64 hash;
+
+    /**
+     * Construct stream.
+     *
+     * @param out  the wrapped stream
+     * @param hash the hash to feed
+     */
+    public HashingOutputStream(final OutputStream out, final XxHash64 hash) {
+        super(out);
+        this.hash = hash;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        hash.update(b);
+        out.write(b);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        hash.update(b, off, len);
+        out.write(b, off, len);
+    }
+}
@@ -0,0 +1,268 @@
+package lab.nice.nifi.invoker.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import lab.nice.nifi.invoker.common.Parameter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Handler to execute read-only stored procedure calls hedged: if the call did not complete within the hedge delay,
+ * the same call is issued on a second connection, the first successful completion wins and the other call is
+ * cancelled by {@link java.sql.Statement#cancel()}. The hedge delay is a percentile of the latencies of recent
+ * first calls, not less than a minimum delay. A first call losing to its hedge call is recorded with the time waited
+ * on it, so slow first calls keep the hedge delay up. Results are buffered in a {@link TokenBuffer}, so only the
+ * result of the winner is written.
+ */
+public final class HedgeHandler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HedgeHandler.class);
+
+    private static final int MIN_SAMPLES = 10;
+
+    private final long[] latencies;
+    private final int percentile;
+    private final long minDelayNanos;
+    private int samples;
+    private int next;
+
+    /**
+     * Construct handler.
+     *
+     * @param window     the number of recent call latencies the hedge delay is derived from
+     * @param percentile the percentile of the recent call latencies used as hedge delay, 1-99
+     * @param minDelay   the minimum hedge delay, also used until enough latencies are known
+     * @param unit       the unit of the minimum hedge delay
+     */
+    public HedgeHandler(final int window, final int percentile, final long minDelay, final TimeUnit unit) {
+        this.latencies = new long[window];
+        this.percentile = percentile;
+        this.minDelayNanos = unit.toNanos(minDelay);
+    }
+
+    /**
+     * @return the current hedge delay in nanoseconds
+     */
+    public long delayNanos() {
+        final long[] sorted;
+        synchronized (latencies) {
+            if (samples < Math.min(MIN_SAMPLES, latencies.length)) {
+                return minDelayNanos;
+            }
+            sorted = Arrays.copyOf(latencies, samples);
+        }
+        Arrays.sort(sorted);
+        final int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return Math.max(minDelayNanos, sorted[Math.max(0, index)]);
+    }
+
+    /**
+     * Execute a call hedged.
+     *
+     * @param procedure        the stored procedure statement
+     * @param parameterMap     the parameters map
+     * @param connections      the connections of the first call
+     * @param hedgeConnections the connections of the hedge call, e.g. of a replica
+     * @param content          the supplier of the content of the incoming FlowFile, NULL if there is none. Both calls
+     *                         may read it concurrently
+     * @param executor         the executor running the calls
+     * @param timeout          the query timeout in seconds of each call
+     * @param objectMapper     the JSON mapper
+     * @return the result of the winning call
+     * @throws SQLException   if failed to execute the call
+     * @throws ParseException if failed to parse any parameter value
+     * @throws IOException    if failed to read the call result
+     */
+    public Result execute(final String procedure, final Map<Integer, Parameter> parameterMap,
+                          final Supplier<Connection> connections, final Supplier<Connection> hedgeConnections,
+                          final Supplier<InputStream> content, final ExecutorService executor, final int timeout,
+                          final ObjectMapper objectMapper)
+            throws SQLException, ParseException, IOException {
+        final long startNanos = System.nanoTime();
+        final CompletionService<TokenBuffer> completionService = new ExecutorCompletionService<>(executor);
+        final Attempt first = new Attempt(procedure, parameterMap, connections, content, timeout, objectMapper);
+        final Future<TokenBuffer> firstFuture = completionService.submit(first);
+        Attempt hedge = null;
+        Future<TokenBuffer> hedgeFuture = null;
+        try {
+            Future<TokenBuffer> done = completionService.poll(delayNanos(), TimeUnit.NANOSECONDS);
+            if (null == done) {
+                hedge = new Attempt(procedure, parameterMap, hedgeConnections, content, timeout,
+                        objectMapper);
+                hedgeFuture = completionService.submit(hedge);
+                done = completionService.take();
+            }
+            TokenBuffer buffer;
+            try {
+                buffer = done.get();
+            } catch (final ExecutionException e) {
+                if (null == hedgeFuture) {
+                    throw e;
+                }
+                // the other call may still succeed
+                LOGGER.debug("Hedged call {} failed, waiting for the other call", procedure, e.getCause());
+                done = completionService.take();
+                buffer = done.get();
+            }
+            // the latency of the first call from the request start, at least the time waited if it lost
+            final long firstEndNanos = first.endNanos;
+            record((0 == firstEndNanos ? System.nanoTime() : firstEndNanos) - startNanos);
+            return new Result(buffer, null != hedge, done != firstFuture);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while executing hedged call", e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            } else if (cause instanceof ParseException) {
+                throw (ParseException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            // the losing call is cancelled through its statement, which releases its connection promptly
+            first.cancel();
+            firstFuture.cancel(false);
+            if (null != hedge) {
+                hedge.cancel();
+                hedgeFuture.cancel(false);
+            }
+        }
+    }
+
+    private void record(final long latencyNanos) {
+        synchronized (latencies) {
+            latencies[next] = latencyNanos;
+            next = (next + 1) % latencies.length;
+            samples = Math.min(samples + 1, latencies.length);
+        }
+    }
+
+    /**
+     * The result of a hedged call.
+     */
+    public static final class Result {
+        private final TokenBuffer buffer;
+        private final boolean hedged;
+        private final boolean hedgeWon;
+
+        private Result(final TokenBuffer buffer, final boolean hedged, final boolean hedgeWon) {
+            this.buffer = buffer;
+            this.hedged = hedged;
+            this.hedgeWon = hedgeWon;
+        }
+
+        /**
+         * @return the buffered JSON result of the winning call
+         */
+        public TokenBuffer getBuffer() {
+            return buffer;
+        }
+
+        /**
+         * @return true if a hedge call was issued
+         */
+        public boolean isHedged() {
+            return hedged;
+        }
+
+        /**
+         * @return true if the hedge call won
+         */
+        public boolean isHedgeWon() {
+            return hedgeWon;
+        }
+    }
+
+    /**
+     * One execution of the call on its own connection, cancellable from another thread.
+     */
+    private static final class Attempt implements Callable<TokenBuffer> {
+        private final String procedure;
+        private final Map<Integer, Parameter> parameterMap;
+        private final Supplier<Connection> connections;
+        private final Supplier<InputStream> content;
+        private final int timeout;
+        private final ObjectMapper objectMapper;
+        private volatile long endNanos;
+        private CallableStatement statement;
+        private boolean cancelled;
+
+        private Attempt(final String procedure, final Map<Integer, Parameter> parameterMap,
+                        final Supplier<Connection> connections, final Supplier<InputStream> content,
+                        final int timeout, final ObjectMapper objectMapper) {
+            this.procedure = procedure;
+            this.parameterMap = parameterMap;
+            this.connections = connections;
+            this.content = content;
+            this.timeout = timeout;
+            this.objectMapper = objectMapper;
+        }
+
+        @Override
+        public TokenBuffer call() throws Exception {
+            try (final Connection connection = connections.get();
+                 final CallableStatement callableStatement = connection.prepareCall(procedure);
+                 final LobHandler lobHandler = new LobHandler(callableStatement, content)) {
+                synchronized (this) {
+                    if (cancelled) {
+                        throw new SQLException("Hedged call cancelled");
+                    }
+                    statement = callableStatement;
+                }
+                callableStatement.setQueryTimeout(timeout);
+                JdbcHandler.setParameters(callableStatement, lobHandler, parameterMap);
+                // a cancel before execute() is a no-op for most drivers, check again right before executing
+                synchronized (this) {
+                    if (cancelled) {
+                        throw new SQLException("Hedged call cancelled");
+                    }
+                }
+                callableStatement.execute();
+                final TokenBuffer buffer = new TokenBuffer(objectMapper, false);
+                JsonHandler.retrieveCallableStatement(callableStatement, buffer, parameterMap);
+                endNanos = System.nanoTime();
+                return buffer;
+            } finally {
+                synchronized (this) {
+                    statement = null;
+                }
+            }
+        }
+
+        private void cancel() {
+            final CallableStatement running;
+            synchronized (this) {
+                cancelled = true;
+                running = statement;
+            }
+            if (null != running) {
+                try {
+                    running.cancel();
+                } catch (final SQLException e) {
+                    LOGGER.debug("Unable to cancel hedged call {}", procedure, e);
+                }
+            }
+        }
+    }
+}
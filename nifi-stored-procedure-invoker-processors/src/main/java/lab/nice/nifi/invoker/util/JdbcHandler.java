@@ -14,11 +14,14 @@ import java.nio.charset.StandardCharsets;
 import java.sql.CallableStatement;
 import java.sql.Clob;
 import java.sql.Date;
+import java.sql.JDBCType;
 import java.sql.NClob;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Time;
 import java.sql.Timestamp;
+import java.sql.Types;
 import java.text.ParseException;
 import java.time.ZoneId;
 import java.util.Map;
@@ -34,6 +37,8 @@ public final class JdbcHandler {
     private static final String DEFAULT_TIMESTAMP_FORMAT = "yyyy-MM-dd HH:mm:ss.SSS";
 
     private static final Pattern LONG_PATTERN = Pattern.compile("^-?\\d{1,19}$");
+    // oracle.jdbc.OracleTypes.CURSOR
+    private static final int ORACLE_CURSOR = -10;
 
     private JdbcHandler() {
 
@@ -71,7 +76,7 @@ public final class JdbcHandler {
     public static void applyParameter(final PreparedStatement statement, final LobHandler lobHandler, final Parameter parameter)
             throws SQLException, ParseException, IOException {
         if (ParameterType.IN.equals(parameter.getType()) || ParameterType.INOUT.equals(parameter.getType())) {
-            if (null == parameter.getValue()) {
+            if (null == parameter.getValue() && !isContentArray(parameter)) {
                 statement.setNull(parameter.getIndex(), parameter.getJdbcType().getVendorTypeNumber());
             } else {
                 switch (parameter.getJdbcType()) {
@@ -198,6 +203,14 @@ public final class JdbcHandler {
                             statement.setNClob(parameter.getIndex(), nClob);
                         }
                         break;
+                    case ARRAY:
+                        statement.setArray(parameter.getIndex(), lobHandler.array(ArrayHandler.typeName(parameter),
+                                ArrayHandler.elements(parameter, lobHandler)));
+                        break;
+                    case STRUCT:
+                        statement.setObject(parameter.getIndex(), lobHandler.struct(ArrayHandler.typeName(parameter),
+                                ArrayHandler.elements(parameter, lobHandler)), Types.STRUCT);
+                        break;
                     default:
                         statement.setObject(parameter.getIndex(), parameter.getValue(), parameter.getJdbcType().getVendorTypeNumber());
                 }
@@ -215,10 +228,88 @@ public final class JdbcHandler {
      * @throws SQLException if failed to register output parameter
      */
     public static void registerOutput(final CallableStatement statement, final Parameter parameter) throws SQLException {
-        if (ParameterType.OUT.equals(parameter.getType()) || ParameterType.INOUT.equals(parameter.getType())) {
+        if (isCursor(parameter)) {
+            registerCursor(statement, parameter.getIndex());
+        } else if (ParameterType.OUT.equals(parameter.getType()) || ParameterType.INOUT.equals(parameter.getType())) {
             statement.registerOutParameter(parameter.getIndex(), parameter.getJdbcType().getVendorTypeNumber());
         } else {
             return;
         }
     }
+
+    /**
+     * Check whether any ARRAY/STRUCT IN/INOUT parameter reads its elements from the content of the incoming FlowFile.
+     *
+     * @param parameterMap the parameters map
+     * @return true if the content of the incoming FlowFile is read
+     */
+    public static boolean readsContent(final Map<Integer, Parameter> parameterMap) {
+        for (Parameter parameter : parameterMap.values()) {
+            if ((ParameterType.IN.equals(parameter.getType()) || ParameterType.INOUT.equals(parameter.getType()))
+                    && isContentArray(parameter)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isContentArray(final Parameter parameter) {
+        return (JDBCType.ARRAY.equals(parameter.getJdbcType()) || JDBCType.STRUCT.equals(parameter.getJdbcType()))
+                && ArrayHandler.isContent(parameter);
+    }
+
+    /**
+     * Check whether the parameter is a REF_CURSOR OUT/INOUT parameter, whose value is a ResultSet.
+     *
+     * @param parameter the built in parameter
+     * @return true if the parameter is a REF_CURSOR output
+     */
+    public static boolean isCursor(final Parameter parameter) {
+        return JDBCType.REF_CURSOR.equals(parameter.getJdbcType())
+                && (ParameterType.OUT.equals(parameter.getType()) || ParameterType.INOUT.equals(parameter.getType()));
+    }
+
+    /**
+     * Retrieve a REF_CURSOR output parameter as ResultSet, fetching as many rows per round trip as the statement
+     * if its fetch size is set. The caller is responsible to close the ResultSet.
+     *
+     * @param statement the executed CallableStatement
+     * @param parameter the REF_CURSOR output parameter
+     * @return the ResultSet of the cursor, NULL for NULL cursor
+     * @throws SQLException if failed to retrieve the cursor or the output is not a ResultSet
+     */
+    public static ResultSet getCursor(final CallableStatement statement, final Parameter parameter)
+            throws SQLException {
+        final Object cursor = statement.getObject(parameter.getIndex());
+        if (null == cursor) {
+            return null;
+        } else if (!(cursor instanceof ResultSet)) {
+            throw new SQLException("REF_CURSOR output " + parameter.getIndex() + " is not a ResultSet but "
+                    + cursor.getClass().getName());
+        }
+        final ResultSet resultSet = (ResultSet) cursor;
+        if (statement.getFetchSize() > 0) {
+            resultSet.setFetchSize(statement.getFetchSize());
+        }
+        return resultSet;
+    }
+
+    /**
+     * Register REF_CURSOR output parameter, falling back to the cursor type of Oracle or PostgreSQL (OTHER) for
+     * drivers not supporting REF_CURSOR of JDBC 4.2.
+     */
+    private static void registerCursor(final CallableStatement statement, final int index) throws SQLException {
+        try {
+            statement.registerOutParameter(index, Types.REF_CURSOR);
+        } catch (final SQLException e) {
+            final String product = statement.getConnection().getMetaData().getDatabaseProductName();
+            try {
+                statement.registerOutParameter(index,
+                        StringUtils.containsIgnoreCase(product, "oracle") ? ORACLE_CURSOR : Types.OTHER);
+            } catch (final SQLException fallback) {
+                fallback.addSuppressed(e);
+                throw fallback;
+            }
+        }
+    }
 }
@@ -17,8 +17,11 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 
 /**
  * Handler to retrieve CallableStatement/ResultSet to write to JSON.
@@ -29,6 +32,10 @@ public final class JsonHandler {
     private static final String RESULT_SET_HEADER = "RESULTS";
     private static final String OUTPUT_HEADER = "OUTPUTS";
     private static final String OUTPUT_PREFIX = "output_";
+    private static final String LINE_RESULT = "RESULT";
+    private static final String LINE_ROW = "ROW";
+    private static final String LINE_UPDATE_COUNT = "UPDATE_COUNT";
+    private static final char LINE_SEPARATOR = '\n';
     private static final int BUFFER_SIZE = 256;
 
     private JsonHandler() {
@@ -98,16 +105,180 @@ public final class JsonHandler {
      */
     public static void retrieveCallableStatement(final CallableStatement statement, final JsonGenerator jsonGenerator,
                                                  final Map<Integer, Parameter> parameterMap) throws IOException, SQLException {
+        retrieveCallableStatement(statement, jsonGenerator, parameterMap, null, 0, null);
+    }
+
+    /**
+     * Streaming retrieve ResultSet(s) and output(s) inside a CallableStatement and write into JSON, optionally
+     * fetching rows of ResultSet(s) on a separated thread while encoding and notifying a listener of every
+     * retrieved value.
+     *
+     * @param statement     the CallableStatement to retrieve
+     * @param jsonGenerator the JsonGenerator to write JSON
+     * @param parameterMap  the parameters map
+     * @param executor      the executor to fetch rows on, ResultSet(s) are not pipelined if NULL
+     * @param pipelineSize  the number of buffered rows between fetching and encoding, not pipelined if less than 1
+     * @param listener      the listener of retrieved values, ignored if NULL
+     * @throws IOException  if failed to retrieve CLOB/NCLOB output if any or failed to write JSON
+     * @throws SQLException if failed to retrieve outputs
+     * @see JsonHandler#retrieveResultSet(ResultSet, JsonGenerator, Executor, int, ResultListener)
+     */
+    public static void retrieveCallableStatement(final CallableStatement statement, final JsonGenerator jsonGenerator,
+                                                 final Map<Integer, Parameter> parameterMap, final Executor executor,
+                                                 final int pipelineSize, final ResultListener listener)
+            throws IOException, SQLException {
+        retrieveCallableStatement(statement, jsonGenerator, parameterMap, executor, pipelineSize, listener,
+                hasMoreResults(statement));
+    }
+
+    /**
+     * Streaming retrieve ResultSet(s) and output(s) inside a CallableStatement already advanced to its first result
+     * by {@link JsonHandler#hasMoreResults(Statement)}.
+     *
+     * @param statement     the CallableStatement to retrieve
+     * @param jsonGenerator the JsonGenerator to write JSON
+     * @param parameterMap  the parameters map
+     * @param executor      the executor to fetch rows on, ResultSet(s) are not pipelined if NULL
+     * @param pipelineSize  the number of buffered rows between fetching and encoding, not pipelined if less than 1
+     * @param listener      the listener of retrieved values, ignored if NULL
+     * @param hasResults    the result of advancing the statement to its first result
+     * @throws IOException  if failed to retrieve CLOB/NCLOB output if any or failed to write JSON
+     * @throws SQLException if failed to retrieve outputs
+     */
+    public static void retrieveCallableStatement(final CallableStatement statement, final JsonGenerator jsonGenerator,
+                                                 final Map<Integer, Parameter> parameterMap, final Executor executor,
+                                                 final int pipelineSize, final ResultListener listener,
+                                                 final boolean hasResults) throws IOException, SQLException {
         final List<Parameter> parameters = new ArrayList<>();
         parameters.addAll(parameterMap.values());
         //start of root
         jsonGenerator.writeStartObject();
-        retrieveResults(statement, jsonGenerator);
-        retrieveOutputs(statement, jsonGenerator, parameters);
+        retrieveResults(statement, jsonGenerator, executor, pipelineSize, listener, hasResults);
+        if (null == listener) {
+            retrieveOutputs(statement, jsonGenerator, parameters);
+        } else {
+            final Map<String, Object> outputValues = new LinkedHashMap<>();
+            retrieveOutputs(statement, jsonGenerator, parameters, outputValues, listener);
+            outputValues.forEach(listener::onValue);
+        }
         jsonGenerator.writeEndObject();
         //end of root
     }
 
+    /**
+     * Streaming retrieve ResultSet(s) and output(s) inside a CallableStatement already advanced to its first result
+     * by {@link JsonHandler#hasMoreResults(Statement)} and write them as newline-delimited JSON. Every row is one
+     * line tagged with the index of its result, every update count is one line, the rows of REF_CURSOR outputs
+     * follow as further results in parameter order and the outputs are the last line, only written if there is any
+     * other OUT/INOUT parameter. Each line ends with a line separator.
+     *
+     * <pre>
+     * {"RESULT":0,"ROW":{"ID":1,"NAME":"Tom","AGE":21}}
+     * {"RESULT":1,"UPDATE_COUNT":1}
+     * {"OUTPUTS":{"ID":2,"output_3":"output_3"}}
+     * </pre>
+     *
+     * @param statement     the CallableStatement to retrieve
+     * @param jsonGenerator the JsonGenerator to write JSON, its root value separator is replaced
+     * @param parameterMap  the parameters map
+     * @param listener      the listener of retrieved values, ignored if NULL
+     * @param hasResults    the result of advancing the statement to its first result
+     * @throws IOException  if failed to retrieve CLOB/NCLOB value if any or failed to write JSON
+     * @throws SQLException if failed to retrieve ResultSet(s) or outputs
+     */
+    public static void retrieveCallableStatementLines(final CallableStatement statement,
+                                                      final JsonGenerator jsonGenerator,
+                                                      final Map<Integer, Parameter> parameterMap,
+                                                      final ResultListener listener, final boolean hasResults)
+            throws IOException, SQLException {
+        jsonGenerator.setRootValueSeparator(null);
+        boolean hasMore = hasResults;
+        int result = 0;
+        while (hasMore) {
+            if (statement.getUpdateCount() != -1) {
+                jsonGenerator.writeStartObject();
+                jsonGenerator.writeNumberField(LINE_RESULT, result);
+                jsonGenerator.writeNumberField(LINE_UPDATE_COUNT, statement.getUpdateCount());
+                jsonGenerator.writeEndObject();
+                jsonGenerator.writeRaw(LINE_SEPARATOR);
+            } else {
+                retrieveResultSetLines(statement.getResultSet(), jsonGenerator, result, listener);
+            }
+            result++;
+            hasMore = hasMoreResults(statement);
+        }
+        for (Parameter parameter : parameterMap.values()) {
+            if (JdbcHandler.isCursor(parameter)) {
+                try (final ResultSet cursor = JdbcHandler.getCursor(statement, parameter)) {
+                    if (null != cursor) {
+                        retrieveResultSetLines(cursor, jsonGenerator, result, listener);
+                    }
+                }
+                result++;
+            }
+        }
+        final Map<String, Object> outputValues = retrieveOutputs(statement, new ArrayList<>(parameterMap.values()));
+        if (null != listener) {
+            outputValues.forEach(listener::onValue);
+        }
+        writeOutputLine(outputValues, jsonGenerator);
+    }
+
+    /**
+     * Write retrieved output values as the outputs line of newline-delimited JSON, nothing is written if there is
+     * no output value.
+     *
+     * @param outputValues  the output values by output field name
+     * @param jsonGenerator the JsonGenerator to write JSON, its root value separator is replaced
+     * @throws IOException if failed to write JSON
+     * @see JsonHandler#retrieveCallableStatementLines(CallableStatement, JsonGenerator, Map, ResultListener, boolean)
+     */
+    public static void writeOutputLine(final Map<String, Object> outputValues, final JsonGenerator jsonGenerator)
+            throws IOException {
+        if (!outputValues.isEmpty()) {
+            jsonGenerator.setRootValueSeparator(null);
+            jsonGenerator.writeStartObject();
+            jsonGenerator.writeObjectFieldStart(OUTPUT_HEADER);
+            for (Map.Entry<String, Object> entry : outputValues.entrySet()) {
+                writeJson(jsonGenerator, entry.getKey(), entry.getValue());
+            }
+            jsonGenerator.writeEndObject();
+            jsonGenerator.writeEndObject();
+            jsonGenerator.writeRaw(LINE_SEPARATOR);
+        }
+    }
+
+    private static void retrieveResultSetLines(final ResultSet resultSet, final JsonGenerator jsonGenerator,
+                                               final int result, final ResultListener listener)
+            throws SQLException, IOException {
+        final ResultSetMetaData resultSetMetaData = resultSet.getMetaData();
+        final int columnCount = resultSetMetaData.getColumnCount();
+        final String[] columnNames = new String[columnCount];
+        final int[] columnTypes = new int[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            columnNames[i] = resultSetMetaData.getColumnName(i + 1);
+            columnTypes[i] = resultSetMetaData.getColumnType(i + 1);
+        }
+        while (resultSet.next()) {
+            jsonGenerator.writeStartObject();
+            jsonGenerator.writeNumberField(LINE_RESULT, result);
+            jsonGenerator.writeObjectFieldStart(LINE_ROW);
+            for (int i = 0; i < columnCount; i++) {
+                final Object value = readValue(resultSet, i + 1, columnTypes[i]);
+                writeJson(jsonGenerator, columnNames[i], value);
+                if (null != listener) {
+                    listener.onValue(columnNames[i], value);
+                }
+            }
+            jsonGenerator.writeEndObject();
+            jsonGenerator.writeEndObject();
+            jsonGenerator.writeRaw(LINE_SEPARATOR);
+            if (null != listener) {
+                listener.onRow();
+            }
+        }
+    }
+
     /**
      * Streaming retrieve CallableStatement outputs based on parameters. If any OUT/INOUT parameter given,
      * will retrieve this OUT/INOUT parameter and write to JSON. If no name specified for the parameter,
@@ -121,6 +292,44 @@ public final class JsonHandler {
      */
     public static void retrieveOutputs(final CallableStatement statement, final JsonGenerator jsonGenerator,
                                        final List<Parameter> parameters) throws IOException, SQLException {
+        retrieveOutputs(statement, jsonGenerator, parameters, null);
+    }
+
+    /**
+     * Streaming retrieve CallableStatement outputs based on parameters and collect the retrieved output values.
+     * CLOB/NCLOB outputs are collected as String.
+     *
+     * @param statement     the CallableStatement to retrieve
+     * @param jsonGenerator the JsonGenerator to write JSON
+     * @param parameters    the parameter list
+     * @param outputValues  the map to collect output values by output field name, ignored if NULL
+     * @throws IOException  if failed to retrieve CLOB/NCLOB output if any or failed to write JSON
+     * @throws SQLException if failed to retrieve outputs
+     * @see JsonHandler#retrieveOutputs(CallableStatement, JsonGenerator, List)
+     */
+    public static void retrieveOutputs(final CallableStatement statement, final JsonGenerator jsonGenerator,
+                                       final List<Parameter> parameters, final Map<String, Object> outputValues)
+            throws IOException, SQLException {
+        retrieveOutputs(statement, jsonGenerator, parameters, outputValues, null);
+    }
+
+    /**
+     * Streaming retrieve CallableStatement outputs based on parameters and collect the retrieved output values.
+     * REF_CURSOR outputs (and any other output retrieved as ResultSet) are streamed row by row as JSON array the same
+     * way as ResultSet(s), notifying the listener of their values, and are not collected.
+     *
+     * @param statement     the CallableStatement to retrieve
+     * @param jsonGenerator the JsonGenerator to write JSON
+     * @param parameters    the parameter list
+     * @param outputValues  the map to collect output values by output field name, ignored if NULL
+     * @param listener      the listener of values retrieved from REF_CURSOR outputs, ignored if NULL
+     * @throws IOException  if failed to retrieve CLOB/NCLOB output if any or failed to write JSON
+     * @throws SQLException if failed to retrieve outputs
+     * @see JsonHandler#retrieveOutputs(CallableStatement, JsonGenerator, List, Map)
+     */
+    public static void retrieveOutputs(final CallableStatement statement, final JsonGenerator jsonGenerator,
+                                       final List<Parameter> parameters, final Map<String, Object> outputValues,
+                                       final ResultListener listener) throws IOException, SQLException {
         if (null != parameters && !parameters.isEmpty()) {
             boolean isEmpty = true;
             for (Parameter parameter : parameters) {
@@ -130,16 +339,19 @@ public final class JsonHandler {
                         jsonGenerator.writeObjectFieldStart(OUTPUT_HEADER);
                         isEmpty = false;
                     }
-                    String fieldName = parameter.getName();
-                    if (StringUtils.isBlank(fieldName)) {
-                        fieldName = OUTPUT_PREFIX + parameter.getIndex();
+                    final String fieldName = outputName(parameter);
+                    final Object value = JdbcHandler.isCursor(parameter) ? JdbcHandler.getCursor(statement, parameter)
+                            : readOutput(statement, parameter);
+                    if (value instanceof ResultSet) {
+                        try (final ResultSet cursor = (ResultSet) value) {
+                            jsonGenerator.writeFieldName(fieldName);
+                            writeRows(cursor, jsonGenerator, listener);
+                        }
+                        continue;
                     }
-                    if (Types.CLOB == parameter.getJdbcType().getVendorTypeNumber()) {
-                        writeJson(jsonGenerator, fieldName, statement.getCharacterStream(parameter.getIndex()));
-                    } else if (Types.NCLOB == parameter.getJdbcType().getVendorTypeNumber()) {
-                        writeJson(jsonGenerator, fieldName, statement.getNCharacterStream(parameter.getIndex()));
-                    } else {
-                        writeJson(jsonGenerator, fieldName, statement.getObject(parameter.getIndex()));
+                    writeJson(jsonGenerator, fieldName, value);
+                    if (null != outputValues) {
+                        outputValues.put(fieldName, value);
                     }
                 }
             }
@@ -149,6 +361,69 @@ public final class JsonHandler {
         }
     }
 
+    /**
+     * Retrieve CallableStatement outputs based on parameters without writing JSON.
+     * CLOB/NCLOB outputs are retrieved as String, REF_CURSOR outputs are skipped.
+     *
+     * @param statement  the CallableStatement to retrieve
+     * @param parameters the parameter list
+     * @return the output values by output field name, in parameter order
+     * @throws IOException  if failed to retrieve CLOB/NCLOB output if any
+     * @throws SQLException if failed to retrieve outputs
+     */
+    public static Map<String, Object> retrieveOutputs(final CallableStatement statement,
+                                                      final List<Parameter> parameters)
+            throws IOException, SQLException {
+        final Map<String, Object> outputValues = new LinkedHashMap<>();
+        if (null != parameters) {
+            for (Parameter parameter : parameters) {
+                if ((ParameterType.OUT.equals(parameter.getType()) || ParameterType.INOUT.equals(parameter.getType()))
+                        && !JdbcHandler.isCursor(parameter)) {
+                    outputValues.put(outputName(parameter), readOutput(statement, parameter));
+                }
+            }
+        }
+        return outputValues;
+    }
+
+    /**
+     * Write retrieved output values as the JSON of a CallableStatement without ResultSet.
+     *
+     * @param outputValues  the output values by output field name
+     * @param jsonGenerator the JsonGenerator to write JSON
+     * @throws IOException if failed to write JSON
+     * @see JsonHandler#retrieveOutputs(CallableStatement, List)
+     */
+    public static void writeOutputs(final Map<String, Object> outputValues, final JsonGenerator jsonGenerator)
+            throws IOException {
+        //start of root
+        jsonGenerator.writeStartObject();
+        if (!outputValues.isEmpty()) {
+            jsonGenerator.writeObjectFieldStart(OUTPUT_HEADER);
+            for (Map.Entry<String, Object> entry : outputValues.entrySet()) {
+                writeJson(jsonGenerator, entry.getKey(), entry.getValue());
+            }
+            jsonGenerator.writeEndObject();
+        }
+        jsonGenerator.writeEndObject();
+        //end of root
+    }
+
+    private static String outputName(final Parameter parameter) {
+        final String fieldName = parameter.getName();
+        return StringUtils.isBlank(fieldName) ? OUTPUT_PREFIX + parameter.getIndex() : fieldName;
+    }
+
+    private static Object readOutput(final CallableStatement statement, final Parameter parameter)
+            throws IOException, SQLException {
+        if (Types.CLOB == parameter.getJdbcType().getVendorTypeNumber()) {
+            return readString(statement.getCharacterStream(parameter.getIndex()));
+        } else if (Types.NCLOB == parameter.getJdbcType().getVendorTypeNumber()) {
+            return readString(statement.getNCharacterStream(parameter.getIndex()));
+        }
+        return statement.getObject(parameter.getIndex());
+    }
+
     /**
      * Streaming retrieve ResultSet and update count of Statement into JSON.
      *
@@ -159,7 +434,31 @@ public final class JsonHandler {
      */
     public static void retrieveResults(final Statement statement, final JsonGenerator jsonGenerator)
             throws SQLException, IOException {
-        boolean hasResults = hasMoreResults(statement);
+        retrieveResults(statement, jsonGenerator, null, 0, null);
+    }
+
+    /**
+     * Streaming retrieve ResultSet and update count of Statement into JSON, optionally fetching rows on a separated
+     * thread while encoding.
+     *
+     * @param statement     the statement to retrieve
+     * @param jsonGenerator the JSON writer
+     * @param executor      the executor to fetch rows on, ResultSet(s) are not pipelined if NULL
+     * @param pipelineSize  the number of buffered rows between fetching and encoding, not pipelined if less than 1
+     * @param listener      the listener of retrieved values, ignored if NULL
+     * @throws SQLException if failed to retrieve statement
+     * @throws IOException  if failed to read CLOB/NCLOB value in ResultSet or failed to write JSON content
+     */
+    public static void retrieveResults(final Statement statement, final JsonGenerator jsonGenerator,
+                                       final Executor executor, final int pipelineSize, final ResultListener listener)
+            throws SQLException, IOException {
+        retrieveResults(statement, jsonGenerator, executor, pipelineSize, listener, hasMoreResults(statement));
+    }
+
+    private static void retrieveResults(final Statement statement, final JsonGenerator jsonGenerator,
+                                        final Executor executor, final int pipelineSize, final ResultListener listener,
+                                        final boolean firstResult) throws SQLException, IOException {
+        boolean hasResults = firstResult;
         if (hasResults) {
             //start of results
             jsonGenerator.writeArrayFieldStart(RESULT_SET_HEADER);
@@ -167,7 +466,7 @@ public final class JsonHandler {
                 if (statement.getUpdateCount() != -1) {
                     jsonGenerator.writeObject(statement.getUpdateCount());
                 } else {
-                    retrieveResultSet(statement.getResultSet(), jsonGenerator);
+                    retrieveResultSet(statement.getResultSet(), jsonGenerator, executor, pipelineSize, listener);
                 }
                 hasResults = hasMoreResults(statement);
             }
@@ -186,31 +485,178 @@ public final class JsonHandler {
      */
     public static void retrieveResultSet(final ResultSet resultSet, final JsonGenerator jsonGenerator)
             throws SQLException, IOException {
+        retrieveResultSet(resultSet, jsonGenerator, null);
+    }
+
+    /**
+     * Streaming retrieve ResultSet and write into JSON, empty ResultSet will be skipped.
+     *
+     * @param resultSet     the ResultSet to retrieve
+     * @param jsonGenerator the JSON writer
+     * @param listener      the listener of retrieved values, ignored if NULL
+     * @throws SQLException if failed to retrieve ResultSet
+     * @throws IOException  if failed to read CLOB/NCLOB value in ResultSet or failed to write JSON content
+     */
+    public static void retrieveResultSet(final ResultSet resultSet, final JsonGenerator jsonGenerator,
+                                         final ResultListener listener) throws SQLException, IOException {
         if (resultSet.isBeforeFirst()) {
-            final ResultSetMetaData resultSetMetaData = resultSet.getMetaData();
-            final int columnCount = resultSetMetaData.getColumnCount();
+            writeRows(resultSet, jsonGenerator, listener);
+        } else {
+            //empty ResultSet
+            LOGGER.warn("Empty ResultSet, will skip it");
+        }
+    }
+
+    /**
+     * Streaming write all rows of ResultSet as JSON array, an empty ResultSet is written as empty array.
+     */
+    private static void writeRows(final ResultSet resultSet, final JsonGenerator jsonGenerator,
+                                  final ResultListener listener) throws SQLException, IOException {
+        final ResultSetMetaData resultSetMetaData = resultSet.getMetaData();
+        final int columnCount = resultSetMetaData.getColumnCount();
+        //start of ResultSet
+        jsonGenerator.writeStartArray();
+        while (resultSet.next()) {
+            //start of row
+            jsonGenerator.writeStartObject();
+            for (int i = 1; i <= columnCount; i++) {
+                if (null != listener) {
+                    final Object value = readValue(resultSet, i, resultSetMetaData.getColumnType(i));
+                    writeJson(jsonGenerator, resultSetMetaData.getColumnName(i), value);
+                    listener.onValue(resultSetMetaData.getColumnName(i), value);
+                } else if (resultSetMetaData.getColumnType(i) == Types.CLOB) {
+                    writeJson(jsonGenerator, resultSetMetaData.getColumnName(i), resultSet.getCharacterStream(i));
+                } else if (resultSetMetaData.getColumnType(i) == Types.NCLOB) {
+                    writeJson(jsonGenerator, resultSetMetaData.getColumnName(i), resultSet.getNCharacterStream(i));
+                } else {
+                    writeJson(jsonGenerator, resultSetMetaData.getColumnName(i), resultSet.getObject(i));
+                }
+            }
+            jsonGenerator.writeEndObject();
+            //end of Row
+            if (null != listener) {
+                listener.onRow();
+            }
+        }
+        jsonGenerator.writeEndArray();
+        //end of ResultSet
+    }
+
+    /**
+     * Streaming retrieve ResultSet and write into JSON, optionally pipelined: rows are fetched on a thread of the
+     * executor into a bounded {@link RowPipeline} of reusable row slots while the calling thread encodes them, so
+     * waiting for the driver to fetch the next block overlaps with encoding. CLOB/NCLOB values are read fully by
+     * the fetching thread. The ResultSet is only used by the calling thread again after the fetching completed.
+     *
+     * @param resultSet     the ResultSet to retrieve
+     * @param jsonGenerator the JSON writer
+     * @param executor      the executor to fetch rows on, not pipelined if NULL
+     * @param pipelineSize  the number of buffered rows, not pipelined if less than 1
+     * @param listener      the listener of retrieved values, called on the calling thread, ignored if NULL
+     * @throws SQLException if failed to retrieve ResultSet
+     * @throws IOException  if failed to read CLOB/NCLOB value in ResultSet or failed to write JSON content
+     * @see JsonHandler#retrieveResultSet(ResultSet, JsonGenerator, ResultListener)
+     */
+    public static void retrieveResultSet(final ResultSet resultSet, final JsonGenerator jsonGenerator,
+                                         final Executor executor, final int pipelineSize,
+                                         final ResultListener listener) throws SQLException, IOException {
+        if (null == executor || pipelineSize < 1) {
+            retrieveResultSet(resultSet, jsonGenerator, listener);
+            return;
+        }
+        if (!resultSet.isBeforeFirst()) {
+            //empty ResultSet
+            LOGGER.warn("Empty ResultSet, will skip it");
+            return;
+        }
+        final ResultSetMetaData resultSetMetaData = resultSet.getMetaData();
+        final int columnCount = resultSetMetaData.getColumnCount();
+        final String[] columnNames = new String[columnCount];
+        final int[] columnTypes = new int[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            columnNames[i] = resultSetMetaData.getColumnName(i + 1);
+            columnTypes[i] = resultSetMetaData.getColumnType(i + 1);
+        }
+        final RowPipeline pipeline = new RowPipeline(pipelineSize, columnCount);
+        final CountDownLatch fetched = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                while (resultSet.next()) {
+                    final Object[] row = pipeline.claim();
+                    if (null == row) {
+                        break;
+                    }
+                    for (int i = 0; i < columnCount; i++) {
+                        row[i] = readValue(resultSet, i + 1, columnTypes[i]);
+                    }
+                    pipeline.publish();
+                }
+                pipeline.finish(null);
+            } catch (final Throwable t) {
+                pipeline.finish(t);
+            } finally {
+                fetched.countDown();
+            }
+        });
+        boolean completed = false;
+        try {
             //start of ResultSet
             jsonGenerator.writeStartArray();
-            while (resultSet.next()) {
+            Object[] row;
+            while (null != (row = pipeline.take())) {
                 //start of row
                 jsonGenerator.writeStartObject();
-                for (int i = 1; i <= columnCount; i++) {
-                    if (resultSetMetaData.getColumnType(i) == Types.CLOB) {
-                        writeJson(jsonGenerator, resultSetMetaData.getColumnName(i), resultSet.getCharacterStream(i));
-                    } else if (resultSetMetaData.getColumnType(i) == Types.NCLOB) {
-                        writeJson(jsonGenerator, resultSetMetaData.getColumnName(i), resultSet.getNCharacterStream(i));
-                    } else {
-                        writeJson(jsonGenerator, resultSetMetaData.getColumnName(i), resultSet.getObject(i));
+                for (int i = 0; i < columnCount; i++) {
+                    writeJson(jsonGenerator, columnNames[i], row[i]);
+                    if (null != listener) {
+                        listener.onValue(columnNames[i], row[i]);
                     }
+                    row[i] = null;
                 }
                 jsonGenerator.writeEndObject();
                 //end of Row
+                if (null != listener) {
+                    listener.onRow();
+                }
+                pipeline.release();
             }
+            pipeline.checkFailure();
             jsonGenerator.writeEndArray();
             //end of ResultSet
-        } else {
-            //empty ResultSet
-            LOGGER.warn("Empty ResultSet, will skip it");
+            completed = true;
+        } finally {
+            if (!completed) {
+                pipeline.cancel();
+            }
+            awaitUninterruptibly(fetched);
+        }
+    }
+
+    /**
+     * Read a column value of the current row, CLOB/NCLOB values are read fully as String.
+     */
+    private static Object readValue(final ResultSet resultSet, final int column, final int columnType)
+            throws SQLException, IOException {
+        if (columnType == Types.CLOB) {
+            return readString(resultSet.getCharacterStream(column));
+        } else if (columnType == Types.NCLOB) {
+            return readString(resultSet.getNCharacterStream(column));
+        }
+        return resultSet.getObject(column);
+    }
+
+    private static void awaitUninterruptibly(final CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (final InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -227,15 +673,29 @@ public final class JsonHandler {
         if (null == reader) {
             jsonGenerator.writeNullField(fieldName);
         } else {
-            final StringBuffer stringBuffer = new StringBuffer();
-            final CharBuffer charBuffer = CharBuffer.allocate(BUFFER_SIZE);
-            while (reader.read(charBuffer) != -1) {
-                charBuffer.flip();
-                stringBuffer.append(charBuffer.toString());
-                charBuffer.clear();
-            }
-            jsonGenerator.writeStringField(fieldName, stringBuffer.toString());
+            jsonGenerator.writeStringField(fieldName, readString(reader));
+        }
+    }
+
+    /**
+     * Read character stream fully into String.
+     *
+     * @param reader the character stream
+     * @return the String read, NULL for NULL stream
+     * @throws IOException if failed to read character stream
+     */
+    public static String readString(final Reader reader) throws IOException {
+        if (null == reader) {
+            return null;
+        }
+        final StringBuffer stringBuffer = new StringBuffer();
+        final CharBuffer charBuffer = CharBuffer.allocate(BUFFER_SIZE);
+        while (reader.read(charBuffer) != -1) {
+            charBuffer.flip();
+            stringBuffer.append(charBuffer.toString());
+            charBuffer.clear();
         }
+        return stringBuffer.toString();
     }
 
     /**
@@ -255,7 +715,13 @@ public final class JsonHandler {
         }
     }
 
-    private static boolean hasMoreResults(final Statement statement) {
+    /**
+     * Advance the statement to its next result.
+     *
+     * @param statement the statement
+     * @return true if the statement has a next ResultSet or update count
+     */
+    public static boolean hasMoreResults(final Statement statement) {
         try {
             return statement.getMoreResults() || statement.getUpdateCount() != -1;
         } catch (SQLException e) {
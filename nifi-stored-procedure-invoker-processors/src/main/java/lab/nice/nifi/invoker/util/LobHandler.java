@@ -1,18 +1,23 @@
 package lab.nice.nifi.invoker.util;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
 import java.nio.CharBuffer;
+import java.sql.Array;
 import java.sql.Clob;
+import java.sql.Connection;
 import java.sql.NClob;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Struct;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Supplier;
 
 /**
- * Auto free CLOB/NCLOB handler.
- * Support to construct CLOB/NCLOB from character stream, and free CLOB/NCLOB after commit.
+ * Auto free CLOB/NCLOB/ARRAY handler.
+ * Support to construct CLOB/NCLOB from character stream and ARRAY/STRUCT from elements, and free them after commit.
  */
 public class LobHandler implements AutoCloseable {
     private static final int DEFAULT_BUFFER_SIZE = 256;
@@ -20,6 +25,8 @@ public class LobHandler implements AutoCloseable {
     private final Statement statement;
     private final List<Clob> clobs;
     private final List<NClob> nClobs;
+    private final List<Array> arrays;
+    private final Supplier<InputStream> content;
 
     /**
      * Construct handler with statement.
@@ -27,9 +34,21 @@ public class LobHandler implements AutoCloseable {
      * @param statement the sql statement
      */
     public LobHandler(final Statement statement) {
+        this(statement, null);
+    }
+
+    /**
+     * Construct handler with statement and the content of the incoming FlowFile.
+     *
+     * @param statement the sql statement
+     * @param content   the supplier of the content of the incoming FlowFile, NULL if there is no incoming FlowFile
+     */
+    public LobHandler(final Statement statement, final Supplier<InputStream> content) {
         this.statement = statement;
         this.clobs = new ArrayList<>();
         this.nClobs = new ArrayList<>();
+        this.arrays = new ArrayList<>();
+        this.content = content;
     }
 
     /**
@@ -68,6 +87,52 @@ public class LobHandler implements AutoCloseable {
         }
     }
 
+    /**
+     * Create ARRAY from elements, nested Object[] elements are created as STRUCT of the same type name.
+     *
+     * @param typeName the SQL type name of the elements
+     * @param elements the elements
+     * @return ARRAY
+     * @throws SQLException if failed to create ARRAY or STRUCT
+     */
+    public Array array(final String typeName, final List<Object> elements) throws SQLException {
+        final Connection connection = statement.getConnection();
+        final Object[] values = elements.toArray();
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] instanceof Object[]) {
+                values[i] = connection.createStruct(typeName, (Object[]) values[i]);
+            }
+        }
+        final Array array = connection.createArrayOf(typeName, values);
+        arrays.add(array);
+        return array;
+    }
+
+    /**
+     * Create STRUCT from attributes.
+     *
+     * @param typeName   the SQL type name of the struct
+     * @param attributes the attributes
+     * @return STRUCT
+     * @throws SQLException if failed to create STRUCT
+     */
+    public Struct struct(final String typeName, final List<Object> attributes) throws SQLException {
+        return statement.getConnection().createStruct(typeName, attributes.toArray());
+    }
+
+    /**
+     * Open the content of the incoming FlowFile, the caller is responsible to close the stream.
+     *
+     * @return the content stream
+     * @throws IOException if there is no incoming FlowFile
+     */
+    public InputStream content() throws IOException {
+        if (null == content) {
+            throw new IOException("There is no incoming FlowFile content to read");
+        }
+        return content.get();
+    }
+
     /**
      * Write character to CLOB from character stream.
      *
@@ -88,9 +153,9 @@ public class LobHandler implements AutoCloseable {
     }
 
     /**
-     * Auto close (free) CLOB/NCLOB
+     * Auto close (free) CLOB/NCLOB/ARRAY
      *
-     * @throws SQLException if failed to free CLOB/NCLOB
+     * @throws SQLException if failed to free CLOB/NCLOB/ARRAY
      * @see AutoCloseable#close()
      */
     @Override
@@ -101,5 +166,8 @@ public class LobHandler implements AutoCloseable {
         for (NClob nClob : nClobs) {
             nClob.free();
         }
+        for (Array array : arrays) {
+            array.free();
+        }
     }
 }
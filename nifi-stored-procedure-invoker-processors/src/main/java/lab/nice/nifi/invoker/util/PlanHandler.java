@@ -0,0 +1,376 @@
+package lab.nice.nifi.invoker.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import lab.nice.nifi.invoker.common.Parameter;
+import lab.nice.nifi.invoker.common.ParameterType;
+import lab.nice.nifi.invoker.common.PlanCall;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Handler to parse and execute stored procedure execution plans. An execution plan is a small DAG of stored procedure
+ * calls, outputs of one call can be bound to IN/INOUT parameters of the calls depending on it, independent calls are
+ * executed concurrently on separated pooled connections.
+ *
+ * <pre>
+ * {
+ * 	"calls": [
+ * 		{"id": "customer", "statement": "{call new_customer(?,?)}",
+ * 		 "parameters": {"procedure.args.in.1.type": "12", "procedure.args.in.1.value": "Tom",
+ * 		                "procedure.args.out.2.type": "4", "procedure.args.out.2.name": "ID"}},
+ * 		{"id": "address", "statement": "{call new_address(?,?)}",
+ * 		 "parameters": {"procedure.args.in.1.type": "4",
+ * 		                "procedure.args.in.2.type": "12", "procedure.args.in.2.value": "Guangzhou"},
+ * 		 "bindings": {"1": "customer.ID"}}
+ * 	]
+ * }
+ * </pre>
+ */
+public final class PlanHandler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PlanHandler.class);
+
+    private static final String CALLS = "calls";
+    private static final String ID = "id";
+    private static final String STATEMENT = "statement";
+    private static final String PARAMETERS = "parameters";
+    private static final String BINDINGS = "bindings";
+    private static final String DEPENDS_ON = "dependsOn";
+
+    private PlanHandler() {
+    }
+
+    /**
+     * Parse execution plan from JSON string.
+     *
+     * @param plan         the execution plan JSON
+     * @param objectMapper the JSON mapper
+     * @return the validated plan calls in plan order
+     * @throws IOException if failed to read JSON
+     */
+    public static List<PlanCall> parse(final String plan, final ObjectMapper objectMapper) throws IOException {
+        if (StringUtils.isBlank(plan)) {
+            throw new IllegalArgumentException("Execution plan could not be empty.");
+        }
+        return parse(objectMapper.readTree(plan));
+    }
+
+    /**
+     * Parse execution plan from JSON stream.
+     *
+     * @param plan         the execution plan JSON stream
+     * @param objectMapper the JSON mapper
+     * @return the validated plan calls in plan order
+     * @throws IOException if failed to read JSON
+     */
+    public static List<PlanCall> parse(final InputStream plan, final ObjectMapper objectMapper) throws IOException {
+        return parse(objectMapper.readTree(plan));
+    }
+
+    private static List<PlanCall> parse(final JsonNode root) {
+        if (null == root || !root.path(CALLS).isArray() || root.path(CALLS).size() == 0) {
+            throw new IllegalArgumentException("Execution plan must contain a non empty '" + CALLS + "' array.");
+        }
+        final Map<String, PlanCall> calls = new LinkedHashMap<>();
+        for (JsonNode node : root.path(CALLS)) {
+            final String id = node.path(ID).asText(null);
+            final String statement = node.path(STATEMENT).asText(null);
+            if (StringUtils.isBlank(id) || StringUtils.isBlank(statement)) {
+                throw new IllegalArgumentException("Every execution plan call must have an '" + ID + "' and a '"
+                        + STATEMENT + "'.");
+            }
+            final Map<String, String> parameters = new LinkedHashMap<>();
+            final Iterator<Map.Entry<String, JsonNode>> parameterFields = node.path(PARAMETERS).fields();
+            while (parameterFields.hasNext()) {
+                final Map.Entry<String, JsonNode> field = parameterFields.next();
+                parameters.put(field.getKey(), field.getValue().isNull() ? null : field.getValue().asText());
+            }
+            final Map<Integer, String> bindings = new LinkedHashMap<>();
+            final Iterator<Map.Entry<String, JsonNode>> bindingFields = node.path(BINDINGS).fields();
+            while (bindingFields.hasNext()) {
+                final Map.Entry<String, JsonNode> field = bindingFields.next();
+                bindings.put(Integer.parseInt(field.getKey()), field.getValue().asText());
+            }
+            final Set<String> dependsOn = new LinkedHashSet<>();
+            for (JsonNode dependency : node.path(DEPENDS_ON)) {
+                dependsOn.add(dependency.asText());
+            }
+            if (calls.put(id, new PlanCall(id, statement, parameters, bindings, dependsOn)) != null) {
+                throw new IllegalArgumentException("Duplicated execution plan call id:" + id);
+            }
+        }
+        for (PlanCall call : calls.values()) {
+            for (String dependency : call.getDependencies()) {
+                if (!calls.containsKey(dependency)) {
+                    throw new IllegalArgumentException("Execution plan call " + call.getId()
+                            + " depends on unknown call " + dependency);
+                }
+            }
+        }
+        // every call must be reachable in topological order, otherwise the plan contains a cycle
+        final Map<String, Integer> pending = pendingDependencies(calls);
+        final Deque<String> ready = readyCalls(pending);
+        int visited = 0;
+        while (!ready.isEmpty()) {
+            final String id = ready.poll();
+            visited++;
+            for (PlanCall call : calls.values()) {
+                if (call.getDependencies().contains(id) && pending.merge(call.getId(), -1, Integer::sum) == 0) {
+                    ready.add(call.getId());
+                }
+            }
+        }
+        if (visited != calls.size()) {
+            throw new IllegalArgumentException("Execution plan contains cyclic dependencies.");
+        }
+        return new ArrayList<>(calls.values());
+    }
+
+    /**
+     * Execute the plan calls. A call is submitted as soon as all the calls it depends on completed, with at most
+     * parallelism calls running at the same time. Each call borrows its own connection from the pool.
+     * The first failed call fails the whole plan, the calls still running are cancelled by
+     * {@link java.sql.Statement#cancel()}, which releases their connections promptly.
+     *
+     * @param plan         the plan calls
+     * @param connections  the connections of the pool, each call borrows its own
+     * @param executor     the executor running the calls
+     * @param parallelism  the max number of calls running at the same time
+     * @param timeout      the query timeout in seconds of each call
+     * @param objectMapper the JSON mapper
+     * @return the buffered JSON result of each call by call id, in plan order
+     * @throws SQLException   if failed to execute any call
+     * @throws ParseException if failed to parse any parameter value
+     * @throws IOException    if failed to read any call result
+     */
+    public static Map<String, TokenBuffer> execute(final List<PlanCall> plan, final Supplier<Connection> connections,
+                                                   final ExecutorService executor, final int parallelism,
+                                                   final int timeout, final ObjectMapper objectMapper)
+            throws SQLException, ParseException, IOException {
+        final Map<String, PlanCall> calls = new LinkedHashMap<>();
+        plan.forEach(call -> calls.put(call.getId(), call));
+        final Map<String, Integer> pending = pendingDependencies(calls);
+        final Deque<String> ready = readyCalls(pending);
+        final Map<String, Map<String, Object>> outputs = new HashMap<>();
+        final Map<String, TokenBuffer> results = new HashMap<>();
+        final CompletionService<CallResult> completionService = new ExecutorCompletionService<>(executor);
+        final List<Attempt> attempts = new ArrayList<>();
+        final List<Future<CallResult>> futures = new ArrayList<>();
+        int running = 0;
+        try {
+            while (!ready.isEmpty() || running > 0) {
+                while (!ready.isEmpty() && running < parallelism) {
+                    final PlanCall call = calls.get(ready.poll());
+                    final Map<Integer, Parameter> parameterMap = bind(call, outputs);
+                    final Attempt attempt = new Attempt(call, parameterMap, connections, timeout, objectMapper);
+                    attempts.add(attempt);
+                    futures.add(completionService.submit(attempt));
+                    running++;
+                }
+                final CallResult result = completionService.take().get();
+                running--;
+                results.put(result.id, result.buffer);
+                outputs.put(result.id, result.outputs);
+                for (PlanCall call : calls.values()) {
+                    if (call.getDependencies().contains(result.id)
+                            && pending.merge(call.getId(), -1, Integer::sum) == 0) {
+                        ready.add(call.getId());
+                    }
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while executing plan", e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            } else if (cause instanceof ParseException) {
+                throw (ParseException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            // the calls still running are cancelled through their statements, not by interrupting the workers
+            for (Attempt attempt : attempts) {
+                attempt.cancel();
+            }
+            for (Future<CallResult> future : futures) {
+                future.cancel(false);
+            }
+        }
+        final Map<String, TokenBuffer> ordered = new LinkedHashMap<>();
+        calls.keySet().forEach(id -> ordered.put(id, results.get(id)));
+        return ordered;
+    }
+
+    /**
+     * Write the buffered results of a plan into one JSON object keyed by call id.
+     *
+     * @param results       the buffered JSON result of each call by call id
+     * @param jsonGenerator the JSON writer
+     * @throws IOException if failed to write JSON content
+     */
+    public static void writeResults(final Map<String, TokenBuffer> results, final JsonGenerator jsonGenerator)
+            throws IOException {
+        //start of root
+        jsonGenerator.writeStartObject();
+        for (Map.Entry<String, TokenBuffer> entry : results.entrySet()) {
+            jsonGenerator.writeFieldName(entry.getKey());
+            entry.getValue().serialize(jsonGenerator);
+        }
+        jsonGenerator.writeEndObject();
+        //end of root
+    }
+
+    private static Map<Integer, Parameter> bind(final PlanCall call, final Map<String, Map<String, Object>> outputs) {
+        final Map<Integer, Parameter> parameterMap = new HashMap<>();
+        AttributeHandler.retrieveProcedureParameter(call.getParameters(), parameterMap);
+        for (Map.Entry<Integer, String> binding : call.getBindings().entrySet()) {
+            final Parameter parameter = parameterMap.get(binding.getKey());
+            if (null == parameter || ParameterType.OUT.equals(parameter.getType())) {
+                throw new IllegalArgumentException("Execution plan call " + call.getId() + " binds "
+                        + binding.getValue() + " to parameter " + binding.getKey()
+                        + " which is not an IN/INOUT parameter.");
+            }
+            final Map<String, Object> callOutputs = outputs.get(PlanCall.bindingCall(binding.getValue()));
+            final String outputName = PlanCall.bindingOutput(binding.getValue());
+            if (null == callOutputs || !callOutputs.containsKey(outputName)) {
+                throw new IllegalArgumentException("Execution plan call " + call.getId() + " binds unknown output "
+                        + binding.getValue());
+            }
+            parameter.setValue(AttributeHandler.attributeValue(callOutputs.get(outputName)));
+        }
+        return parameterMap;
+    }
+
+    private static Map<String, Integer> pendingDependencies(final Map<String, PlanCall> calls) {
+        final Map<String, Integer> pending = new LinkedHashMap<>();
+        calls.values().forEach(call -> pending.put(call.getId(), call.getDependencies().size()));
+        return pending;
+    }
+
+    private static Deque<String> readyCalls(final Map<String, Integer> pending) {
+        final Deque<String> ready = new ArrayDeque<>();
+        pending.forEach((id, count) -> {
+            if (count == 0) {
+                ready.add(id);
+            }
+        });
+        return ready;
+    }
+
+    /**
+     * One plan call on its own connection, cancellable from another thread.
+     */
+    private static final class Attempt implements Callable<CallResult> {
+        private final PlanCall call;
+        private final Map<Integer, Parameter> parameterMap;
+        private final Supplier<Connection> connections;
+        private final int timeout;
+        private final ObjectMapper objectMapper;
+        private CallableStatement statement;
+        private boolean cancelled;
+
+        private Attempt(final PlanCall call, final Map<Integer, Parameter> parameterMap,
+                        final Supplier<Connection> connections, final int timeout, final ObjectMapper objectMapper) {
+            this.call = call;
+            this.parameterMap = parameterMap;
+            this.connections = connections;
+            this.timeout = timeout;
+            this.objectMapper = objectMapper;
+        }
+
+        @Override
+        public CallResult call() throws Exception {
+            try (final Connection connection = connections.get();
+                 final CallableStatement callableStatement = connection.prepareCall(call.getStatement());
+                 final LobHandler lobHandler = new LobHandler(callableStatement)) {
+                synchronized (this) {
+                    if (cancelled) {
+                        throw new SQLException("Execution plan call " + call.getId() + " cancelled");
+                    }
+                    statement = callableStatement;
+                }
+                callableStatement.setQueryTimeout(timeout);
+                JdbcHandler.setParameters(callableStatement, lobHandler, parameterMap);
+                // a cancel before execute() is a no-op for most drivers, check again right before executing
+                synchronized (this) {
+                    if (cancelled) {
+                        throw new SQLException("Execution plan call " + call.getId() + " cancelled");
+                    }
+                }
+                callableStatement.execute();
+                final TokenBuffer buffer = new TokenBuffer(objectMapper, false);
+                final Map<String, Object> outputValues = new HashMap<>();
+                buffer.writeStartObject();
+                JsonHandler.retrieveResults(callableStatement, buffer);
+                JsonHandler.retrieveOutputs(callableStatement, buffer, new ArrayList<>(parameterMap.values()),
+                        outputValues);
+                buffer.writeEndObject();
+                return new CallResult(call.getId(), buffer, outputValues);
+            } finally {
+                synchronized (this) {
+                    statement = null;
+                }
+            }
+        }
+
+        private void cancel() {
+            final CallableStatement running;
+            synchronized (this) {
+                cancelled = true;
+                running = statement;
+            }
+            if (null != running) {
+                try {
+                    running.cancel();
+                } catch (final SQLException e) {
+                    LOGGER.debug("Unable to cancel execution plan call {}", call.getId(), e);
+                }
+            }
+        }
+    }
+
+    private static final class CallResult {
+        private final String id;
+        private final TokenBuffer buffer;
+        private final Map<String, Object> outputs;
+
+        private CallResult(final String id, final TokenBuffer buffer, final Map<String, Object> outputs) {
+            this.id = id;
+            this.buffer = buffer;
+            this.outputs = outputs;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package lab.nice.nifi.invoker.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Bounded LRU cache whose entries expire after a time to live. An entry older than the refresh age but not yet
+ * expired is still returned, while it is reloaded in the background, so hot keys never block on the loader.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public final class RefreshingCache<K, V> {
+    private final Map<K, Entry<V>> entries;
+    private final long timeToLiveNanos;
+    private final long refreshAfterNanos;
+    private final Executor executor;
+    private final Loader<K, V> loader;
+
+    /**
+     * Loader of cache values.
+     *
+     * @param <K> the key type
+     * @param <V> the value type
+     */
+    public interface Loader<K, V> {
+        /**
+         * Load the value of a key.
+         *
+         * @param key the key
+         * @return the value, may be NULL
+         * @throws Exception if failed to load the value
+         */
+        V load(K key) throws Exception;
+    }
+
+    /**
+     * Construct cache.
+     *
+     * @param maxSize      the max number of entries, the least recently used entry is evicted first
+     * @param timeToLive   the time to live of an entry
+     * @param refreshAfter the age after which an entry is reloaded in the background, no background reload if not
+     *                     less than the time to live
+     * @param unit         the unit of time to live and refresh age
+     * @param executor     the executor of background reloads
+     * @param loader       the loader of values
+     */
+    public RefreshingCache(final int maxSize, final long timeToLive, final long refreshAfter, final TimeUnit unit,
+                           final Executor executor, final Loader<K, V> loader) {
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<K, Entry<V>> eldest) {
+                return size() > maxSize;
+            }
+        };
+        this.timeToLiveNanos = unit.toNanos(timeToLive);
+        this.refreshAfterNanos = unit.toNanos(refreshAfter);
+        this.executor = executor;
+        this.loader = loader;
+    }
+
+    /**
+     * Get the value of a key, loading it if absent or expired.
+     *
+     * @param key the key
+     * @return the value, may be NULL
+     * @throws Exception if failed to load the value
+     */
+    public V get(final K key) throws Exception {
+        final long now = System.nanoTime();
+        final Entry<V> entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (null != entry) {
+            final long age = now - entry.loadedAt;
+            if (age < timeToLiveNanos) {
+                if (age >= refreshAfterNanos && refreshAfterNanos < timeToLiveNanos
+                        && entry.refreshing.compareAndSet(false, true)) {
+                    refresh(key, entry);
+                }
+                return entry.value;
+            }
+        }
+        final V value = loader.load(key);
+        put(key, new Entry<>(value, now));
+        return value;
+    }
+
+    /**
+     * @return the number of cached entries, expired included
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    private void refresh(final K key, final Entry<V> entry) {
+        try {
+            executor.execute(() -> {
+                final long now = System.nanoTime();
+                try {
+                    put(key, new Entry<>(loader.load(key), now));
+                } catch (final Exception e) {
+                    // keep serving the current value until it expires, the next access after expiry reports failure
+                    entry.refreshing.set(false);
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            entry.refreshing.set(false);
+        }
+    }
+
+    private void put(final K key, final Entry<V> entry) {
+        synchronized (entries) {
+            final Entry<V> current = entries.get(key);
+            if (null == current || current.loadedAt - entry.loadedAt <= 0) {
+                entries.put(key, entry);
+            }
+        }
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long loadedAt;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private Entry(final V value, final long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package lab.nice.nifi.invoker.util;
+
+/**
+ * Listener of the values retrieved from ResultSet(s) and outputs while they are written.
+ */
+public interface ResultListener {
+    /**
+     * Called for each retrieved column value of a ResultSet row and each OUT/INOUT parameter value.
+     * CLOB/NCLOB values are given as String.
+     *
+     * @param fieldName the column name or output field name
+     * @param value     the value, may be NULL
+     */
+    void onValue(String fieldName, Object value);
+
+    /**
+     * Called after all column values of a ResultSet row were retrieved.
+     */
+    default void onRow() {
+    }
+}
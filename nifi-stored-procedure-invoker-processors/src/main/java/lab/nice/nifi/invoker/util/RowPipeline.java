@@ -0,0 +1,164 @@
+package lab.nice.nifi.invoker.util;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded single producer, single consumer ring of reusable row slots, used to overlap ResultSet fetching on one
+ * thread with JSON encoding on another. Slots are allocated once and reused, the producer blocks while the ring is
+ * full (back-pressure) and the consumer blocks while the ring is empty.
+ * <p>
+ * Producer: {@link #claim()}, fill the slot, {@link #publish()}, repeat and finally {@link #finish(Throwable)}.
+ * Consumer: {@link #take()}, read the slot, {@link #release()}, repeat until {@link #take()} returns NULL, then
+ * {@link #checkFailure()}. Either side may {@link #cancel()}.
+ */
+public final class RowPipeline {
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int SPINS = 64;
+
+    private final Object[][] slots;
+    private final int mask;
+    // next slot to publish, written by producer only
+    private final AtomicLong head = new AtomicLong();
+    // next slot to take, written by consumer only
+    private final AtomicLong tail = new AtomicLong();
+    private volatile boolean finished;
+    private volatile boolean cancelled;
+    private volatile Throwable failure;
+    private volatile Thread producer;
+    private volatile Thread consumer;
+
+    /**
+     * Construct pipeline.
+     *
+     * @param capacity    the number of row slots, rounded up to the next power of two
+     * @param columnCount the number of columns of each row
+     */
+    public RowPipeline(final int capacity, final int columnCount) {
+        final int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.slots = new Object[size][columnCount];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Claim the next free slot for writing, waiting while the ring is full.
+     *
+     * @return the slot, NULL if the pipeline is cancelled
+     */
+    public Object[] claim() {
+        final long position = head.get();
+        int spins = 0;
+        while (position - tail.get() >= slots.length) {
+            if (cancelled) {
+                return null;
+            }
+            spins = await(spins, true);
+        }
+        return cancelled ? null : slots[(int) position & mask];
+    }
+
+    /**
+     * Publish the claimed slot to the consumer.
+     */
+    public void publish() {
+        head.lazySet(head.get() + 1);
+        signal(consumer);
+    }
+
+    /**
+     * Mark the end of rows.
+     *
+     * @param throwable the producer failure, NULL if all rows were produced
+     */
+    public void finish(final Throwable throwable) {
+        failure = throwable;
+        finished = true;
+        signal(consumer);
+    }
+
+    /**
+     * Take the next published slot for reading, waiting while the ring is empty.
+     *
+     * @return the slot, NULL if all rows have been taken, the producer failed or the pipeline is cancelled
+     */
+    public Object[] take() {
+        final long position = tail.get();
+        int spins = 0;
+        while (position >= head.get()) {
+            if (cancelled || finished && position >= head.get()) {
+                return null;
+            }
+            spins = await(spins, false);
+        }
+        return slots[(int) position & mask];
+    }
+
+    /**
+     * Release the taken slot back to the producer.
+     */
+    public void release() {
+        tail.lazySet(tail.get() + 1);
+        signal(producer);
+    }
+
+    /**
+     * Cancel the pipeline, waiting producer and consumer return NULL.
+     */
+    public void cancel() {
+        cancelled = true;
+        signal(producer);
+        signal(consumer);
+    }
+
+    /**
+     * @return true if the producer finished or the pipeline is cancelled
+     */
+    public boolean isDone() {
+        return finished || cancelled;
+    }
+
+    /**
+     * Rethrow the producer failure if any.
+     *
+     * @throws SQLException if the producer failed to fetch rows
+     * @throws IOException  if the producer failed to read CLOB/NCLOB values
+     */
+    public void checkFailure() throws SQLException, IOException {
+        final Throwable throwable = failure;
+        if (throwable instanceof SQLException) {
+            throw (SQLException) throwable;
+        } else if (throwable instanceof IOException) {
+            throw (IOException) throwable;
+        } else if (throwable instanceof RuntimeException) {
+            throw (RuntimeException) throwable;
+        } else if (throwable instanceof Error) {
+            throw (Error) throwable;
+        } else if (throwable != null) {
+            throw new SQLException(throwable);
+        }
+    }
+
+    private int await(final int spins, final boolean isProducer) {
+        if (spins < SPINS) {
+            Thread.yield();
+            return spins + 1;
+        }
+        if (isProducer) {
+            producer = Thread.currentThread();
+        } else {
+            consumer = Thread.currentThread();
+        }
+        // timed park, so a signal racing with the registration above only delays but never loses a wake up
+        LockSupport.parkNanos(this, PARK_NANOS);
+        return spins;
+    }
+
+    private static void signal(final Thread thread) {
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package lab.nice.nifi.invoker.util;
+
+import lab.nice.nifi.invoker.common.Parameter;
+import lab.nice.nifi.invoker.common.ParameterType;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free ring buffer of the recent calls slower than a threshold. Each captured call keeps the statement,
+ * a snapshot of the bound parameter values (masked unless captured explicitly), the time of every phase, the number
+ * of rows retrieved, the number of bytes written and the failure if any, so slow calls can be reproduced offline.
+ */
+public final class SlowCallRecorder {
+    public static final String MASK = "********";
+    public static final String PHASE_PREPARE = "prepare";
+    public static final String PHASE_EXECUTE = "execute";
+    public static final String PHASE_FETCH = "fetch";
+
+    private static final int MAX_VALUE_LENGTH = 256;
+
+    private final AtomicReferenceArray<Call> calls;
+    private final AtomicLong next = new AtomicLong();
+    private final long thresholdNanos;
+    private final boolean captureValues;
+    private final Set<Integer> maskedParameters;
+
+    /**
+     * Construct recorder.
+     *
+     * @param capacity         the max number of captured calls, older calls are overwritten
+     * @param threshold        the min elapsed time of a captured call
+     * @param unit             the unit of threshold
+     * @param captureValues    whether parameter values are captured, otherwise all values are masked
+     * @param maskedParameters the indexes of the parameters whose values are masked even if values are captured
+     */
+    public SlowCallRecorder(final int capacity, final long threshold, final TimeUnit unit,
+                            final boolean captureValues, final Set<Integer> maskedParameters) {
+        this.calls = new AtomicReferenceArray<>(capacity);
+        this.thresholdNanos = unit.toNanos(threshold);
+        this.captureValues = captureValues;
+        this.maskedParameters = maskedParameters;
+    }
+
+    /**
+     * Start tracing a call, the first phase starts now.
+     *
+     * @param procedure  the stored procedure statement
+     * @param parameters the bound parameters
+     * @param flowFileId the uuid of the incoming FlowFile, may be null
+     * @param listener   the listener the traced call delegates retrieved values to, may be null
+     * @return the call trace
+     */
+    public Call start(final String procedure, final Collection<Parameter> parameters, final String flowFileId,
+                      final ResultListener listener) {
+        final List<Map<String, Object>> snapshot = new ArrayList<>(parameters.size());
+        for (Parameter parameter : parameters) {
+            final Map<String, Object> values = new LinkedHashMap<>();
+            values.put("INDEX", parameter.getIndex());
+            values.put("TYPE", parameter.getType());
+            values.put("JDBC_TYPE", parameter.getJdbcType());
+            if (!ParameterType.OUT.equals(parameter.getType())) {
+                values.put("VALUE", !captureValues || maskedParameters.contains(parameter.getIndex()) ? MASK
+                        : truncate(parameter.getValue()));
+                if (null != parameter.getFormat()) {
+                    values.put("FORMAT", parameter.getFormat());
+                }
+            }
+            snapshot.add(values);
+        }
+        return new Call(procedure, snapshot, flowFileId, listener);
+    }
+
+    /**
+     * Complete a traced call and capture it if it was slower than the threshold.
+     *
+     * @param call  the call trace
+     * @param error the failure of the call, null if succeeded
+     * @return true if the call was captured
+     */
+    public boolean complete(final Call call, final Throwable error) {
+        call.elapsedNanos = System.nanoTime() - call.startNanos;
+        call.error = null == error ? null : error.toString();
+        if (call.elapsedNanos < thresholdNanos) {
+            return false;
+        }
+        calls.set((int) (next.getAndIncrement() % calls.length()), call);
+        return true;
+    }
+
+    /**
+     * @return the captured calls, oldest first
+     */
+    public List<Map<String, Object>> snapshot() {
+        final long end = next.get();
+        final List<Map<String, Object>> snapshot = new ArrayList<>();
+        for (long i = Math.max(0, end - calls.length()); i < end; i++) {
+            final Call call = calls.get((int) (i % calls.length()));
+            if (null != call) {
+                snapshot.add(call.toMap());
+            }
+        }
+        return snapshot;
+    }
+
+    private static String truncate(final String value) {
+        return null == value || value.length() <= MAX_VALUE_LENGTH ? value
+                : value.substring(0, MAX_VALUE_LENGTH) + "...(" + value.length() + " chars)";
+    }
+
+    /**
+     * Trace of one call, counting the retrieved rows while delegating the values to the listener of the call.
+     */
+    public static final class Call implements ResultListener {
+        private final String procedure;
+        private final List<Map<String, Object>> parameters;
+        private final String flowFileId;
+        private final ResultListener listener;
+        private final long startMillis = System.currentTimeMillis();
+        private final long startNanos = System.nanoTime();
+        private final Map<String, Long> phases = new LinkedHashMap<>();
+        private long phaseNanos = startNanos;
+        private long rows;
+        private long elapsedNanos;
+        private long bytes;
+        private String error;
+
+        private Call(final String procedure, final List<Map<String, Object>> parameters, final String flowFileId,
+                     final ResultListener listener) {
+            this.procedure = procedure;
+            this.parameters = parameters;
+            this.flowFileId = flowFileId;
+            this.listener = listener;
+        }
+
+        /**
+         * End the current phase, the next phase starts now.
+         *
+         * @param phase the name of the ended phase
+         */
+        public void endPhase(final String phase) {
+            final long now = System.nanoTime();
+            phases.merge(phase, now - phaseNanos, Long::sum);
+            phaseNanos = now;
+        }
+
+        /**
+         * @param bytes the number of bytes written for the call
+         */
+        public void written(final long bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void onValue(final String fieldName, final Object value) {
+            if (null != listener) {
+                listener.onValue(fieldName, value);
+            }
+        }
+
+        @Override
+        public void onRow() {
+            rows++;
+            if (null != listener) {
+                listener.onRow();
+            }
+        }
+
+        /**
+         * @return the call as map of JSON field names to values
+         */
+        public Map<String, Object> toMap() {
+            final Map<String, Object> map = new LinkedHashMap<>();
+            map.put("TIME", Instant.ofEpochMilli(startMillis).toString());
+            map.put("PROCEDURE", procedure);
+            map.put("FLOWFILE", flowFileId);
+            map.put("PARAMETERS", parameters);
+            map.put("ELAPSED_MILLIS", TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+            final Map<String, Long> phaseMillis = new LinkedHashMap<>();
+            phases.forEach((phase, nanos) -> phaseMillis.put(phase, TimeUnit.NANOSECONDS.toMillis(nanos)));
+            map.put("PHASE_MILLIS", phaseMillis);
+            map.put("ROWS", rows);
+            map.put("BYTES", bytes);
+            if (null != error) {
+                map.put("ERROR", error);
+            }
+            return map;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package lab.nice.nifi.invoker.util;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * Track the maximum value of a watermark column (or output) above a previous watermark.
+ * Numbers are compared numerically, dates, times and timestamps by epoch milliseconds, other values by their
+ * string form. The watermark is kept in the string form accepted by {@link JdbcHandler#applyParameter},
+ * see {@link AttributeHandler#attributeValue(Object)}.
+ */
+public final class WatermarkTracker implements ResultListener {
+    private final String column;
+    private final String previous;
+    private Object maximum;
+    private long rows;
+
+    /**
+     * Construct tracker.
+     *
+     * @param column   the name of the watermark column or output, compared case insensitive
+     * @param previous the previous watermark, NULL if none
+     */
+    public WatermarkTracker(final String column, final String previous) {
+        this.column = column;
+        this.previous = previous;
+    }
+
+    @Override
+    public void onValue(final String fieldName, final Object value) {
+        if (null == value || !column.equalsIgnoreCase(fieldName)) {
+            return;
+        }
+        rows++;
+        if (null == maximum ? (null == previous || compare(value, previous) > 0) : compare(value, maximum) > 0) {
+            maximum = value;
+        }
+    }
+
+    /**
+     * @return true if a value greater than the previous watermark was seen
+     */
+    public boolean isAdvanced() {
+        return null != maximum;
+    }
+
+    /**
+     * @return the number of non NULL watermark values seen
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * @return the new watermark if advanced, otherwise the previous watermark
+     */
+    public String getWatermark() {
+        return null == maximum ? previous : AttributeHandler.attributeValue(maximum);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compare(final Object value, final Object other) {
+        if (value instanceof Number) {
+            final BigDecimal number = toDecimal(other);
+            if (null != number) {
+                return new BigDecimal(value.toString()).compareTo(number);
+            }
+        } else if (value instanceof Date) {
+            final Long epochMilli = toEpochMilli(other);
+            if (null != epochMilli) {
+                return Long.compare(((Date) value).getTime(), epochMilli);
+            }
+        } else if (value instanceof Comparable && value.getClass().isInstance(other)) {
+            return ((Comparable) value).compareTo(other);
+        }
+        return AttributeHandler.attributeValue(value).compareTo(AttributeHandler.attributeValue(other));
+    }
+
+    private static BigDecimal toDecimal(final Object value) {
+        try {
+            return value instanceof Number || value instanceof String ? new BigDecimal(value.toString()) : null;
+        } catch (final NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Long toEpochMilli(final Object value) {
+        if (value instanceof Date) {
+            return ((Date) value).getTime();
+        }
+        try {
+            return value instanceof String ? Long.parseLong((String) value) : null;
+        } catch (final NumberFormatException e) {
+            return null;
+        }
+    }
+}
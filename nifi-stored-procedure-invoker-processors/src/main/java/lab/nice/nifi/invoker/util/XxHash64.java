@@ -0,0 +1,158 @@
+package lab.nice.nifi.invoker.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming XXH64 hash (seed 0), fed incrementally so the content does not need to be buffered.
+ */
+public final class XxHash64 {
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+    private final byte[] buffer = new byte[32];
+    private int buffered;
+    private long length;
+    private long v1 = PRIME1 + PRIME2;
+    private long v2 = PRIME2;
+    private long v3 = 0L;
+    private long v4 = -PRIME1;
+
+    /**
+     * Hash a String encoded in UTF-8.
+     *
+     * @param value the String to hash
+     * @return the hash in hex
+     */
+    public static String hashHex(final String value) {
+        final XxHash64 hash = new XxHash64();
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        hash.update(bytes, 0, bytes.length);
+        return hash.getHex();
+    }
+
+    /**
+     * Feed one byte.
+     *
+     * @param b the byte
+     */
+    public void update(final int b) {
+        buffer[buffered++] = (byte) b;
+        length++;
+        if (buffered == 32) {
+            consume(buffer, 0);
+            buffered = 0;
+        }
+    }
+
+    /**
+     * Feed bytes.
+     *
+     * @param bytes  the bytes
+     * @param offset the start offset
+     * @param count  the number of bytes
+     */
+    public void update(final byte[] bytes, final int offset, final int count) {
+        int position = offset;
+        final int end = offset + count;
+        length += count;
+        if (buffered > 0) {
+            final int fill = Math.min(32 - buffered, count);
+            System.arraycopy(bytes, position, buffer, buffered, fill);
+            buffered += fill;
+            position += fill;
+            if (buffered < 32) {
+                return;
+            }
+            consume(buffer, 0);
+            buffered = 0;
+        }
+        while (end - position >= 32) {
+            consume(bytes, position);
+            position += 32;
+        }
+        buffered = end - position;
+        System.arraycopy(bytes, position, buffer, 0, buffered);
+    }
+
+    /**
+     * @return the hash of all bytes fed so far
+     */
+    public long getValue() {
+        long hash;
+        if (length >= 32) {
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = mergeRound(hash, v1);
+            hash = mergeRound(hash, v2);
+            hash = mergeRound(hash, v3);
+            hash = mergeRound(hash, v4);
+        } else {
+            hash = PRIME5;
+        }
+        hash += length;
+        int position = 0;
+        while (buffered - position >= 8) {
+            hash ^= round(0L, readLong(buffer, position));
+            hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+            position += 8;
+        }
+        if (buffered - position >= 4) {
+            hash ^= (readInt(buffer, position) & 0xFFFFFFFFL) * PRIME1;
+            hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+            position += 4;
+        }
+        while (position < buffered) {
+            hash ^= (buffer[position] & 0xFFL) * PRIME5;
+            hash = Long.rotateLeft(hash, 11) * PRIME1;
+            position++;
+        }
+        hash ^= hash >>> 33;
+        hash *= PRIME2;
+        hash ^= hash >>> 29;
+        hash *= PRIME3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    /**
+     * @return the hash of all bytes fed so far in 16 digits hex
+     */
+    public String getHex() {
+        return String.format("%016x", getValue());
+    }
+
+    private void consume(final byte[] bytes, final int offset) {
+        v1 = round(v1, readLong(bytes, offset));
+        v2 = round(v2, readLong(bytes, offset + 8));
+        v3 = round(v3, readLong(bytes, offset + 16));
+        v4 = round(v4, readLong(bytes, offset + 24));
+    }
+
+    private static long round(final long accumulator, final long input) {
+        return Long.rotateLeft(accumulator + input * PRIME2, 31) * PRIME1;
+    }
+
+    private static long mergeRound(final long accumulator, final long value) {
+        return (accumulator ^ round(0L, value)) * PRIME1 + PRIME4;
+    }
+
+    private static long readLong(final byte[] bytes, final int offset) {
+        return (bytes[offset] & 0xFFL)
+                | (bytes[offset + 1] & 0xFFL) << 8
+                | (bytes[offset + 2] & 0xFFL) << 16
+                | (bytes[offset + 3] & 0xFFL) << 24
+                | (bytes[offset + 4] & 0xFFL) << 32
+                | (bytes[offset + 5] & 0xFFL) << 40
+                | (bytes[offset + 6] & 0xFFL) << 48
+                | (bytes[offset + 7] & 0xFFL) << 56;
+    }
+
+    private static int readInt(final byte[] bytes, final int offset) {
+        return (bytes[offset] & 0xFF)
+                | (bytes[offset + 1] & 0xFF) << 8
+                | (bytes[offset + 2] & 0xFF) << 16
+                | (bytes[offset + 3] & 0xFF) << 24;
+    }
+}
@@ -2,12 +2,34 @@ package lab.nice.nifi.invoker;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.github.luben.zstd.ZstdInputStream;
+import lab.nice.nifi.invoker.stub.StubDriver;
+import lab.nice.nifi.invoker.util.ArrowHandler;
+import lab.nice.nifi.invoker.util.CompressionHandler;
 import lab.nice.nifi.invoker.util.JdbcDummy;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.DateMilliVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.TimeMilliVector;
+import org.apache.arrow.vector.TimeStampMilliVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowStreamReader;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.nifi.components.AllowableValue;
+import org.apache.nifi.components.state.Scope;
 import org.apache.nifi.controller.AbstractControllerService;
 import org.apache.nifi.dbcp.DBCPService;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.reporting.InitializationException;
 import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.MockProcessContext;
 import org.apache.nifi.util.TestRunner;
 import org.apache.nifi.util.TestRunners;
 import org.junit.After;
@@ -16,15 +38,39 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xerial.snappy.SnappyFramedInputStream;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Array;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class TestExecuteStoredProcedure {
     private static final Logger LOGGER;
@@ -123,6 +169,1000 @@ public class TestExecuteStoredProcedure {
         invokeOnTrigger(null, null, false, null, false);
     }
 
+    @Test
+    public void testTransactionGroup() {
+        runner.setProperty(ExecuteStoredProcedure.STORED_PROCEDURE_STATEMENT, TEST_PROCEDURE_CALL);
+        runner.setProperty(ExecuteStoredProcedure.TRANSACTION_GROUP_SIZE, "4");
+        runner.setProperty("procedure.args.in.2.type", "4");
+        runner.setProperty("procedure.args.in.2.value", "20");
+        runner.setProperty("procedure.args.in.3.type", "12");
+        runner.setProperty("procedure.args.in.3.value", "Guangzhou");
+        runner.setProperty("procedure.args.out.4.type", "4");
+        runner.setProperty("procedure.args.out.4.name", "ID");
+        runner.enqueue("1".getBytes(), customerAttributes("Tom"));
+        runner.enqueue("2".getBytes(), customerAttributes("Jerry"));
+        runner.enqueue("3".getBytes(), customerAttributes(StringUtils.repeat("X", 300)));
+        runner.enqueue("4".getBytes(), customerAttributes("Spike"));
+
+        // the failed group is bisected, the FlowFile behind the failure is left for the next trigger
+        runner.run(2);
+        runner.assertTransferCount(ExecuteStoredProcedure.REL_SUCCESS, 3);
+        runner.assertTransferCount(ExecuteStoredProcedure.REL_FAILURE, 1);
+        runner.getFlowFilesForRelationship(ExecuteStoredProcedure.REL_FAILURE).get(0).assertContentEquals("3");
+        runner.assertAllFlowFilesContainAttribute(ExecuteStoredProcedure.REL_SUCCESS, ExecuteStoredProcedure.PROCEDURE_EXECUTE_DURATION);
+    }
+
+    @Test
+    public void testTransactionGroupRuntimeFailure() throws SQLException {
+        runner.setProperty(ExecuteStoredProcedure.STORED_PROCEDURE_STATEMENT, TEST_PROCEDURE_CALL);
+        runner.setProperty(ExecuteStoredProcedure.TRANSACTION_GROUP_SIZE, "2");
+        runner.setProperty(ExecuteStoredProcedure.TRANSACTION_BISECT_ON_FAILURE, "false");
+        runner.setProperty("procedure.args.in.2.type", "4");
+        runner.setProperty("procedure.args.in.2.value", "20");
+        runner.setProperty("procedure.args.in.3.type", "12");
+        runner.setProperty("procedure.args.in.3.value", "Guangzhou");
+        runner.setProperty("procedure.args.out.4.type", "4");
+        runner.setProperty("procedure.args.out.4.name", "ID");
+        final Map<String, String> invalidAge = customerAttributes("Jerry");
+        invalidAge.put("procedure.args.in.2.type", "4");
+        invalidAge.put("procedure.args.in.2.value", "twenty");
+        runner.enqueue("1".getBytes(), customerAttributes("Tom"));
+        runner.enqueue("2".getBytes(), invalidAge);
+
+        // the unchecked binding failure rolls back the call of Tom instead of committing it with auto-commit
+        runner.run();
+        runner.assertTransferCount(ExecuteStoredProcedure.REL_SUCCESS, 0);
+        runner.assertTransferCount(ExecuteStoredProcedure.REL_FAILURE, 2);
+        try (final Connection connection = ((DBCPService) runner.getControllerService("dbcp")).getConnection();
+             final Statement statement = connection.createStatement();
+             final ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM customers")) {
+            assertTrue(resultSet.next());
+            assertEquals(1, resultSet.getInt(1));
+        }
+    }
+
+    @Test
+    public void testTransactionGroupBisectDeadline() throws InitializationException {
+        final DBCPService stub = new DBCPServiceSimpleImpl("stub", "jdbc:stub:latency=fixed(500);resultSets=0;failEvery=2");
+        runner.addControllerService("stub", stub);
+        runner.enableControllerService(stub);
+        runner.setProperty(ExecuteStoredProcedure.DBCP_SERVICE, "stub");
+        runner.setProperty(ExecuteStoredProcedure.STORED_PROCEDURE_STATEMENT, "{call stub(?)}");
+        runner.setProperty(ExecuteStoredProcedure.TRANSACTION_GROUP_SIZE, "2");
+        runner.setProperty(ExecuteStoredProcedure.DEADLINE_ATTRIBUTE, "deadline");
+        runner.setProperty("procedure.args.in.1.type", "12");
+        runner.setProperty("procedure.args.in.1.value", "Tom");
+        runner.enqueue("1".getBytes(), Collections.singletonMap("deadline",
+                String.valueOf(System.currentTimeMillis() + 800L)));
+        runner.enqueue("2".getBytes(), Collections.singletonMap("deadline",
+                String.valueOf(System.currentTimeMillis() + 60000L)));
+        StubDriver.getStatistics().reset();
+
+        // the first call expires while the second one fails, so only the second one is executed again
+        runner.run();
+        runner.assertTransferCount(ExecuteStoredProcedure.REL_EXPIRED, 1);
+        runner.assertTransferCount(ExecuteStoredProcedure.REL_SUCCESS, 1);
+        runner.getFlowFilesForRelationship(ExecuteStoredProcedure.REL_EXPIRED).get(0).assertContentEquals("1");
+        assertEquals(3, StubDriver.getStatistics().getExecutions());
+    }
+
+    @Test
+    public void testExecutionPlan() throws IOException {
+        runner.setProperty(ExecuteStoredProcedure.EXECUTION_PLAN_SOURCE, ExecuteStoredProcedure.PLAN_SOURCE_CONTENT);
+        final String plan = "{\"calls\": ["
+                + planCall("tom", "Tom", null, null)
+                + "," + planCall("jerry", "Jerry", null, null)
+                + "," + planCall("spike", "Spike", "tom.ID", "jerry")
+                + "]}";
+        runner.enqueue(plan.getBytes());
+
+        runner.run();
+        runner.assertAllFlowFilesTransferred(ExecuteStoredProcedure.REL_SUCCESS, 1);
+        final JsonNode root = new ObjectMapper().readTree(
+                runner.getFlowFilesForRelationship(ExecuteStoredProcedure.REL_SUCCESS).get(0).toByteArray());
+        assertEquals(root.path("tom").path("OUTPUTS").path("ID").asInt(),
+                root.path("spike").path("RESULTS").path(0).path(root.path("spike").path("OUTPUTS").path("ID").asInt() - 1)
+                        .path("AGE").asInt());
+    }
+
+    @Test
+    public void testExecutionPlanFailureCancelsCalls() throws InitializationException {
+        final DBCPService stub = new DBCPServiceSimpleImpl("stub", "jdbc:stub:latency=fixed(5000)");
+        runner.addControllerService("stub", stub);
+        runner.enableControllerService(stub);
+        runner.setProperty(ExecuteStoredProcedure.DBCP_SERVICE, "stub");
+        runner.setProperty(ExecuteStoredProcedure.EXECUTION_PLAN_SOURCE, ExecuteStoredProcedure.PLAN_SOURCE_CONTENT);
+        final String plan = "{\"calls\": ["
+                + "{\"id\": \"slow\", \"statement\": \"{call slow(?)}\", \"parameters\": {"
+                + "\"procedure.args.in.1.type\": \"4\", \"procedure.args.in.1.value\": \"1\"}},"
+                + "{\"id\": \"bad\", \"statement\": \"{call bad(?)}\", \"parameters\": {"
+                + "\"procedure.args.in.1.type\": \"4\", \"procedure.args.in.1.value\": \"one\"}}"
+                + "]}";
+        runner.enqueue(plan.getBytes());
+        StubDriver.getStatistics().reset();
+
+        final long start = System.nanoTime();
+        runner.run();
+        runner.assertAllFlowFilesTransferred(ExecuteStoredProcedure.REL_FAILURE, 1);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+        // the slow call is cancelled through its statement if it was executing, not interrupted
+        assertEquals(StubDriver.getStatistics().getExecutions(), StubDriver.getStatistics().getCancels());
+    }
+
+    private static String planCall(final String id, final String name, final String ageBinding, final String dependsOn) {
+        return "{\"id\": \"" + id + "\", \"statement\": \"" + TEST_PROCEDURE_CALL + "\", \"parameters\": {"
+                + "\"procedure.args.in.1.type\": \"12\", \"procedure.args.in.1.value\": \"" + name + "\", "
+                + "\"procedure.args.in.2.type\": \"4\", \"procedure.args.in.2.value\": \"20\", "
+                + "\"procedure.args.in.3.type\": \"12\", \"procedure.args.in.3.value\": \"Guangzhou\", "
+                + "\"procedure.args.out.4.type\": \"4\", \"procedure.args.out.4.name\": \"ID\"}"
+                + (ageBinding == null ? "" : ", \"bindings\": {\"2\": \"" + ageBinding + "\"}")
+                + (dependsOn == null ? "" : ", \"dependsOn\": [\"" + dependsOn + "\"]")
+                + "}";
+    }
+
+    @Test
+    public void testStubDriver() throws InitializationException, IOException {
+        final DBCPService stub = new DBCPServiceSimpleImpl("stub",
+                "jdbc:stub:latency=uniform(1,5);resultSets=2;rows=100;columns=6;columnTypes=VARCHAR,TIMESTAMP;lobColumns=1;failEvery=3");
+        runner.addControllerService("stub", stub);
+        runner.enableControllerService(stub);
+        runner.setProperty(ExecuteStoredProcedure.DBCP_SERVICE, "stub");
+        runner.setProperty(ExecuteStoredProcedure.STORED_PROCEDURE_STATEMENT, "{call stub(?,?)}");
+        runner.setProperty("procedure.args.in.1.type", "12");
+        runner.setProperty("procedure.args.in.1.value", "Tom");
+        runner.setProperty("procedure.args.out.2.type", "4");
+        runner.setProperty("procedure.args.out.2.name", "ID");
+        runner.enqueue("1".getBytes());
+        runner.enqueue("2".getBytes());
+        runner.enqueue("3".getBytes());
+
+        runner.run(3);
+        runner.assertTransferCount(ExecuteStoredProcedure.REL_SUCCESS, 2);
+        runner.assertTransferCount(ExecuteStoredProcedure.REL_FAILURE, 1);
+        final JsonNode root = new ObjectMapper().readTree(
+                runner.getFlowFilesForRelationship(ExecuteStoredProcedure.REL_SUCCESS).get(0).toByteArray());
+        assertEquals(2, root.path("RESULTS").size());
+        assertEquals(100, root.path("RESULTS").path(1).size());
+        assertEquals(100, root.path("RESULTS").path(1).path(99).path("ID").asInt());
+    }
+
+    @Test
+    public void testHedging() throws InitializationException, IOException, InterruptedException {
+        final DBCPService slow = new DBCPServiceSimpleImpl("slow", "jdbc:stub:latency=fixed(5000);rows=3");
+        final DBCPService replica = new DBCPServiceSimpleImpl("replica", "jdbc:stub:rows=3");
+        runner.addControllerService("slow", slow);
+        runner.enableControllerService(slow);
+        runner.addControllerService("replica", replica);
+        runner.enableControllerService(replica);
+        runner.setProperty(ExecuteStoredProcedure.DBCP_SERVICE, "slow");
+        runner.setProperty(ExecuteStoredProcedure.STORED_PROCEDURE_STATEMENT, "{call stub(?)}");
+        runner.setProperty("procedure.args.out.1.type", "4");
+        runner.setProperty("procedure.args.out.1.name", "ID");
+        runner.setProperty(ExecuteStoredProcedure.HEDGE_PERCENTILE, "95");
+        runner.setProperty(ExecuteStoredProcedure.HEDGE_MIN_DELAY, "20 millis");
+        runner.setProperty(ExecuteStoredProcedure.HEDGE_DBCP_SERVICE, "replica");
+        runner.assertNotValid();
+        runner.setProperty(ExecuteStoredProcedure.READ_ONLY, "true");
+        StubDriver.getStatistics().reset();
+
+        final long start = System.currentTimeMillis();
+        runner.enqueue("1".getBytes());
+        runner.run();
+        assertTrue(System.currentTimeMillis() - start < 5000L);
+        runner.assertAllFlowFilesTransferred(ExecuteStoredProcedure.REL_SUCCESS, 1);
+        final JsonNode root = new ObjectMapper().readTree(
+                runner.getFlowFilesForRelationship(ExecuteStoredProcedure.REL_SUCCESS).get(0).toByteArray());
+        assertEquals(3, root.path("RESULTS").path(0).size());
+        assertTrue(root.path("OUTPUTS").path("ID").isInt());
+        assertEquals(Long.valueOf(1), runner.getCounterValue("Hedged Calls"));
+        assertEquals(Long.valueOf(1), runner.getCounterValue("Hedge Wins"));
+        // the losing call observes the cancel on its own thread
+        final long deadline = System.currentTimeMillis() + 2000L;
+        while (StubDriver.getStatistics().getCancels() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(StubDriver.getStatistics().toString(), 1, StubDriver.getStatistics().getCancels());
+    }
+
+    @Test
+    public void testHedgingContentParameter() throws InitializationException, SQLException {
+        final DBCPService slow = new DBCPServiceSimpleImpl("slow", "jdbc:stub:latency=fixed(5000);resultSets=0");
+        final DBCPService replica = new DBCPServiceSimpleImpl("replica", "jdbc:stub:resultSets=0");
+        runner.addControllerService("slow", slow);
+        runner.enableControllerService(slow);
+        runner.addControllerService("replica", replica);
+        runner.enableControllerService(replica);
+        runner.setProperty(ExecuteStoredProcedure.DBCP_SERVICE, "slow");
+        runner.setProperty(ExecuteStoredProcedure.STORED_PROCEDURE_STATEMENT, "{call stub(?)}");
+        runner.setProperty(ExecuteStoredProcedure.READ_ONLY, "true");
+        runner.setProperty(ExecuteStoredProcedure.HEDGE_PERCENTILE, "95");
+        runner.setProperty(ExecuteStoredProcedure.HEDGE_MIN_DELAY, "20 millis");
+        runner.setProperty(ExecuteStoredProcedure.HEDGE_DBCP_SERVICE, "replica");
+
+        // both calls bind the STRUCT read from the content of the incoming FlowFile
+        final Map<String, String> attributes = arrayAttributes(null, "ADDRESS:content");
+        attributes.put("procedure.args.in.1.type", "2002");
+        runner.enqueue("[\"Main St\", 5]".getBytes(), attributes);
+        runner.run();
+        runner.assertAllFlowFilesTransferred(ExecuteStoredProcedure.REL_SUCCESS, 1);
+        assertEquals(Long.valueOf(1), runner.getCounterValue("Hedge Wins"));
+        final Struct struct = (Struct) StubDriver.getStatistics().getLastParameters().get(1);
+        assertEquals("ADDRESS", struct.getSQLTypeName());
+        assertTrue(Arrays.equals(new Object[]{"Main St", 5}, struct.getAttributes()));
+    }
+
+    @Test
+    public void testStatementGroup() throws InitializationException {
+        final DBCPService stub = new DBCPServiceSimpleImpl("stub", "jdbc:stub:rows=1");
+        runner.addControllerService("stub", stub);
+        runner.enableControllerService(stub);
+        runner.setProperty(ExecuteStoredProcedure.DBCP_SERVICE, "stub");
+        runner.setProperty(ExecuteStoredProcedure.STATEMENT_GROUP_SIZE, "3");
+        runner.setProperty("procedure.args.in.1.type", "4");
+        runner.setProperty("procedure.args.in.1.value", "${id}");
+        StubDriver.getStatistics().reset();
+
+        final String[] statements = {"{call a(?)}", "{call b(?)}", "{call a(?)}", "{call a(?)}", "{call b(?)}",
+                "{call a(?)}"};
+        for (int i = 0; i < statements.length; i++) {
+            final Map<String, String> attributes = new HashMap<>();
+            attributes.put("stored.procedure.statement", statements[i]);
+            attributes.put("id", String.valueOf(i));
+            runner.enqueue("".getBytes(), attributes);
+        }
+        runner.run();
+        runner.assertAllFlowFilesTransferred(ExecuteStoredProcedure.REL_SUCCESS, 3);
+        for (MockFlowFile flowFile : runner.getFlowFilesForRelationship(ExecuteStoredProcedure.REL_SUCCESS)) {
+            flowFile.assertAttributeEquals("stored.procedure.statement", "{call a(?)}");
+        }
+        assertEquals(3, runner.getQueueSize().getObjectCount());
+        assertEquals(1, StubDriver.getStatistics().getConnections());
+        assertEquals(1, StubDriver.getStatistics().getPrepares());
+        assertEquals(3, StubDriver.getStatistics().getExecutions());
+
+        runner.run(2);
+        runner.assertAllFlowFilesTransferred(ExecuteStoredProcedure.REL_SUCCESS, 6);
+        assertEquals(0, runner.getQueueSize().getObjectCount());
+        assertEquals(3, StubDriver.getStatistics().getPrepares());
+        assertEquals(6, StubDriver.getStatistics().getExecutions());
+    }
+
+    @Test
+    public void testSlowCalls() throws InitializationException, IOException {
+        final DBCPService stub = new DBCPServiceSimpleImpl("stub", "jdbc:stub:latency=fixed(50);rows=3");
+        runner.addControllerService("stub", stub);
+        runner.enableControllerService(stub);
+        runner.setProperty(ExecuteStoredProcedure.DBCP_SERVICE, "stub");
+        runner.setProperty(ExecuteStoredProcedure.STORED_PROCEDURE_STATEMENT, "{call stub(?, ?)}");
+        runner.setProperty("procedure.args.in.1.type", "4");
+        runner.setProperty("procedure.args.in.1.value", "${id}");
+        runner.setProperty("procedure.args.in.2.type", "12");
+        runner.setProperty("procedure.args.in.2.value", "secret");
+        runner.setProperty(ExecuteStoredProcedure.SLOW_CALL_THRESHOLD, "20 millis");
+        runner.setProperty(ExecuteStoredProcedure.SLOW_CALL_CAPTURE_VALUES, "true");
+        runner.setProperty(ExecuteStoredProcedure.SLOW_CALL_MASKED_PARAMETERS, "2");
+        runner.setProperty(ExecuteStoredProcedure.SLOW_CALL_BUFFER_SIZE, "2");
+        assertFalse(runner.getProcessor().getRelationships().contains(ExecuteStoredProcedure.REL_SLOW_CALLS));
+        runner.setProperty(ExecuteStoredProcedure.SLOW_CALL_DUMP, "true");
+        assertTrue(runner.getProcessor().getRelationships().contains(ExecuteStoredProcedure.REL_SLOW_CALLS));
+
+        for (int i = 0; i < 3; i++) {
+            runner.enqueue("".getBytes(), Collections.singletonMap("id", String.valueOf(i)));
+        }
+        runner.enqueue("".getBytes(), Collections.singletonMap("stored.procedure.dump.slow.calls", "true"));
+        runner.run(4);
+        runner.assertTransferCount(ExecuteStoredProcedure.REL_SUCCESS, 3);
+        runner.assertTransferCount(ExecuteStoredProcedure.REL_SLOW_CALLS, 1);
+        final MockFlowFile dump = runner.getFlowFilesForRelationship(ExecuteStoredProcedure.REL_SLOW_CALLS).get(0);
+        dump.assertAttributeEquals("record.count", "2");
+        final JsonNode calls = new ObjectMapper().readTree(dump.toByteArray());
+        // the buffer keeps the 2 most recent slow calls
+        assertEquals(2, calls.size());
+        for (int i = 0; i < calls.size(); i++) {
+            final JsonNode call = calls.path(i);
+            assertEquals("{call stub(?, ?)}", call.path("PROCEDURE").asText());
+            assertEquals(String.valueOf(i + 1), call.path("PARAMETERS").path(0).path("VALUE").asText());
+            assertEquals("********", call.path("PARAMETERS").path(1).path("VALUE").asText());
+            assertTrue(call.path("PHASE_MILLIS").path("execute").asLong() >= 50L);
+            assertEquals(3, call.path("ROWS").asInt());
+            assertTrue(call.path("BYTES").asLong() > 0L);
+        }
+    }
+
+    @Test
+    public void testCancelOnStop() throws InitializationException, InterruptedException {
+        final DBCPService stub = new DBCPServiceSimpleImpl("stub", "jdbc:stub:latency=fixed(5000);rows=3");
+        runner.addControllerService("stub", stub);
+        runner.enableControllerService(stub);
+        runner.setProperty(ExecuteStoredProcedure.DBCP_SERVICE, "stub");
+        runner.setProperty(ExecuteStoredProcedure.STORED_PROCEDURE_STATEMENT, "{call stub()}");
+        runner.setProperty(ExecuteStoredProcedure.CANCEL_GRACE_PERIOD, "100 millis");
+        StubDriver.getStatistics().reset();
+
+        final long start = System.currentTimeMillis();
+        runner.enqueue("1".getBytes());
+        final Thread trigger = new Thread(() -> runner.run(1, false, true));
+        trigger.start();
+        Thread.sleep(200L);
+        ((ExecuteStoredProcedure) runner.getProcessor()).cancelInFlight(runner.getProcessContext());
+        trigger.join(5000L);
+        assertTrue(System.currentTimeMillis() - start < 5000L);
+        // the cancelled call returns its FlowFile to the input queue instead of routing it to failure
+        runner.assertQueueNotEmpty();
+        assertEquals(1, runner.getQueueSize().getObjectCount());
+        runner.assertTransferCount(ExecuteStoredProcedure.REL_SUCCESS, 0);
+        runner.assertTransferCount(ExecuteStoredProcedure.REL_FAILURE, 0);
+        assertEquals(1, StubDriver.getStatistics().getCancels());
+    }
+
+    @Test
+    public void testCancelDuringFetch() throws InitializationException, InterruptedException {
+        final DBCPService stub = new DBCPServiceSimpleImpl("stub", "jdbc:stub:fetchLatency=fixed(5000);rows=3");
+        runner.addControllerService("stub", stub);
+        runner.enableControllerService(stub);
+        runner.setProperty(ExecuteStoredProcedure.DBCP_SERVICE, "stub");
+        runner.setProperty(ExecuteStoredProcedure.STORED_PROCEDURE_STATEMENT, "{call stub()}");
+        runner.setProperty(ExecuteStoredProcedure.CANCEL_GRACE_PERIOD, "100 millis");
+        StubDriver.getStatistics().reset();
+
+        runner.enqueue("1".getBytes());
+        final Thread trigger = new Thread(() -> runner.run(1, false, true));
+        trigger.start();
+        Thread.sleep(200L);
+        ((ExecuteStoredProcedure) runner.getProcessor()).cancelInFlight(runner.getProcessContext());
+        trigger.join(5000L);
+        // the call was executed before the cancel, so it is not executed again
+        assertEquals(0, runner.getQueueSize().getObjectCount());
+        runner.assertAllFlowFilesTransferred(ExecuteStoredProcedure.REL_FAILURE, 1);
+        assertEquals(1, StubDriver.getStatistics().getExecutions());
+        assertEquals(1, StubDriver.getStatistics().getCancels());
+    }
+
+    @Test
+    public void testRefCursorOutput() throws InitializationException, IOException {
+        final DBCPService stub = new DBCPServiceSimpleImpl("stub", "jdbc:stub:resultSets=0;rows=250");
+        runner.addControllerService("stub", stub);
+        runner.enableControllerService(stub);
+        runner.setProperty(ExecuteStoredProcedure.DBCP_SERVICE, "stub");
+        runner.setProperty(ExecuteStoredProcedure.STORED_PROCEDURE_STATEMENT, "{call stub(?, ?)}");
+        runner.setProperty(ExecuteStoredProcedure.FETCH_SIZE, "100");
+        runner.setProperty("procedure.args.out.1.type", "4");
+        runner.setProperty("procedure.args.out.1.name", "ID");
+        runner.setProperty("procedure.args.out.2.type", "2012");
+        runner.setProperty("procedure.args.out.2.name", "CURSOR");
+        StubDriver.getStatistics().reset();
+
+        runner.enqueue("1".getBytes());
+        runner.run();
+        runner.assertAllFlowFilesTransferred(ExecuteStoredProcedure.REL_SUCCESS, 1);
+        final JsonNode root = new ObjectMapper().readTree(
+                runner.getFlowFilesForRelationship(ExecuteStoredProcedure.REL_SUCCESS).get(0).toByteArray());
+        assertTrue(root.path("OUTPUTS").path("ID").isInt());
+        final JsonNode cursor = root.path("OUTPUTS").path("CURSOR");
+        assertEquals(250, cursor.size());
+        for (int i = 0; i < cursor.size(); i++) {
+            assertEquals(i + 1, cursor.path(i).path("ID").asInt());
+        }
+        // the cursor is fetched with the fetch size of the statement
+        assertEquals(3, StubDriver.getStatistics().getFetches());
+    }
+
+    @Test
+    public void testIdentifiedConnection() throws InitializationException {
+        final IdentifiedDBCPService stub = new IdentifiedDBCPService("identified", "jdbc:stub:resultSets=1;rows=1");
+        runner.addControllerService("identified", stub);
+        runner.enableControllerService(stub);
+        runner.setProperty(ExecuteStoredProcedure.DBCP_SERVICE, "identified");
+        runner.setProperty(ExecuteStoredProcedure.STORED_PROCEDURE_STATEMENT, "{call stub()}");
+        runner.enqueue("1".getBytes());
+
+        runner.run();
+        runner.assertAllFlowFilesTransferred(ExecuteStoredProcedure.REL_SUCCESS, 1);
+        // pools tracking borrowers are told which processor instance borrows
+        assertEquals(Collections.singletonList(runner.getProcessor().getIdentifier()), stub.borrowerIds);
+    }
+
+    @Test
+    public void testPoolOverloadYields() throws InitializationException {
+        final DBCPService overloaded = new OverloadedDBCPService();
+        runner.addControllerService("overloaded", overloaded);
+        runner.enableControllerService(overloaded);
+        runner.setProperty(ExecuteStoredProcedure.DBCP_SERVICE, "overloaded");
+        runner.setProperty(ExecuteStoredProcedure.STORED_PROCEDURE_STATEMENT, TEST_PROCEDURE_CALL);
+        runner.enqueue("1".getBytes());
+
+        runner.run();
+        // overload is not a failure of the FlowFile, it stays queued and the processor yields
+        runner.assertTransferCount(ExecuteStoredProcedure.REL_FAILURE, 0);
+        assertEquals(1, runner.getQueueSize().getObjectCount());
+        assertTrue(((MockProcessContext) runner.getProcessContext()).isYieldCalled());
+    }
+
+    @Test
+    public void testWarmUp() throws InitializationException {
+        final DBCPService stub = new DBCPServiceSimpleImpl("stub", "jdbc:stub:resultSets=1;rows=10");
+        runner.addControllerService("stub", stub);
+        runner.enableControllerService(stub);
+        runner.setProperty(ExecuteStoredProcedure.DBCP_SERVICE, "stub");
+        runner.setProperty(ExecuteStoredProcedure.STORED_PROCEDURE_STATEMENT, "{call stub(?)}");
+        runner.setProperty("procedure.args.in.1.type", "12");
+        runner.setProperty("procedure.args.in.1.value", "Tom");
+        runner.setProperty(ExecuteStoredProcedure.WARM_UP_STATEMENT, "{call ping(?)}");
+        runner.assertNotValid();
+        runner.setProperty(ExecuteStoredProcedure.WARM_UP_CONNECTIONS, "3");
+        runner.assertValid();
+        runner.setIncomingConnection(true);
+        StubDriver.getStatistics().reset();
+
+        // no FlowFile is pulled, only the warm-up runs
+        runner.run();
+        runner.assertTransferCount(ExecuteStoredProcedure.REL_SUCCESS, 0);
+        assertEquals(3, StubDriver.getStatistics().getConnections());
+        assertEquals(6, StubDriver.getStatistics().getPrepares());
+        assertEquals(3, StubDriver.getStatistics().getExecutions());
+        assertEquals(3, StubDriver.getStatistics().getRollbacks());
+        assertEquals("Tom", StubDriver.getStatistics().getLastParameters().get(1));
+    }
+
+    @Test
+    public void testWarmUpParameters() throws InitializationException {
+        final DBCPService stub = new DBCPServiceSimpleImpl("stub", "jdbc:stub:resultSets=2;rows=10");
+        runner.addControllerService("stub", stub);
+        runner.enableControllerService(stub);
+        runner.setProperty(ExecuteStoredProcedure.DBCP_SERVICE, "stub");
+        runner.setProperty(ExecuteStoredProcedure.STORED_PROCEDURE_STATEMENT, "{call stub(?)}");
+        runner.setProperty("procedure.args.in.1.type", "12");
+        runner.setProperty("procedure.args.in.1.value", "Tom");
+        runner.setProperty(ExecuteStoredProcedure.WARM_UP_STATEMENT, "{call ping(?)}");
+        runner.setProperty(ExecuteStoredProcedure.WARM_UP_CONNECTIONS, "1");
+        runner.setProperty("procedure.warm.up.args.in.1.type", "12");
+        runner.setProperty("procedure.warm.up.args.in.1.value", "ping");
+        runner.setProperty(ExecuteStoredProcedure.OUTPUT_ENCODING, ExecuteStoredProcedure.ENCODING_ARROW.getValue());
+        runner.setIncomingConnection(true);
+        StubDriver.getStatistics().reset();
+
+        runner.run();
+        assertEquals(1, StubDriver.getStatistics().getExecutions());
+        assertEquals(1, StubDriver.getStatistics().getRollbacks());
+        assertEquals("ping", StubDriver.getStatistics().getLastParameters().get(1));
+    }
+
+    @Test
+    public void testArrayParameter() throws IOException, SQLException {
+        final Connection connection = ((DBCPService) runner.getControllerService("dbcp")).getConnection();
+        JdbcDummy.execute(connection, "CREATE PROCEDURE sum_array (IN i_ids INTEGER ARRAY, "
+                + "OUT o_count INTEGER, OUT o_sum INTEGER) READS SQL DATA BEGIN ATOMIC "
+                + "SET o_count = CARDINALITY(i_ids); "
+                + "SET o_sum = (SELECT SUM(t.id) FROM UNNEST(i_ids) AS t(id)); END");
+        try {
+            runner.setProperty(ExecuteStoredProcedure.STORED_PROCEDURE_STATEMENT, "{call sum_array(?, ?, ?)}");
+            runner.setProperty("procedure.args.out.2.type", "4");
+            runner.setProperty("procedure.args.out.2.name", "COUNT");
+            runner.setProperty("procedure.args.out.3.type", "4");
+            runner.setProperty("procedure.args.out.3.name", "SUM");
+            runner.enqueue("".getBytes(), arrayAttributes("1,2,3", "INTEGER"));
+            runner.enqueue("".getBytes(), arrayAttributes("[4, 5]", "INTEGER:json"));
+            runner.enqueue("".getBytes(), arrayAttributes("6|7|8", "INTEGER:|"));
+            runner.enqueue("[10, 20, 30, 40]".getBytes(), arrayAttributes(null, "INTEGER:content"));
+
+            runner.run(4);
+            runner.assertAllFlowFilesTransferred(ExecuteStoredProcedure.REL_SUCCESS, 4);
+            final int[][] expected = {{3, 6}, {2, 9}, {3, 21}, {4, 100}};
+            final List<MockFlowFile> results = runner.getFlowFilesForRelationship(ExecuteStoredProcedure.REL_SUCCESS);
+            for (int i = 0; i < expected.length; i++) {
+                final JsonNode outputs = new ObjectMapper().readTree(results.get(i).toByteArray()).path("OUTPUTS");
+                assertEquals(expected[i][0], outputs.path("COUNT").asInt());
+                assertEquals(expected[i][1], outputs.path("SUM").asInt());
+            }
+        } finally {
+            JdbcDummy.execute(connection, "DROP PROCEDURE sum_array");
+        }
+    }
+
+    private static Map<String, String> arrayAttributes(final String value, final String format) {
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("procedure.args.in.1.type", "2003");
+        attributes.put("procedure.args.in.1.format", format);
+        if (null != value) {
+            attributes.put("procedure.args.in.1.value", value);
+        }
+        return attributes;
+    }
+
+    @Test
+    public void testStructParameter() throws InitializationException, SQLException {
+        final DBCPService stub = new DBCPServiceSimpleImpl("stub", "jdbc:stub:resultSets=0");
+        runner.addControllerService("stub", stub);
+        runner.enableControllerService(stub);
+        runner.setProperty(ExecuteStoredProcedure.DBCP_SERVICE, "stub");
+        runner.setProperty(ExecuteStoredProcedure.STORED_PROCEDURE_STATEMENT, "{call stub(?)}");
+
+        final Map<String, String> attributes = arrayAttributes("[\"Main St\", 5, null]", "ADDRESS");
+        attributes.put("procedure.args.in.1.type", "2002");
+        runner.enqueue("".getBytes(), attributes);
+        runner.run();
+        final Struct struct = (Struct) StubDriver.getStatistics().getLastParameters().get(1);
+        assertEquals("ADDRESS", struct.getSQLTypeName());
+        assertTrue(Arrays.equals(new Object[]{"Main St", 5, null}, struct.getAttributes()));
+
+        attributes.put("procedure.args.in.1.format", "ADDRESS:|");
+        attributes.put("procedure.args.in.1.value", "Main St||5");
+        runner.enqueue("".getBytes(), attributes);
+        runner.run();
+        runner.assertAllFlowFilesTransferred(ExecuteStoredProcedure.REL_SUCCESS, 2);
+        final Struct delimited = (Struct) StubDriver.getStatistics().getLastParameters().get(1);
+        assertTrue(Arrays.equals(new Object[]{"Main St", null, "5"}, delimited.getAttributes()));
+    }
+
+    @Test
+    public void testNestedArrayParameter() throws InitializationException, SQLException {
+        final DBCPService stub = new DBCPServiceSimpleImpl("stub", "jdbc:stub:resultSets=0");
+        runner.addControllerService("stub", stub);
+        runner.enableControllerService(stub);
+        runner.setProperty(ExecuteStoredProcedure.DBCP_SERVICE, "stub");
+        runner.setProperty(ExecuteStoredProcedure.STORED_PROCEDURE_STATEMENT, "{call stub(?)}");
+
+        runner.enqueue("".getBytes(), arrayAttributes("[[\"Main St\", 5], [\"High St\", 7]]", "ADDRESS"));
+        runner.run();
+        final Array array = (Array) StubDriver.getStatistics().getLastParameters().get(1);
+        assertEquals("ADDRESS", array.getBaseTypeName());
+        final Object[] elements = (Object[]) array.getArray();
+        assertEquals(2, elements.length);
+        assertEquals("ADDRESS", ((Struct) elements[0]).getSQLTypeName());
+        assertTrue(Arrays.equals(new Object[]{"Main St", 5}, ((Struct) elements[0]).getAttributes()));
+        assertTrue(Arrays.equals(new Object[]{"High St", 7}, ((Struct) elements[1]).getAttributes()));
+
+        // empty delimited elements are null
+        runner.enqueue("".getBytes(), arrayAttributes("1,,3", "INTEGER"));
+        runner.run();
+        runner.assertAllFlowFilesTransferred(ExecuteStoredProcedure.REL_SUCCESS, 2);
+        final Array sparse = (Array) StubDriver.getStatistics().getLastParameters().get(1);
+        assertTrue(Arrays.equals(new Object[]{1, null, 3}, (Object[]) sparse.getArray()));
+
+        // a conversion failure names the element
+        runner.enqueue("".getBytes(), arrayAttributes("1,x,3", "INTEGER"));
+        runner.run();
+        runner.assertTransferCount(ExecuteStoredProcedure.REL_FAILURE, 1);
+        final String error = Arrays.toString(runner.getLogger().getErrorMessages().get(0).getArgs());
+        assertTrue(error, error.contains("Element 1 'x' is not a valid INTEGER value."));
+    }
+
+    @Test
+    public void testResultPipeline() throws InitializationException, IOException {
+        final DBCPService stub = new DBCPServiceSimpleImpl("stub",
+                "jdbc:stub:resultSets=2;rows=250;columns=5;columnTypes=VARCHAR,DECIMAL;lobColumns=1;fetchLatency=fixed(1)");
+        runner.addControllerService("stub", stub);
+        runner.enableControllerService(stub);
+        runner.setProperty(ExecuteStoredProcedure.DBCP_SERVICE, "stub");
+        runner.setProperty(ExecuteStoredProcedure.STORED_PROCEDURE_STATEMENT, "{call stub(?)}");
+        runner.setProperty(ExecuteStoredProcedure.RESULT_PIPELINE_SIZE, "16");
+        runner.setProperty("procedure.args.out.1.type", "4");
+        runner.setProperty("procedure.args.out.1.name", "ID");
+        runner.enqueue("1".getBytes());
+
+        runner.run();
+        runner.assertAllFlowFilesTransferred(ExecuteStoredProcedure.REL_SUCCESS, 1);
+        final JsonNode root = new ObjectMapper().readTree(
+                runner.getFlowFilesForRelationship(ExecuteStoredProcedure.REL_SUCCESS).get(0).toByteArray());
+        assertEquals(2, root.path("RESULTS").size());
+        for (JsonNode resultSet : root.path("RESULTS")) {
+            assertEquals(250, resultSet.size());
+            for (int i = 0; i < resultSet.size(); i++) {
+                assertEquals(i + 1, resultSet.path(i).path("ID").asInt());
+                assertEquals(4096, resultSet.path(i).path("LOB_5").asText().length());
+            }
+        }
+        assertTrue(root.path("OUTPUTS").path("ID").isInt());
+    }
+
+    @Test
+    public void testWatermark() throws SQLException {
+        final Connection connection = ((DBCPService) runner.getControllerService("dbcp")).getConnection();
+        for (int i = 0; i < 4; i++) {
+            JdbcDummy.execute(connection, TEST_TABLE_CUSTOMERS_INSERT);
+        }
+        JdbcDummy.execute(connection, "CREATE PROCEDURE customers_after (IN i_id INTEGER) "
+                + "READS SQL DATA DYNAMIC RESULT SETS 1 "
+                + "BEGIN ATOMIC "
+                + "DECLARE res CURSOR WITH RETURN FOR "
+                + "SELECT * FROM customers WHERE id > COALESCE(i_id, 0) ORDER BY id LIMIT 2 FOR READ ONLY; "
+                + "OPEN res; "
+                + "END");
+        try {
+            runner.setIncomingConnection(false);
+            runner.setProperty(ExecuteStoredProcedure.STORED_PROCEDURE_STATEMENT, "{call customers_after(?)}");
+            runner.setProperty("procedure.args.in.1.type", "4");
+            runner.setProperty(ExecuteStoredProcedure.WATERMARK_COLUMN, "ID");
+            runner.assertNotValid();
+            runner.setProperty(ExecuteStoredProcedure.WATERMARK_PARAMETER_INDEX, "1");
+            runner.setProperty(ExecuteStoredProcedure.WATERMARK_MAX_PAGES, "2");
+
+            runner.run();
+            runner.assertAllFlowFilesTransferred(ExecuteStoredProcedure.REL_SUCCESS, 2);
+            final List<MockFlowFile> pages = runner.getFlowFilesForRelationship(ExecuteStoredProcedure.REL_SUCCESS);
+            pages.get(0).assertAttributeEquals(ExecuteStoredProcedure.PROCEDURE_WATERMARK, "2");
+            pages.get(1).assertAttributeEquals(ExecuteStoredProcedure.PROCEDURE_WATERMARK, "4");
+            runner.getStateManager().assertStateEquals("watermark", "4", Scope.CLUSTER);
+
+            runner.clearTransferState();
+            runner.run();
+            runner.assertAllFlowFilesTransferred(ExecuteStoredProcedure.REL_SUCCESS, 1);
+            runner.getFlowFilesForRelationship(ExecuteStoredProcedure.REL_SUCCESS).get(0)
+                    .assertAttributeEquals(ExecuteStoredProcedure.PROCEDURE_WATERMARK, "5");
+
+            runner.clearTransferState();
+            runner.run();
+            runner.assertTransferCount(ExecuteStoredProcedure.REL_SUCCESS, 0);
+            runner.getStateManager().assertStateEquals("watermark", "5", Scope.CLUSTER);
+
+            // the pages are committed before the watermark is stored, a failure to store it emits them again
+            JdbcDummy.execute(connection, TEST_TABLE_CUSTOMERS_INSERT);
+            runner.getStateManager().setFailOnStateSet(Scope.CLUSTER, true);
+            runner.run();
+            runner.assertAllFlowFilesTransferred(ExecuteStoredProcedure.REL_SUCCESS, 1);
+            runner.getStateManager().setFailOnStateSet(Scope.CLUSTER, false);
+            runner.getStateManager().assertStateEquals("watermark", "5", Scope.CLUSTER);
+            runner.clearTransferState();
+            runner.run();
+            runner.assertAllFlowFilesTransferred(ExecuteStoredProcedure.REL_SUCCESS, 1);
+            runner.getFlowFilesForRelationship(ExecuteStoredProcedure.REL_SUCCESS).get(0)
+                    .assertAttributeEquals(ExecuteStoredProcedure.PROCEDURE_WATERMARK, "6");
+            runner.getStateManager().assertStateEquals("watermark", "6", Scope.CLUSTER);
+            runner.clearTransferState();
+
+            // concurrent tasks would read the same watermark and emit the same pages
+            JdbcDummy.execute(connection, TEST_TABLE_CUSTOMERS_INSERT);
+            runner.setThreadCount(2);
+            boolean scheduled = true;
+            try {
+                runner.run();
+            } catch (final AssertionError e) {
+                scheduled = false;
+            }
+            assertFalse(scheduled);
+            runner.assertTransferCount(ExecuteStoredProcedure.REL_SUCCESS, 0);
+        } finally {
+            JdbcDummy.execute(connection, "DROP PROCEDURE customers_after");
+        }
+    }
+
+    @Test
+    public void testChangeDetection() throws SQLException, IOException {
+        final Connection connection = ((DBCPService) runner.getControllerService("dbcp")).getConnection();
+        JdbcDummy.execute(connection, "CREATE PROCEDURE all_customers () "
+                + "READS SQL DATA DYNAMIC RESULT SETS 1 "
+                + "BEGIN ATOMIC "
+                + "DECLARE res CURSOR WITH RETURN FOR SELECT * FROM customers ORDER BY id FOR READ ONLY; "
+                + "OPEN res; "
+                + "END");
+        try {
+            runner.setIncomingConnection(false);
+            runner.setProperty(ExecuteStoredProcedure.STORED_PROCEDURE_STATEMENT, "{call all_customers()}");
+            runner.setProperty(ExecuteStoredProcedure.CHANGE_DETECTION, ExecuteStoredProcedure.CHANGE_DETECTION_STATE);
+
+            runner.run();
+            runner.assertAllFlowFilesTransferred(ExecuteStoredProcedure.REL_SUCCESS, 1);
+            runner.assertAllFlowFilesContainAttribute(ExecuteStoredProcedure.REL_SUCCESS,
+                    ExecuteStoredProcedure.PROCEDURE_RESULT_HASH);
+            final String hash = runner.getFlowFilesForRelationship(ExecuteStoredProcedure.REL_SUCCESS).get(0)
+                    .getAttribute(ExecuteStoredProcedure.PROCEDURE_RESULT_HASH);
+            assertTrue(runner.getStateManager().getState(Scope.LOCAL).toMap().containsValue(hash));
+
+            // every run schedules the processor again, the hash is restored from state
+            runner.clearTransferState();
+            runner.run();
+            runner.assertTransferCount(ExecuteStoredProcedure.REL_SUCCESS, 0);
+
+            JdbcDummy.execute(connection, TEST_TABLE_CUSTOMERS_INSERT);
+            runner.clearTransferState();
+            runner.run();
+            runner.assertAllFlowFilesTransferred(ExecuteStoredProcedure.REL_SUCCESS, 1);
+            assertTrue(!hash.equals(runner.getFlowFilesForRelationship(ExecuteStoredProcedure.REL_SUCCESS).get(0)
+                    .getAttribute(ExecuteStoredProcedure.PROCEDURE_RESULT_HASH)));
+        } finally {
+            JdbcDummy.execute(connection, "DROP PROCEDURE all_customers");
+        }
+    }
+
+    @Test
+    public void testOutputAttributes() throws SQLException {
+        final Connection connection = ((DBCPService) runner.getControllerService("dbcp")).getConnection();
+        JdbcDummy.execute(connection, "CREATE PROCEDURE count_customers (IN i_age INTEGER, OUT o_count INTEGER, "
+                + "OUT o_none VARCHAR(10)) "
+                + "READS SQL DATA "
+                + "BEGIN ATOMIC "
+                + "SET o_count = (SELECT COUNT(*) FROM customers WHERE age IS NULL OR age > i_age); "
+                + "END");
+        try {
+            runner.setProperty(ExecuteStoredProcedure.STORED_PROCEDURE_STATEMENT, "{call count_customers(?, ?, ?)}");
+            runner.setProperty("procedure.args.in.1.type", "4");
+            runner.setProperty("procedure.args.in.1.value", "0");
+            runner.setProperty("procedure.args.out.2.type", "4");
+            runner.setProperty("procedure.args.out.2.name", "COUNT");
+            runner.setProperty("procedure.args.out.3.type", "12");
+            runner.setProperty(ExecuteStoredProcedure.OUTPUT_DESTINATION, ExecuteStoredProcedure.OUTPUT_ATTRIBUTES);
+            runner.enqueue("Hello");
+            runner.run();
+            runner.assertAllFlowFilesTransferred(ExecuteStoredProcedure.REL_SUCCESS, 1);
+            MockFlowFile result = runner.getFlowFilesForRelationship(ExecuteStoredProcedure.REL_SUCCESS).get(0);
+            result.assertContentEquals("Hello");
+            result.assertAttributeEquals("procedure.output.COUNT", "1");
+            result.assertAttributeNotExists("procedure.output.output_3");
+            result.assertAttributeExists(ExecuteStoredProcedure.PROCEDURE_EXECUTE_DURATION);
+
+            // too large for attributes, falls back to content
+            runner.clearTransferState();
+            runner.setProperty(ExecuteStoredProcedure.OUTPUT_DESTINATION, ExecuteStoredProcedure.OUTPUT_AUTO);
+            runner.setProperty(ExecuteStoredProcedure.OUTPUT_ATTRIBUTES_MAX_SIZE, "0 B");
+            runner.enqueue("Hello");
+            runner.run();
+            runner.assertAllFlowFilesTransferred(ExecuteStoredProcedure.REL_SUCCESS, 1);
+            result = runner.getFlowFilesForRelationship(ExecuteStoredProcedure.REL_SUCCESS).get(0);
+            result.assertContentEquals("{\"OUTPUTS\":{\"COUNT\":1,\"output_3\":null}}");
+            result.assertAttributeNotExists("procedure.output.COUNT");
+
+            // the size is measured in UTF-8 bytes, 5 characters but 6 bytes exceed 5 B
+            JdbcDummy.execute(connection, "CREATE PROCEDURE greet (OUT o_greeting VARCHAR(10)) "
+                    + "READS SQL DATA BEGIN ATOMIC SET o_greeting = 'h\u00e9llo'; END");
+            runner.clearTransferState();
+            runner.setProperty(ExecuteStoredProcedure.STORED_PROCEDURE_STATEMENT, "{call greet(?)}");
+            runner.removeProperty("procedure.args.in.1.type");
+            runner.removeProperty("procedure.args.in.1.value");
+            runner.removeProperty("procedure.args.out.2.type");
+            runner.removeProperty("procedure.args.out.2.name");
+            runner.removeProperty("procedure.args.out.3.type");
+            runner.setProperty("procedure.args.out.1.type", "12");
+            runner.setProperty("procedure.args.out.1.name", "GREETING");
+            runner.setProperty(ExecuteStoredProcedure.OUTPUT_ATTRIBUTES_MAX_SIZE, "5 B");
+            runner.enqueue("Hello");
+            runner.run();
+            runner.assertAllFlowFilesTransferred(ExecuteStoredProcedure.REL_SUCCESS, 1);
+            runner.getFlowFilesForRelationship(ExecuteStoredProcedure.REL_SUCCESS).get(0)
+                    .assertAttributeNotExists("procedure.output.GREETING");
+
+            runner.clearTransferState();
+            runner.setProperty(ExecuteStoredProcedure.OUTPUT_ATTRIBUTES_MAX_SIZE, "6 B");
+            runner.enqueue("Hello");
+            runner.run();
+            runner.assertAllFlowFilesTransferred(ExecuteStoredProcedure.REL_SUCCESS, 1);
+            runner.getFlowFilesForRelationship(ExecuteStoredProcedure.REL_SUCCESS).get(0)
+                    .assertAttributeEquals("procedure.output.GREETING", "h\u00e9llo");
+        } finally {
+            JdbcDummy.execute(connection, "DROP PROCEDURE count_customers");
+            JdbcDummy.execute(connection, "DROP PROCEDURE greet IF EXISTS");
+        }
+    }
+
+    @Test
+    public void testCompression() throws IOException {
+        runner.setProperty(ExecuteStoredProcedure.STORED_PROCEDURE_STATEMENT, TEST_PROCEDURE_CALL);
+        runner.setProperty("procedure.args.in.1.type", "12");
+        runner.setProperty("procedure.args.in.1.value", "Tom");
+        runner.setProperty("procedure.args.in.2.type", "4");
+        runner.setProperty("procedure.args.in.2.value", "20");
+        runner.setProperty("procedure.args.in.3.type", "12");
+        runner.setProperty("procedure.args.in.3.value", "Guangzhou");
+        runner.setProperty("procedure.args.out.4.type", "4");
+        runner.setProperty("procedure.args.out.4.name", "ID");
+        runner.setProperty(ExecuteStoredProcedure.COMPRESSION, CompressionHandler.ZSTD);
+        runner.setProperty(ExecuteStoredProcedure.COMPRESSION_LEVEL, "23");
+        runner.assertNotValid();
+        runner.removeProperty(ExecuteStoredProcedure.COMPRESSION_LEVEL);
+
+        final ObjectMapper objectMapper = new ObjectMapper();
+        for (String codec : new String[]{CompressionHandler.GZIP, CompressionHandler.LZ4, CompressionHandler.ZSTD,
+                CompressionHandler.SNAPPY}) {
+            runner.clearTransferState();
+            runner.setProperty(ExecuteStoredProcedure.COMPRESSION, codec);
+            runner.enqueue("Hello");
+            runner.run();
+            runner.assertAllFlowFilesTransferred(ExecuteStoredProcedure.REL_SUCCESS, 1);
+            final MockFlowFile result = runner.getFlowFilesForRelationship(ExecuteStoredProcedure.REL_SUCCESS).get(0);
+            result.assertAttributeEquals("mime.type", CompressionHandler.mimeType(codec));
+            result.assertAttributeEquals(ExecuteStoredProcedure.PROCEDURE_COMPRESSION, codec);
+            final InputStream content = new ByteArrayInputStream(result.toByteArray());
+            final InputStream in;
+            if (CompressionHandler.GZIP.equals(codec)) {
+                in = new GZIPInputStream(content);
+            } else if (CompressionHandler.LZ4.equals(codec)) {
+                in = new LZ4FrameInputStream(content);
+            } else if (CompressionHandler.ZSTD.equals(codec)) {
+                in = new ZstdInputStream(content);
+            } else {
+                in = new SnappyFramedInputStream(content);
+            }
+            final JsonNode root = objectMapper.readTree(in);
+            assertEquals(3, root.path("RESULTS").size());
+            assertTrue(root.path("OUTPUTS").path("ID").isInt());
+        }
+    }
+
+    @Test
+    public void testBinaryEncoding() throws IOException {
+        runner.setProperty(ExecuteStoredProcedure.STORED_PROCEDURE_STATEMENT, TEST_PROCEDURE_CALL);
+        runner.setProperty("procedure.args.in.1.type", "12");
+        runner.setProperty("procedure.args.in.1.value", "Tom");
+        runner.setProperty("procedure.args.in.2.type", "4");
+        runner.setProperty("procedure.args.in.2.value", "20");
+        runner.setProperty("procedure.args.in.3.type", "12");
+        runner.setProperty("procedure.args.in.3.value", "Guangzhou");
+        runner.setProperty("procedure.args.out.4.type", "4");
+        runner.setProperty("procedure.args.out.4.name", "ID");
+
+        final Map<AllowableValue, ObjectMapper> mappers = new HashMap<>();
+        mappers.put(ExecuteStoredProcedure.ENCODING_SMILE, new ObjectMapper(new SmileFactory()));
+        mappers.put(ExecuteStoredProcedure.ENCODING_CBOR, new ObjectMapper(new CBORFactory()));
+        for (Map.Entry<AllowableValue, ObjectMapper> entry : mappers.entrySet()) {
+            runner.clearTransferState();
+            runner.setProperty(ExecuteStoredProcedure.OUTPUT_ENCODING, entry.getKey());
+            runner.enqueue("Hello");
+            runner.run();
+            runner.assertAllFlowFilesTransferred(ExecuteStoredProcedure.REL_SUCCESS, 1);
+            final MockFlowFile result = runner.getFlowFilesForRelationship(ExecuteStoredProcedure.REL_SUCCESS).get(0);
+            assertTrue(result.getAttribute("mime.type").startsWith("application/"));
+            final JsonNode root = entry.getValue().readTree(result.toByteArray());
+            assertEquals(3, root.path("RESULTS").size());
+            assertEquals("Tom", root.path("RESULTS").path(0).path(1).path("NAME").asText());
+            assertTrue(root.path("OUTPUTS").path("ID").isInt());
+        }
+    }
+
+    @Test
+    public void testDeadline() throws InterruptedException {
+        runner.setProperty(ExecuteStoredProcedure.STORED_PROCEDURE_STATEMENT, TEST_PROCEDURE_CALL);
+        assertFalse(runner.getProcessor().getRelationships().contains(ExecuteStoredProcedure.REL_EXPIRED));
+        runner.setProperty(ExecuteStoredProcedure.DEADLINE_ATTRIBUTE, "deadline");
+        assertTrue(runner.getProcessor().getRelationships().contains(ExecuteStoredProcedure.REL_EXPIRED));
+        runner.setProperty("procedure.args.in.1.type", "12");
+        runner.setProperty("procedure.args.in.1.value", "Tom");
+        runner.setProperty("procedure.args.in.2.type", "4");
+        runner.setProperty("procedure.args.in.2.value", "20");
+        runner.setProperty("procedure.args.in.3.type", "12");
+        runner.setProperty("procedure.args.in.3.value", "Guangzhou");
+        runner.setProperty("procedure.args.out.4.type", "4");
+
+        runner.enqueue("Hello", Collections.singletonMap("deadline",
+                String.valueOf(System.currentTimeMillis() - 1000L)));
+        runner.run();
+        runner.assertAllFlowFilesTransferred(ExecuteStoredProcedure.REL_EXPIRED, 1);
+        runner.getFlowFilesForRelationship(ExecuteStoredProcedure.REL_EXPIRED).get(0).assertContentEquals("Hello");
+
+        runner.clearTransferState();
+        runner.enqueue("Hello", Collections.singletonMap("deadline",
+                String.valueOf(System.currentTimeMillis() + 60000L)));
+        runner.run();
+        runner.assertAllFlowFilesTransferred(ExecuteStoredProcedure.REL_SUCCESS, 1);
+
+        runner.clearTransferState();
+        runner.setProperty(ExecuteStoredProcedure.MAX_FLOWFILE_AGE, "10 millis");
+        runner.enqueue("Hello");
+        Thread.sleep(50L);
+        runner.run();
+        runner.assertAllFlowFilesTransferred(ExecuteStoredProcedure.REL_EXPIRED, 1);
+    }
+
+    @Test
+    public void testLineEncoding() throws IOException {
+        runner.setProperty(ExecuteStoredProcedure.STORED_PROCEDURE_STATEMENT, TEST_PROCEDURE_CALL);
+        runner.setProperty(ExecuteStoredProcedure.OUTPUT_ENCODING, ExecuteStoredProcedure.ENCODING_NDJSON);
+        runner.setProperty("procedure.args.in.1.type", "12");
+        runner.setProperty("procedure.args.in.1.value", "Tom");
+        runner.setProperty("procedure.args.in.2.type", "4");
+        runner.setProperty("procedure.args.in.2.value", "20");
+        runner.setProperty("procedure.args.in.3.type", "12");
+        runner.setProperty("procedure.args.in.3.value", "Guangzhou");
+        runner.setProperty("procedure.args.out.4.type", "4");
+        runner.setProperty("procedure.args.out.4.name", "ID");
+
+        runner.enqueue("Hello");
+        runner.run();
+        runner.assertAllFlowFilesTransferred(ExecuteStoredProcedure.REL_SUCCESS, 1);
+        final MockFlowFile result = runner.getFlowFilesForRelationship(ExecuteStoredProcedure.REL_SUCCESS).get(0);
+        result.assertAttributeEquals("mime.type", "application/x-ndjson");
+        final String content = new String(result.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(content.endsWith("\n"));
+        final String[] lines = content.split("\n");
+        final ObjectMapper objectMapper = new ObjectMapper();
+        assertEquals(0, objectMapper.readTree(lines[0]).path("RESULT").asInt());
+        assertTrue(objectMapper.readTree(lines[0]).path("ROW").has("NAME"));
+        int lastResult = 0;
+        for (int i = 0; i < lines.length - 1; i++) {
+            final JsonNode line = objectMapper.readTree(lines[i]);
+            assertTrue(line.path("RESULT").asInt() >= lastResult);
+            lastResult = line.path("RESULT").asInt();
+            if ("Tom".equals(line.path("ROW").path("NAME").asText())) {
+                assertEquals(20, line.path("ROW").path("AGE").asInt());
+            }
+        }
+        assertEquals(2, lastResult);
+        assertTrue(objectMapper.readTree(lines[lines.length - 1]).path("OUTPUTS").path("ID").isInt());
+    }
+
+    @Test
+    public void testArrowEncoding() throws IOException {
+        runner.setProperty(ExecuteStoredProcedure.STORED_PROCEDURE_STATEMENT, TEST_PROCEDURE_CALL);
+        runner.setProperty(ExecuteStoredProcedure.OUTPUT_ENCODING, ExecuteStoredProcedure.ENCODING_ARROW);
+        runner.setProperty(ExecuteStoredProcedure.ARROW_BATCH_SIZE, "1");
+        runner.setProperty("procedure.args.in.1.type", "12");
+        runner.setProperty("procedure.args.in.1.value", "Tom");
+        runner.setProperty("procedure.args.in.2.type", "4");
+        runner.setProperty("procedure.args.in.2.value", "20");
+        runner.setProperty("procedure.args.in.3.type", "12");
+        runner.setProperty("procedure.args.in.3.value", "Guangzhou");
+        runner.setProperty("procedure.args.out.4.type", "4");
+        runner.setProperty("procedure.args.out.4.name", "ID");
+        runner.setProperty(ExecuteStoredProcedure.CHANGE_DETECTION, ExecuteStoredProcedure.CHANGE_DETECTION_LOCAL);
+        runner.assertNotValid();
+        runner.setProperty(ExecuteStoredProcedure.CHANGE_DETECTION, ExecuteStoredProcedure.CHANGE_DETECTION_NONE);
+
+        runner.enqueue("Hello");
+        runner.run();
+        runner.assertAllFlowFilesTransferred(ExecuteStoredProcedure.REL_SUCCESS, 3);
+        final List<MockFlowFile> results = runner.getFlowFilesForRelationship(ExecuteStoredProcedure.REL_SUCCESS);
+        for (int i = 0; i < results.size(); i++) {
+            results.get(i).assertAttributeEquals("procedure.result.index", String.valueOf(i));
+            results.get(i).assertAttributeEquals("mime.type", "application/vnd.apache.arrow.stream");
+            results.get(i).assertAttributeExists("procedure.output.ID");
+        }
+        final MockFlowFile customers = results.get(0);
+        customers.assertAttributeEquals("record.count", "2");
+        try (final BufferAllocator allocator = new RootAllocator(Long.MAX_VALUE);
+             final ArrowStreamReader reader = new ArrowStreamReader(
+                     new ByteArrayInputStream(customers.toByteArray()), allocator)) {
+            final VectorSchemaRoot root = reader.getVectorSchemaRoot();
+            assertEquals(new ArrowType.Int(32, true), root.getSchema().findField("ID").getType());
+            assertEquals(ArrowType.Utf8.INSTANCE, root.getSchema().findField("NAME").getType());
+            int rows = 0;
+            while (reader.loadNextBatch()) {
+                assertEquals(1, root.getRowCount());
+                final VarCharVector name = (VarCharVector) root.getVector("NAME");
+                if (!name.isNull(0)) {
+                    assertEquals("Tom", new String(name.get(0), StandardCharsets.UTF_8));
+                    assertEquals(20, ((IntVector) root.getVector("AGE")).get(0));
+                    customers.assertAttributeEquals("procedure.output.ID",
+                            String.valueOf(((IntVector) root.getVector("ID")).get(0)));
+                }
+                rows++;
+            }
+            assertEquals(2, rows);
+        }
+    }
+
+    @Test
+    public void testArrowDateTime() throws SQLException, IOException {
+        final TimeZone defaultTimeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("GMT+08:00"));
+        try (final Connection connection = new DBCPServiceSimpleImpl().getConnection();
+             final Statement statement = connection.createStatement();
+             final ResultSet resultSet = statement.executeQuery("VALUES (CAST('2018-01-02' AS DATE), "
+                     + "CAST('03:04:05' AS TIME), CAST('2018-01-02 03:04:05.678' AS TIMESTAMP(3)))");
+             final BufferAllocator allocator = new RootAllocator(Long.MAX_VALUE)) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(1, ArrowHandler.writeResultSet(resultSet, out, allocator, 10));
+            try (final ArrowStreamReader reader = new ArrowStreamReader(
+                    new ByteArrayInputStream(out.toByteArray()), allocator)) {
+                final VectorSchemaRoot root = reader.getVectorSchemaRoot();
+                assertTrue(reader.loadNextBatch());
+                final List<FieldVector> vectors = root.getFieldVectors();
+                assertEquals(LocalDate.of(2018, 1, 2).toEpochDay() * 86_400_000L,
+                        ((DateMilliVector) vectors.get(0)).get(0));
+                assertEquals(LocalTime.of(3, 4, 5).toNanoOfDay() / 1_000_000,
+                        ((TimeMilliVector) vectors.get(1)).get(0));
+                assertEquals(LocalDateTime.of(2018, 1, 2, 3, 4, 5, 678_000_000).toInstant(ZoneOffset.UTC).toEpochMilli(),
+                        ((TimeStampMilliVector) vectors.get(2)).get(0));
+            }
+        } finally {
+            TimeZone.setDefault(defaultTimeZone);
+        }
+    }
+
+    private static Map<String, String> customerAttributes(final String name) {
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("procedure.args.in.1.type", "12");
+        attributes.put("procedure.args.in.1.value", name);
+        return attributes;
+    }
+
     public void invokeOnTrigger(final Integer queryTimeout, final String query, final boolean incomingFlowFile, final Map<String, String> attrs, final boolean setQueryProperty)
             throws IOException {
 
@@ -160,18 +1200,57 @@ public class TestExecuteStoredProcedure {
     /**
      * Simple implementation only for ExecuteSQL processor testing.
      */
+    /**
+     * Simple implementation offering getConnection(String) as the HikariCP statistics service does.
+     */
+    class IdentifiedDBCPService extends DBCPServiceSimpleImpl {
+        private final List<String> borrowerIds = Collections.synchronizedList(new ArrayList<>());
+
+        IdentifiedDBCPService(final String identifier, final String url) {
+            super(identifier, url);
+        }
+
+        public Connection getConnection(final String borrowerId) {
+            borrowerIds.add(borrowerId);
+            return getConnection();
+        }
+    }
+
+    /**
+     * Simple implementation rejecting every borrow as an overloaded pool does.
+     */
+    static class OverloadedDBCPService extends AbstractControllerService implements DBCPService {
+        @Override
+        public Connection getConnection() throws ProcessException {
+            throw new ProcessException("Concurrency limit reached",
+                    new SQLTransientConnectionException("Concurrency limit reached"));
+        }
+    }
+
     class DBCPServiceSimpleImpl extends AbstractControllerService implements DBCPService {
+        private final String identifier;
+        private final String url;
+
+        DBCPServiceSimpleImpl() {
+            this("dbcp", "jdbc:hsqldb:mem:test");
+        }
+
+        DBCPServiceSimpleImpl(final String identifier, final String url) {
+            this.identifier = identifier;
+            this.url = url;
+        }
 
         @Override
         public String getIdentifier() {
-            return "dbcp";
+            return identifier;
         }
 
         @Override
         public Connection getConnection() throws ProcessException {
             try {
                 Class.forName("org.hsqldb.jdbc.JDBCDriver");
-                final Connection con = DriverManager.getConnection("jdbc:hsqldb:mem:test", "test", "");
+                StubDriver.register();
+                final Connection con = DriverManager.getConnection(url, "test", "");
                 return con;
             } catch (final Exception e) {
                 throw new ProcessException("getConnection failed: " + e);
@@ -0,0 +1,140 @@
+package lab.nice.nifi.invoker.lookup;
+
+import lab.nice.nifi.invoker.ExecuteStoredProcedure;
+import lab.nice.nifi.invoker.util.JdbcDummy;
+import org.apache.nifi.controller.AbstractControllerService;
+import org.apache.nifi.dbcp.DBCPService;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.reporting.InitializationException;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordFieldType;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestStoredProcedureLookupService {
+    private static final String TEST_TABLE_ACCOUNTS_CREATION = "CREATE TABLE IF NOT EXISTS accounts (id INTEGER PRIMARY KEY, name VARCHAR(255), balance DECIMAL(20, 2))";
+    private static final String TEST_TABLE_ACCOUNTS_INSERT = "INSERT INTO accounts (id, name, balance) VALUES (1, NULL, 12345678901234567.89)";
+    private static final String TEST_TABLE_ACCOUNTS_DROP = "DROP TABLE accounts";
+
+    private static final String TEST_PROCEDURE_CREATION = "CREATE PROCEDURE account_by_id (IN i_id INTEGER, OUT o_found INTEGER) "
+            + "READS SQL DATA DYNAMIC RESULT SETS 1 "
+            + "BEGIN ATOMIC "
+            + "DECLARE res CURSOR WITH RETURN FOR SELECT * FROM accounts WHERE id = i_id FOR READ ONLY; "
+            + "SET o_found = (SELECT COUNT(*) FROM accounts WHERE id = i_id); "
+            + "OPEN res; "
+            + "END";
+    private static final String TEST_PROCEDURE_DROP = "DROP PROCEDURE account_by_id";
+
+    private TestRunner runner;
+    private DBCPService dbcp;
+    private StoredProcedureLookupService lookupService;
+
+    @Before
+    public void setUp() throws InitializationException, SQLException {
+        dbcp = new DBCPServiceSimpleImpl();
+        try (final Connection connection = dbcp.getConnection()) {
+            JdbcDummy.execute(connection, TEST_TABLE_ACCOUNTS_CREATION);
+            JdbcDummy.execute(connection, TEST_TABLE_ACCOUNTS_INSERT);
+            JdbcDummy.execute(connection, TEST_PROCEDURE_CREATION);
+        }
+
+        runner = TestRunners.newTestRunner(ExecuteStoredProcedure.class);
+        runner.addControllerService("dbcp", dbcp, new HashMap<>());
+        runner.enableControllerService(dbcp);
+
+        lookupService = new StoredProcedureLookupService();
+        final Map<String, String> properties = new HashMap<>();
+        properties.put(StoredProcedureLookupService.DBCP_SERVICE.getName(), "dbcp");
+        properties.put(StoredProcedureLookupService.STORED_PROCEDURE_STATEMENT.getName(), "{call account_by_id(?, ?)}");
+        properties.put(StoredProcedureLookupService.REQUIRED_KEYS.getName(), "id");
+        properties.put(StoredProcedureLookupService.CACHE_REFRESH_AFTER.getName(), "0 secs");
+        properties.put("procedure.args.in.1.type", "4");
+        properties.put("procedure.args.in.1.value", "${id}");
+        properties.put("procedure.args.out.2.type", "4");
+        properties.put("procedure.args.out.2.name", "FOUND");
+        runner.addControllerService("lookup", lookupService, properties);
+        runner.enableControllerService(lookupService);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        runner.disableControllerService(lookupService);
+        try (final Connection connection = dbcp.getConnection()) {
+            JdbcDummy.execute(connection, TEST_PROCEDURE_DROP);
+            JdbcDummy.execute(connection, TEST_TABLE_ACCOUNTS_DROP);
+        }
+    }
+
+    @Test
+    public void testLookup() throws Exception {
+        assertEquals(Collections.singleton("id"), lookupService.getRequiredKeys());
+
+        final Record account = lookupService.lookup(Collections.singletonMap("id", "1")).get();
+        assertEquals(Integer.valueOf(1), account.getAsInt("ID"));
+        assertEquals(Integer.valueOf(1), account.getAsInt("FOUND"));
+        assertEquals(null, account.getValue("NAME"));
+        final Record missing = lookupService.lookup(Collections.singletonMap("id", "99")).get();
+        assertEquals(Integer.valueOf(0), missing.getAsInt("FOUND"));
+        assertEquals(null, missing.getValue("ID"));
+    }
+
+    @Test
+    public void testDecimal() throws Exception {
+        final Record account = lookupService.lookup(Collections.singletonMap("id", "1")).get();
+        // a double would round the value to 12345678901234568
+        assertEquals("12345678901234567.89", account.getValue("BALANCE"));
+        assertEquals(RecordFieldType.STRING.getDataType(),
+                account.getSchema().getField("BALANCE").get().getDataType());
+    }
+
+    @Test
+    public void testRefresh() throws Exception {
+        assertEquals(null, lookupService.lookup(Collections.singletonMap("id", "1")).get().getValue("NAME"));
+
+        // the cached record is returned while it is refreshed in the background
+        try (final Connection connection = dbcp.getConnection()) {
+            JdbcDummy.execute(connection, "UPDATE accounts SET name = 'Tom' WHERE id = 1");
+        }
+        assertEquals(null, lookupService.lookup(Collections.singletonMap("id", "1")).get().getValue("NAME"));
+        final long deadline = System.currentTimeMillis() + 5000;
+        String name = null;
+        while (name == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            name = lookupService.lookup(Collections.singletonMap("id", "1")).get().getAsString("NAME");
+        }
+        assertEquals("Tom", name);
+    }
+
+    /**
+     * Simple implementation only for lookup service testing.
+     */
+    private static class DBCPServiceSimpleImpl extends AbstractControllerService implements DBCPService {
+
+        @Override
+        public String getIdentifier() {
+            return "dbcp";
+        }
+
+        @Override
+        public Connection getConnection() throws ProcessException {
+            try {
+                Class.forName("org.hsqldb.jdbc.JDBCDriver");
+                return DriverManager.getConnection("jdbc:hsqldb:mem:lookup", "test", "");
+            } catch (final Exception e) {
+                throw new ProcessException("getConnection failed: " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package lab.nice.nifi.invoker.stub;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.JDBCType;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Configuration of the stub JDBC driver parsed from the JDBC URL.
+ * The URL is a list of semicolon separated options after the {@link StubDriver#URL_PREFIX}, e.g.
+ * <pre>
+ * jdbc:stub:latency=uniform(1,5);rows=1000;columns=10;lobColumns=1;resultSets=2;failEvery=100;seed=42
+ * </pre>
+ * Supported options:
+ * <ul>
+ * <li>latency - execution latency of each call: none, fixed(ms), uniform(min,max), exponential(mean),
+ * lognormal(median,sigma) or script(ms,ms,...) which cycles through the given values. Default none</li>
+ * <li>connectLatency - latency of opening a connection, same forms as latency. Default none</li>
+ * <li>fetchLatency - latency of each fetch block of a result set, same forms as latency. Default none</li>
+ * <li>resultSets - number of dynamic result sets returned by each call. Default 1</li>
+ * <li>rows - number of rows of each result set. Default 10</li>
+ * <li>columns - number of columns of each result set, the first column is always an INTEGER 'ID'. Default 4</li>
+ * <li>columnTypes - comma separated JDBC type names cycled through the non ID, non LOB columns. Default VARCHAR</li>
+ * <li>lobColumns - number of trailing CLOB columns. Default 0</li>
+ * <li>valueLength - length of character values. Default 16</li>
+ * <li>lobLength - length of CLOB values. Default 4096</li>
+ * <li>failureRate - probability of an execution to fail. Default 0</li>
+ * <li>failEvery - every N-th execution fails, 0 never. Default 0</li>
+ * <li>seed - seed of the random latency and failure generator. Default 0</li>
+ * </ul>
+ */
+public class StubConfig {
+    private static final int DEFAULT_FETCH_SIZE = 10;
+
+    private final Latency latency;
+    private final Latency connectLatency;
+    private final Latency fetchLatency;
+    private final int resultSets;
+    private final int rows;
+    private final int columns;
+    private final List<JDBCType> columnTypes;
+    private final int lobColumns;
+    private final int valueLength;
+    private final int lobLength;
+    private final double failureRate;
+    private final int failEvery;
+    private final Random random;
+
+    private StubConfig(final Options options) {
+        this.latency = Latency.parse(options.get("latency", "none"));
+        this.connectLatency = Latency.parse(options.get("connectLatency", "none"));
+        this.fetchLatency = Latency.parse(options.get("fetchLatency", "none"));
+        this.resultSets = Integer.parseInt(options.get("resultSets", "1"));
+        this.rows = Integer.parseInt(options.get("rows", "10"));
+        this.columns = Integer.parseInt(options.get("columns", "4"));
+        final List<JDBCType> types = new ArrayList<>();
+        for (String type : StringUtils.split(options.get("columnTypes", "VARCHAR"), ',')) {
+            types.add(JDBCType.valueOf(type.trim().toUpperCase()));
+        }
+        this.columnTypes = Collections.unmodifiableList(types);
+        this.lobColumns = Integer.parseInt(options.get("lobColumns", "0"));
+        this.valueLength = Integer.parseInt(options.get("valueLength", "16"));
+        this.lobLength = Integer.parseInt(options.get("lobLength", "4096"));
+        this.failureRate = Double.parseDouble(options.get("failureRate", "0"));
+        this.failEvery = Integer.parseInt(options.get("failEvery", "0"));
+        this.random = new Random(Long.parseLong(options.get("seed", "0")));
+        if (columns < 1 + lobColumns) {
+            throw new IllegalArgumentException("columns must be greater than lobColumns");
+        }
+    }
+
+    /**
+     * Parse stub configuration from JDBC URL.
+     *
+     * @param url the JDBC URL
+     * @return the configuration
+     * @throws SQLException if the URL is not a valid stub URL
+     */
+    public static StubConfig parse(final String url) throws SQLException {
+        if (url == null || !url.startsWith(StubDriver.URL_PREFIX)) {
+            throw new SQLException("Not a stub JDBC URL: " + url);
+        }
+        try {
+            return new StubConfig(new Options(url.substring(StubDriver.URL_PREFIX.length())));
+        } catch (final IllegalArgumentException e) {
+            throw new SQLException("Invalid stub JDBC URL: " + url, e);
+        }
+    }
+
+    public Latency getLatency() {
+        return latency;
+    }
+
+    public Latency getConnectLatency() {
+        return connectLatency;
+    }
+
+    public Latency getFetchLatency() {
+        return fetchLatency;
+    }
+
+    public int getResultSets() {
+        return resultSets;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getLobColumns() {
+        return lobColumns;
+    }
+
+    public int getValueLength() {
+        return valueLength;
+    }
+
+    public int getLobLength() {
+        return lobLength;
+    }
+
+    public int getDefaultFetchSize() {
+        return DEFAULT_FETCH_SIZE;
+    }
+
+    /**
+     * Get the JDBC type of a result set column.
+     *
+     * @param column the column index, starting from 1
+     * @return the JDBC type
+     */
+    public JDBCType columnType(final int column) {
+        if (column == 1) {
+            return JDBCType.INTEGER;
+        } else if (column > columns - lobColumns) {
+            return JDBCType.CLOB;
+        }
+        return columnTypes.get((column - 2) % columnTypes.size());
+    }
+
+    /**
+     * Get the name of a result set column.
+     *
+     * @param column the column index, starting from 1
+     * @return the column name
+     */
+    public String columnName(final int column) {
+        if (column == 1) {
+            return "ID";
+        } else if (column > columns - lobColumns) {
+            return "LOB_" + column;
+        }
+        return "COL_" + column;
+    }
+
+    /**
+     * Create the synthetic value of a JDBC type. Numeric values are derived from the given sequence.
+     *
+     * @param type     the JDBC type
+     * @param sequence the sequence of the value, e.g. row number or execution number
+     * @return the value
+     */
+    public Object value(final JDBCType type, final long sequence) {
+        switch (type) {
+            case BIT:
+            case BOOLEAN:
+                return sequence % 2 == 0;
+            case TINYINT:
+            case SMALLINT:
+            case INTEGER:
+                return (int) sequence;
+            case BIGINT:
+                return sequence;
+            case REAL:
+                return (float) sequence;
+            case FLOAT:
+            case DOUBLE:
+                return (double) sequence;
+            case DECIMAL:
+            case NUMERIC:
+                return BigDecimal.valueOf(sequence, 2);
+            case DATE:
+                return new Date(sequence * 86_400_000L);
+            case TIMESTAMP:
+                return new Timestamp(sequence * 1000L);
+            case CLOB:
+            case NCLOB:
+                return StringUtils.repeat('L', lobLength);
+            default:
+                return StringUtils.leftPad(String.valueOf(sequence), valueLength, 'v');
+        }
+    }
+
+    /**
+     * @return true if the next execution should fail
+     */
+    public boolean nextFailure(final long execution) {
+        if (failEvery > 0 && execution % failEvery == 0) {
+            return true;
+        }
+        return failureRate > 0 && nextDouble() < failureRate;
+    }
+
+    private synchronized double nextDouble() {
+        return random.nextDouble();
+    }
+
+    private synchronized double nextGaussian() {
+        return random.nextGaussian();
+    }
+
+    /**
+     * Latency distribution in milliseconds.
+     */
+    public abstract static class Latency {
+        /**
+         * @param config the configuration providing the random generator
+         * @return the next latency in milliseconds
+         */
+        public abstract long next(StubConfig config);
+
+        static Latency parse(final String value) {
+            final String name = StringUtils.substringBefore(value, "(").trim();
+            final String[] args = StringUtils.split(StringUtils.substringBetween(value, "(", ")"), ',');
+            switch (name) {
+                case "none":
+                    return constant(0L);
+                case "fixed":
+                    return constant(Long.parseLong(args[0].trim()));
+                case "uniform": {
+                    final long min = Long.parseLong(args[0].trim());
+                    final long max = Long.parseLong(args[1].trim());
+                    return new Latency() {
+                        @Override
+                        public long next(final StubConfig config) {
+                            return min + (long) (config.nextDouble() * (max - min + 1));
+                        }
+                    };
+                }
+                case "exponential": {
+                    final double mean = Double.parseDouble(args[0].trim());
+                    return new Latency() {
+                        @Override
+                        public long next(final StubConfig config) {
+                            return Math.round(-mean * Math.log(1 - config.nextDouble()));
+                        }
+                    };
+                }
+                case "lognormal": {
+                    final double mu = Math.log(Double.parseDouble(args[0].trim()));
+                    final double sigma = Double.parseDouble(args[1].trim());
+                    return new Latency() {
+                        @Override
+                        public long next(final StubConfig config) {
+                            return Math.round(Math.exp(mu + sigma * config.nextGaussian()));
+                        }
+                    };
+                }
+                case "script": {
+                    final long[] script = new long[args.length];
+                    for (int i = 0; i < args.length; i++) {
+                        script[i] = Long.parseLong(args[i].trim());
+                    }
+                    final AtomicInteger position = new AtomicInteger();
+                    return new Latency() {
+                        @Override
+                        public long next(final StubConfig config) {
+                            return script[Math.floorMod(position.getAndIncrement(), script.length)];
+                        }
+                    };
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown latency distribution: " + value);
+            }
+        }
+
+        private static Latency constant(final long millis) {
+            return new Latency() {
+                @Override
+                public long next(final StubConfig config) {
+                    return millis;
+                }
+            };
+        }
+    }
+
+    private static final class Options {
+        private final Map<String, String> values = new HashMap<>();
+
+        private Options(final String options) {
+            for (String option : StringUtils.split(options, ';')) {
+                final String key = StringUtils.substringBefore(option, "=").trim();
+                final String value = StringUtils.substringAfter(option, "=").trim();
+                if (!key.isEmpty()) {
+                    values.put(key, value);
+                }
+            }
+        }
+
+        private String get(final String key, final String defaultValue) {
+            return values.getOrDefault(key, defaultValue);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package lab.nice.nifi.invoker.stub;
+
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Array;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.NClob;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Struct;
+import java.util.Arrays;
+
+/**
+ * Stub JDBC connection. Only the methods needed to prepare calls, create LOBs, ARRAYs and STRUCTs and drive
+ * transactions are implemented, other methods return default values.
+ */
+final class StubConnection implements InvocationHandler {
+    private final StubConfig config;
+    private final StubDriver.Statistics statistics;
+    private boolean autoCommit = true;
+    private boolean readOnly;
+    private int transactionIsolation = Connection.TRANSACTION_READ_COMMITTED;
+    private int networkTimeout;
+    private String catalog;
+    private String schema;
+    private volatile boolean closed;
+
+    private StubConnection(final StubConfig config, final StubDriver.Statistics statistics) {
+        this.config = config;
+        this.statistics = statistics;
+    }
+
+    static Connection create(final StubConfig config, final StubDriver.Statistics statistics) {
+        statistics.connections.incrementAndGet();
+        StubDriver.Statistics.increment(statistics.openConnections, statistics.maxOpenConnections);
+        return (Connection) Proxy.newProxyInstance(StubConnection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new StubConnection(config, statistics));
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "prepareCall":
+            case "prepareStatement":
+                checkOpen();
+                statistics.prepares.incrementAndGet();
+                return StubStatement.create((Connection) proxy, config, statistics);
+            case "createClob":
+                return createClob(Clob.class);
+            case "createNClob":
+                return createClob(NClob.class);
+            case "createArrayOf":
+                return createArray((String) args[0], (Object[]) args[1]);
+            case "createStruct":
+                return createStruct((String) args[0], (Object[]) args[1]);
+            case "getAutoCommit":
+                return autoCommit;
+            case "setAutoCommit":
+                autoCommit = (Boolean) args[0];
+                return null;
+            case "commit":
+                checkOpen();
+                statistics.commits.incrementAndGet();
+                return null;
+            case "rollback":
+                checkOpen();
+                statistics.rollbacks.incrementAndGet();
+                return null;
+            case "isReadOnly":
+                return readOnly;
+            case "setReadOnly":
+                readOnly = (Boolean) args[0];
+                return null;
+            case "getTransactionIsolation":
+                return transactionIsolation;
+            case "setTransactionIsolation":
+                transactionIsolation = (Integer) args[0];
+                return null;
+            case "getNetworkTimeout":
+                return networkTimeout;
+            case "setNetworkTimeout":
+                networkTimeout = (Integer) args[1];
+                return null;
+            case "getCatalog":
+                return catalog;
+            case "setCatalog":
+                catalog = (String) args[0];
+                return null;
+            case "getSchema":
+                return schema;
+            case "setSchema":
+                schema = (String) args[0];
+                return null;
+            case "isValid":
+                return !closed;
+            case "isClosed":
+                return closed;
+            case "close":
+                if (!closed) {
+                    closed = true;
+                    statistics.openConnections.decrementAndGet();
+                }
+                return null;
+            case "isWrapperFor":
+                return false;
+            case "unwrap":
+                throw new SQLFeatureNotSupportedException("unwrap");
+            case "toString":
+                return "StubConnection@" + Integer.toHexString(System.identityHashCode(proxy));
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                return StubDriver.defaultValue(method.getReturnType());
+        }
+    }
+
+    private void checkOpen() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection is closed", "08003");
+        }
+    }
+
+    /**
+     * Create an ARRAY holding its elements.
+     */
+    private static Array createArray(final String typeName, final Object[] elements) {
+        final Object[] values = elements.clone();
+        return (Array) Proxy.newProxyInstance(StubConnection.class.getClassLoader(), new Class<?>[]{Array.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getBaseTypeName":
+                            return typeName;
+                        case "getArray":
+                            return values.clone();
+                        case "toString":
+                            return typeName + Arrays.toString(values);
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return StubDriver.defaultValue(method.getReturnType());
+                    }
+                });
+    }
+
+    /**
+     * Create a STRUCT holding its attributes.
+     */
+    private static Struct createStruct(final String typeName, final Object[] attributes) {
+        final Object[] values = attributes.clone();
+        return (Struct) Proxy.newProxyInstance(StubConnection.class.getClassLoader(), new Class<?>[]{Struct.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getSQLTypeName":
+                            return typeName;
+                        case "getAttributes":
+                            return values.clone();
+                        case "toString":
+                            return typeName + Arrays.toString(values);
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return StubDriver.defaultValue(method.getReturnType());
+                    }
+                });
+    }
+
+    /**
+     * Create a CLOB/NCLOB backed by a StringBuilder.
+     */
+    private static Object createClob(final Class<? extends Clob> type) {
+        final StringBuilder content = new StringBuilder();
+        return Proxy.newProxyInstance(StubConnection.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "setString": {
+                            final int position = ((Long) args[0]).intValue() - 1;
+                            final String value = (String) args[1];
+                            content.replace(position, Math.min(content.length(), position + value.length()), value);
+                            return value.length();
+                        }
+                        case "length":
+                            return (long) content.length();
+                        case "getSubString": {
+                            final int position = ((Long) args[0]).intValue() - 1;
+                            return content.substring(position, position + (Integer) args[1]);
+                        }
+                        case "getCharacterStream":
+                            return new StringReader(content.toString());
+                        case "setCharacterStream":
+                            return new Writer() {
+                                @Override
+                                public void write(final char[] buffer, final int offset, final int length) {
+                                    content.append(buffer, offset, length);
+                                }
+
+                                @Override
+                                public void flush() {
+                                }
+
+                                @Override
+                                public void close() {
+                                }
+                            };
+                        case "free":
+                            content.setLength(0);
+                            return null;
+                        case "toString":
+                            return content.toString();
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return StubDriver.defaultValue(method.getReturnType());
+                    }
+                });
+    }
+}
@@ -0,0 +1,277 @@
+package lab.nice.nifi.invoker.stub;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Fast in-process stand-in JDBC driver for load testing. Every call prepared on its connections completes after a
+ * scripted latency and returns synthetic result sets and OUT parameters, see {@link StubConfig} for the URL options.
+ * The driver registers itself to {@link DriverManager} when loaded, so it can be used by any connection pool
+ * (e.g. HikariCPConnectionPool with driver class name {@code lab.nice.nifi.invoker.stub.StubDriver}).
+ * <p>
+ * Like HSQLDB, {@code execute()} of a call positions before the first dynamic result set, each
+ * {@code getMoreResults()} moves to the next result set. Query timeout and {@code Statement.cancel()} interrupt
+ * the simulated latency.
+ */
+public class StubDriver implements Driver {
+    public static final String URL_PREFIX = "jdbc:stub:";
+
+    private static final Statistics STATISTICS = new Statistics();
+
+    static {
+        try {
+            DriverManager.registerDriver(new StubDriver());
+        } catch (final SQLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Make sure the driver is loaded and registered.
+     */
+    public static void register() {
+        // loading the class registers the driver
+    }
+
+    /**
+     * @return the statistics shared by all stub connections
+     */
+    public static Statistics getStatistics() {
+        return STATISTICS;
+    }
+
+    @Override
+    public Connection connect(final String url, final Properties info) throws SQLException {
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        final StubConfig config = StubConfig.parse(url);
+        await(config.getConnectLatency().next(config), 0, new CountDownLatch(1));
+        return StubConnection.create(config, STATISTICS);
+    }
+
+    @Override
+    public boolean acceptsURL(final String url) {
+        return url != null && url.startsWith(URL_PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(final String url, final Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    /**
+     * Wait for the simulated latency.
+     *
+     * @param latency       the latency in milliseconds
+     * @param timeout       the query timeout in seconds, zero means no limit
+     * @param cancelSignal  signal to stop waiting
+     * @throws SQLException if the query timeout elapsed, the wait is cancelled or interrupted
+     */
+    static void await(final long latency, final int timeout, final CountDownLatch cancelSignal) throws SQLException {
+        if (latency <= 0) {
+            return;
+        }
+        final long timeoutMillis = TimeUnit.SECONDS.toMillis(timeout);
+        final boolean timedOut = timeout > 0 && latency > timeoutMillis;
+        try {
+            if (cancelSignal.await(timedOut ? timeoutMillis : latency, TimeUnit.MILLISECONDS)) {
+                STATISTICS.cancels.incrementAndGet();
+                throw new SQLException("Statement cancelled", "HY008");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // an interrupt right after the cancel, e.g. by shutting down the executor, must not hide the cancel
+            if (cancelSignal.getCount() == 0) {
+                STATISTICS.cancels.incrementAndGet();
+                throw new SQLException("Statement cancelled", "HY008", e);
+            }
+            throw new SQLException("Interrupted", "HY008", e);
+        }
+        if (timedOut) {
+            STATISTICS.timeouts.incrementAndGet();
+            throw new SQLTimeoutException("Query timeout of " + timeout + " seconds elapsed", "HYT00");
+        }
+    }
+
+    /**
+     * Default return value of unsupported stub methods.
+     */
+    static Object defaultValue(final Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        } else if (type == boolean.class) {
+            return false;
+        } else if (type == char.class) {
+            return '\0';
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == float.class) {
+            return 0F;
+        } else if (type == double.class) {
+            return 0D;
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == short.class) {
+            return (short) 0;
+        }
+        return 0;
+    }
+
+    /**
+     * Counters shared by all stub connections.
+     */
+    public static final class Statistics {
+        final AtomicLong connections = new AtomicLong();
+        final AtomicLong openConnections = new AtomicLong();
+        final AtomicLong maxOpenConnections = new AtomicLong();
+        final AtomicLong prepares = new AtomicLong();
+        final AtomicLong executions = new AtomicLong();
+        final AtomicLong activeExecutions = new AtomicLong();
+        final AtomicLong maxActiveExecutions = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong timeouts = new AtomicLong();
+        final AtomicLong cancels = new AtomicLong();
+        final AtomicLong commits = new AtomicLong();
+        final AtomicLong rollbacks = new AtomicLong();
+        final AtomicLong rows = new AtomicLong();
+        final AtomicLong fetches = new AtomicLong();
+        volatile Map<Integer, Object> lastParameters = Collections.emptyMap();
+
+        private Statistics() {
+        }
+
+        public long getConnections() {
+            return connections.get();
+        }
+
+        public long getOpenConnections() {
+            return openConnections.get();
+        }
+
+        public long getMaxOpenConnections() {
+            return maxOpenConnections.get();
+        }
+
+        public long getPrepares() {
+            return prepares.get();
+        }
+
+        public long getExecutions() {
+            return executions.get();
+        }
+
+        public long getMaxActiveExecutions() {
+            return maxActiveExecutions.get();
+        }
+
+        public long getFailures() {
+            return failures.get();
+        }
+
+        public long getTimeouts() {
+            return timeouts.get();
+        }
+
+        public long getCancels() {
+            return cancels.get();
+        }
+
+        public long getCommits() {
+            return commits.get();
+        }
+
+        public long getRollbacks() {
+            return rollbacks.get();
+        }
+
+        public long getRows() {
+            return rows.get();
+        }
+
+        public long getFetches() {
+            return fetches.get();
+        }
+
+        /**
+         * @return the parameters bound to the last execution by index
+         */
+        public Map<Integer, Object> getLastParameters() {
+            return lastParameters;
+        }
+
+        /**
+         * Reset all counters but the currently open connections and active executions.
+         */
+        public void reset() {
+            connections.set(0);
+            maxOpenConnections.set(openConnections.get());
+            prepares.set(0);
+            executions.set(0);
+            maxActiveExecutions.set(activeExecutions.get());
+            failures.set(0);
+            timeouts.set(0);
+            cancels.set(0);
+            commits.set(0);
+            rollbacks.set(0);
+            rows.set(0);
+            fetches.set(0);
+            lastParameters = Collections.emptyMap();
+        }
+
+        static void increment(final AtomicLong counter, final AtomicLong max) {
+            final long current = counter.incrementAndGet();
+            max.accumulateAndGet(current, Math::max);
+        }
+
+        @Override
+        public String toString() {
+            return "Statistics{" +
+                    "connections=" + connections +
+                    ", maxOpenConnections=" + maxOpenConnections +
+                    ", prepares=" + prepares +
+                    ", executions=" + executions +
+                    ", maxActiveExecutions=" + maxActiveExecutions +
+                    ", failures=" + failures +
+                    ", timeouts=" + timeouts +
+                    ", cancels=" + cancels +
+                    ", commits=" + commits +
+                    ", rollbacks=" + rollbacks +
+                    ", rows=" + rows +
+                    ", fetches=" + fetches +
+                    '}';
+        }
+    }
+}
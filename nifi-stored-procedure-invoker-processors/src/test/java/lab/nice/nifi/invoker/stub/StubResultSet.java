@@ -0,0 +1,204 @@
+package lab.nice.nifi.invoker.stub;
+
+import java.io.StringReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.JDBCType;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Stub forward only JDBC ResultSet of synthetic rows. The 'ID' column is the row number, other numeric and temporal
+ * columns are derived from the row number, character and CLOB columns repeat the same value on every row.
+ * The fetch latency is applied on every fetch block of 'fetch size' rows.
+ */
+final class StubResultSet implements InvocationHandler {
+    private final Statement statement;
+    private final StubConfig config;
+    private final StubDriver.Statistics statistics;
+    private final CountDownLatch cancelSignal;
+    private final Object[] constants;
+    private final ResultSetMetaData metaData;
+    private int fetchSize;
+    private int row;
+    private boolean closed;
+
+    private StubResultSet(final Statement statement, final StubConfig config, final StubDriver.Statistics statistics,
+                          final int fetchSize, final CountDownLatch cancelSignal) {
+        this.statement = statement;
+        this.config = config;
+        this.statistics = statistics;
+        this.fetchSize = fetchSize;
+        this.cancelSignal = cancelSignal;
+        this.constants = new Object[config.getColumns() + 1];
+        for (int i = 2; i <= config.getColumns(); i++) {
+            final JDBCType type = config.columnType(i);
+            if (isCharacter(type)) {
+                constants[i] = config.value(type, i);
+            }
+        }
+        this.metaData = (ResultSetMetaData) Proxy.newProxyInstance(StubResultSet.class.getClassLoader(),
+                new Class<?>[]{ResultSetMetaData.class}, this::invokeMetaData);
+    }
+
+    static ResultSet create(final Statement statement, final StubConfig config, final StubDriver.Statistics statistics,
+                            final int fetchSize, final CountDownLatch cancelSignal) {
+        return (ResultSet) Proxy.newProxyInstance(StubResultSet.class.getClassLoader(),
+                new Class<?>[]{ResultSet.class},
+                new StubResultSet(statement, config, statistics, fetchSize, cancelSignal));
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        final String name = method.getName();
+        switch (name) {
+            case "next":
+                return next();
+            case "isBeforeFirst":
+                return row == 0 && config.getRows() > 0;
+            case "isAfterLast":
+                return row > config.getRows();
+            case "getRow":
+                return row > config.getRows() ? 0 : row;
+            case "getMetaData":
+                return metaData;
+            case "getStatement":
+                return statement;
+            case "setFetchSize":
+                fetchSize = (Integer) args[0];
+                return null;
+            case "getFetchSize":
+                return fetchSize;
+            case "getType":
+                return ResultSet.TYPE_FORWARD_ONLY;
+            case "getConcurrency":
+                return ResultSet.CONCUR_READ_ONLY;
+            case "findColumn":
+                return findColumn((String) args[0]);
+            case "wasNull":
+                return false;
+            case "close":
+                closed = true;
+                return null;
+            case "isClosed":
+                return closed;
+            case "isWrapperFor":
+                return false;
+            case "unwrap":
+                throw new SQLFeatureNotSupportedException("unwrap");
+            case "toString":
+                return "StubResultSet@" + Integer.toHexString(System.identityHashCode(proxy));
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                if (name.startsWith("get") && args != null && args.length >= 1) {
+                    final int column = args[0] instanceof String ? findColumn((String) args[0]) : (Integer) args[0];
+                    return column(name, column);
+                }
+                return StubDriver.defaultValue(method.getReturnType());
+        }
+    }
+
+    private boolean next() throws SQLException {
+        if (closed) {
+            throw new SQLException("ResultSet is closed", "24000");
+        }
+        if (row > config.getRows()) {
+            return false;
+        }
+        row++;
+        if (row > config.getRows()) {
+            return false;
+        }
+        if ((row - 1) % Math.max(fetchSize, 1) == 0) {
+            statistics.fetches.incrementAndGet();
+            StubDriver.await(config.getFetchLatency().next(config), 0, cancelSignal);
+        }
+        statistics.rows.incrementAndGet();
+        return true;
+    }
+
+    private Object column(final String getter, final int column) throws SQLException {
+        if (row < 1 || row > config.getRows()) {
+            throw new SQLException("ResultSet is not positioned on a row", "24000");
+        }
+        if (column < 1 || column > config.getColumns()) {
+            throw new SQLException("Invalid column index " + column, "07009");
+        }
+        final JDBCType type = config.columnType(column);
+        final Object value = column == 1 ? (Object) row
+                : (constants[column] != null ? constants[column] : config.value(type, row));
+        switch (getter) {
+            case "getCharacterStream":
+            case "getNCharacterStream":
+                return new StringReader(value.toString());
+            case "getString":
+            case "getNString":
+                return value.toString();
+            case "getInt":
+                return ((Number) value).intValue();
+            case "getLong":
+                return ((Number) value).longValue();
+            default:
+                return value;
+        }
+    }
+
+    private int findColumn(final String name) throws SQLException {
+        for (int i = 1; i <= config.getColumns(); i++) {
+            if (config.columnName(i).equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        throw new SQLException("Unknown column " + name, "42S22");
+    }
+
+    private Object invokeMetaData(final Object proxy, final Method method, final Object[] args) {
+        switch (method.getName()) {
+            case "getColumnCount":
+                return config.getColumns();
+            case "getColumnName":
+            case "getColumnLabel":
+                return config.columnName((Integer) args[0]);
+            case "getColumnType":
+                return config.columnType((Integer) args[0]).getVendorTypeNumber();
+            case "getColumnTypeName":
+                return config.columnType((Integer) args[0]).getName();
+            case "getColumnClassName":
+                return config.value(config.columnType((Integer) args[0]), 0).getClass().getName();
+            case "isNullable":
+                return ResultSetMetaData.columnNullable;
+            case "toString":
+                return "StubResultSetMetaData@" + Integer.toHexString(System.identityHashCode(proxy));
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                return StubDriver.defaultValue(method.getReturnType());
+        }
+    }
+
+    private static boolean isCharacter(final JDBCType type) {
+        switch (type) {
+            case CHAR:
+            case VARCHAR:
+            case LONGVARCHAR:
+            case NCHAR:
+            case NVARCHAR:
+            case LONGNVARCHAR:
+            case CLOB:
+            case NCLOB:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package lab.nice.nifi.invoker.stub;
+
+import java.io.StringReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.JDBCType;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Stub JDBC CallableStatement. Execution waits for the configured latency and may fail by the configured
+ * failure injection, results are synthetic result sets and OUT parameters. An OUT parameter returns a value derived
+ * from the execution number, a REF_CURSOR OUT parameter returns a synthetic result set with the default fetch size,
+ * an INOUT parameter returns its bound IN value.
+ */
+final class StubStatement implements InvocationHandler {
+    private final Connection connection;
+    private final StubConfig config;
+    private final StubDriver.Statistics statistics;
+    private final Map<Integer, Object> parameters = new HashMap<>();
+    private final Map<Integer, JDBCType> outputs = new HashMap<>();
+    private volatile CountDownLatch cancelSignal = new CountDownLatch(1);
+    private int queryTimeout;
+    private int fetchSize;
+    private long execution;
+    private int currentResult;
+    private ResultSet resultSet;
+    private boolean closed;
+
+    private StubStatement(final Connection connection, final StubConfig config, final StubDriver.Statistics statistics) {
+        this.connection = connection;
+        this.config = config;
+        this.statistics = statistics;
+        this.fetchSize = config.getDefaultFetchSize();
+        this.currentResult = config.getResultSets();
+    }
+
+    static CallableStatement create(final Connection connection, final StubConfig config,
+                                    final StubDriver.Statistics statistics) {
+        return (CallableStatement) Proxy.newProxyInstance(StubStatement.class.getClassLoader(),
+                new Class<?>[]{CallableStatement.class}, new StubStatement(connection, config, statistics));
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        final String name = method.getName();
+        switch (name) {
+            case "execute":
+                execute();
+                return false;
+            case "executeQuery":
+                execute();
+                return nextResult(proxy) ? resultSet : null;
+            case "executeUpdate":
+                execute();
+                return 0;
+            case "getMoreResults":
+                return nextResult(proxy);
+            case "getResultSet":
+                return resultSet;
+            case "getUpdateCount":
+                return -1;
+            case "registerOutParameter":
+                outputs.put((Integer) args[0], JDBCType.valueOf((Integer) args[1]));
+                return null;
+            case "clearParameters":
+                parameters.clear();
+                return null;
+            case "setNull":
+                parameters.put((Integer) args[0], null);
+                return null;
+            case "cancel":
+                cancelSignal.countDown();
+                return null;
+            case "setQueryTimeout":
+                queryTimeout = (Integer) args[0];
+                return null;
+            case "getQueryTimeout":
+                return queryTimeout;
+            case "setFetchSize":
+                fetchSize = (Integer) args[0];
+                return null;
+            case "getFetchSize":
+                return fetchSize;
+            case "getConnection":
+                return connection;
+            case "wasNull":
+                return false;
+            case "close":
+                closeResultSet();
+                closed = true;
+                return null;
+            case "isClosed":
+                return closed;
+            case "isWrapperFor":
+                return false;
+            case "unwrap":
+                throw new SQLFeatureNotSupportedException("unwrap");
+            case "toString":
+                return "StubStatement@" + Integer.toHexString(System.identityHashCode(proxy));
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                    parameters.put((Integer) args[0], args[1]);
+                    return null;
+                }
+                if (name.startsWith("get") && args != null && args.length == 1 && args[0] instanceof Integer) {
+                    return output(proxy, name, (Integer) args[0]);
+                }
+                return StubDriver.defaultValue(method.getReturnType());
+        }
+    }
+
+    private void execute() throws SQLException {
+        if (closed) {
+            throw new SQLException("Statement is closed", "HY010");
+        }
+        closeResultSet();
+        execution = statistics.executions.incrementAndGet();
+        statistics.lastParameters = Collections.unmodifiableMap(new HashMap<>(parameters));
+        StubDriver.Statistics.increment(statistics.activeExecutions, statistics.maxActiveExecutions);
+        try {
+            // a cancel that arrived before the execution still cancels it, as the race of a real cancel would
+            StubDriver.await(config.getLatency().next(config), queryTimeout, cancelSignal);
+            if (config.nextFailure(execution)) {
+                statistics.failures.incrementAndGet();
+                throw new SQLException("Injected failure of execution " + execution, "58000");
+            }
+        } finally {
+            statistics.activeExecutions.decrementAndGet();
+            if (cancelSignal.getCount() == 0) {
+                cancelSignal = new CountDownLatch(1);
+            }
+        }
+        currentResult = -1;
+    }
+
+    private boolean nextResult(final Object proxy) throws SQLException {
+        closeResultSet();
+        if (currentResult < config.getResultSets()) {
+            currentResult++;
+        }
+        if (currentResult < config.getResultSets()) {
+            resultSet = StubResultSet.create((Statement) proxy, config, statistics, fetchSize, cancelSignal);
+            return true;
+        }
+        return false;
+    }
+
+    private void closeResultSet() throws SQLException {
+        if (resultSet != null) {
+            resultSet.close();
+            resultSet = null;
+        }
+    }
+
+    private Object output(final Object proxy, final String getter, final int index) throws SQLException {
+        final JDBCType type = outputs.get(index);
+        if (type == null) {
+            throw new SQLException("Parameter " + index + " is not registered as OUT parameter", "07009");
+        }
+        if (type == JDBCType.REF_CURSOR) {
+            return StubResultSet.create((Statement) proxy, config, statistics, config.getDefaultFetchSize(),
+                    cancelSignal);
+        }
+        final Object value = parameters.containsKey(index) ? parameters.get(index) : config.value(type, execution);
+        switch (getter) {
+            case "getCharacterStream":
+            case "getNCharacterStream":
+                return value == null ? null : new StringReader(value.toString());
+            case "getString":
+            case "getNString":
+                return value == null ? null : value.toString();
+            case "getInt":
+                return value == null ? 0 : ((Number) value).intValue();
+            case "getLong":
+                return value == null ? 0L : ((Number) value).longValue();
+            case "getBigDecimal":
+                return value == null ? null : new BigDecimal(value.toString());
+            default:
+                return value;
+        }
+    }
+}